@@ -0,0 +1,6 @@
+use tmc_services;
+
+-- 第4版: 延时事件的定时调度(tehang.event.relay.schedule-enabled=true)，按投递时间加载即将到期的延时记录
+
+alter table domain_event_record
+    add index idx_domain_event_record_status_deliver_time (status, start_deliver_time);
@@ -0,0 +1,6 @@
+use tmc_services;
+
+-- 第5版: 按依赖关系执行的聚合命令(CommandManager.queueCommandGraph)，记录依赖的命令的顺序号
+
+alter table command_record
+    add column depends_on varchar(500) null comment '依赖的命令的顺序号，逗号分隔，为null时依赖前一个命令' after seq_no;
@@ -0,0 +1,36 @@
+use tmc_services;
+
+-- 第6版(可选): 命令记录及历史表按create_time分区(tehang.message.cleanup.partition-enabled=true)，清理时直接删除过期分区
+-- 分区表的主键和唯一键必须包含分区列create_time，唯一键只在分区内保证唯一:
+--   domain_event_record 的 (event_type, event_key) 和 domain_event_consume_record 的 (event_key, event_type, subscriber_id)
+--   分别用于publishOnce去重和数据库幂等消费，分区后无法跨分区去重，因此这两张表不支持分区，清理时始终按批删除。
+-- 大表直接 alter table ... partition by 会重建整张表，建议按以下方式新建分区表后迁移数据并rename切换。
+-- 以下以按天分区为例，初始分区从当天开始，p_future为兜底分区，之后由清理任务预先创建分区。
+
+create table command_record_partitioned like command_record;
+
+alter table command_record_partitioned
+    drop primary key,
+    add primary key (id, create_time);
+
+alter table command_record_partitioned
+    partition by range columns (create_time) (
+        partition p20261018 values less than ('2026-10-19 00:00:00.000'),
+        partition p_future values less than (MAXVALUE)
+    );
+
+create table command_record_his_partitioned like command_record_his;
+
+alter table command_record_his_partitioned
+    drop primary key,
+    add primary key (id, create_time);
+
+alter table command_record_his_partitioned
+    partition by range columns (create_time) (
+        partition p20261018 values less than ('2026-10-19 00:00:00.000'),
+        partition p_future values less than (MAXVALUE)
+    );
+
+-- 迁移保留期内的数据后切换
+-- rename table command_record to command_record_old, command_record_partitioned to command_record,
+--              command_record_his to command_record_his_old, command_record_his_partitioned to command_record_his;
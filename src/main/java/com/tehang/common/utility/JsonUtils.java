@@ -9,6 +9,7 @@ import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.JsonDeserializer;
 import com.fasterxml.jackson.databind.JsonSerializer;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
 import com.fasterxml.jackson.databind.SerializationFeature;
 import com.fasterxml.jackson.databind.SerializerProvider;
 import com.tehang.common.infrastructure.exceptions.SystemErrorException;
@@ -66,6 +67,39 @@ public final class JsonUtils {
     }
   }
 
+  /**
+   * convert json string to bo, 使用预先创建的ObjectReader.
+   */
+  public static <T> T toClass(String json, ObjectReader reader) {
+    try {
+      return StringUtils.isBlank(json) ? null : reader.readValue(json);
+
+    }
+    catch (IOException ex) {
+      throw new SystemErrorException("toClass error: " + ex.getMessage(), ex);
+    }
+  }
+
+  /**
+   * convert json bytes to bo, 使用预先创建的ObjectReader, 直接从UTF-8字节反序列化.
+   */
+  public static <T> T toClass(byte[] json, ObjectReader reader) {
+    try {
+      return json == null || json.length == 0 ? null : reader.readValue(json);
+
+    }
+    catch (IOException ex) {
+      throw new SystemErrorException("toClass error: " + ex.getMessage(), ex);
+    }
+  }
+
+  /**
+   * 创建指定类型的ObjectReader, 可缓存后重复使用.
+   */
+  public static ObjectReader readerFor(Class<?> clazz) {
+    return MAPPER.readerFor(clazz);
+  }
+
   /**
    * convert json string to generic type.
    */
@@ -0,0 +1,92 @@
+package com.tehang.common.utility.db;
+
+import com.google.common.collect.Lists;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntFunction;
+import java.util.stream.Collectors;
+
+/**
+ * 多行insert语句的写入器：按chunkSize将多行数据分块，每块使用一条 insert into ... values (...), (...) 语句写入，
+ * 以减少与数据库的交互次数. 每行数据为列名到参数值的映射，缺少的列写入null.
+ */
+public final class MultiRowInsertWriter {
+
+  /** 默认每条insert语句写入的行数. */
+  public static final int DEFAULT_CHUNK_SIZE = 200;
+
+  private final String tableName;
+
+  private final List<String> columns;
+
+  private final int chunkSize;
+
+  public MultiRowInsertWriter(String tableName, List<String> columns) {
+    this(tableName, columns, DEFAULT_CHUNK_SIZE);
+  }
+
+  public MultiRowInsertWriter(String tableName, List<String> columns, int chunkSize) {
+    if (columns.isEmpty() || chunkSize <= 0) {
+      throw new IllegalArgumentException("columns不能为空, chunkSize必须大于0");
+    }
+    this.tableName = tableName;
+    this.columns = List.copyOf(columns);
+    this.chunkSize = chunkSize;
+  }
+
+  /**
+   * 写入多行数据.
+   * @return 写入的行数
+   */
+  public int insert(NamedParameterJdbcTemplate jdbcTemplate, List<Map<String, Object>> rows) {
+    return write(jdbcTemplate, rows, this::buildSql);
+  }
+
+  /**
+   * 写入多行数据，与已有数据主键或唯一键冲突的行保持不变(insert ... on duplicate key update keyColumn = keyColumn)，
+   * 与insert ignore不同，其他错误(如数据截断、非空列写入null)仍然抛出异常.
+   * 冲突行的影响行数随驱动的useAffectedRows配置而不同，不能据此判断哪些行被跳过，需要时按写入的主键查询.
+   * @param keyColumn 冲突时赋值为自身的列，通常为主键列
+   */
+  public void insertSkipDuplicate(NamedParameterJdbcTemplate jdbcTemplate, List<Map<String, Object>> rows, String keyColumn) {
+    write(jdbcTemplate, rows, rowCount -> buildSql(rowCount) + " on duplicate key update " + keyColumn + " = " + keyColumn);
+  }
+
+  private int write(NamedParameterJdbcTemplate jdbcTemplate, List<Map<String, Object>> rows, IntFunction<String> sqlBuilder) {
+    int count = 0;
+    for (List<Map<String, Object>> chunk : Lists.partition(rows, chunkSize)) {
+      Map<String, Object> params = new HashMap<>();
+      for (int i = 0; i < chunk.size(); i++) {
+        for (String column : columns) {
+          params.put(column + "_" + i, chunk.get(i).get(column));
+        }
+      }
+      count += jdbcTemplate.update(sqlBuilder.apply(chunk.size()), params);
+    }
+    return count;
+  }
+
+  /**
+   * 构建写入指定行数的insert语句，第i行的参数名为 列名_i.
+   */
+  String buildSql(int rowCount) {
+    StringBuilder sql = new StringBuilder("insert into ")
+        .append(tableName)
+        .append(" (")
+        .append(String.join(", ", columns))
+        .append(") values ");
+    for (int i = 0; i < rowCount; i++) {
+      int rowIndex = i;
+      if (i > 0) {
+        sql.append(", ");
+      }
+      sql.append('(')
+          .append(columns.stream().map(column -> ":" + column + "_" + rowIndex).collect(Collectors.joining(", ")))
+          .append(')');
+    }
+    return sql.toString();
+  }
+}
@@ -1,6 +1,8 @@
 package com.tehang.common.utility.event;
 
 import com.tehang.common.utility.ApplicationContextProvider;
+import com.tehang.common.utility.event.metrics.DomainEventMetrics;
+import com.tehang.common.utility.event.mq.BatchClusteringMqConsumer;
 import com.tehang.common.utility.event.mq.BroadcastingMqConsumer;
 import com.tehang.common.utility.event.mq.ClusteringMqConsumer;
 import com.tehang.common.utility.event.mq.MqConfig;
@@ -28,10 +30,12 @@ import java.lang.annotation.Target;
   MqProducer.class,
   EventPublisher.class,
   ClusteringMqConsumer.class,
+  BatchClusteringMqConsumer.class,
   BroadcastingMqConsumer.class,
   ApplicationContextProvider.class,
   DistributedLockFactory.class,
-  CommonRedisOperator.class
+  CommonRedisOperator.class,
+  DomainEventMetrics.class
 })
 public @interface EnableDomainEvent {
 
@@ -4,10 +4,16 @@ import com.tehang.common.utility.ApplicationContextProvider;
 import com.tehang.common.utility.event.cleanup.MessageRecordCleanupConfiguration;
 import com.tehang.common.utility.event.consume.DomainEventConsumeRecordJdbcRepository;
 import com.tehang.common.utility.event.consume.DomainEventConsumeService;
+import com.tehang.common.utility.event.metrics.DomainEventMetrics;
+import com.tehang.common.utility.event.mq.BatchClusteringMqConsumer;
 import com.tehang.common.utility.event.mq.BroadcastingMqConsumer;
 import com.tehang.common.utility.event.mq.ClusteringMqConsumer;
 import com.tehang.common.utility.event.mq.MqConfig;
 import com.tehang.common.utility.event.mq.MqProducer;
+import com.tehang.common.utility.event.publish.DomainEventImmediateRelay;
+import com.tehang.common.utility.event.publish.DomainEventRelayConfiguration;
+import com.tehang.common.utility.event.publish.DomainEventRelayPartitionManager;
+import com.tehang.common.utility.event.publish.DomainEventScheduledRelay;
 import com.tehang.common.utility.event.publish.EventPublisher;
 import com.tehang.common.utility.event.publish.SendDomainEventRecordsToMqService;
 import com.tehang.common.utility.event.publish.SendEventMessageTask;
@@ -41,19 +47,31 @@ import java.lang.annotation.Target;
  *   `event_type`         varchar(100) not null    comment '事件类型，和mq中的tag保持一致(tag可能包含前缀，但eventType字段并不包含前缀)',
  *   `topic`              varchar(30)  null        comment '事件对应的mq的topic，为空时取mq配置的默认topic',
  *   `publisher`          varchar(200) null        comment '事件发布者(对应于mq中的groupId)',
- *   `start_deliver_time` varchar(23)  null        comment '设置消息的延时投递时间（绝对时间),最大延迟时间为7天',
+ *   `start_deliver_time` varchar(23)  null        comment '设置消息的延时投递时间（绝对时间)',
  *   `trace_id`           varchar(200) null        comment '发布事件所在的TraceId',
  *   `body`               text         null        comment '事件发送的消息body',
  *   `status`             varchar(30)  not null    comment '事件的发送状态',
  *   `publish_time`       varchar(23)  null        comment '事件发布时间，指实际发送到mq的时间',
  *   `count`              int(11)      not null    comment '实际发送的次数，初始为0',
+ *   `owner_token`        varchar(50)  null        comment '批量中继时认领该记录的批次令牌',
+ *   `lease_expire_time`  varchar(23)  null        comment '批量中继时认领的租约到期时间',
  *   `create_time`        varchar(23)  not null    comment '创建时间',
  *   `update_time`        varchar(23)  not null    comment '更新时间',
  *   primary key (`id`),
  *   unique key uk_domain_event_record_type_key(event_type, event_key),
  *   index idx_domain_event_record_status(status),
- *   index idx_domain_event_record_status_create_time(status, create_time)
+ *   index idx_domain_event_record_status_create_time(status, create_time),
+ *   index idx_domain_event_record_owner_token(owner_token),
+ *   index idx_domain_event_record_status_deliver_time(status, start_deliver_time)
  * ) engine = innodb default charset = utf8mb4 comment = '领域事件记录表';
+ * -- 已有的领域事件记录表，启用批量中继模式(tehang.event.relay.batch-enabled=true)前需执行：
+ * alter table `domain_event_record`
+ *   add column `owner_token`       varchar(50) null comment '批量中继时认领该记录的批次令牌',
+ *   add column `lease_expire_time` varchar(23) null comment '批量中继时认领的租约到期时间',
+ *   add index idx_domain_event_record_owner_token(owner_token);
+ * -- 已有的领域事件记录表，启用延时事件的定时调度(tehang.event.relay.schedule-enabled=true)前需执行：
+ * alter table `domain_event_record`
+ *   add index idx_domain_event_record_status_deliver_time(status, start_deliver_time);
  * -- 领域事件消费记录表，仅数据库幂等订阅者需要
  * create table if not exists `domain_event_consume_record`
  * (
@@ -81,6 +99,7 @@ import java.lang.annotation.Target;
   MqProducer.class,
   EventPublisher.class,
   ClusteringMqConsumer.class,
+  BatchClusteringMqConsumer.class,
   BroadcastingMqConsumer.class,
   ApplicationContextProvider.class,
   DistributedLockFactory.class,
@@ -91,7 +110,12 @@ import java.lang.annotation.Target;
   DomainEventRecordJdbcRepository.class,
   DomainEventConsumeRecordJdbcRepository.class,
   DomainEventConsumeService.class,
-  MessageRecordCleanupConfiguration.class
+  MessageRecordCleanupConfiguration.class,
+  DomainEventRelayConfiguration.class,
+  DomainEventImmediateRelay.class,
+  DomainEventScheduledRelay.class,
+  DomainEventRelayPartitionManager.class,
+  DomainEventMetrics.class
 })
 public @interface EnableTransactionalDomainEvent {
 
@@ -0,0 +1,73 @@
+package com.tehang.common.utility.event.cache;
+
+import com.tehang.common.utility.event.DomainEvent;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * 缓存变更事件，携带发生变更的缓存key，以支持RefreshableMapCache的增量刷新.
+ * 不携带变更key的事件等同于DefaultEvent，订阅的缓存将全量刷新.
+ */
+@Getter
+@Setter
+public class CacheChangedEvent extends DomainEvent {
+
+  /** 新增或修改的缓存key */
+  private List<String> upsertKeys = new ArrayList<>();
+
+  /** 删除的缓存key */
+  private List<String> deletedKeys = new ArrayList<>();
+
+  /**
+   * 变更的版本号，由发布方维护，每次变更加1，可以为空。
+   * 缓存接收到的版本号不连续时(即丢失了中间的变更)，将全量刷新.
+   */
+  private Long version;
+
+  /**
+   * 默认构造函数.
+   */
+  public CacheChangedEvent() {
+    // do nothing
+  }
+
+  /**
+   * 通过EventType构造实例，key取uuid.
+   */
+  public CacheChangedEvent(String eventType) {
+    super(eventType);
+  }
+
+  /**
+   * 创建新增或修改缓存项的变更事件.
+   */
+  public static CacheChangedEvent upsert(String eventType, Collection<String> keys) {
+    var event = new CacheChangedEvent(eventType);
+    event.upsertKeys.addAll(keys);
+    return event;
+  }
+
+  /**
+   * 创建删除缓存项的变更事件.
+   */
+  public static CacheChangedEvent delete(String eventType, Collection<String> keys) {
+    var event = new CacheChangedEvent(eventType);
+    event.deletedKeys.addAll(keys);
+    return event;
+  }
+
+  /**
+   * 变更的key的数量.
+   */
+  public int changedKeyCount() {
+    return sizeOf(upsertKeys) + sizeOf(deletedKeys);
+  }
+
+  private static int sizeOf(List<String> keys) {
+    return keys == null ? 0 : keys.size();
+  }
+}
@@ -5,44 +5,52 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
+import static com.tehang.common.utility.CollectionUtils.emptyIfNull;
+
 /**
  * 可动态刷新的内存缓存，缓存采用HashMap数据结构，并且会订阅相应的事件进行缓存刷新.
+ * 读取缓存不加锁，直接读取不可变的快照；刷新时在后台构建新的快照并原子替换，重新加载期间仍返回旧数据.
+ * 子类开启isDeltaRefreshSupported()后，可通过CacheChangedEvent只重新加载发生变更的数据项，建议同时重写getDataItemsByKeys()按key查询.
  */
 public abstract class RefreshableMapCache<T> implements RefreshableCache {
 
   private static final Logger LOG = LoggerFactory.getLogger(RefreshableMapCache.class);
 
-  // 内存中的缓存数据，Map类型
-  private Map<String, T> cacheItemsMap = null;
+  /** 默认的最大增量刷新数量，超过后全量刷新 */
+  private static final int DEFAULT_MAX_DELTA_SIZE = 200;
+
+  /** 尚未收到携带版本号的变更事件 */
+  private static final long NO_VERSION = Long.MIN_VALUE;
+
+  // 已收到的变更事件的最大版本号，全量加载时作为快照的版本号
+  private final AtomicLong latestEventVersion = new AtomicLong(NO_VERSION);
 
-  private final Object lock = new Object();
+  // 内存中的缓存数据，不可变的快照
+  private final RefreshableSnapshot<MapSnapshot<T>> snapshot = new RefreshableSnapshot<>(this::loadSnapshot);
 
   /**
    * 根据key值获取缓存的数据项.
    */
   public final T getDataItem(String key) {
-    synchronized (lock) {
-      ensureDataItemsLoaded();
-
-      var result = cacheItemsMap.get(key);
-      LOG.trace("Exit getItem, item: {}", result);
-      return result;
-    }
+    var result = snapshot.get().itemsMap.get(key);
+    LOG.trace("Exit getItem, item: {}", result);
+    return result;
   }
 
   /**
-   * 获取所有缓存的数据项.
+   * 获取所有缓存的数据项, 返回的列表不可修改.
    */
   public final List<T> getAllDataItems() {
-    synchronized (lock) {
-      ensureDataItemsLoaded();
-      return new ArrayList<>(cacheItemsMap.values());
-    }
+    return snapshot.get().items;
   }
 
   /**
@@ -56,29 +64,137 @@ public abstract class RefreshableMapCache<T> implements RefreshableCache {
   protected abstract List<T> getDataItemsActually();
 
   /**
-   * 刷新缓存.
+   * 是否支持增量刷新, 默认不支持，收到任何刷新事件都全量刷新.
+   */
+  protected boolean isDeltaRefreshSupported() {
+    return false;
+  }
+
+  /**
+   * 根据key值获取实际数据，用于增量刷新. 不存在的key不需要返回，对应的缓存项将被移除.
+   * 默认从全量数据中筛选，开销与全量刷新相同，支持增量刷新的子类应按key查询.
+   */
+  protected List<T> getDataItemsByKeys(Collection<String> keys) {
+    return getDataItemsActually().stream()
+        .filter(item -> keys.contains(getCacheKey(item)))
+        .collect(Collectors.toList());
+  }
+
+  /**
+   * 获取数据源当前的版本号，全量加载前调用，用于检测之后的增量变更是否连续. 默认为空，使用已收到的变更事件的最大版本号.
+   */
+  protected Long getDataVersionActually() {
+    return null;
+  }
+
+  /**
+   * 单次增量刷新的最大key数量, 超过后全量刷新.
+   */
+  protected int maxDeltaSize() {
+    return DEFAULT_MAX_DELTA_SIZE;
+  }
+
+  /**
+   * 支持增量刷新时，使用CacheChangedEvent反序列化事件参数.
+   */
+  @Override
+  public Class<? extends DomainEvent> getEventClass() {
+    return isDeltaRefreshSupported() ? CacheChangedEvent.class : RefreshableCache.super.getEventClass();
+  }
+
+  /**
+   * 刷新缓存. 事件携带变更的key且满足增量刷新条件时只刷新变更的数据项，否则全量刷新.
    */
   @Override
   public void refresh(DomainEvent event) {
-    synchronized (lock) {
-      cacheItemsMap = null;
+    if (event instanceof CacheChangedEvent && ((CacheChangedEvent) event).getVersion() != null) {
+      latestEventVersion.accumulateAndGet(((CacheChangedEvent) event).getVersion(), Math::max);
+    }
+    if (isDeltaApplicable(event) && refreshDelta((CacheChangedEvent) event)) {
+      return;
+    }
 
-      if (fetchType() == CacheDataFetchType.EAGER) {
-        ensureDataItemsLoaded();
-      }
-      LOG.trace("cache refreshed, cache class: {}", this.getClass().getSimpleName());
+    snapshot.invalidate();
+
+    if (fetchType() == CacheDataFetchType.EAGER) {
+      snapshot.reloadIfStale();
+    }
+    LOG.trace("cache refreshed, cache class: {}", this.getClass().getSimpleName());
+  }
+
+  private boolean isDeltaApplicable(DomainEvent event) {
+    if (!isDeltaRefreshSupported() || !(event instanceof CacheChangedEvent)) {
+      return false;
     }
+    int changedKeyCount = ((CacheChangedEvent) event).changedKeyCount();
+    return changedKeyCount > 0 && changedKeyCount <= maxDeltaSize();
   }
 
-  private void ensureDataItemsLoaded() {
-    if (cacheItemsMap == null) {
-      LOG.debug("starting load cache data");
+  private boolean refreshDelta(CacheChangedEvent event) {
+    boolean refreshed = snapshot.update(current -> current.applyDelta(event, this::getDataItemsByKeys, this::getCacheKey));
+    if (refreshed) {
+      LOG.trace("cache delta refreshed, cache class: {}, changed: {}", getClass().getSimpleName(), event.changedKeyCount());
+    }
+    return refreshed;
+  }
 
-      List<T> dataItems = getDataItemsActually();
-      cacheItemsMap = dataItems.stream().collect(Collectors.toMap(this::getCacheKey, Function.identity(), (v1, v2) -> v1));
+  private MapSnapshot<T> loadSnapshot() {
+    LOG.debug("starting load cache data");
 
-      LOG.debug("cache data loaded, size: {}", dataItems.size());
+    // 先取版本号再加载数据，加载的数据不早于该版本
+    Long dataVersion = getDataVersionActually();
+    if (dataVersion == null && latestEventVersion.get() != NO_VERSION) {
+      dataVersion = latestEventVersion.get();
     }
+    List<T> dataItems = getDataItemsActually();
+    Map<String, T> itemsMap = dataItems.stream().collect(Collectors.toMap(this::getCacheKey, Function.identity(), (v1, v2) -> v1));
+
+    LOG.debug("cache data loaded, size: {}", dataItems.size());
+    return new MapSnapshot<>(itemsMap, dataVersion);
   }
 
+  private static final class MapSnapshot<T> {
+    private final Map<String, T> itemsMap;
+    private final List<T> items;
+
+    /** 快照数据的版本号, 数据源及变更事件均无版本号时为空 */
+    private final Long dataVersion;
+
+    MapSnapshot(Map<String, T> itemsMap, Long dataVersion) {
+      this.itemsMap = Collections.unmodifiableMap(itemsMap);
+      this.items = Collections.unmodifiableList(new ArrayList<>(itemsMap.values()));
+      this.dataVersion = dataVersion;
+    }
+
+    /**
+     * 在当前快照的基础上应用增量变更，返回新的快照；版本号不连续时返回null，表示需要全量刷新.
+     */
+    MapSnapshot<T> applyDelta(CacheChangedEvent event, Function<Collection<String>, List<T>> loader, Function<T, String> keyGetter) {
+      Long version = event.getVersion();
+      if (version != null && dataVersion != null) {
+        if (version <= dataVersion) {
+          // 重复或过期的变更，保持当前快照
+          LOG.debug("cache delta ignored, version: {}, current version: {}", version, dataVersion);
+          return this;
+        }
+        if (version > dataVersion + 1) {
+          LOG.debug("cache delta version gap, version: {}, current version: {}", version, dataVersion);
+          return null;
+        }
+      }
+
+      Map<String, T> newItemsMap = new HashMap<>(itemsMap);
+      emptyIfNull(event.getDeletedKeys()).forEach(newItemsMap::remove);
+
+      Collection<String> upsertKeys = emptyIfNull(event.getUpsertKeys());
+      if (!upsertKeys.isEmpty()) {
+        // 先移除再放入，数据源中已不存在的key随之从缓存中移除
+        upsertKeys.forEach(newItemsMap::remove);
+        for (T item : loader.apply(upsertKeys)) {
+          newItemsMap.putIfAbsent(keyGetter.apply(item), item);
+        }
+      }
+      return new MapSnapshot<>(newItemsMap, version != null ? version : dataVersion);
+    }
+  }
 }
@@ -6,24 +6,20 @@ import org.slf4j.LoggerFactory;
 
 /**
  * 可动态刷新的内存缓存，直接将指定的数据对象缓存在内存中，并且会订阅相应的事件进行缓存刷新.
+ * 读取缓存不加锁；刷新时重新加载数据后原子替换，重新加载期间仍返回旧数据.
  */
 public abstract class RefreshableObjectCache<T> implements RefreshableCache {
 
   private static final Logger LOG = LoggerFactory.getLogger(RefreshableObjectCache.class);
 
   // 内存中的缓存数据
-  private T data = null;
-
-  private final Object lock = new Object();
+  private final RefreshableSnapshot<T> snapshot = new RefreshableSnapshot<>(this::loadData);
 
   /**
    * 获取缓存的数据，初次调用时将引发加载数据的操作.
    */
   protected final T getCachedData() {
-    synchronized (lock) {
-      ensureDataItemsLoaded();
-      return data;
-    }
+    return snapshot.get();
   }
 
   /**
@@ -36,22 +32,18 @@ public abstract class RefreshableObjectCache<T> implements RefreshableCache {
    */
   @Override
   public void refresh(DomainEvent event) {
-    synchronized (lock) {
-      data = null;
+    snapshot.invalidate();
 
-      if (fetchType() == CacheDataFetchType.EAGER) {
-        ensureDataItemsLoaded();
-      }
-      LOG.debug("cache refreshed, cache class: {}", getClass().getSimpleName());
+    if (fetchType() == CacheDataFetchType.EAGER) {
+      snapshot.reloadIfStale();
     }
+    LOG.debug("cache refreshed, cache class: {}", getClass().getSimpleName());
   }
 
-  private void ensureDataItemsLoaded() {
-    if (data == null) {
-      LOG.debug("starting load cache data");
-      data = getDataActually();
-      LOG.debug("cache data loaded");
-    }
+  private T loadData() {
+    LOG.debug("starting load cache data");
+    T data = getDataActually();
+    LOG.debug("cache data loaded");
+    return data;
   }
-
 }
@@ -0,0 +1,124 @@
+package com.tehang.common.utility.event.cache;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+
+/**
+ * 可刷新缓存的不可变快照持有者：读操作只读取volatile快照，不加锁；加载操作是单飞的(同一时刻只有一个线程加载)。
+ * 刷新时只标记快照过期，重新加载期间仍然返回旧快照，新快照构建完成后原子替换.
+ */
+final class RefreshableSnapshot<S> {
+
+  private final Supplier<S> loader;
+
+  /** 加载锁，保证同一时刻只有一个线程执行加载 */
+  private final ReentrantLock loadLock = new ReentrantLock();
+
+  /** 请求的版本号，每次刷新加1 */
+  private final AtomicLong requestedVersion = new AtomicLong();
+
+  private volatile Versioned<S> current;
+
+  RefreshableSnapshot(Supplier<S> loader) {
+    this.loader = loader;
+  }
+
+  /**
+   * 获取当前快照。尚未加载时阻塞等待加载完成；快照已过期时，由一个线程重新加载，其他线程直接返回旧快照.
+   */
+  S get() {
+    Versioned<S> snapshot = current;
+    if (snapshot == null) {
+      return loadBlocking();
+    }
+    if (snapshot.version < requestedVersion.get()) {
+      reloadIfStale();
+      return current.value;
+    }
+    return snapshot.value;
+  }
+
+  /**
+   * 标记快照过期，下次读取或调用reloadIfStale()时重新加载.
+   */
+  void invalidate() {
+    requestedVersion.incrementAndGet();
+  }
+
+  /**
+   * 快照过期时重新加载，已有其他线程在加载时直接返回。
+   * 加载期间发生的刷新，会在当前加载完成后由持有锁的线程再次加载，刷新不会丢失，并发的多次刷新也只会合并成一次加载.
+   */
+  void reloadIfStale() {
+    while (isStale() && loadLock.tryLock()) {
+      try {
+        if (isStale()) {
+          load();
+        }
+      }
+      finally {
+        loadLock.unlock();
+      }
+    }
+  }
+
+  /**
+   * 在当前快照的基础上构建新快照并原子替换，用于增量刷新.
+   * 尚未加载或快照已过期(将全量加载)时不做处理; updater返回null表示无法增量更新，也不做处理.
+   * @return 是否已更新
+   */
+  boolean update(UnaryOperator<S> updater) {
+    loadLock.lock();
+    try {
+      if (isStale()) {
+        return false;
+      }
+      Versioned<S> snapshot = current;
+      S updated = updater.apply(snapshot.value);
+      if (updated == null) {
+        return false;
+      }
+      current = new Versioned<>(updated, snapshot.version);
+      return true;
+    }
+    finally {
+      loadLock.unlock();
+    }
+  }
+
+  private S loadBlocking() {
+    loadLock.lock();
+    try {
+      if (current == null) {
+        load();
+      }
+      return current.value;
+    }
+    finally {
+      loadLock.unlock();
+    }
+  }
+
+  private boolean isStale() {
+    Versioned<S> snapshot = current;
+    return snapshot == null || snapshot.version < requestedVersion.get();
+  }
+
+  private void load() {
+    // 先取版本号再加载，加载期间的刷新会使新快照仍处于过期状态
+    long version = requestedVersion.get();
+    current = new Versioned<>(loader.get(), version);
+  }
+
+  private static final class Versioned<S> {
+    private final S value;
+    private final long version;
+
+    Versioned(S value, long version) {
+      this.value = value;
+      this.version = version;
+    }
+  }
+}
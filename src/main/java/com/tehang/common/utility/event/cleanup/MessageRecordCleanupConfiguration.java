@@ -1,18 +1,21 @@
 package com.tehang.common.utility.event.cleanup;
 
+import com.tehang.common.utility.redis.CommonRedisOperator;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Import;
 
 /**
- * 消息记录清理组件配置.
+ * 消息记录清理组件配置. 键集删除的游标保存在redis中，单独启用清理时同样导入CommonRedisOperator.
  */
 @Configuration
 @ConditionalOnProperty(prefix = "tehang.message.cleanup", name = "enabled", havingValue = "true")
 @EnableConfigurationProperties(MessageRecordCleanupProperties.class)
 @Import({
+    CommonRedisOperator.class,
     MessageRecordCleanupJdbcRepository.class,
+    MessageRecordPartitionJdbcRepository.class,
     MessageRecordCleanupService.class,
     MessageRecordCleanupTask.class
 })
@@ -0,0 +1,43 @@
+package com.tehang.common.utility.event.cleanup;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import static org.apache.commons.lang3.StringUtils.substringAfter;
+import static org.apache.commons.lang3.StringUtils.substringBefore;
+
+/**
+ * 按键集(create_time, id)分批删除时的游标：下一批从大于该位置的记录开始.
+ */
+@Getter
+@Setter
+public class MessageRecordCleanupCursor {
+
+  private static final String SEPARATOR = "|";
+
+  /** 起始游标，小于所有记录. */
+  static final MessageRecordCleanupCursor START = of("", "");
+
+  /** 已删除的最后一条记录的创建时间. */
+  private String createTime;
+
+  /** 已删除的最后一条记录的id. */
+  private String id;
+
+  public static MessageRecordCleanupCursor of(String createTime, String id) {
+    var result = new MessageRecordCleanupCursor();
+    result.createTime = createTime;
+    result.id = id;
+    return result;
+  }
+
+  /** 解析保存在redis中的游标. */
+  static MessageRecordCleanupCursor parse(String value) {
+    return of(substringBefore(value, SEPARATOR), substringAfter(value, SEPARATOR));
+  }
+
+  /** 转换为保存在redis中的值. */
+  String format() {
+    return createTime + SEPARATOR + id;
+  }
+}
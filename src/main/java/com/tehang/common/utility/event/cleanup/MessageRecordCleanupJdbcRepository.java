@@ -22,35 +22,52 @@ public class MessageRecordCleanupJdbcRepository {
 
   private static final String EVENT_KEYS = "event_keys";
 
-  private final NamedParameterJdbcTemplate jdbcTemplate;
+  private static final String STATUS = "status";
 
-  /** 分批删除已完成的过期事件记录. */
-  public int deleteEventRecordsBefore(BjTime cutoffTime, int batchSize) {
-    String sql = "delete from domain_event_record "
-        + "where status in ('SendSuccess', 'SendFailed') "
-        + "  and create_time < :cutoff_time "
-        + "order by create_time "
-        + "limit :batch_size ";
-    return jdbcTemplate.update(sql, getBatchParams(cutoffTime, batchSize));
-  }
+  private static final String CURSOR_TIME = "cursor_time";
 
-  /** 分批删除已成功的过期消费记录. */
-  public int deleteConsumeRecordsBefore(BjTime cutoffTime, int batchSize) {
-    String sql = "delete from domain_event_consume_record "
-        + "where status = 'Success' "
-        + "  and create_time < :cutoff_time "
-        + "order by create_time "
+  private static final String CURSOR_ID = "cursor_id";
+
+  private static final String IDS = "ids";
+
+  private final NamedParameterJdbcTemplate jdbcTemplate;
+
+  /**
+   * 按(create_time, id)键集查询游标之后的一批过期记录的键，按键集顺序返回.
+   * 通过(status, create_time)或(create_time)索引范围扫描，不会重复扫描此前已删除的记录.
+   * @param tableName 表名，仅限消息记录表
+   * @param status 记录的状态，为null表示不区分状态
+   */
+  public List<MessageRecordCleanupCursor> findExpiredKeysAfter(String tableName, String status, BjTime cutoffTime,
+                                                               MessageRecordCleanupCursor cursor, int batchSize) {
+    String sql = "select id, create_time from " + tableName + " "
+        + "where " + getStatusCondition(status)
+        + "  create_time < :cutoff_time "
+        + "  and create_time >= :cursor_time "
+        + "  and (create_time > :cursor_time or id > :cursor_id) "
+        + "order by create_time, id "
         + "limit :batch_size ";
-    return jdbcTemplate.update(sql, getBatchParams(cutoffTime, batchSize));
+    Map<String, Object> params = getBatchParams(cutoffTime, batchSize);
+    params.put(STATUS, status);
+    params.put(CURSOR_TIME, cursor.getCreateTime());
+    params.put(CURSOR_ID, cursor.getId());
+    return jdbcTemplate.query(sql, params,
+        (rs, rowNum) -> MessageRecordCleanupCursor.of(rs.getString("create_time"), rs.getString("id")));
   }
 
-  /** 分批删除过期命令历史. */
-  public int deleteCommandHistoryBefore(BjTime cutoffTime, int batchSize) {
-    String sql = "delete from command_record_his "
-        + "where create_time < :cutoff_time "
-        + "order by create_time "
-        + "limit :batch_size ";
-    return jdbcTemplate.update(sql, getBatchParams(cutoffTime, batchSize));
+  /**
+   * 按id删除过期记录，删除时重新判断状态及截止时间.
+   * @param status 记录的状态，为null表示不区分状态
+   */
+  public int deleteByIds(String tableName, String status, BjTime cutoffTime, List<String> ids) {
+    String sql = "delete from " + tableName + " "
+        + "where " + getStatusCondition(status)
+        + "  create_time < :cutoff_time "
+        + "  and id in (:ids) ";
+    Map<String, Object> params = getCutoffTimeParam(cutoffTime);
+    params.put(STATUS, status);
+    params.put(IDS, ids);
+    return jdbcTemplate.update(sql, params);
   }
 
   /** 查询可整组清理的过期命令事件key. */
@@ -101,6 +118,10 @@ public class MessageRecordCleanupJdbcRepository {
     return result == null ? 0L : result;
   }
 
+  private static String getStatusCondition(String status) {
+    return status == null ? "" : "status = :status and ";
+  }
+
   private static Map<String, Object> getBatchParams(BjTime cutoffTime, int batchSize) {
     Map<String, Object> params = getCutoffTimeParam(cutoffTime);
     params.put(BATCH_SIZE, batchSize);
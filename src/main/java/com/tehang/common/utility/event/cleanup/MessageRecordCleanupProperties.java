@@ -16,12 +16,27 @@ public class MessageRecordCleanupProperties {
   /** 数据保留月数. */
   private int retentionMonths = 3;
 
-  /** 每批清理数量. */
+  /** 每批清理的初始数量，之后按语句耗时在minBatchSize与maxBatchSize之间调整. */
   private int batchSize = 1000;
 
+  /** 每批清理的最小数量. */
+  private int minBatchSize = 100;
+
+  /** 每批清理的最大数量. */
+  private int maxBatchSize = 5000;
+
+  /** 每批查询及删除语句的目标耗时(毫秒)，超过时减小批次并在批次之间休眠. */
+  private long targetBatchMillis = 200;
+
+  /** 每类数据每秒最多删除的记录数，0表示不限制. */
+  private int maxRowsPerSecond = 5000;
+
   /** 单次任务每类数据的最大清理批次数. */
   private int maxBatchesPerRun = 50;
 
+  /** 单次任务的最长运行秒数，需小于任务分布式锁的过期时间(30分钟)，未清理完的数据下次从游标处继续. */
+  private long maxRunSeconds = 1500;
+
   /** 清理任务cron表达式. */
   private String cron = "0 30 3 * * ?";
 
@@ -33,4 +48,20 @@ public class MessageRecordCleanupProperties {
 
   /** 是否清理命令记录及历史. */
   private boolean commandRecordEnabled;
+
+  /**
+   * 是否启用分区清理: 对已按create_time分区(range columns)的命令记录及历史表，预先创建分区，
+   * 并直接删除其中命令组都已过期的过期分区. 未分区的表及含有未过期命令组的过期分区仍按批删除.
+   * 事件记录和消费记录表的唯一键用于发布去重和消费幂等，分区后只在分区内唯一，始终按批删除.
+   */
+  private boolean partitionEnabled;
+
+  /** 分区的时间间隔: DAY(按天)或MONTH(按月)，需与建表时的分区一致. */
+  private MessageRecordPartitionInterval partitionInterval = MessageRecordPartitionInterval.DAY;
+
+  /** 预先创建的分区数量(不含当前分区)，清理任务连续失败不超过该数量的间隔时，新记录仍写入对应的分区. */
+  private int partitionsAhead = 7;
+
+  /** 创建及删除分区时等待表的元数据锁的最长秒数，超时时跳过本次分区操作，避免长时间阻塞该表的读写. */
+  private int partitionLockWaitSeconds = 5;
 }
@@ -2,8 +2,11 @@ package com.tehang.common.utility.event.cleanup;
 
 import lombok.Getter;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
- * 消息记录清理结果.
+ * 消息记录清理结果. 各表并发清理，累加方法需同步.
  */
 @Getter
 public class MessageRecordCleanupResult {
@@ -24,35 +27,58 @@ public class MessageRecordCleanupResult {
 
   private int commandHistoryBatchCount;
 
-  void addEventRecordCount(int count) {
+  private int partitionCreatedCount;
+
+  private int partitionDroppedCount;
+
+  private final List<MessageRecordTableCleanupStats> tableStats = new ArrayList<>();
+
+  /** 各表(或各状态的记录)的清理统计，含删除速度及延迟. */
+  public synchronized List<MessageRecordTableCleanupStats> getTableStats() {
+    return List.copyOf(tableStats);
+  }
+
+  synchronized void addTableStats(MessageRecordTableCleanupStats stats) {
+    tableStats.add(stats);
+  }
+
+  synchronized void addEventRecordCount(int count) {
     eventRecordCount += count;
   }
 
-  void addEventRecordBatchCount(int count) {
+  synchronized void addEventRecordBatchCount(int count) {
     eventRecordBatchCount += count;
   }
 
-  void addConsumeRecordCount(int count) {
+  synchronized void addConsumeRecordCount(int count) {
     consumeRecordCount += count;
   }
 
-  void addConsumeRecordBatchCount(int count) {
+  synchronized void addConsumeRecordBatchCount(int count) {
     consumeRecordBatchCount += count;
   }
 
-  void addCommandRecordCount(int count) {
+  synchronized void addCommandRecordCount(int count) {
     commandRecordCount += count;
   }
 
-  void addCommandRecordBatchCount(int count) {
+  synchronized void addCommandRecordBatchCount(int count) {
     commandRecordBatchCount += count;
   }
 
-  void addCommandHistoryCount(int count) {
+  synchronized void addCommandHistoryCount(int count) {
     commandHistoryCount += count;
   }
 
-  void addCommandHistoryBatchCount(int count) {
+  synchronized void addCommandHistoryBatchCount(int count) {
     commandHistoryBatchCount += count;
   }
+
+  synchronized void addPartitionCreatedCount(int count) {
+    partitionCreatedCount += count;
+  }
+
+  synchronized void addPartitionDroppedCount(int count) {
+    partitionDroppedCount += count;
+  }
 }
@@ -1,60 +1,182 @@
 package com.tehang.common.utility.event.cleanup;
 
+import com.tehang.common.utility.redis.CommonRedisOperator;
+import com.tehang.common.utility.time.BjDateTime;
 import com.tehang.common.utility.time.BjTime;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.CannotAcquireLockException;
 import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.support.TransactionTemplate;
 
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.function.IntSupplier;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 
 /**
  * 消息记录清理服务.
+ * 默认按(create_time, id)键集分批删除过期记录，按语句耗时自适应调整批次大小并限流，各表并发清理;
+ * 启用分区清理时，已按create_time分区的命令记录及历史表直接删除过期分区.
  */
 @Slf4j
+@SuppressWarnings("PMD.DoNotUseThreads")
 public class MessageRecordCleanupService {
 
+  private static final String EVENT_RECORD_TABLE = "domain_event_record";
+
+  private static final String CONSUME_RECORD_TABLE = "domain_event_consume_record";
+
+  private static final String COMMAND_RECORD_TABLE = "command_record";
+
+  private static final String COMMAND_HISTORY_TABLE = "command_record_his";
+
+  // 分区清理只用于没有唯一键的命令记录及历史表; 事件记录和消费记录表的唯一键用于发布去重和消费幂等，分区后只在分区内唯一
+  private static final List<String> PARTITIONED_TABLES = List.of(COMMAND_RECORD_TABLE, COMMAND_HISTORY_TABLE);
+
+  // 命令记录的分区中存在这些记录时不能删除分区，同按组删除的条件：命令组中存在未过期的命令. 命令历史同按批删除，只按时间删除
+  private static final String COMMAND_RECORD_IN_RETAINED_GROUP = "exists (select 1 from command_record retained "
+      + "where retained.event_key = command_record.event_key and retained.create_time >= :cutoff_time)";
+
+  // 可删除的记录状态
+  private static final List<String> EVENT_RECORD_TERMINAL_STATUSES = List.of("SendSuccess", "SendFailed");
+
+  private static final String CONSUME_RECORD_SUCCESS = "Success";
+
+  // 键集删除的游标保存在redis中，过期后从头开始
+  private static final String CURSOR_KEY_PREFIX = "MessageRecordCleanup:cursor:";
+
+  private static final long CURSOR_EXPIRED_DAYS = 7;
+
+  // 分区的上界为分区起始日期的零点
+  private static final String PARTITION_BOUND_TIME = " 00:00:00.000";
+
   private final MessageRecordCleanupProperties properties;
 
   private final MessageRecordCleanupJdbcRepository cleanupRepository;
 
+  private final MessageRecordPartitionJdbcRepository partitionRepository;
+
   private final TransactionTemplate transactionTemplate;
 
+  private final CommonRedisOperator cursorStore;
+
   public MessageRecordCleanupService(MessageRecordCleanupProperties properties,
                                      MessageRecordCleanupJdbcRepository cleanupRepository,
-                                     PlatformTransactionManager transactionManager) {
+                                     MessageRecordPartitionJdbcRepository partitionRepository,
+                                     PlatformTransactionManager transactionManager,
+                                     CommonRedisOperator cursorStore) {
     this.properties = properties;
     this.cleanupRepository = cleanupRepository;
+    this.partitionRepository = partitionRepository;
     this.transactionTemplate = new TransactionTemplate(transactionManager);
+    this.cursorStore = cursorStore;
   }
 
   /** 执行消息记录清理. */
   public MessageRecordCleanupResult cleanup() {
     assertPropertiesValid();
 
-    BjTime cutoffTime = BjTime.now().minusMonths(properties.getRetentionMonths());
+    BjTime now = BjTime.now();
+    BjTime cutoffTime = now.minusMonths(properties.getRetentionMonths());
+    long deadlineMillis = System.currentTimeMillis() + properties.getMaxRunSeconds() * 1000L;
     MessageRecordCleanupResult result = new MessageRecordCleanupResult();
 
     log.info("开始清理消息记录, cutoffTime: {}", cutoffTime);
+    if (properties.isPartitionEnabled()) {
+      LocalDate today = LocalDate.parse(now.toString(BjDateTime.DATE_FORMAT_TO_DAY));
+      PARTITIONED_TABLES.forEach(tableName -> createPartitionsAhead(tableName, today, result));
+    }
     warnExpiredRecords(cutoffTime);
-    cleanupCommandRecords(cutoffTime, result);
-    cleanupConsumeRecords(cutoffTime, result);
-    cleanupEventRecords(cutoffTime, result);
+
+    // 各表的清理互不依赖，并发执行
+    List<Runnable> tasks = new ArrayList<>();
+    if (properties.isCommandRecordEnabled()) {
+      tasks.add(() -> cleanupCommandRecords(cutoffTime, deadlineMillis, result));
+    }
+    if (properties.isConsumeRecordEnabled()) {
+      tasks.add(() -> cleanupConsumeRecords(cutoffTime, deadlineMillis, result));
+    }
+    if (properties.isEventRecordEnabled()) {
+      tasks.add(() -> cleanupEventRecords(cutoffTime, deadlineMillis, result));
+    }
+    runInParallel(tasks);
     return result;
   }
 
-  private void cleanupCommandRecords(BjTime cutoffTime, MessageRecordCleanupResult result) {
-    if (!properties.isCommandRecordEnabled()) {
+  /**
+   * 并发执行各表的清理任务，等待全部完成. 某个任务失败时其他任务继续执行，全部完成后抛出第一个异常.
+   */
+  private static void runInParallel(List<Runnable> tasks) {
+    if (tasks.size() <= 1) {
+      tasks.forEach(Runnable::run);
+      return;
+    }
+
+    AtomicInteger threadCount = new AtomicInteger();
+    ExecutorService executor = Executors.newFixedThreadPool(tasks.size(), runnable -> {
+      Thread thread = new Thread(runnable, "message-record-cleanup-" + threadCount.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+      for (Runnable task : tasks) {
+        futures.add(executor.submit(task));
+      }
+      RuntimeException firstError = null;
+      for (Future<?> future : futures) {
+        try {
+          future.get();
+        }
+        catch (ExecutionException ex) {
+          log.warn("消息记录清理任务失败, message: {}", ex.getCause().getMessage(), ex.getCause());
+          if (firstError == null) {
+            firstError = ex.getCause() instanceof RuntimeException
+                ? (RuntimeException) ex.getCause() : new IllegalStateException(ex.getCause());
+          }
+        }
+      }
+      if (firstError != null) {
+        throw firstError;
+      }
+    }
+    catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("消息记录清理被中断", ex);
+    }
+    finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private void cleanupCommandRecords(BjTime cutoffTime, long deadlineMillis, MessageRecordCleanupResult result) {
+    boolean historyDropped = dropExpiredPartitions(COMMAND_HISTORY_TABLE, null, cutoffTime, result);
+    boolean commandDropped = dropExpiredPartitions(COMMAND_RECORD_TABLE, COMMAND_RECORD_IN_RETAINED_GROUP, cutoffTime, result);
+    if (historyDropped && commandDropped) {
       return;
     }
 
-    BatchCleanupResult historyResult = cleanupInBatches(
-      () -> cleanupRepository.deleteCommandHistoryBefore(cutoffTime, properties.getBatchSize()));
-    result.addCommandHistoryCount(historyResult.recordCount);
-    result.addCommandHistoryBatchCount(historyResult.batchCount);
+    MessageRecordTableCleanupStats historyStats = cleanupByKeyset(COMMAND_HISTORY_TABLE, null, cutoffTime, deadlineMillis);
+    result.addCommandHistoryCount(historyStats.getRecordCount());
+    result.addCommandHistoryBatchCount(historyStats.getBatchCount());
+    result.addTableStats(historyStats);
 
-    for (int batch = 0; batch < properties.getMaxBatchesPerRun(); batch++) {
-      List<String> eventKeys = cleanupRepository.findExpiredCommandEventKeysBefore(cutoffTime, properties.getBatchSize());
+    // 命令记录需按event_key整组删除，不能按键集删除，分批时同样自适应调整批次大小并限流
+    MessageRecordTableCleanupStats commandStats = new MessageRecordTableCleanupStats(COMMAND_RECORD_TABLE);
+    MessageRecordCleanupThrottle throttle = new MessageRecordCleanupThrottle(properties);
+    long startMillis = System.currentTimeMillis();
+    for (int batch = 0; batch < properties.getMaxBatchesPerRun() && System.currentTimeMillis() < deadlineMillis; batch++) {
+      int batchSize = throttle.getBatchSize();
+      long batchStartNanos = System.nanoTime();
+      List<String> eventKeys = cleanupRepository.findExpiredCommandEventKeysBefore(cutoffTime, batchSize);
       if (eventKeys.isEmpty()) {
         break;
       }
@@ -68,10 +190,14 @@ public class MessageRecordCleanupService {
       result.addCommandHistoryBatchCount(1);
       result.addCommandRecordCount(batchResult.commandRecordCount);
       result.addCommandRecordBatchCount(1);
-      if (eventKeys.size() < properties.getBatchSize() || batchResult.commandRecordCount == 0) {
+      commandStats.addBatch(batchResult.commandRecordCount);
+      if (eventKeys.size() < batchSize || batchResult.commandRecordCount == 0
+          || !sleepBetweenBatches(throttle.afterBatch(batchResult.commandRecordCount, elapsedMillisSince(batchStartNanos)))) {
         break;
       }
     }
+    commandStats.setElapsedMillis(System.currentTimeMillis() - startMillis);
+    result.addTableStats(commandStats);
   }
 
   private CommandCleanupBatchResult deleteCommandBatch(List<String> eventKeys) {
@@ -80,38 +206,196 @@ public class MessageRecordCleanupService {
     return new CommandCleanupBatchResult(commandCount, historyCount);
   }
 
-  private void cleanupConsumeRecords(BjTime cutoffTime, MessageRecordCleanupResult result) {
-    if (!properties.isConsumeRecordEnabled()) {
-      return;
+  private void cleanupConsumeRecords(BjTime cutoffTime, long deadlineMillis, MessageRecordCleanupResult result) {
+    MessageRecordTableCleanupStats stats = cleanupByKeyset(CONSUME_RECORD_TABLE, CONSUME_RECORD_SUCCESS, cutoffTime, deadlineMillis);
+    result.addConsumeRecordCount(stats.getRecordCount());
+    result.addConsumeRecordBatchCount(stats.getBatchCount());
+    result.addTableStats(stats);
+  }
+
+  private void cleanupEventRecords(BjTime cutoffTime, long deadlineMillis, MessageRecordCleanupResult result) {
+    // 每种终态分别按(status, create_time)索引的键集删除
+    for (String status : EVENT_RECORD_TERMINAL_STATUSES) {
+      MessageRecordTableCleanupStats stats = cleanupByKeyset(EVENT_RECORD_TABLE, status, cutoffTime, deadlineMillis);
+      result.addEventRecordCount(stats.getRecordCount());
+      result.addEventRecordBatchCount(stats.getBatchCount());
+      result.addTableStats(stats);
     }
-    BatchCleanupResult cleanupResult = cleanupInBatches(
-      () -> cleanupRepository.deleteConsumeRecordsBefore(cutoffTime, properties.getBatchSize()));
-    result.addConsumeRecordCount(cleanupResult.recordCount);
-    result.addConsumeRecordBatchCount(cleanupResult.batchCount);
   }
 
-  private void cleanupEventRecords(BjTime cutoffTime, MessageRecordCleanupResult result) {
-    if (!properties.isEventRecordEnabled()) {
+  /**
+   * 按(create_time, id)键集分批删除过期记录：每批从上一批的游标之后查询一批记录的id，再按id删除，
+   * 不会重复扫描已删除记录留下的空洞. 未清理到截止时间时(达到最大批次或运行时长)保存游标，下次从游标处继续.
+   * @param status 记录的状态，为null表示不区分状态
+   */
+  private MessageRecordTableCleanupStats cleanupByKeyset(String tableName, String status, BjTime cutoffTime, long deadlineMillis) {
+    String target = status == null ? tableName : tableName + ":" + status;
+    MessageRecordTableCleanupStats stats = new MessageRecordTableCleanupStats(target);
+    MessageRecordCleanupThrottle throttle = new MessageRecordCleanupThrottle(properties);
+    MessageRecordCleanupCursor cursor = loadCursor(target);
+    boolean completed = false;
+    long startMillis = System.currentTimeMillis();
+    for (int batch = 0; batch < properties.getMaxBatchesPerRun() && System.currentTimeMillis() < deadlineMillis; batch++) {
+      int batchSize = throttle.getBatchSize();
+      long batchStartNanos = System.nanoTime();
+      List<MessageRecordCleanupCursor> keys = cleanupRepository.findExpiredKeysAfter(tableName, status, cutoffTime, cursor, batchSize);
+      if (keys.isEmpty()) {
+        completed = true;
+        break;
+      }
+
+      int count = cleanupRepository.deleteByIds(tableName, status, cutoffTime,
+          keys.stream().map(MessageRecordCleanupCursor::getId).collect(Collectors.toList()));
+      stats.addBatch(count);
+      cursor = keys.get(keys.size() - 1);
+      if (keys.size() < batchSize) {
+        completed = true;
+        break;
+      }
+      if (!sleepBetweenBatches(throttle.afterBatch(count, elapsedMillisSince(batchStartNanos)))) {
+        break;
+      }
+    }
+    stats.setElapsedMillis(System.currentTimeMillis() - startMillis);
+
+    if (completed) {
+      cursorStore.delete(CURSOR_KEY_PREFIX + target);
+    }
+    else {
+      cursorStore.set(CURSOR_KEY_PREFIX + target, cursor.format(), CURSOR_EXPIRED_DAYS, TimeUnit.DAYS);
+      if (!cursor.getCreateTime().isEmpty()) {
+        long lagMillis = cutoffTime.getInnerTime().getMillis() - BjTime.parse(cursor.getCreateTime()).getInnerTime().getMillis();
+        stats.setLagSeconds(Math.max(0, lagMillis / 1000));
+      }
+      log.info("本次未清理到截止时间, 下次从游标处继续, {}", stats);
+    }
+    return stats;
+  }
+
+  private MessageRecordCleanupCursor loadCursor(String target) {
+    String value = cursorStore.get(CURSOR_KEY_PREFIX + target);
+    return value == null ? MessageRecordCleanupCursor.START : MessageRecordCleanupCursor.parse(value);
+  }
+
+  /**
+   * 批次之间休眠，以控制删除速度.
+   * @return 是否继续清理，线程被中断时返回false
+   */
+  private static boolean sleepBetweenBatches(long sleepMillis) {
+    if (sleepMillis <= 0) {
+      return true;
+    }
+    try {
+      Thread.sleep(sleepMillis);
+      return true;
+    }
+    catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+
+  private static long elapsedMillisSince(long startNanos) {
+    return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+  }
+
+  /**
+   * 为已分区的表预先创建当前及之后partitionsAhead个间隔的分区, 已存在的分区不再创建.
+   */
+  private void createPartitionsAhead(String tableName, LocalDate today, MessageRecordCleanupResult result) {
+    List<MessageRecordPartition> partitions = partitionRepository.findPartitions(tableName);
+    if (partitions.isEmpty()) {
       return;
     }
-    BatchCleanupResult cleanupResult = cleanupInBatches(
-      () -> cleanupRepository.deleteEventRecordsBefore(cutoffTime, properties.getBatchSize()));
-    result.addEventRecordCount(cleanupResult.recordCount);
-    result.addEventRecordBatchCount(cleanupResult.batchCount);
+
+    MessageRecordPartition lastPartition = partitions.get(partitions.size() - 1);
+    String maxValuePartitionName = lastPartition.isMaxValue() ? lastPartition.getPartitionName() : null;
+    String lastUpperBound = partitions.stream()
+        .filter(partition -> !partition.isMaxValue())
+        .map(MessageRecordPartition::getUpperBound)
+        .reduce((first, second) -> second)
+        .orElse("");
+
+    MessageRecordPartitionInterval interval = properties.getPartitionInterval();
+    Map<String, String> upperBoundsByName = new LinkedHashMap<>();
+    LocalDate periodStart = interval.periodStart(today);
+    for (int i = 0; i <= properties.getPartitionsAhead(); i++) {
+      LocalDate nextPeriodStart = interval.nextPeriodStart(periodStart);
+      String upperBound = nextPeriodStart + PARTITION_BOUND_TIME;
+      if (upperBound.compareTo(lastUpperBound) > 0) {
+        upperBoundsByName.put(interval.partitionName(periodStart), upperBound);
+      }
+      periodStart = nextPeriodStart;
+    }
+    if (upperBoundsByName.isEmpty()) {
+      return;
+    }
+
+    try {
+      if (maxValuePartitionName == null) {
+        partitionRepository.addPartitions(tableName, upperBoundsByName, properties.getPartitionLockWaitSeconds());
+      }
+      else {
+        partitionRepository.reorganizeMaxValuePartition(tableName, maxValuePartitionName, upperBoundsByName,
+            properties.getPartitionLockWaitSeconds());
+      }
+    }
+    catch (CannotAcquireLockException ex) {
+      // 已预先创建的分区可容纳新记录，下次清理时再创建
+      log.warn("等待表的元数据锁超时, 跳过本次创建分区, table: {}, message: {}", tableName, ex.getMessage());
+      return;
+    }
+    result.addPartitionCreatedCount(upperBoundsByName.size());
+    log.info("预先创建分区, table: {}, partitions: {}", tableName, upperBoundsByName.keySet());
   }
 
-  private BatchCleanupResult cleanupInBatches(IntSupplier deleteBatch) {
-    int total = 0;
-    int batchCount = 0;
-    for (int batch = 0; batch < properties.getMaxBatchesPerRun(); batch++) {
-      int count = deleteBatch.getAsInt();
-      total += count;
-      batchCount++;
-      if (count < properties.getBatchSize()) {
+  /**
+   * 删除上界不晚于cutoffTime且所有记录都可删除的分区.
+   * @param retainedCondition 不能删除的记录的条件, 为null表示所有记录都可删除
+   * @return 是否已通过删除分区完成清理; 表未分区、未启用分区清理、有过期分区中存在不能删除的记录或等待元数据锁超时时返回false, 需按批删除
+   */
+  private boolean dropExpiredPartitions(String tableName, String retainedCondition, BjTime cutoffTime, MessageRecordCleanupResult result) {
+    if (!properties.isPartitionEnabled()) {
+      return false;
+    }
+    List<MessageRecordPartition> partitions = partitionRepository.findPartitions(tableName);
+    if (partitions.isEmpty()) {
+      log.info("表未分区, 按批删除, table: {}", tableName);
+      return false;
+    }
+
+    String cutoff = cutoffTime.toString();
+    List<String> expiredPartitionNames = new ArrayList<>();
+    boolean completed = true;
+    String lowerBound = null;
+    for (var partition : partitions) {
+      if (partition.isMaxValue() || partition.getUpperBound().compareTo(cutoff) > 0) {
         break;
       }
+      if (retainedCondition != null
+          && partitionRepository.countInRange(tableName, retainedCondition, lowerBound, partition.getUpperBound(), cutoffTime) > 0) {
+        log.warn("过期分区中存在未过期命令组的记录, 暂不删除该分区, 其中可删除的记录按批删除, table: {}, partition: {}",
+            tableName, partition.getPartitionName());
+        completed = false;
+      }
+      else {
+        expiredPartitionNames.add(partition.getPartitionName());
+      }
+      lowerBound = partition.getUpperBound();
     }
-    return new BatchCleanupResult(total, batchCount);
+
+    if (!expiredPartitionNames.isEmpty()) {
+      try {
+        partitionRepository.dropPartitions(tableName, expiredPartitionNames, properties.getPartitionLockWaitSeconds());
+      }
+      catch (CannotAcquireLockException ex) {
+        log.warn("等待表的元数据锁超时, 跳过本次删除分区, 按批删除, table: {}, message: {}", tableName, ex.getMessage());
+        return false;
+      }
+      result.addPartitionDroppedCount(expiredPartitionNames.size());
+      log.info("删除过期分区, table: {}, partitions: {}", tableName, expiredPartitionNames);
+    }
+    return completed;
   }
 
   private void warnExpiredRecords(BjTime cutoffTime) {
@@ -139,6 +423,16 @@ public class MessageRecordCleanupService {
     if (properties.getMaxBatchesPerRun() <= 0) {
       throw new IllegalArgumentException("maxBatchesPerRun必须大于0");
     }
+    if (properties.getMinBatchSize() <= 0 || properties.getMaxBatchSize() < properties.getMinBatchSize()) {
+      throw new IllegalArgumentException("minBatchSize必须大于0, maxBatchSize不能小于minBatchSize");
+    }
+    if (properties.getTargetBatchMillis() <= 0 || properties.getMaxRowsPerSecond() < 0 || properties.getMaxRunSeconds() <= 0) {
+      throw new IllegalArgumentException("targetBatchMillis及maxRunSeconds必须大于0, maxRowsPerSecond不能小于0");
+    }
+    if (properties.isPartitionEnabled() && (properties.getPartitionInterval() == null || properties.getPartitionsAhead() < 0
+        || properties.getPartitionLockWaitSeconds() <= 0)) {
+      throw new IllegalArgumentException("partitionInterval不能为空, partitionsAhead不能小于0, partitionLockWaitSeconds必须大于0");
+    }
   }
 
   private static final class CommandCleanupBatchResult {
@@ -152,16 +446,4 @@ public class MessageRecordCleanupService {
       this.commandHistoryCount = commandHistoryCount;
     }
   }
-
-  private static final class BatchCleanupResult {
-
-    private final int recordCount;
-
-    private final int batchCount;
-
-    private BatchCleanupResult(int recordCount, int batchCount) {
-      this.recordCount = recordCount;
-      this.batchCount = batchCount;
-    }
-  }
 }
@@ -24,7 +24,7 @@ public class MessageRecordCleanupTask {
 
   private final DistributedLockHelper lockHelper;
 
-  /** 每日分批清理超过保留期的消息记录. */
+  /** 每日分批清理超过保留期的消息记录，并记录各表的删除速度及延迟. */
   @Scheduled(cron = "${tehang.message.cleanup.cron:0 30 3 * * ?}", zone = ZONE_SHANGHAI)
   @SuppressWarnings("PMD.AvoidCatchingGenericException")
   public void cleanupMessageRecords() {
@@ -35,10 +35,13 @@ public class MessageRecordCleanupTask {
       if (log.isInfoEnabled()) {
         log.info("消息记录清理完成, eventRecordCount: {}, eventRecordBatchCount: {}, consumeRecordCount: {}, "
                 + "consumeRecordBatchCount: {}, commandRecordCount: {}, commandRecordBatchCount: {}, "
-                + "commandHistoryCount: {}, commandHistoryBatchCount: {}, elapsed: {}s",
+                + "commandHistoryCount: {}, commandHistoryBatchCount: {}, partitionCreatedCount: {}, "
+                + "partitionDroppedCount: {}, elapsed: {}s",
             result.getEventRecordCount(), result.getEventRecordBatchCount(), result.getConsumeRecordCount(),
             result.getConsumeRecordBatchCount(), result.getCommandRecordCount(), result.getCommandRecordBatchCount(),
-            result.getCommandHistoryCount(), result.getCommandHistoryBatchCount(), BjTime.elapsedSeconds(startTime));
+            result.getCommandHistoryCount(), result.getCommandHistoryBatchCount(), result.getPartitionCreatedCount(),
+            result.getPartitionDroppedCount(), BjTime.elapsedSeconds(startTime));
+        result.getTableStats().forEach(stats -> log.info("消息记录清理统计, {}", stats));
       }
     }
     catch (LockNotAcquiredException ex) {
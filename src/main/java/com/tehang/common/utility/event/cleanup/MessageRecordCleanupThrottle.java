@@ -0,0 +1,63 @@
+package com.tehang.common.utility.event.cleanup;
+
+/**
+ * 分批删除的自适应限流：按每批语句的耗时调整批次大小，并计算批次之间的休眠时间，
+ * 使删除速度不超过maxRowsPerSecond，语句耗时保持在targetBatchMillis附近.
+ * 非线程安全，每个清理任务各自使用一个实例.
+ */
+class MessageRecordCleanupThrottle {
+
+  // 每次调整批次大小的最大倍数
+  private static final double MAX_ADJUST_RATIO = 2.0;
+
+  private final int minBatchSize;
+
+  private final int maxBatchSize;
+
+  private final long targetBatchMillis;
+
+  private final int maxRowsPerSecond;
+
+  private int batchSize;
+
+  MessageRecordCleanupThrottle(MessageRecordCleanupProperties properties) {
+    this.minBatchSize = properties.getMinBatchSize();
+    this.maxBatchSize = Math.max(properties.getMinBatchSize(), properties.getMaxBatchSize());
+    this.targetBatchMillis = properties.getTargetBatchMillis();
+    this.maxRowsPerSecond = properties.getMaxRowsPerSecond();
+    this.batchSize = clamp(properties.getBatchSize());
+  }
+
+  /** 下一批的数量. */
+  int getBatchSize() {
+    return batchSize;
+  }
+
+  /**
+   * 记录一批删除的结果，调整下一批的数量.
+   * @param rowCount 本批删除的记录数
+   * @param elapsedMillis 本批查询及删除语句的耗时
+   * @return 下一批之前需休眠的毫秒数
+   */
+  long afterBatch(int rowCount, long elapsedMillis) {
+    // 批次大小按目标耗时与实际耗时之比调整，每次最多调整为原来的2倍或1/2
+    double ratio = (double) targetBatchMillis / Math.max(1, elapsedMillis);
+    ratio = Math.max(1 / MAX_ADJUST_RATIO, Math.min(MAX_ADJUST_RATIO, ratio));
+    batchSize = clamp((int) (batchSize * ratio));
+
+    long sleepMillis = 0;
+    if (maxRowsPerSecond > 0) {
+      // 按限速删除本批记录所需的时长，减去已耗时
+      sleepMillis = rowCount * 1000L / maxRowsPerSecond - elapsedMillis;
+    }
+    if (elapsedMillis > targetBatchMillis) {
+      // 语句耗时超过目标时数据库负载较高，至少休眠同样的时长
+      sleepMillis = Math.max(sleepMillis, elapsedMillis);
+    }
+    return Math.max(0, sleepMillis);
+  }
+
+  private int clamp(int value) {
+    return Math.max(minBatchSize, Math.min(maxBatchSize, value));
+  }
+}
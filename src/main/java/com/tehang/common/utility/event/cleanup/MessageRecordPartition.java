@@ -0,0 +1,31 @@
+package com.tehang.common.utility.event.cleanup;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import static org.apache.commons.lang3.StringUtils.equalsIgnoreCase;
+import static org.apache.commons.lang3.StringUtils.strip;
+
+/**
+ * 消息记录表的一个range columns(create_time)分区.
+ */
+@Getter
+@Setter
+public class MessageRecordPartition {
+
+  /** 分区名. */
+  private String partitionName;
+
+  /** 分区的上界(不含), 即information_schema.partitions.partition_description, 如 '2026-10-19 00:00:00.000' 或 MAXVALUE. */
+  private String partitionDescription;
+
+  /** 是否为 values less than (MAXVALUE) 的分区. */
+  public boolean isMaxValue() {
+    return equalsIgnoreCase(partitionDescription, "MAXVALUE");
+  }
+
+  /** 分区的上界(不含)，去除引号，格式同create_time. */
+  public String getUpperBound() {
+    return strip(partitionDescription, "'");
+  }
+}
@@ -0,0 +1,41 @@
+package com.tehang.common.utility.event.cleanup;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * 消息记录表按create_time分区的时间间隔.
+ */
+public enum MessageRecordPartitionInterval {
+
+  /**
+   * 按天分区，分区名为 pyyyyMMdd.
+   */
+  DAY(DateTimeFormatter.ofPattern("yyyyMMdd")),
+
+  /**
+   * 按月分区，分区名为 pyyyyMM.
+   */
+  MONTH(DateTimeFormatter.ofPattern("yyyyMM"));
+
+  private final DateTimeFormatter nameFormatter;
+
+  MessageRecordPartitionInterval(DateTimeFormatter nameFormatter) {
+    this.nameFormatter = nameFormatter;
+  }
+
+  /** 指定日期所在分区的起始日期. */
+  LocalDate periodStart(LocalDate date) {
+    return this == DAY ? date : date.withDayOfMonth(1);
+  }
+
+  /** 下一个分区的起始日期. */
+  LocalDate nextPeriodStart(LocalDate periodStart) {
+    return this == DAY ? periodStart.plusDays(1) : periodStart.plusMonths(1);
+  }
+
+  /** 起始于指定日期的分区名. */
+  String partitionName(LocalDate periodStart) {
+    return "p" + nameFormatter.format(periodStart);
+  }
+}
@@ -0,0 +1,101 @@
+package com.tehang.common.utility.event.cleanup;
+
+import com.tehang.common.utility.time.BjTime;
+import lombok.AllArgsConstructor;
+import org.springframework.jdbc.core.BeanPropertyRowMapper;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * 消息记录分区仓储：查询、创建及删除按create_time分区(range columns)的消息记录表的分区.
+ * 表名和分区名由组件生成或取自information_schema，直接拼接到ddl中.
+ * ddl需要获取表的元数据锁，等待时会阻塞之后该表的所有读写，执行前设置较短的会话lock_wait_timeout，超时抛出CannotAcquireLockException.
+ */
+@Repository
+@AllArgsConstructor
+public class MessageRecordPartitionJdbcRepository {
+
+  private final NamedParameterJdbcTemplate jdbcTemplate;
+
+  /** 按顺序查询表的分区，未分区的表返回空列表. */
+  public List<MessageRecordPartition> findPartitions(String tableName) {
+    String sql = "select partition_name, partition_description "
+        + "from information_schema.partitions "
+        + "where table_schema = database() "
+        + "  and table_name = :table_name "
+        + "  and partition_name is not null "
+        + "order by partition_ordinal_position ";
+    return jdbcTemplate.query(sql, Map.of("table_name", tableName), new BeanPropertyRowMapper<>(MessageRecordPartition.class));
+  }
+
+  /** 在最后一个分区之后添加分区, 分区的上界需大于已有分区. */
+  public void addPartitions(String tableName, Map<String, String> upperBoundsByName, int lockWaitSeconds) {
+    String sql = "alter table " + tableName + " add partition (" + toPartitionDefinitions(upperBoundsByName) + ")";
+    executeDdl(sql, lockWaitSeconds);
+  }
+
+  /** 将 values less than (MAXVALUE) 的分区拆分为新的分区及其自身, 该分区中无数据时无需复制数据. */
+  public void reorganizeMaxValuePartition(String tableName, String maxValuePartitionName, Map<String, String> upperBoundsByName,
+                                          int lockWaitSeconds) {
+    String sql = "alter table " + tableName + " reorganize partition " + maxValuePartitionName + " into ("
+        + toPartitionDefinitions(upperBoundsByName) + ", "
+        + "partition " + maxValuePartitionName + " values less than (MAXVALUE))";
+    executeDdl(sql, lockWaitSeconds);
+  }
+
+  /** 删除分区. */
+  public void dropPartitions(String tableName, List<String> partitionNames, int lockWaitSeconds) {
+    String sql = "alter table " + tableName + " drop partition " + String.join(", ", partitionNames);
+    executeDdl(sql, lockWaitSeconds);
+  }
+
+  /**
+   * 统计分区范围内满足条件(不能删除)的记录数量.
+   * @param condition 记录的条件, 可以使用参数:cutoff_time
+   * @param lowerBound 分区的下界(含), 为null表示第一个分区
+   * @param upperBound 分区的上界(不含)
+   */
+  public long countInRange(String tableName, String condition, String lowerBound, String upperBound, BjTime cutoffTime) {
+    Map<String, Object> params = new HashMap<>();
+    params.put("upper_bound", upperBound);
+    params.put("cutoff_time", cutoffTime.toString());
+    String sql = "select count(*) from " + tableName + " where create_time < :upper_bound and (" + condition + ") ";
+    if (lowerBound != null) {
+      sql += "and create_time >= :lower_bound ";
+      params.put("lower_bound", lowerBound);
+    }
+    Long result = jdbcTemplate.queryForObject(sql, params, Long.class);
+    return result == null ? 0L : result;
+  }
+
+  /**
+   * 在同一连接上设置会话的lock_wait_timeout后执行ddl，执行后恢复为全局值，以免影响连接池中该连接的后续使用.
+   */
+  private void executeDdl(String sql, int lockWaitSeconds) {
+    jdbcTemplate.getJdbcOperations().execute((ConnectionCallback<Void>) connection -> {
+      try (Statement statement = connection.createStatement()) {
+        statement.execute("set session lock_wait_timeout = " + lockWaitSeconds);
+        try {
+          statement.execute(sql);
+        }
+        finally {
+          statement.execute("set session lock_wait_timeout = @@global.lock_wait_timeout");
+        }
+      }
+      return null;
+    });
+  }
+
+  private static String toPartitionDefinitions(Map<String, String> upperBoundsByName) {
+    return upperBoundsByName.entrySet().stream()
+        .map(entry -> "partition " + entry.getKey() + " values less than ('" + entry.getValue() + "')")
+        .collect(Collectors.joining(", "));
+  }
+}
@@ -0,0 +1,50 @@
+package com.tehang.common.utility.event.cleanup;
+
+import lombok.Getter;
+
+/**
+ * 一张表(或一种状态的记录)本次清理的统计.
+ */
+@Getter
+public class MessageRecordTableCleanupStats {
+
+  /** 清理对象，如 domain_event_record:SendSuccess. */
+  private final String target;
+
+  private int recordCount;
+
+  private int batchCount;
+
+  private long elapsedMillis;
+
+  /** 本次未清理到截止时间时，游标落后于截止时间的秒数; 已清理到截止时间为0. */
+  private long lagSeconds;
+
+  MessageRecordTableCleanupStats(String target) {
+    this.target = target;
+  }
+
+  /** 删除速度(行/秒)，含批次之间的休眠时间. */
+  public long getRowsPerSecond() {
+    return elapsedMillis <= 0 ? recordCount : recordCount * 1000L / elapsedMillis;
+  }
+
+  void addBatch(int count) {
+    recordCount += count;
+    batchCount++;
+  }
+
+  void setElapsedMillis(long elapsedMillis) {
+    this.elapsedMillis = elapsedMillis;
+  }
+
+  void setLagSeconds(long lagSeconds) {
+    this.lagSeconds = lagSeconds;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%s: records=%d, batches=%d, rowsPerSecond=%d, lagSeconds=%d",
+        target, recordCount, batchCount, getRowsPerSecond(), lagSeconds);
+  }
+}
@@ -8,11 +8,23 @@ import com.tehang.common.utility.event.command.commandrecord.CommandRecordJdbcRe
 import com.tehang.common.utility.event.subscriber.ClusteringEventSubscriber;
 import lombok.AllArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
 
 import static org.apache.commons.collections4.CollectionUtils.isEmpty;
 import static org.apache.commons.lang3.StringUtils.equalsIgnoreCase;
+import static org.apache.commons.lang3.StringUtils.trimToEmpty;
 
 /**
  * 【命令事件】事件订阅者
@@ -24,6 +36,7 @@ public class CommandEventSubscriber implements ClusteringEventSubscriber {
   private final CommandLocator commandLocator;
   private final CommandEventTypeHolder eventTypeHolder;
   private final CommandRecordJdbcRepository commandRecordJdbcRepository;
+  private final CommandParallelExecutor parallelExecutor;
 
   @Override
   public String subscribedEventType() {
@@ -48,6 +61,10 @@ public class CommandEventSubscriber implements ClusteringEventSubscriber {
       // 执行聚合命令：多个命令按顺序执行
       executeAggregateCommand(commandEvent);
     }
+    else if (equalsIgnoreCase(commandEvent.getCommandType(), CommandManager.AGGREGATE_GRAPH_COMMAND_TYPE)) {
+      // 执行聚合命令：多个命令按依赖关系执行
+      executeGraphCommand(commandEvent);
+    }
     else {
       // 执行简单命令
       executeSimpleCommand(commandEvent);
@@ -58,15 +75,13 @@ public class CommandEventSubscriber implements ClusteringEventSubscriber {
 
   private void executeSimpleCommand(CommandEvent commandEvent) {
     // 查找命令对象
-    Command command = commandLocator.findCommandEnsured(commandEvent.getCommandType());
-
-    CommandTypeInfo commandTypeInfo = CommandArgsTypeParser.parse(command);
+    CommandRegistration registration = commandLocator.findRegistrationEnsured(commandEvent.getCommandType());
 
     // 解析命令参数
-    var args = JsonUtils.toClass(commandEvent.getArgs(), commandTypeInfo.getArgsClass());
+    var args = registration.readArgs(commandEvent.getArgs());
 
     // 运行命令
-    command.run(args);
+    registration.getCommand().run(args);
   }
 
   /** 执行聚合命令，其包含多个子命令，按顺序执行这些子命令。*/
@@ -77,40 +92,142 @@ public class CommandEventSubscriber implements ClusteringEventSubscriber {
       throw new SystemErrorException("commandRecords not found, event: " + JsonUtils.toJson(commandEvent));
     }
 
-    // 前续命令的返回值
-    Object preCommandReturnValue = null;
+    // 前续命令的返回值，第一个命令没有前续命令
+    List<Object> preCommandReturnValues = Collections.emptyList();
 
     // 依次执行每个命令
     for (var commandRecord : commandRecords) {
       // 查找命令对象
-      Command command = commandLocator.findCommandEnsured(commandRecord.getCommandType());
-      CommandTypeInfo commandTypeInfo = CommandArgsTypeParser.parse(command);
+      CommandRegistration registration = commandLocator.findRegistrationEnsured(commandRecord.getCommandType());
 
+      Object returnValue;
       if (commandRecord.isSuccess()) {
         // 如果该命令已执行成功，取得该命令的执行结果，继续下一条命令
-        preCommandReturnValue = JsonUtils.toClass(commandRecord.getCommandReturnValue(), commandTypeInfo.getReturnClass());
+        returnValue = registration.readReturnValue(commandRecord.getCommandReturnValue());
       }
       else {
         // 运行子命令, 并获取返回值
-        preCommandReturnValue = executeSubCommand(commandRecord, command, commandTypeInfo, preCommandReturnValue);
+        returnValue = executeSubCommand(commandRecord, registration, preCommandReturnValues);
+      }
+      preCommandReturnValues = Collections.singletonList(returnValue);
+    }
+  }
+
+  /**
+   * 执行按依赖关系执行的聚合命令：所依赖的命令都已成功的子命令提交到线程池并发执行，某个子命令完成后再提交依赖它的子命令。
+   * 某个子命令失败时，不再执行依赖它的子命令，其他分支继续执行，全部完成后抛出异常，依赖mq的重试机制只重新执行未成功的子命令。
+   */
+  private void executeGraphCommand(CommandEvent commandEvent) {
+    // 查找命令对象列表, 按顺序号从低到高排序
+    List<CommandRecord> commandRecords = commandRecordJdbcRepository.findGraphRecordsByEventKey(commandEvent.getKey());
+    if (isEmpty(commandRecords)) {
+      throw new SystemErrorException("commandRecords not found, event: " + JsonUtils.toJson(commandEvent));
+    }
+
+    // 已执行成功的命令的返回值，key为顺序号
+    Map<Integer, Object> returnValues = new HashMap<>();
+
+    // 尚未执行的命令，key为顺序号
+    Map<Integer, CommandRecord> pendingRecords = new LinkedHashMap<>();
+
+    // 各命令依赖的命令的顺序号，key为顺序号
+    Map<Integer, List<Integer>> dependenciesBySeqNo = parseDependencies(commandRecords);
+    for (var commandRecord : commandRecords) {
+      if (commandRecord.isSuccess()) {
+        CommandRegistration registration = commandLocator.findRegistrationEnsured(commandRecord.getCommandType());
+        returnValues.put(commandRecord.getSeqNo(), registration.readReturnValue(commandRecord.getCommandReturnValue()));
+      }
+      else {
+        pendingRecords.put(commandRecord.getSeqNo(), commandRecord);
+      }
+    }
+
+    CompletionService<Object> completionService = new ExecutorCompletionService<>(parallelExecutor);
+    Map<Future<Object>, Integer> runningSeqNos = new HashMap<>();
+    RuntimeException failure = null;
+    while (true) {
+      // 提交所依赖的命令都已执行成功的命令
+      for (var iterator = pendingRecords.values().iterator(); iterator.hasNext(); ) {
+        CommandRecord commandRecord = iterator.next();
+        List<Integer> dependencies = dependenciesBySeqNo.get(commandRecord.getSeqNo());
+        if (returnValues.keySet().containsAll(dependencies)) {
+          iterator.remove();
+          CommandRegistration registration = commandLocator.findRegistrationEnsured(commandRecord.getCommandType());
+          List<Object> dependencyReturnValues = dependencies.stream().map(returnValues::get).collect(Collectors.toList());
+          Future<Object> future = completionService.submit(() -> executeSubCommand(commandRecord, registration, dependencyReturnValues));
+          runningSeqNos.put(future, commandRecord.getSeqNo());
+        }
+      }
+      if (runningSeqNos.isEmpty()) {
+        break;
+      }
+
+      // 等待任一命令执行完成
+      Future<Object> future = takeCompleted(completionService);
+      Integer seqNo = runningSeqNos.remove(future);
+      try {
+        returnValues.put(seqNo, future.get());
+      }
+      catch (ExecutionException ex) {
+        if (failure == null) {
+          failure = ex.getCause() instanceof RuntimeException
+              ? (RuntimeException) ex.getCause()
+              : new SystemErrorException("executeSubCommand failed: " + ex.getCause().getMessage(), ex.getCause());
+        }
+      }
+      catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        throw new SystemErrorException("executeGraphCommand interrupted", ex);
+      }
+    }
+
+    if (failure != null) {
+      // 抛出异常，依赖mq的重试机制，下次再执行失败的命令及依赖它的命令
+      throw failure;
+    }
+  }
+
+  private static Future<Object> takeCompleted(CompletionService<Object> completionService) {
+    try {
+      return completionService.take();
+    }
+    catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new SystemErrorException("executeGraphCommand interrupted", ex);
+    }
+  }
+
+  /** 解析各命令依赖的命令的顺序号，被依赖的命令必须存在且排在当前命令之前，以保证依赖关系中没有环 */
+  private static Map<Integer, List<Integer>> parseDependencies(List<CommandRecord> commandRecords) {
+    Map<Integer, List<Integer>> result = new HashMap<>();
+    for (var commandRecord : commandRecords) {
+      List<Integer> dependencies = new ArrayList<>();
+      for (String item : StringUtils.split(trimToEmpty(commandRecord.getDependsOn()), ',')) {
+        int seqNo = Integer.parseInt(item.trim());
+        if (!result.containsKey(seqNo)) {
+          throw new SystemErrorException("依赖的命令需排在当前命令之前, commandId: " + commandRecord.getId() + ", dependsOn: " + commandRecord.getDependsOn());
+        }
+        dependencies.add(seqNo);
       }
+      result.put(commandRecord.getSeqNo(), dependencies);
     }
+    return result;
   }
 
   /** 运行子命令, 并获取返回值 */
-  private Object executeSubCommand(CommandRecord commandRecord, Command command, CommandTypeInfo commandTypeInfo, Object preCommandReturnValue) {
+  private Object executeSubCommand(CommandRecord commandRecord, CommandRegistration registration, List<Object> dependencyReturnValues) {
     log.debug("Enter executeSubCommand, commandId: {}", commandRecord.getId());
 
     // 设置上下文参数
-    CommandExecuteContext.setPreCommandReturnValue(preCommandReturnValue);
+    CommandExecuteContext.setDependencyReturnValues(dependencyReturnValues);
 
     Object result;
     try {
       // 解析命令参数
-      Object args = JsonUtils.toClass(commandRecord.getCommandArgs(), commandTypeInfo.getArgsClass());
+      Object args = registration.readArgs(commandRecord.getCommandArgs());
 
       // 执行命令
-      result = command.run(args);
+      result = registration.getCommand().run(args);
     }
     catch (Exception ex) {
       log.warn("executeSubCommand failed, commandId: {}, errorMessage: {}", commandRecord.getId(), ex.getMessage(), ex);
@@ -14,4 +14,9 @@ public class CommandEventTypeHolder {
    * 命令模式使用的事件类型名。
    */
   private String eventType;
+
+  /**
+   * 并发执行聚合命令中无依赖关系的子命令的最大线程数。
+   */
+  private int parallelism;
 }
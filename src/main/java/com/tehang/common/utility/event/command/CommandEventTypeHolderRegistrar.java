@@ -7,6 +7,8 @@ import org.springframework.beans.factory.support.BeanDefinitionRegistry;
 import org.springframework.context.annotation.ImportBeanDefinitionRegistrar;
 import org.springframework.core.type.AnnotationMetadata;
 
+import java.util.Map;
+
 import static org.apache.commons.lang3.StringUtils.isBlank;
 
 @Slf4j
@@ -15,7 +17,8 @@ public class CommandEventTypeHolderRegistrar implements ImportBeanDefinitionRegi
   @Override
   public void registerBeanDefinitions(AnnotationMetadata annotationMetadata, BeanDefinitionRegistry beanDefinitionRegistry) {
     // 从EnableCommand的注解中解析出eventType
-    String eventType = (String) annotationMetadata.getAnnotationAttributes(EnableCommand.class.getName()).get("eventType");
+    Map<String, Object> attributes = annotationMetadata.getAnnotationAttributes(EnableCommand.class.getName());
+    String eventType = (String) attributes.get("eventType");
     if (isBlank(eventType)) {
       throw new SystemErrorException("commandEventType未配置");
     }
@@ -24,6 +27,7 @@ public class CommandEventTypeHolderRegistrar implements ImportBeanDefinitionRegi
     // 构造CommandEventTypeHolder, 并填充eventType字段
     BeanDefinitionBuilder definitionBuilder = BeanDefinitionBuilder.rootBeanDefinition(CommandEventTypeHolder.class);
     definitionBuilder.addPropertyValue("eventType", eventType);
+    definitionBuilder.addPropertyValue("parallelism", attributes.get("parallelism"));
     beanDefinitionRegistry.registerBeanDefinition(CommandEventTypeHolder.class.getName(), definitionBuilder.getBeanDefinition());
   }
 }
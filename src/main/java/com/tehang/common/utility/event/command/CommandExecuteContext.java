@@ -1,5 +1,8 @@
 package com.tehang.common.utility.event.command;
 
+import java.util.Collections;
+import java.util.List;
+
 /**
  * 封装命令执行上下文信息，用于传递前续命令的返回值参数。
  */
@@ -12,6 +15,9 @@ public final class CommandExecuteContext {
   /** 前续命令执行结果的线程本地存储 */
   private static final ThreadLocal<Object> commandReturnValueThreadLocal = new ThreadLocal<>();
 
+  /** 所依赖的全部命令执行结果的线程本地存储 */
+  private static final ThreadLocal<List<Object>> dependencyReturnValuesThreadLocal = new ThreadLocal<>();
+
   /**
    * 获取前续命令的返回值。
    */
@@ -26,10 +32,27 @@ public final class CommandExecuteContext {
     commandReturnValueThreadLocal.set(value);
   }
 
+  /**
+   * 获取所依赖的全部命令的返回值，按声明依赖的顺序排列。顺序执行的聚合命令中为前一个命令的返回值，第一个命令为空列表。
+   */
+  public static List<Object> getDependencyReturnValues() {
+    List<Object> values = dependencyReturnValuesThreadLocal.get();
+    return values == null ? Collections.emptyList() : values;
+  }
+
+  /**
+   * 设置所依赖的全部命令的返回值，前续命令的返回值为其中的最后一个。
+   */
+  public static void setDependencyReturnValues(List<Object> values) {
+    dependencyReturnValuesThreadLocal.set(Collections.unmodifiableList(values));
+    commandReturnValueThreadLocal.set(values.isEmpty() ? null : values.get(values.size() - 1));
+  }
+
   /**
    * 清除当前线程的本地存储。
    */
   public static void clear() {
     commandReturnValueThreadLocal.remove();
+    dependencyReturnValuesThreadLocal.remove();
   }
 }
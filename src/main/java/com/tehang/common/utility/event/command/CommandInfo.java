@@ -1,9 +1,14 @@
 package com.tehang.common.utility.event.command;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.tehang.common.utility.baseclass.ValueObject;
 import lombok.Getter;
 import lombok.Setter;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 /**
  * 命令信息
  */
@@ -17,6 +22,10 @@ public class CommandInfo extends ValueObject {
   /** 命令参数信息 */
   private Object args;
 
+  /** 依赖的命令，只在CommandManager.queueCommandGraph中生效，被依赖的命令需排在当前命令之前 */
+  @JsonIgnore
+  private List<CommandInfo> dependencies = new ArrayList<>();
+
   // ----------- 方法 -----------
 
   public static CommandInfo of(String commandType, Object args) {
@@ -25,4 +34,12 @@ public class CommandInfo extends ValueObject {
     result.args = args;
     return result;
   }
+
+  /**
+   * 声明依赖的命令，所依赖的命令都执行成功后才执行当前命令。
+   */
+  public CommandInfo dependsOn(CommandInfo... commands) {
+    dependencies.addAll(Arrays.asList(commands));
+    return this;
+  }
 }
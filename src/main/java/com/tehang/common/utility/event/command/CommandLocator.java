@@ -1,42 +1,89 @@
 package com.tehang.common.utility.event.command;
 
 import com.tehang.common.infrastructure.exceptions.SystemErrorException;
-import lombok.AllArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.SmartInitializingSingleton;
 import org.springframework.context.ApplicationContext;
 
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.stream.Collectors;
 
+import static java.util.stream.Collectors.groupingBy;
 import static java.util.stream.Collectors.toList;
-import static org.apache.commons.collections4.CollectionUtils.isEmpty;
-import static org.apache.commons.lang3.StringUtils.equalsIgnoreCase;
 
 /**
  * 服务定位器。根据命令类型查找命令对象。
+ * 在所有单例bean创建完成后构建命令注册表(命令类型不区分大小写)，并预先解析各命令的参数类型，命令类型重复或无效时启动失败。
  */
-@AllArgsConstructor
-public class CommandLocator {
+@Slf4j
+public class CommandLocator implements SmartInitializingSingleton {
 
   private final ApplicationContext applicationContext;
 
+  /** 命令注册表，key为小写的命令类型 */
+  private volatile Map<String, CommandRegistration> registrations;
+
+  public CommandLocator(ApplicationContext applicationContext) {
+    this.applicationContext = applicationContext;
+  }
+
+  @Override
+  public void afterSingletonsInstantiated() {
+    registrations = buildRegistrations(applicationContext.getBeansOfType(Command.class).values());
+    log.info("CommandLocator initialized, commandTypes: {}", registrations.size());
+  }
+
   /**
    * 根据命令类型查找命令对象。
    */
   public Command findCommandEnsured(String commandType) {
-    var commands = applicationContext.getBeansOfType(Command.class)
-        .values()
-        .stream()
-        .filter(item -> equalsIgnoreCase(item.getCommandType(), commandType))
-        .collect(toList());
+    return findRegistrationEnsured(commandType).getCommand();
+  }
 
-    if (isEmpty(commands)) {
+  /**
+   * 根据命令类型查找命令注册项，包括命令对象及其参数类型信息。
+   */
+  CommandRegistration findRegistrationEnsured(String commandType) {
+    CommandRegistration registration = getRegistrations().get(toRegistrationKey(commandType));
+    if (registration == null) {
       throw new SystemErrorException("未找到命令对象, commandType: " + commandType);
     }
-    if (commands.size() > 1) {
-      throw new SystemErrorException(String.format("找到多个命令对象, commandType: %s, commandNames: %s", commandType, getCommandNames(commands)));
+    return registration;
+  }
+
+  private Map<String, CommandRegistration> getRegistrations() {
+    if (registrations == null) {
+      // 在容器初始化完成前(如单独创建CommandLocator时)查找命令，此时构建注册表
+      synchronized (this) {
+        if (registrations == null) {
+          registrations = buildRegistrations(applicationContext.getBeansOfType(Command.class).values());
+        }
+      }
     }
+    return registrations;
+  }
+
+  private static Map<String, CommandRegistration> buildRegistrations(Collection<Command> commands) {
+    Map<String, List<Command>> commandsByType = commands.stream()
+        .collect(groupingBy(item -> toRegistrationKey(item.getCommandType()), toList()));
+
+    Map<String, CommandRegistration> result = new HashMap<>();
+    commandsByType.forEach((key, sameTypeCommands) -> {
+      if (sameTypeCommands.size() > 1) {
+        throw new SystemErrorException(String.format("找到多个命令对象, commandType: %s, commandNames: %s",
+            sameTypeCommands.get(0).getCommandType(), getCommandNames(sameTypeCommands)));
+      }
+      result.put(key, CommandRegistration.of(sameTypeCommands.get(0)));
+    });
+    return Map.copyOf(result);
+  }
 
-    return commands.get(0);
+  private static String toRegistrationKey(String commandType) {
+    return commandType == null ? "" : commandType.toLowerCase(Locale.ROOT);
   }
 
   private static String getCommandNames(List<Command> commands) {
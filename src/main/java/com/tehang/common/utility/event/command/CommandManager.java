@@ -1,6 +1,7 @@
 package com.tehang.common.utility.event.command;
 
 import com.aliyun.openservices.shade.com.google.common.collect.Lists;
+import com.tehang.common.infrastructure.exceptions.SystemErrorException;
 import com.tehang.common.utility.JsonUtils;
 import com.tehang.common.utility.event.command.commandrecord.CommandRecord;
 import com.tehang.common.utility.event.command.commandrecord.CommandRecordJdbcRepository;
@@ -9,7 +10,9 @@ import lombok.AllArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 
 import java.util.ArrayList;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
 import static org.apache.commons.collections4.CollectionUtils.isEmpty;
@@ -24,6 +27,9 @@ public class CommandManager {
   /** 聚合命令的命令类型 */
   public static final String AGGREGATE_COMMAND_TYPE = "AGGREGATE_COMMAND_TYPE";
 
+  /** 按依赖关系执行的聚合命令的命令类型 */
+  public static final String AGGREGATE_GRAPH_COMMAND_TYPE = "AGGREGATE_GRAPH_COMMAND_TYPE";
+
   private final TransactionalEventPublisher eventPublisher;
   private final CommandEventTypeHolder eventTypeHolder;
   private final CommandRecordJdbcRepository commandRecordJdbcRepository;
@@ -71,6 +77,53 @@ public class CommandManager {
     log.debug("Exit queueCommands");
   }
 
+  /**
+   * 异步执行多个命令，按CommandInfo.dependsOn声明的依赖关系执行：无依赖关系的命令并发执行，所依赖的命令都执行成功后才执行当前命令。
+   */
+  public void queueCommandGraph(CommandInfo... commands) {
+    queueCommandGraph(Lists.newArrayList(commands));
+  }
+
+  /**
+   * 异步执行多个命令，按CommandInfo.dependsOn声明的依赖关系执行：无依赖关系的命令并发执行，所依赖的命令都执行成功后才执行当前命令。
+   * 被依赖的命令需排在当前命令之前。重试时只执行尚未成功的命令。
+   */
+  public void queueCommandGraph(List<CommandInfo> commands) {
+    if (log.isDebugEnabled()) {
+      log.debug("Enter queueCommandGraph, commands: {}", JsonUtils.toJson(commands));
+    }
+
+    if (isEmpty(commands)) {
+      return;
+    }
+
+    // 创建命令事件
+    CommandEvent commandEvent = new CommandEvent(eventTypeHolder.getEventType(), AGGREGATE_GRAPH_COMMAND_TYPE, null);
+
+    // 创建命令列表，记录依赖的命令的顺序号，并保存
+    List<CommandRecord> commandRecords = createCommandRecords(commands, commandEvent.getKey());
+    Map<CommandInfo, Integer> seqNos = new IdentityHashMap<>();
+    for (int i = 0; i < commands.size(); i++) {
+      CommandInfo item = commands.get(i);
+      List<String> dependsOn = new ArrayList<>();
+      for (var dependency : item.getDependencies()) {
+        Integer dependencySeqNo = seqNos.get(dependency);
+        if (dependencySeqNo == null) {
+          throw new SystemErrorException("依赖的命令需排在当前命令之前, commandType: " + item.getCommandType());
+        }
+        dependsOn.add(String.valueOf(dependencySeqNo));
+      }
+      commandRecords.get(i).setDependsOn(String.join(",", dependsOn));
+      seqNos.put(item, i + 1);
+    }
+    commandRecordJdbcRepository.saveRecords(commandRecords);
+
+    // 发布命令事件
+    eventPublisher.publish(commandEvent);
+
+    log.debug("Exit queueCommandGraph");
+  }
+
   private List<CommandRecord> createCommandRecords(List<CommandInfo> commands, String eventKey) {
     List<CommandRecord> records = new ArrayList<>();
 
@@ -0,0 +1,50 @@
+package com.tehang.common.utility.event.command;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 并发执行聚合命令中无依赖关系的子命令的线程池，线程数由EnableCommand.parallelism指定。
+ * 线程池的队列已满时，由提交命令的线程(mq消费线程)直接执行。
+ */
+@Slf4j
+@SuppressWarnings("PMD.DoNotUseThreads")
+public class CommandParallelExecutor implements Executor, DisposableBean {
+
+  // 等待执行的子命令的最大数量
+  private static final int QUEUE_CAPACITY = 1000;
+
+  private final ThreadPoolExecutor executor;
+
+  public CommandParallelExecutor(CommandEventTypeHolder eventTypeHolder) {
+    int parallelism = Math.max(1, eventTypeHolder.getParallelism());
+    AtomicInteger threadCount = new AtomicInteger();
+    this.executor = new ThreadPoolExecutor(parallelism, parallelism, 60, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<>(QUEUE_CAPACITY),
+        runnable -> {
+          Thread thread = new Thread(runnable, "command-parallel-" + threadCount.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        },
+        // 队列已满或线程池已关闭时由提交的线程直接执行，避免提交的线程一直等待被丢弃的命令
+        (runnable, pool) -> runnable.run());
+    this.executor.allowCoreThreadTimeOut(true);
+  }
+
+  @Override
+  public void execute(Runnable command) {
+    executor.execute(command);
+  }
+
+  @Override
+  public void destroy() {
+    executor.shutdown();
+    log.debug("CommandParallelExecutor shutdown");
+  }
+}
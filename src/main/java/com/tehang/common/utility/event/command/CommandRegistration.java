@@ -0,0 +1,41 @@
+package com.tehang.common.utility.event.command;
+
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.tehang.common.utility.JsonUtils;
+import lombok.Getter;
+
+/**
+ * 命令注册表中的一项：命令对象，及预先解析的参数类型信息和参数、返回值的ObjectReader。
+ */
+@Getter
+final class CommandRegistration {
+
+  private final Command command;
+
+  private final CommandTypeInfo commandTypeInfo;
+
+  private final ObjectReader argsReader;
+
+  private final ObjectReader returnValueReader;
+
+  private CommandRegistration(Command command, CommandTypeInfo commandTypeInfo) {
+    this.command = command;
+    this.commandTypeInfo = commandTypeInfo;
+    this.argsReader = JsonUtils.readerFor(commandTypeInfo.getArgsClass());
+    this.returnValueReader = JsonUtils.readerFor(commandTypeInfo.getReturnClass());
+  }
+
+  static CommandRegistration of(Command command) {
+    return new CommandRegistration(command, CommandArgsTypeParser.parse(command));
+  }
+
+  /** 解析命令参数 */
+  Object readArgs(String json) {
+    return JsonUtils.toClass(json, argsReader);
+  }
+
+  /** 解析命令的返回值 */
+  Object readReturnValue(String json) {
+    return JsonUtils.toClass(json, returnValueReader);
+  }
+}
@@ -27,6 +27,7 @@ import java.lang.annotation.Target;
  *   `command_return_value`    text         null        comment '命令返回对象的json表示',
  *   `success`                 bit(1)       not null    comment '是否已执行成功',
  *   `seq_no`                  int(11)      not null    comment '命令的顺序号，从1开始',
+ *   `depends_on`              varchar(500) null        comment '依赖的命令的顺序号，逗号分隔，为null时依赖前一个命令',
  *   `create_time`             varchar(23)  not null    comment '创建时间',
  *   `update_time`             varchar(23)  not null    comment '更新时间',
  *   primary key (`id`),
@@ -54,6 +55,7 @@ import java.lang.annotation.Target;
     CommandManager.class,
     CommandEventSubscriber.class,
     CommandLocator.class,
+    CommandParallelExecutor.class,
     CommandEventTypeHolderRegistrar.class,
     CommandRecordJdbcRepository.class
 })
@@ -63,4 +65,9 @@ public @interface EnableCommand {
    * 配置命令事件的eventType值，此值必须配置，否则会报错。
    */
   String eventType();
+
+  /**
+   * 并发执行聚合命令中无依赖关系的子命令(CommandManager.queueCommandGraph)的最大线程数。
+   */
+  int parallelism() default 8;
 }
@@ -21,7 +21,7 @@ public class CommandRecord extends AggregateRoot<String> {
   @Column(nullable = false, length = 50)
   private String id;
 
-  /** 事件key, 此命令对应的事件key，同一个事件key下可以有多个命令，这些命令将按顺序执行。*/
+  /** 事件key, 此命令对应的事件key，同一个事件key下可以有多个命令，这些命令将按顺序或按依赖关系执行。*/
   @Column(nullable = false, length = 100)
   private String eventKey;
 
@@ -43,6 +43,10 @@ public class CommandRecord extends AggregateRoot<String> {
   /** 命令的顺序号，多个命令按顺序执行, 顺序号从1开始 */
   private int seqNo;
 
+  /** 依赖的命令的顺序号，逗号分隔，为空时不依赖其他命令；为null时(顺序执行的聚合命令)依赖前一个命令 */
+  @Column(length = 500)
+  private String dependsOn;
+
   // ------------- 方法 ------------
 
 }
@@ -1,5 +1,6 @@
 package com.tehang.common.utility.event.command.commandrecord;
 
+import com.tehang.common.utility.db.MultiRowInsertWriter;
 import com.tehang.common.utility.time.BjTime;
 import lombok.AllArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -11,6 +12,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.stream.Collectors;
 
 import static org.apache.commons.lang3.StringUtils.left;
 
@@ -19,18 +21,27 @@ import static org.apache.commons.lang3.StringUtils.left;
 @Slf4j
 public class CommandRecordJdbcRepository {
 
+  // 批量写入命令记录的多行insert语句
+  private static final MultiRowInsertWriter INSERT_WRITER = new MultiRowInsertWriter("command_record", List.of(
+      "id", "event_key", "command_type", "command_args", "command_return_value", "success", "seq_no", "create_time", "update_time"));
+
+  // 按依赖关系执行的命令同时写入依赖的命令
+  private static final MultiRowInsertWriter GRAPH_INSERT_WRITER = new MultiRowInsertWriter("command_record", List.of(
+      "id", "event_key", "command_type", "command_args", "command_return_value", "success", "seq_no", "depends_on", "create_time", "update_time"));
+
   private NamedParameterJdbcTemplate jdbcTemplate;
 
-  /** 添加命令列表 */
+  /** 添加命令列表，按块使用多行insert语句写入 */
   public void saveRecords(List<CommandRecord> records) {
-    records.forEach(this::saveRecord);
+    if (records.isEmpty()) {
+      return;
+    }
+    boolean hasDependencies = records.stream().anyMatch(record -> record.getDependsOn() != null);
+    MultiRowInsertWriter writer = hasDependencies ? GRAPH_INSERT_WRITER : INSERT_WRITER;
+    writer.insert(jdbcTemplate, records.stream().map(this::getInsertParams).collect(Collectors.toList()));
   }
 
-  /** 添加一条命令记录 */
-  private void saveRecord(CommandRecord record) {
-    String sql = "insert into command_record (id, event_key, command_type, command_args, command_return_value, success, seq_no, create_time, update_time) "
-        + "values (:id, :event_key, :command_type, :command_args, :command_return_value, :success, :seq_no, :create_time, :update_time) ";
-
+  private Map<String, Object> getInsertParams(CommandRecord record) {
     Map<String, Object> params = new HashMap<>();
     params.put("id", record.getId());
     params.put("event_key", record.getEventKey());
@@ -39,10 +50,10 @@ public class CommandRecordJdbcRepository {
     params.put("command_return_value", record.getCommandReturnValue());
     params.put("success", record.isSuccess());
     params.put("seq_no", record.getSeqNo());
+    params.put("depends_on", record.getDependsOn());
     params.put("create_time", record.getCreateTime().toString());
     params.put("update_time", record.getUpdateTime().toString());
-
-    jdbcTemplate.update(sql, params);
+    return params;
   }
 
   /**
@@ -57,6 +68,21 @@ public class CommandRecordJdbcRepository {
     return jdbcTemplate.query(sql, new BeanPropertyRowMapper<>(CommandRecord.class));
   }
 
+  /**
+   * 查询按依赖关系执行的所有命令记录(包含依赖的命令)，按顺序号从低到高排序。
+   */
+  public List<CommandRecord> findGraphRecordsByEventKey(String eventKey) {
+    String sql = "select id, event_key, command_type, command_args, command_return_value, "
+        + "success, seq_no, depends_on, create_time, update_time "
+        + "from command_record "
+        + "where event_key = :event_key order by seq_no asc ";
+
+    Map<String, Object> params = new HashMap<>();
+    params.put("event_key", eventKey);
+
+    return jdbcTemplate.query(sql, params, new BeanPropertyRowMapper<>(CommandRecord.class));
+  }
+
   /**
    * 命令执行成功后，调用此方法，更新状态为已完成
    */
@@ -50,16 +50,17 @@ public class DomainEventConsumeRecord extends AggregateRoot<String> {
   private String errorMessage;
 
   /**
-   * 创建消费处理中记录.
+   * 创建消费成功记录，与业务处理在同一个事务中提交.
    */
-  public static DomainEventConsumeRecord createProcessing(DomainEvent event, String subscriberId) {
+  public static DomainEventConsumeRecord createSuccess(DomainEvent event, String subscriberId) {
     var record = new DomainEventConsumeRecord();
     record.id = UUID.randomUUID().toString();
     record.eventKey = event.getKey();
     record.eventType = event.getEventType();
     record.subscriberId = subscriberId;
-    record.status = DomainEventConsumeStatus.Processing;
+    record.status = DomainEventConsumeStatus.Success;
     record.resetCreateAndUpdateTimeToNow();
+    record.consumeTime = record.getCreateTime();
     return record;
   }
 }
@@ -1,69 +1,85 @@
 package com.tehang.common.utility.event.consume;
 
+import com.tehang.common.utility.db.MultiRowInsertWriter;
 import com.tehang.common.utility.event.DomainEvent;
-import com.tehang.common.utility.time.BjTime;
 import lombok.AllArgsConstructor;
-import lombok.extern.slf4j.Slf4j;
 import org.springframework.dao.DuplicateKeyException;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.stereotype.Repository;
 
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 /**
  * 领域事件消费记录仓储.
  */
 @Repository
 @AllArgsConstructor
-@Slf4j
 public class DomainEventConsumeRecordJdbcRepository {
 
-  private static final String INSERT_SQL = "insert into domain_event_consume_record "
-      + "(id, event_key, event_type, subscriber_id, status, consume_time, error_message, create_time, update_time) "
-      + "values (:id, :event_key, :event_type, :subscriber_id, :status, "
-      + ":consume_time, :error_message, :create_time, :update_time) ";
+  // 批量写入消费记录的多行insert语句
+  private static final MultiRowInsertWriter INSERT_WRITER = new MultiRowInsertWriter("domain_event_consume_record", List.of(
+      "id", "event_key", "event_type", "subscriber_id", "status", "consume_time", "error_message", "create_time", "update_time"));
 
   private final NamedParameterJdbcTemplate jdbcTemplate;
 
   /**
-   * 插入消费处理中记录.
+   * 插入消费成功记录，已存在相同记录时不插入(不抛出异常)，返回是否插入成功.
+   * 相同记录由其他未提交的事务插入时，会等待该事务结束后再返回.
    */
-  public boolean insertProcessing(DomainEvent event, String subscriberId) {
-    DomainEventConsumeRecord record = DomainEventConsumeRecord.createProcessing(event, subscriberId);
+  public boolean insertSuccessIfAbsent(DomainEvent event, String subscriberId) {
     try {
-      jdbcTemplate.update(INSERT_SQL, getInsertParams(record));
+      INSERT_WRITER.insert(jdbcTemplate, List.of(getInsertParams(DomainEventConsumeRecord.createSuccess(event, subscriberId))));
       return true;
     }
     catch (DuplicateKeyException ex) {
-      log.warn("事件已消费或正在消费, key: {}, eventType: {}, subscriberId: {}",
-          event.getKey(), event.getEventType(), subscriberId);
       return false;
     }
   }
 
   /**
-   * 更新消费记录为成功状态.
+   * 用多行insert语句批量插入消费成功记录，已存在的记录保持不变，返回实际插入的记录数量.
+   * 不使用insert ignore，以免数据截断等错误被静默忽略.
    */
-  public void updateSuccess(DomainEvent event, String subscriberId) {
-    final String sql = "update domain_event_consume_record "
-        + "set status = :status, "
-        + "    consume_time = :consume_time, "
-        + "    update_time = :update_time "
-        + "where event_key = :event_key "
-        + "  and event_type = :event_type "
-        + "  and subscriber_id = :subscriber_id ";
+  public int insertSuccessIfAbsent(List<DomainEvent> events, String subscriberId) {
+    if (events.isEmpty()) {
+      return 0;
+    }
+
+    List<DomainEventConsumeRecord> records = events.stream()
+        .map(event -> DomainEventConsumeRecord.createSuccess(event, subscriberId))
+        .collect(Collectors.toList());
+    INSERT_WRITER.insertSkipDuplicate(jdbcTemplate, records.stream().map(this::getInsertParams).collect(Collectors.toList()), "id");
+
+    // 已存在的记录不会被写入，按本次生成的id查询实际插入的记录数量
+    final String sql = "select count(*) from domain_event_consume_record where id in (:ids)";
+    List<String> ids = records.stream().map(DomainEventConsumeRecord::getId).collect(Collectors.toList());
+    Integer count = jdbcTemplate.queryForObject(sql, Map.of("ids", ids), Integer.class);
+    return count == null ? 0 : count;
+  }
+
+  /**
+   * 一次查询指定事件key中已有消费记录的事件key.
+   */
+  public Set<String> findConsumedEventKeys(String eventType, List<String> eventKeys, String subscriberId) {
+    if (eventKeys.isEmpty()) {
+      return Set.of();
+    }
+    final String sql = "select event_key from domain_event_consume_record "
+        + "where event_type = :event_type "
+        + "  and subscriber_id = :subscriber_id "
+        + "  and event_key in (:event_keys) ";
 
-    BjTime now = BjTime.now();
     Map<String, Object> params = new HashMap<>();
-    params.put("event_key", event.getKey());
-    params.put("event_type", event.getEventType());
+    params.put("event_type", eventType);
     params.put("subscriber_id", subscriberId);
-    params.put("status", DomainEventConsumeStatus.Success.toString());
-    params.put("consume_time", now.toString());
-    params.put("update_time", now.toString());
+    params.put("event_keys", eventKeys);
 
-    jdbcTemplate.update(sql, params);
+    return new HashSet<>(jdbcTemplate.queryForList(sql, params, String.class));
   }
 
   private Map<String, Object> getInsertParams(DomainEventConsumeRecord record) {
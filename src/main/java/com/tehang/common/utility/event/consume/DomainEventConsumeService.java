@@ -1,12 +1,21 @@
 package com.tehang.common.utility.event.consume;
 
+import com.tehang.common.infrastructure.exceptions.RepeatableException;
 import com.tehang.common.utility.event.DomainEvent;
+import com.tehang.common.utility.event.subscriber.BatchClusteringEventSubscriber;
 import com.tehang.common.utility.event.subscriber.DatabaseIdempotentClusteringEventSubscriber;
 import lombok.AllArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
 /**
  * 领域事件消费幂等服务.
  */
@@ -18,12 +27,12 @@ public class DomainEventConsumeService {
   private final DomainEventConsumeRecordJdbcRepository consumeRecordJdbcRepository;
 
   /**
-   * 在同一个事务中完成消费记录占位、业务处理和成功状态更新.
+   * 在同一个事务中插入消费成功记录并完成业务处理，业务处理失败时事务回滚，消费记录随之撤销.
    */
   @Transactional
   public boolean consume(DatabaseIdempotentClusteringEventSubscriber subscriber, DomainEvent event) {
     String subscriberId = subscriber.subscriberId();
-    boolean inserted = consumeRecordJdbcRepository.insertProcessing(event, subscriberId);
+    boolean inserted = consumeRecordJdbcRepository.insertSuccessIfAbsent(event, subscriberId);
     if (!inserted) {
       log.warn("事件已消费成功, 此次为重复调用, 系统自动忽略, key: {}, eventType: {}, subscriberId: {}",
           event.getKey(), event.getEventType(), subscriberId);
@@ -31,7 +40,45 @@ public class DomainEventConsumeService {
     }
 
     subscriber.handleEvent(event);
-    consumeRecordJdbcRepository.updateSuccess(event, subscriberId);
     return true;
   }
+
+  /**
+   * 批量消费：一次查询过滤已消费的事件，在同一个事务中用一条语句插入整批消费成功记录并批量处理.
+   * 同一批次的事件类型相同. 返回实际处理的事件数量.
+   */
+  @Transactional
+  public int consumeBatch(BatchClusteringEventSubscriber subscriber, List<DomainEvent> events) {
+    String subscriberId = subscriber.subscriberId();
+    String eventType = subscriber.subscribedEventType();
+
+    List<String> eventKeys = events.stream().map(DomainEvent::getKey).distinct().collect(Collectors.toList());
+    Set<String> consumedKeys = consumeRecordJdbcRepository.findConsumedEventKeys(eventType, eventKeys, subscriberId);
+
+    // 过滤已消费的事件，同一批次中重复的事件只处理一次
+    Map<String, DomainEvent> newEvents = new LinkedHashMap<>();
+    for (var event : events) {
+      if (!consumedKeys.contains(event.getKey())) {
+        newEvents.putIfAbsent(event.getKey(), event);
+      }
+    }
+    if (newEvents.size() < events.size()) {
+      log.warn("批量事件中有{}个已消费成功或重复, 系统自动忽略, eventType: {}, subscriberId: {}",
+          events.size() - newEvents.size(), eventType, subscriberId);
+    }
+    if (newEvents.isEmpty()) {
+      return 0;
+    }
+
+    List<DomainEvent> eventsToHandle = new ArrayList<>(newEvents.values());
+    int inserted = consumeRecordJdbcRepository.insertSuccessIfAbsent(eventsToHandle, subscriberId);
+    if (inserted < eventsToHandle.size()) {
+      // 查询之后有事件被其他消费者并发消费，回滚后整批重新消费，届时这些事件将被过滤
+      throw new RepeatableException(String.format("批量事件中有%d个正在被并发消费, eventType: %s, subscriberId: %s",
+          eventsToHandle.size() - inserted, eventType, subscriberId));
+    }
+
+    subscriber.handleEvents(eventsToHandle);
+    return eventsToHandle.size();
+  }
 }
@@ -6,7 +6,7 @@ package com.tehang.common.utility.event.consume;
 public enum DomainEventConsumeStatus {
 
   /**
-   * 消费事务内的占位状态.
+   * 消费事务内的占位状态, 仅旧版本写入, 现在消费记录直接以成功状态插入.
    */
   Processing,
 
@@ -0,0 +1,24 @@
+package com.tehang.common.utility.event.metrics;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * 一组eventType和topic的待发送事件记录的积压情况.
+ */
+@Getter
+@AllArgsConstructor
+public class DomainEventBacklog {
+
+  /** 事件类型 */
+  private final String eventType;
+
+  /** 事件对应的mq的topic */
+  private final String topic;
+
+  /** 待发送的记录数量 */
+  private final long count;
+
+  /** 最早一条待发送记录的创建时间(毫秒) */
+  private final long oldestCreateTimeMillis;
+}
@@ -0,0 +1,204 @@
+package com.tehang.common.utility.event.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 事务消息中继及消费的监控指标，通过Micrometer输出，指标均按eventType和topic打标签.
+ * 应用中存在MeterRegistry时注册到该registry，否则注册到Micrometer的全局registry(未配置监控系统时不产生任何开销).
+ * 各指标按标签缓存，只在第一次出现时注册；百分位直方图默认关闭，需要时通过tehang.event.metrics.percentile-histogram开启.
+ */
+@Component
+public class DomainEventMetrics {
+
+  private static final String TAG_EVENT_TYPE = "eventType";
+  private static final String TAG_TOPIC = "topic";
+  private static final String TAG_RESULT = "result";
+
+  private final MeterRegistry registry;
+
+  // 是否为timer输出百分位直方图，每个timer会增加数十个bucket的时间序列
+  private final boolean percentileHistogramEnabled;
+
+  // 已注册的timer和counter，key为标签
+  private final ConcurrentMap<Tags, Timer> publishToSendTimers = new ConcurrentHashMap<>();
+  private final ConcurrentMap<Tags, Timer> mqSendTimers = new ConcurrentHashMap<>();
+  private final ConcurrentMap<Tags, Counter> sendFailedCounters = new ConcurrentHashMap<>();
+  private final ConcurrentMap<Tags, Timer> consumeTimers = new ConcurrentHashMap<>();
+  private final ConcurrentMap<Tags, Counter> consumeSkippedCounters = new ConcurrentHashMap<>();
+
+  // 待发送记录积压的gauge，key为eventType和topic的标签；gauge注册后一直保留，不再出现的积压置为0
+  private final ConcurrentMap<Tags, BacklogGauge> backlogGauges = new ConcurrentHashMap<>();
+
+  @Autowired
+  public DomainEventMetrics(ObjectProvider<MeterRegistry> meterRegistryProvider,
+                            @Value("${tehang.event.metrics.percentile-histogram:false}") boolean percentileHistogramEnabled) {
+    this(meterRegistryProvider.getIfAvailable(() -> Metrics.globalRegistry), percentileHistogramEnabled);
+  }
+
+  public DomainEventMetrics(MeterRegistry registry) {
+    this(registry, false);
+  }
+
+  public DomainEventMetrics(MeterRegistry registry, boolean percentileHistogramEnabled) {
+    this.registry = registry;
+    this.percentileHistogramEnabled = percentileHistogramEnabled;
+  }
+
+  /**
+   * 是否配置了监控系统：使用全局registry且其中没有任何实际的registry时，指标不会输出，可跳过统计指标的开销(如积压查询).
+   */
+  public boolean isEnabled() {
+    return !(registry instanceof CompositeMeterRegistry) || !((CompositeMeterRegistry) registry).getRegistries().isEmpty();
+  }
+
+  /**
+   * 更新待发送记录的积压数量及最早一条记录的等待时长.
+   */
+  public void updateBacklog(List<DomainEventBacklog> backlogs) {
+    Set<Tags> updated = new HashSet<>();
+    for (var backlog : backlogs) {
+      Tags tags = eventTags(backlog.getEventType(), backlog.getTopic());
+      backlogGauges.computeIfAbsent(tags, this::registerBacklogGauge)
+          .update(backlog.getCount(), backlog.getOldestCreateTimeMillis());
+      updated.add(tags);
+    }
+
+    // 本次不再有积压的gauge置为0
+    backlogGauges.forEach((tags, gauge) -> {
+      if (!updated.contains(tags)) {
+        gauge.clear();
+      }
+    });
+  }
+
+  /**
+   * 记录事件从发布(创建记录)到成功发送到mq的时长.
+   */
+  public void recordPublishToSend(String eventType, String topic, long createTimeMillis) {
+    publishToSendTimers.computeIfAbsent(eventTags(eventType, topic),
+            tags -> registerTimer("domain.event.relay.publish.latency", "事件从发布到成功发送到mq的时长", tags))
+        .record(Math.max(0, System.currentTimeMillis() - createTimeMillis), TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * 记录一次发送到mq的耗时.
+   */
+  public void recordMqSend(String eventType, String topic, boolean success, long elapsedNanos) {
+    mqSendTimers.computeIfAbsent(eventTags(eventType, topic).and(TAG_RESULT, success ? "success" : "failure"),
+            tags -> registerTimer("domain.event.mq.send", "单次发送事件消息到mq的耗时", tags))
+        .record(elapsedNanos, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * 记录一次发送失败后的记录更新：未达到最大发送次数时为重试，否则为最终失败.
+   */
+  public void recordSendFailed(String eventType, String topic, boolean lastSendTime) {
+    sendFailedCounters.computeIfAbsent(eventTags(eventType, topic).and("outcome", lastSendTime ? "failed" : "retry"),
+            tags -> registerCounter("domain.event.relay.send.failed", "事件消息发送失败的次数", tags))
+        .increment();
+  }
+
+  /**
+   * 记录一次消息消费的耗时，result为消费结果: success, reconsume, error.
+   */
+  public void recordConsume(String eventType, String topic, String result, long elapsedNanos) {
+    consumeTimers.computeIfAbsent(eventTags(eventType, topic).and(TAG_RESULT, result),
+            tags -> registerTimer("domain.event.consume", "消费一条事件消息的耗时", tags))
+        .record(elapsedNanos, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * 记录一次因幂等控制而跳过的重复消费，idempotency为幂等控制方式: redis, database.
+   */
+  public void recordConsumeSkipped(String eventType, String topic, String idempotency) {
+    recordConsumeSkipped(eventType, topic, idempotency, 1);
+  }
+
+  /**
+   * 记录因幂等控制而跳过的多次重复消费，用于批量消费.
+   */
+  public void recordConsumeSkipped(String eventType, String topic, String idempotency, long count) {
+    if (count <= 0) {
+      return;
+    }
+    consumeSkippedCounters.computeIfAbsent(eventTags(eventType, topic).and("idempotency", idempotency),
+            tags -> registerCounter("domain.event.consume.skipped", "因幂等控制而跳过的重复消费次数", tags))
+        .increment(count);
+  }
+
+  private Timer registerTimer(String name, String description, Tags tags) {
+    return Timer.builder(name)
+        .description(description)
+        .tags(tags)
+        .publishPercentileHistogram(percentileHistogramEnabled)
+        .register(registry);
+  }
+
+  private Counter registerCounter(String name, String description, Tags tags) {
+    return Counter.builder(name)
+        .description(description)
+        .tags(tags)
+        .register(registry);
+  }
+
+  private BacklogGauge registerBacklogGauge(Tags tags) {
+    var gauge = new BacklogGauge();
+    Gauge.builder("domain.event.relay.backlog", gauge, BacklogGauge::getCount)
+        .description("待发送的事件记录数量")
+        .tags(tags)
+        .register(registry);
+    Gauge.builder("domain.event.relay.backlog.oldest.age", gauge, BacklogGauge::getOldestAgeSeconds)
+        .description("最早一条待发送的事件记录的等待时长")
+        .tags(tags)
+        .baseUnit("seconds")
+        .register(registry);
+    return gauge;
+  }
+
+  private static Tags eventTags(String eventType, String topic) {
+    return Tags.of(TAG_EVENT_TYPE, String.valueOf(eventType), TAG_TOPIC, String.valueOf(topic));
+  }
+
+  /**
+   * 一组eventType和topic的积压情况. 等待时长在读取时按当前时间计算，两次更新之间也能反映积压的增长.
+   */
+  private static final class BacklogGauge {
+    private volatile long count;
+    private volatile long oldestCreateTimeMillis;
+
+    void update(long count, long oldestCreateTimeMillis) {
+      this.count = count;
+      this.oldestCreateTimeMillis = oldestCreateTimeMillis;
+    }
+
+    void clear() {
+      update(0, 0);
+    }
+
+    double getCount() {
+      return count;
+    }
+
+    double getOldestAgeSeconds() {
+      long oldest = oldestCreateTimeMillis;
+      return oldest <= 0 ? 0 : Math.max(0, System.currentTimeMillis() - oldest) / 1000.0;
+    }
+  }
+}
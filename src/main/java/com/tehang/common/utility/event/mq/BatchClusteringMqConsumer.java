@@ -0,0 +1,223 @@
+package com.tehang.common.utility.event.mq;
+
+import com.aliyun.openservices.ons.api.Action;
+import com.aliyun.openservices.ons.api.Message;
+import com.aliyun.openservices.ons.api.ONSFactory;
+import com.aliyun.openservices.ons.api.PropertyKeyConst;
+import com.aliyun.openservices.ons.api.PropertyValueConst;
+import com.aliyun.openservices.ons.api.batch.BatchConsumer;
+import com.tehang.common.infrastructure.exceptions.RepeatableException;
+import com.tehang.common.infrastructure.exceptions.SystemErrorException;
+import com.tehang.common.utility.event.DomainEvent;
+import com.tehang.common.utility.event.consume.DomainEventConsumeService;
+import com.tehang.common.utility.event.metrics.DomainEventMetrics;
+import com.tehang.common.utility.event.subscriber.BatchClusteringEventSubscriber;
+import com.tehang.common.utility.event.subscriber.DatabaseIdempotentClusteringEventSubscriber;
+import com.tehang.common.utility.lock.DistributedLockFactory;
+import com.tehang.common.utility.lock.IdempotentClaim;
+import com.tehang.common.utility.lock.LockNotAcquiredException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.CommandLineRunner;
+import org.springframework.context.ApplicationContext;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.stream.Collectors;
+
+import static org.apache.commons.lang3.StringUtils.trimToEmpty;
+
+/**
+ * 批量集群消息消费者：为每个BatchClusteringEventSubscriber创建一个批量消费者，一次消费一批消息.
+ * redis幂等控制时以pipeline在一次往返中逐条认领消息(处理中标记)后整批处理，处理成功后同样在一次往返中标记完成；数据库幂等控制时对整批消息只查询一次数据库.
+ */
+@Component
+@Slf4j
+public class BatchClusteringMqConsumer implements CommandLineRunner, DisposableBean {
+
+  // 用来防重处理的redisKey的过期时间：24小时
+  private static final int REDIS_KEY_TIMEOUT_HOURS = 24;
+
+  // 防重处理的redisKey中已消费成功的状态
+  private static final String CONSUMED_STATUS = "OK";
+
+  // 每批最多消费的消息数量的上限
+  private static final int MAX_BATCH_SIZE = 32;
+
+  @Autowired
+  private MqConfig mqConfig;
+
+  @Autowired
+  private ApplicationContext applicationContext;
+
+  @Autowired
+  private DistributedLockFactory lockFactory;
+
+  @Autowired
+  private DomainEventMetrics eventMetrics;
+
+  @Autowired(required = false)
+  private DomainEventConsumeService domainEventConsumeService;
+
+  /**
+   * 阿里云底层的批量消息消费者, 每个批量订阅者一个.
+   */
+  private final List<BatchConsumer> consumers = new ArrayList<>();
+
+  /**
+   * 将消息body反序列化为事件.
+   */
+  private final DomainEventReader eventReader = new DomainEventReader();
+
+  /**
+   * 在SpringBoot应用程序启动后, 为每个批量订阅者开启消费者订阅.
+   */
+  @Override
+  public void run(String... args) {
+    Map<String, BatchClusteringEventSubscriber> subscribers = applicationContext.getBeansOfType(BatchClusteringEventSubscriber.class);
+    if (subscribers.isEmpty()) {
+      log.debug("BatchClusteringMqConsumer init completed: has no BatchClusteringEventSubscribers");
+      return;
+    }
+
+    subscribers.values().forEach(this::startConsumer);
+  }
+
+  private void startConsumer(BatchClusteringEventSubscriber subscriber) {
+    log.debug("BatchClusteringMqConsumer initializing, subscriber: {}", subscriber.getInstanceId());
+    eventReader.register(subscriber.getEventClass());
+    BatchConsumer consumer = ONSFactory.createBatchConsumer(getProperties(subscriber));
+    consumer.start();
+
+    String tag = trimToEmpty(mqConfig.getEventTagPrefix()) + subscriber.subscribedEventType();
+    consumer.subscribe(mqConfig.getTopic(), tag,
+        (messages, context) -> consumeMessages(subscriber, messages) ? Action.CommitMessage : Action.ReconsumeLater);
+    consumers.add(consumer);
+
+    log.debug("BatchClusteringMqConsumer started, subscriber: {}, tag: {}", subscriber.getInstanceId(), tag);
+  }
+
+  /**
+   * 消费一批mq消息，返回是否消费成功，失败时整批消息需稍后重新消费.
+   */
+  @SuppressWarnings("PMD.AvoidCatchingGenericException")
+  boolean consumeMessages(BatchClusteringEventSubscriber subscriber, List<Message> messages) {
+    long startNanos = System.nanoTime();
+    String eventType = subscriber.subscribedEventType();
+    List<String> keys = messages.stream().map(Message::getKey).collect(Collectors.toList());
+    log.info("BatchClusteringMqConsumer start, eventType: {}, size: {}, keys: {}", eventType, messages.size(), keys);
+
+    try {
+      List<DomainEvent> events = messages.stream()
+          .map(message -> eventReader.read(MessageBodyCodec.decodeBytes(message), subscriber.getEventClass()))
+          .collect(Collectors.toList());
+      consumeEvents(subscriber, events);
+
+      log.info("BatchClusteringMqConsumer completed, eventType: {}, size: {}", eventType, messages.size());
+      recordConsume(eventType, "success", startNanos);
+      return true;
+    }
+    catch (RepeatableException | LockNotAcquiredException ex) {
+      log.warn("BatchClusteringMqConsumer will reconsume later, error: {}, eventType: {}, keys: {}", ex.getMessage(), eventType, keys);
+      recordConsume(eventType, "reconsume", startNanos);
+      return false;
+    }
+    catch (Exception ex) {
+      log.error("BatchClusteringMqConsumer failed, error: {}, eventType: {}, keys: {}", ex.getMessage(), eventType, keys, ex);
+      recordConsume(eventType, "error", startNanos);
+      return false;
+    }
+  }
+
+  void consumeEvents(BatchClusteringEventSubscriber subscriber, List<DomainEvent> events) {
+    String eventType = subscriber.subscribedEventType();
+    if (subscriber instanceof DatabaseIdempotentClusteringEventSubscriber) {
+      if (domainEventConsumeService == null) {
+        throw new SystemErrorException("Database idempotent event subscriber requires EnableTransactionalDomainEvent");
+      }
+      int handledCount = domainEventConsumeService.consumeBatch(subscriber, events);
+      eventMetrics.recordConsumeSkipped(eventType, mqConfig.getTopic(), "database", events.size() - handledCount);
+      return;
+    }
+
+    // 同一批次中重复的消息只处理一次
+    Map<String, DomainEvent> eventsByRedisKey = new LinkedHashMap<>();
+    for (var event : events) {
+      eventsByRedisKey.putIfAbsent(ClusteringMqConsumer.getIdempotentRedisKey(eventType, event), event);
+    }
+    int skippedCount = events.size() - eventsByRedisKey.size();
+
+    // 逐条认领：以pipeline在一次往返中对每个key完成防重检查和处理中标记的设置，避免与其他消费者并发处理同一消息
+    List<IdempotentClaim> claims = new ArrayList<>();
+    List<DomainEvent> claimedEvents = new ArrayList<>();
+    List<String> inProgressKeys = new ArrayList<>();
+    try {
+      List<String> redisKeys = new ArrayList<>(eventsByRedisKey.keySet());
+      List<IdempotentClaim> results = lockFactory.claimIdempotent(redisKeys, CONSUMED_STATUS, DistributedLockFactory.WATCHDOG_LEASE_MILLI_SECONDS);
+      for (int i = 0; i < redisKeys.size(); i++) {
+        var claim = results.get(i);
+        if (claim.isClaimed()) {
+          claims.add(claim);
+          claimedEvents.add(eventsByRedisKey.get(redisKeys.get(i)));
+        }
+        else if (claim.getStatus() == IdempotentClaim.Status.COMPLETED) {
+          skippedCount++;
+        }
+        else {
+          inProgressKeys.add(redisKeys.get(i));
+        }
+      }
+
+      if (skippedCount > 0) {
+        log.warn("批量事件中有{}个已处理成功或重复, 系统自动忽略, eventType: {}", skippedCount, eventType);
+        eventMetrics.recordConsumeSkipped(eventType, mqConfig.getTopic(), "redis", skippedCount);
+      }
+      if (!claimedEvents.isEmpty()) {
+        subscriber.handleEvents(claimedEvents);
+
+        // 处理成功后在redis中设置消费状态为OK
+        lockFactory.completeIdempotent(claims, Duration.ofHours(REDIS_KEY_TIMEOUT_HOURS));
+      }
+    }
+    finally {
+      // 未完成的认领(处理失败时)释放，以便重新消费
+      claims.forEach(IdempotentClaim::close);
+    }
+
+    if (!inProgressKeys.isEmpty()) {
+      // 其他消费者正在处理，整批稍后重新消费，本次已处理成功的消息届时将被忽略
+      throw new LockNotAcquiredException("批量事件中有消息正在处理中, redisKeys: " + inProgressKeys);
+    }
+  }
+
+  private void recordConsume(String eventType, String result, long startNanos) {
+    eventMetrics.recordConsume(eventType, mqConfig.getTopic(), result, System.nanoTime() - startNanos);
+  }
+
+  private Properties getProperties(BatchClusteringEventSubscriber subscriber) {
+    Properties properties = new Properties();
+    properties.put(PropertyKeyConst.AccessKey, mqConfig.getAccessKey());
+    properties.put(PropertyKeyConst.SecretKey, mqConfig.getAccessSecretKey());
+    properties.put(PropertyKeyConst.NAMESRV_ADDR, mqConfig.getNameServer());
+
+    properties.put(PropertyKeyConst.GROUP_ID, subscriber.groupId());
+    properties.put(PropertyKeyConst.MessageModel, PropertyValueConst.CLUSTERING);
+    properties.put(PropertyKeyConst.ConsumeThreadNums, subscriber.consumeThreadNums());
+    properties.put(PropertyKeyConst.ConsumeMessageBatchMaxSize, Math.max(1, Math.min(subscriber.batchSize(), MAX_BATCH_SIZE)));
+    properties.put(PropertyKeyConst.BatchConsumeMaxAwaitDurationInSeconds, Math.max(0, subscriber.batchMaxAwaitSeconds()));
+    return properties;
+  }
+
+  @Override
+  public void destroy() {
+    consumers.forEach(BatchConsumer::shutdown);
+    consumers.clear();
+    log.debug("BatchClusteringMqConsumer shutdown");
+  }
+}
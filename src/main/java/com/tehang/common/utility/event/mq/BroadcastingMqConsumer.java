@@ -8,7 +8,6 @@ import com.aliyun.openservices.ons.api.ONSFactory;
 import com.aliyun.openservices.ons.api.PropertyKeyConst;
 import com.aliyun.openservices.ons.api.PropertyValueConst;
 import com.tehang.common.infrastructure.exceptions.SystemErrorException;
-import com.tehang.common.utility.JsonUtils;
 import com.tehang.common.utility.event.DomainEvent;
 import com.tehang.common.utility.event.cache.RefreshableCache;
 import com.tehang.common.utility.event.subscriber.BroadcastingEventSubscriber;
@@ -21,7 +20,6 @@ import org.springframework.boot.CommandLineRunner;
 import org.springframework.context.ApplicationContext;
 import org.springframework.stereotype.Component;
 
-import java.nio.charset.Charset;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
@@ -59,6 +57,11 @@ public class BroadcastingMqConsumer implements CommandLineRunner, DisposableBean
    */
   private ConcurrentMap<String, List<BroadcastingEventSubscriber>> allSubscribers;
 
+  /**
+   * 将消息body反序列化为事件.
+   */
+  private final DomainEventReader eventReader = new DomainEventReader();
+
   /**
    * 在SpringBoot应用程序启动后, 开启消费者订阅.
    */
@@ -77,9 +80,23 @@ public class BroadcastingMqConsumer implements CommandLineRunner, DisposableBean
     // 创建Consumer
     log.debug("BroadcastingMqConsumer initializing");
     Properties properties = getProperties();
-    consumer = ONSFactory.createConsumer(properties);
+    Consumer onsConsumer = ONSFactory.createConsumer(properties);
     log.debug("BroadcastingMqConsumer created");
 
+    startConsumer(onsConsumer);
+  }
+
+  /**
+   * 使用指定的底层Consumer初始化订阅者并开启订阅, 可传入本地替身以脱离真实broker测试.
+   */
+  void start(Consumer onsConsumer) {
+    initEventSubscribers();
+    startConsumer(onsConsumer);
+  }
+
+  private void startConsumer(Consumer onsConsumer) {
+    this.consumer = onsConsumer;
+
     // 启动Consumer
     log.debug("BroadcastingMqConsumer starting");
     consumer.start();
@@ -90,8 +107,8 @@ public class BroadcastingMqConsumer implements CommandLineRunner, DisposableBean
 
       String tag = message.getTag();
       String key = message.getKey();
-      String body = new String(message.getBody(), Charset.forName("UTF-8"));
-      log.debug("BroadcastingMqConsumer start, tag:{}, key:{}, body:{}", tag, key, body);
+      byte[] body = MessageBodyCodec.decodeBytes(message);
+      log.debug("BroadcastingMqConsumer start, tag:{}, key:{}, body:{}", tag, key, MessageBodyCodec.preview(body));
 
       ScopedSpan span = tracer.startScopedSpan("mqConsumer");// start a new tracer for each message
       try {
@@ -115,7 +132,7 @@ public class BroadcastingMqConsumer implements CommandLineRunner, DisposableBean
   /**
    * 针对一条消息的处理逻辑
    */
-  private void processMessage(String tag, String body) {
+  private void processMessage(String tag, byte[] body) {
     // 根据Tag得到EventType: 去掉前缀
     String eventType = getEventTypeFromTag(tag);
 
@@ -126,7 +143,7 @@ public class BroadcastingMqConsumer implements CommandLineRunner, DisposableBean
       // 根据第一个订阅者的EventClass反序列化得到DomainEvent参数
       // 约定：所有相同EventType的订阅者需要使用相当的事件参数
       var firstSubscriber = subscribers.get(0);
-      DomainEvent event = JsonUtils.toClass(body, firstSubscriber.getEventClass());
+      DomainEvent event = eventReader.read(body, firstSubscriber.getEventClass());
       log.debug("DomainEvent created: {}", event);
 
       for (var subscriber : subscribers) {
@@ -174,6 +191,9 @@ public class BroadcastingMqConsumer implements CommandLineRunner, DisposableBean
 
     // 将订阅者按EventType进行分组
     this.allSubscribers = subscribers.collect(Collectors.groupingByConcurrent(EventSubscriber::subscribedEventType));
+
+    // 预先创建各事件参数类型的ObjectReader, 相同EventType的订阅者使用第一个订阅者的事件参数
+    this.allSubscribers.values().forEach(eventSubscribers -> eventReader.register(eventSubscribers.get(0).getEventClass()));
   }
 
   private Properties getProperties() {
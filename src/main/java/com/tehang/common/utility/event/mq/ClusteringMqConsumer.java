@@ -5,18 +5,25 @@ import brave.Tracer;
 import brave.propagation.TraceContext;
 import com.aliyun.openservices.ons.api.Action;
 import com.aliyun.openservices.ons.api.Consumer;
+import com.aliyun.openservices.ons.api.Message;
 import com.aliyun.openservices.ons.api.ONSFactory;
 import com.aliyun.openservices.ons.api.PropertyKeyConst;
 import com.aliyun.openservices.ons.api.PropertyValueConst;
+import com.aliyun.openservices.ons.api.order.OrderAction;
+import com.aliyun.openservices.ons.api.order.OrderConsumer;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import com.tehang.common.infrastructure.exceptions.RepeatableException;
 import com.tehang.common.infrastructure.exceptions.SystemErrorException;
-import com.tehang.common.utility.JsonUtils;
 import com.tehang.common.utility.event.DomainEvent;
 import com.tehang.common.utility.event.consume.DomainEventConsumeService;
+import com.tehang.common.utility.event.metrics.DomainEventMetrics;
+import com.tehang.common.utility.event.subscriber.BatchClusteringEventSubscriber;
 import com.tehang.common.utility.event.subscriber.ClusteringEventSubscriber;
 import com.tehang.common.utility.event.subscriber.DatabaseIdempotentClusteringEventSubscriber;
 import com.tehang.common.utility.event.subscriber.EventSubscriber;
 import com.tehang.common.utility.lock.DistributedLockFactory;
+import com.tehang.common.utility.lock.IdempotentClaim;
 import com.tehang.common.utility.lock.LockNotAcquiredException;
 import com.tehang.common.utility.lock.LockTimeoutException;
 import com.tehang.common.utility.time.BjTime;
@@ -28,10 +35,8 @@ import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.context.ApplicationContext;
-import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Component;
 
-import java.nio.charset.Charset;
 import java.time.Duration;
 import java.util.List;
 import java.util.Map;
@@ -49,12 +54,16 @@ import static org.apache.commons.lang3.StringUtils.trimToEmpty;
 @Slf4j
 public class ClusteringMqConsumer implements CommandLineRunner, DisposableBean {
 
-  // 消费处理的分布式锁的超时时间：用来控制消费者必须同步进行消息处理
-  private static final int REDIS_LOCK_TIMEOUT_MINUTES = 15;
-
   // 用来防重处理的redisKey的过期时间：24小时
   private static final int REDIS_KEY_TIMEOUT_HOURS = 24;
 
+  // 防重处理的redisKey中已消费成功的状态
+  private static final String CONSUMED_STATUS = "OK";
+
+  // 本地保留的最近消费成功的消息数量及保留时长，用来在不访问redis的情况下忽略重复投递的消息
+  private static final int RECENTLY_CONSUMED_MAX_SIZE = 10000;
+  private static final int RECENTLY_CONSUMED_EXPIRE_MINUTES = 30;
+
   @Autowired
   private MqConfig mqConfig;
 
@@ -64,25 +73,43 @@ public class ClusteringMqConsumer implements CommandLineRunner, DisposableBean {
   @Autowired
   private ApplicationContext applicationContext;
 
-  @Autowired
-  private StringRedisTemplate redisTemplate;
-
   @Autowired
   private DistributedLockFactory lockFactory;
 
   @Autowired(required = false)
   private DomainEventConsumeService domainEventConsumeService;
 
+  @Autowired
+  private DomainEventMetrics eventMetrics;
+
   /**
    * 阿里云底层的消息消费者, 在程序启动时创建并初始化.
    */
   private Consumer consumer;
 
+  /**
+   * 阿里云底层的顺序消息消费者, 启用顺序投递时代替consumer.
+   */
+  private OrderConsumer orderConsumer;
+
   /**
    * 当前服务中集群事件的订阅者集合, key为EventType.
    */
   private ConcurrentMap<String, List<ClusteringEventSubscriber>> allSubscribers;
 
+  /**
+   * 最近消费成功的消息的防重redisKey.
+   */
+  private final Cache<String, Boolean> recentlyConsumedKeys = Caffeine.newBuilder()
+      .maximumSize(RECENTLY_CONSUMED_MAX_SIZE)
+      .expireAfterWrite(RECENTLY_CONSUMED_EXPIRE_MINUTES, TimeUnit.MINUTES)
+      .build();
+
+  /**
+   * 将消息body反序列化为事件.
+   */
+  private final DomainEventReader eventReader = new DomainEventReader();
+
   /**
    * 在SpringBoot应用程序启动后, 开启消费者订阅.
    */
@@ -98,57 +125,106 @@ public class ClusteringMqConsumer implements CommandLineRunner, DisposableBean {
       return;
     }
 
+    //订阅多个 Tag  TagA||TagB，如果模糊订阅 *
+    String consumerTags = getClusteringConsumerTags();
+    if (mqConfig.isOrderedDelivery()) {
+      startOrderConsumer(consumerTags);
+    }
+    else {
+      startConsumer(consumerTags);
+    }
+
+    log.debug("ClusteringMqConsumer started, consumeTags: {}", consumerTags);
+  }
+
+  private void startConsumer(String consumerTags) {
     // 创建Consumer
     log.debug("ClusteringMqConsumer initializing");
-    Properties properties = getProperties();
-    consumer = ONSFactory.createConsumer(properties);
+    Consumer onsConsumer = ONSFactory.createConsumer(getProperties());
     log.debug("ClusteringMqConsumer created");
 
+    startConsumer(onsConsumer, consumerTags);
+  }
+
+  /**
+   * 使用指定的底层Consumer初始化订阅者并开启订阅, 可传入本地替身以脱离真实broker测试.
+   */
+  void start(Consumer onsConsumer) {
+    initEventSubscribers();
+    startConsumer(onsConsumer, getClusteringConsumerTags());
+  }
+
+  private void startConsumer(Consumer onsConsumer, String consumerTags) {
+    this.consumer = onsConsumer;
+
     // 启动Consumer
     log.debug("ClusteringMqConsumer starting");
     consumer.start();
 
-    //订阅多个 Tag  TagA||TagB，如果模糊订阅 *
-    String consumerTags = getClusteringConsumerTags();
-    consumer.subscribe(mqConfig.getTopic(), consumerTags, (message, context) -> {
-
-      BjTime start = BjTime.now();
-      String tag = message.getTag();
-      String key = message.getKey();
-      String body = new String(message.getBody(), Charset.forName("UTF-8"));
-      log.info("ClusteringMqConsumer start, tag: {}, key: {}, body: {}", tag, key, body);
-
-      try {
-        // 处理收到的mq消息
-        processMessage(tag, body);
-
-        double elapsedSeconds = ElapsedSeconds.from(start).getSeconds();
-        if (elapsedSeconds > 120) {
-          // 消费时长超过限制时，提升日志级别
-          log.warn("ClusteringMqConsumer completed, tag: {}, key: {}, elapsed: {}s", tag, key, String.format("%.1f", elapsedSeconds));
-        }
-        else {
-          log.info("ClusteringMqConsumer completed, tag: {}, key: {}", tag, key);
-        }
-        return Action.CommitMessage;
-      }
-      catch (LockNotAcquiredException | LockTimeoutException | RepeatableException ex) {
-        log.warn("ClusteringMqConsumer will reconsume later, error: {}, tag: {}, key: {}, body: {}", ex.getMessage(), tag, key, body);
-        return Action.ReconsumeLater;
+    consumer.subscribe(mqConfig.getTopic(), consumerTags,
+        (message, context) -> consumeMessage(message) ? Action.CommitMessage : Action.ReconsumeLater);
+  }
+
+  /**
+   * 顺序投递时使用顺序消费者: 同一队列(同一shardingKey)的消息由一个线程依次消费，不同队列的消息在多个消费线程上并行消费.
+   * 消费失败时暂停该队列片刻后在本地重试，不会打乱后续消息的顺序.
+   */
+  private void startOrderConsumer(String consumerTags) {
+    log.debug("ClusteringMqConsumer initializing, ordered");
+    orderConsumer = ONSFactory.createOrderedConsumer(getProperties());
+    log.debug("ClusteringMqConsumer created, ordered");
+
+    log.debug("ClusteringMqConsumer starting, ordered");
+    orderConsumer.start();
+
+    orderConsumer.subscribe(mqConfig.getTopic(), consumerTags,
+        (message, context) -> consumeMessage(message) ? OrderAction.Success : OrderAction.Suspend);
+  }
+
+  /**
+   * 消费一条mq消息，返回是否消费成功，失败时需稍后重新消费.
+   */
+  @SuppressWarnings("PMD.AvoidCatchingGenericException")
+  private boolean consumeMessage(Message message) {
+    BjTime start = BjTime.now();
+    long startNanos = System.nanoTime();
+    String tag = message.getTag();
+    String key = message.getKey();
+    byte[] body = MessageBodyCodec.decodeBytes(message);
+    Object bodyPreview = MessageBodyCodec.preview(body);
+    log.info("ClusteringMqConsumer start, tag: {}, key: {}, body: {}", tag, key, bodyPreview);
+
+    try {
+      // 处理收到的mq消息
+      processMessage(tag, body);
+
+      double elapsedSeconds = ElapsedSeconds.from(start).getSeconds();
+      if (elapsedSeconds > 120) {
+        // 消费时长超过限制时，提升日志级别
+        log.warn("ClusteringMqConsumer completed, tag: {}, key: {}, elapsed: {}s", tag, key, String.format("%.1f", elapsedSeconds));
       }
-      catch (Exception ex) {
-        log.error("ClusteringMqConsumer failed, error: {}, tag: {}, key: {}, body: {}", ex.getMessage(), tag, key, body, ex);
-        return Action.ReconsumeLater;
+      else {
+        log.info("ClusteringMqConsumer completed, tag: {}, key: {}", tag, key);
       }
-    });
-
-    log.debug("ClusteringMqConsumer started, consumeTags: {}", consumerTags);
+      recordConsume(tag, "success", startNanos);
+      return true;
+    }
+    catch (LockNotAcquiredException | LockTimeoutException | RepeatableException ex) {
+      log.warn("ClusteringMqConsumer will reconsume later, error: {}, tag: {}, key: {}, body: {}", ex.getMessage(), tag, key, bodyPreview);
+      recordConsume(tag, "reconsume", startNanos);
+      return false;
+    }
+    catch (Exception ex) {
+      log.error("ClusteringMqConsumer failed, error: {}, tag: {}, key: {}, body: {}", ex.getMessage(), tag, key, bodyPreview, ex);
+      recordConsume(tag, "error", startNanos);
+      return false;
+    }
   }
 
   /**
    * 针对一条消息的处理逻辑
    */
-  private void processMessage(String tag, String body) {
+  private void processMessage(String tag, byte[] body) {
     // 根据Tag得到EventType: 去掉前缀
     String eventType = getEventTypeFromTag(tag);
 
@@ -168,7 +244,7 @@ public class ClusteringMqConsumer implements CommandLineRunner, DisposableBean {
 
     // 根据订阅者的EventClass反序列化得到DomainEvent参数
     var subscriber = subscribers.get(0);
-    DomainEvent event = JsonUtils.toClass(body, subscriber.getEventClass());
+    DomainEvent event = eventReader.read(body, subscriber.getEventClass());
 
     // 开启新的span记录日志, traceId取自event.traceId
     ScopedSpan span = tracer.startScopedSpanWithParent("mqConsumer", createTraceContext(event));
@@ -188,14 +264,11 @@ public class ClusteringMqConsumer implements CommandLineRunner, DisposableBean {
       return;
     }
 
-    // 添加分布式锁，同步进行消息处理
-    try (var ignored = lockFactory.acquireLockUnBlocked(getLockId(eventType, event), Duration.ofMinutes(REDIS_LOCK_TIMEOUT_MINUTES))) {
-      log.debug("ClusteringEventSubscriber: [{}] handleEvent: [{}] starting", subscriber.getInstanceId(), eventType);
+    log.debug("ClusteringEventSubscriber: [{}] handleEvent: [{}] starting", subscriber.getInstanceId(), eventType);
 
-      handleEventForSubscriber(subscriber, event, eventType);
+    handleEventForSubscriber(subscriber, event, eventType);
 
-      log.debug("ClusteringEventSubscriber: [{}] handleEvent: [{}] complete", subscriber.getInstanceId(), eventType);
-    }
+    log.debug("ClusteringEventSubscriber: [{}] handleEvent: [{}] complete", subscriber.getInstanceId(), eventType);
   }
 
   private void consumeEventWithDatabaseIdempotent(DatabaseIdempotentClusteringEventSubscriber subscriber, DomainEvent event,
@@ -206,13 +279,15 @@ public class ClusteringMqConsumer implements CommandLineRunner, DisposableBean {
 
     log.debug("DatabaseIdempotentClusteringEventSubscriber: [{}] handleEvent: [{}] starting",
         subscriber.subscriberId(), eventType);
-    domainEventConsumeService.consume(subscriber, event);
+    if (!domainEventConsumeService.consume(subscriber, event)) {
+      eventMetrics.recordConsumeSkipped(eventType, mqConfig.getTopic(), "database");
+    }
     log.debug("DatabaseIdempotentClusteringEventSubscriber: [{}] handleEvent: [{}] complete",
         subscriber.subscriberId(), eventType);
   }
 
-  private static String getLockId(String eventType, DomainEvent event) {
-    return String.format("MQ_Consumer_Lock_%s_%s", eventType, event.getKey());
+  private void recordConsume(String tag, String result, long startNanos) {
+    eventMetrics.recordConsume(getEventTypeFromTag(tag), mqConfig.getTopic(), result, System.nanoTime() - startNanos);
   }
 
   /**
@@ -220,27 +295,38 @@ public class ClusteringMqConsumer implements CommandLineRunner, DisposableBean {
    */
   private void handleEventForSubscriber(ClusteringEventSubscriber subscriber, DomainEvent event, String eventType) {
     var redisKey = getIdempotentRedisKey(eventType, event);
-    var redisOps = redisTemplate.boundValueOps(redisKey);
 
-    // 从redis中读取消费状态，如果不为null, 表示该条消息已消费成功，就不再处理
-    String consumeStatus = redisOps.get();
+    // 本地最近消费成功的消息(如broker重复投递)，直接忽略，不再访问redis
+    if (recentlyConsumedKeys.getIfPresent(redisKey) != null) {
+      log.warn("事件已处理成功, 此次为重复调用, 系统自动忽略, key: {}, event: {}", event.getKey(), event);
+      eventMetrics.recordConsumeSkipped(eventType, mqConfig.getTopic(), "local");
+      return;
+    }
+
+    // 在一次redis请求内完成防重检查和加锁(处理中标记)，处理期间由看门狗续期，消费者崩溃后在租期到达后即释放
+    try (var claim = lockFactory.claimIdempotent(redisKey, CONSUMED_STATUS, DistributedLockFactory.WATCHDOG_LEASE_MILLI_SECONDS)) {
+      if (claim.getStatus() == IdempotentClaim.Status.COMPLETED) {
+        log.warn("事件已处理成功, 此次为重复调用, 系统自动忽略, key: {}, event: {}", event.getKey(), event);
+        recentlyConsumedKeys.put(redisKey, Boolean.TRUE);
+        eventMetrics.recordConsumeSkipped(eventType, mqConfig.getTopic(), "redis");
+        return;
+      }
+      if (claim.getStatus() == IdempotentClaim.Status.IN_PROGRESS) {
+        // 其他消费者正在处理，稍后重新消费
+        throw new LockNotAcquiredException("事件正在处理中, redisKey: " + redisKey);
+      }
 
-    if (StringUtils.isBlank(consumeStatus)) {
-      // 老状态不存在，说明是第一次进来，直接进行消息处理
       subscriber.handleEvent(event);
 
       // 处理成功后在redis中设置消费状态为OK
-      redisOps.set("OK", REDIS_KEY_TIMEOUT_HOURS, TimeUnit.HOURS);
-
+      claim.complete(Duration.ofHours(REDIS_KEY_TIMEOUT_HOURS));
+      recentlyConsumedKeys.put(redisKey, Boolean.TRUE);
       log.debug("set consumer status OK, redisKey: {}", redisKey);
     }
-    else {
-      log.warn("事件已处理成功, 此次为重复调用, 系统自动忽略, key: {}, event: {}", event.getKey(), event);
-    }
   }
 
   /** 获取用来控制幂等性的redisKey. */
-  private static String getIdempotentRedisKey(String eventType, DomainEvent event) {
+  static String getIdempotentRedisKey(String eventType, DomainEvent event) {
     return String.format("MQ_Consumer_Idempotent_%s_%s", eventType, event.getKey());
   }
 
@@ -278,8 +364,14 @@ public class ClusteringMqConsumer implements CommandLineRunner, DisposableBean {
     // 获取上下文中所有的订阅者
     Map<String, ClusteringEventSubscriber> subscribersMap = applicationContext.getBeansOfType(ClusteringEventSubscriber.class);
 
-    // 将订阅者按EventType进行分组
-    this.allSubscribers = subscribersMap.values().stream().collect(Collectors.groupingByConcurrent(EventSubscriber::subscribedEventType));
+    // 将订阅者按EventType进行分组, 批量订阅者由BatchClusteringMqConsumer单独消费
+    this.allSubscribers = subscribersMap.values().stream()
+        .filter(subscriber -> !(subscriber instanceof BatchClusteringEventSubscriber))
+        .collect(Collectors.groupingByConcurrent(EventSubscriber::subscribedEventType));
+
+    // 预先创建各事件参数类型的ObjectReader
+    this.allSubscribers.values().stream().flatMap(List::stream)
+        .forEach(subscriber -> eventReader.register(subscriber.getEventClass()));
   }
 
   private Properties getProperties() {
@@ -290,7 +382,7 @@ public class ClusteringMqConsumer implements CommandLineRunner, DisposableBean {
 
     properties.put(PropertyKeyConst.GROUP_ID, mqConfig.getGroupId());
     properties.put(PropertyKeyConst.MessageModel, PropertyValueConst.CLUSTERING);
-    properties.put(PropertyKeyConst.ConsumeThreadNums, 10);
+    properties.put(PropertyKeyConst.ConsumeThreadNums, mqConfig.getConsumerThreadNums());
     return properties;
   }
 
@@ -300,5 +392,9 @@ public class ClusteringMqConsumer implements CommandLineRunner, DisposableBean {
       consumer.shutdown();
       log.debug("MqConsumer shutdown");
     }
+    if (orderConsumer != null) {
+      orderConsumer.shutdown();
+      log.debug("MqOrderConsumer shutdown");
+    }
   }
 }
@@ -0,0 +1,34 @@
+package com.tehang.common.utility.event.mq;
+
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.tehang.common.utility.JsonUtils;
+import com.tehang.common.utility.event.DomainEvent;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 将消息body反序列化为事件: 按事件的参数类型缓存ObjectReader, 直接从消息body的字节反序列化, 不再转换为字符串.
+ */
+final class DomainEventReader {
+
+  private final ConcurrentMap<Class<?>, ObjectReader> readers = new ConcurrentHashMap<>();
+
+  /**
+   * 预先创建事件参数类型的ObjectReader.
+   */
+  void register(Class<? extends DomainEvent> eventClass) {
+    readers.computeIfAbsent(eventClass, JsonUtils::readerFor);
+  }
+
+  /**
+   * 反序列化得到事件, body为事件json的UTF-8字节.
+   */
+  DomainEvent read(byte[] body, Class<? extends DomainEvent> eventClass) {
+    ObjectReader reader = readers.get(eventClass);
+    if (reader == null) {
+      reader = readers.computeIfAbsent(eventClass, JsonUtils::readerFor);
+    }
+    return JsonUtils.toClass(body, reader);
+  }
+}
@@ -0,0 +1,143 @@
+package com.tehang.common.utility.event.mq;
+
+import com.aliyun.openservices.ons.api.Message;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 消息body的编解码. 消息body为事件的json，超过压缩阈值时以gzip压缩发送，编码方式记录在消息的用户属性(bodyCodec)中，
+ * 消费者按该属性透明解码，没有该属性的消息按原始json处理.
+ * 事件记录表中，压缩后的body以"gzip:" + base64的形式存储，中继发送时直接还原为压缩后的字节，不再重新序列化和压缩.
+ */
+public final class MessageBodyCodec {
+
+  /** 记录body编码方式的消息用户属性. */
+  public static final String CODEC_PROPERTY = "bodyCodec";
+
+  /** gzip压缩的编码方式. */
+  public static final String GZIP = "gzip";
+
+  // 日志中输出的body的最大字节数
+  private static final int MAX_PREVIEW_BYTES = 1024;
+
+  // 事件记录中已压缩的body的前缀，事件的json总是以'{'开头，不会与之混淆
+  private static final String STORED_GZIP_PREFIX = GZIP + ':';
+
+  private MessageBodyCodec() {
+    // do nothing
+  }
+
+  /**
+   * 将事件的json转换为存储到事件记录中的body：超过压缩阈值(字节数)时压缩，否则原样存储. 阈值不大于0时不压缩.
+   */
+  public static String encodeForStorage(String json, int compressThreshold) {
+    byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+    if (!shouldCompress(bytes, compressThreshold)) {
+      return json;
+    }
+    return STORED_GZIP_PREFIX + Base64.getEncoder().encodeToString(gzip(bytes));
+  }
+
+  /**
+   * 创建消息：body为事件记录中存储的已压缩body时直接还原为压缩后的字节，否则按压缩阈值编码.
+   */
+  static Message createMessage(String topic, String tag, String key, String body, int compressThreshold) {
+    if (body.startsWith(STORED_GZIP_PREFIX)) {
+      byte[] compressed = Base64.getDecoder().decode(body.substring(STORED_GZIP_PREFIX.length()));
+      return createMessage(topic, tag, key, compressed, GZIP);
+    }
+
+    byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+    if (shouldCompress(bytes, compressThreshold)) {
+      return createMessage(topic, tag, key, gzip(bytes), GZIP);
+    }
+    return new Message(topic, tag, key, bytes);
+  }
+
+  /**
+   * 按消息的编码方式解码得到事件的json.
+   */
+  public static String decode(Message message) {
+    return new String(decodeBytes(message), StandardCharsets.UTF_8);
+  }
+
+  /**
+   * 按消息的编码方式解码得到事件json的UTF-8字节，未压缩的消息直接返回消息的body，不复制.
+   */
+  public static byte[] decodeBytes(Message message) {
+    String codec = message.getUserProperties(CODEC_PROPERTY);
+    if (codec == null) {
+      return message.getBody();
+    }
+    if (GZIP.equals(codec)) {
+      return gunzip(message.getBody());
+    }
+    throw new MessageConsumerException("unknown message body codec: " + codec + ", key: " + message.getKey());
+  }
+
+  /**
+   * 用于日志输出的body: 只在实际输出日志时转换为字符串，且超过1024字节时截断.
+   */
+  public static Object preview(byte[] body) {
+    return new BodyPreview(body);
+  }
+
+  private static Message createMessage(String topic, String tag, String key, byte[] body, String codec) {
+    Message msg = new Message(topic, tag, key, body);
+    msg.putUserProperties(CODEC_PROPERTY, codec);
+    return msg;
+  }
+
+  private static boolean shouldCompress(byte[] bytes, int compressThreshold) {
+    return compressThreshold > 0 && bytes.length > compressThreshold;
+  }
+
+  private static byte[] gzip(byte[] bytes) {
+    var out = new ByteArrayOutputStream(bytes.length / 4 + 64);
+    try (var gzip = new GZIPOutputStream(out)) {
+      gzip.write(bytes);
+    }
+    catch (IOException ex) {
+      throw new UncheckedIOException(ex);
+    }
+    return out.toByteArray();
+  }
+
+  private static byte[] gunzip(byte[] bytes) {
+    try (var gzip = new GZIPInputStream(new ByteArrayInputStream(bytes))) {
+      return gzip.readAllBytes();
+    }
+    catch (IOException ex) {
+      throw new MessageConsumerException("decompress message body failed: " + ex.getMessage(), ex);
+    }
+  }
+
+  /**
+   * 延迟转换并截断的body.
+   */
+  private static final class BodyPreview {
+    private final byte[] body;
+
+    BodyPreview(byte[] body) {
+      this.body = body;
+    }
+
+    @Override
+    public String toString() {
+      if (body == null) {
+        return "null";
+      }
+      if (body.length <= MAX_PREVIEW_BYTES) {
+        return new String(body, StandardCharsets.UTF_8);
+      }
+      return new String(body, 0, MAX_PREVIEW_BYTES, StandardCharsets.UTF_8) + "...(" + body.length + " bytes)";
+    }
+  }
+}
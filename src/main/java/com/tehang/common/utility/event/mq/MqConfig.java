@@ -42,4 +42,36 @@ public class MqConfig {
    */
   @Value("${aliyun.mq.main.eventTagPrefix}")
   private String eventTagPrefix;
+
+  /**
+   * 是否启用顺序投递: 以事件key作为分区顺序消息的shardingKey发送, 并以顺序消费者订阅, 同一事件key的消息按发布顺序依次处理,
+   * 不同事件key的消息并行处理. 启用后topic需为分区顺序消息类型, 不支持发布延时投递的事件及EventPublisher.publishAsync.
+   */
+  @Value("${aliyun.mq.main.orderedDelivery:false}")
+  private boolean orderedDelivery;
+
+  /**
+   * 集群消息消费者的消费线程数量.
+   */
+  @Value("${aliyun.mq.consumer.threadNums:10}")
+  private int consumerThreadNums;
+
+  /**
+   * 消息body的压缩阈值(字节数), body超过该大小时以gzip压缩发送及存储到事件记录, 0表示不压缩.
+   * 启用前需确保所有订阅者均已升级到支持解压的版本.
+   */
+  @Value("${aliyun.mq.producer.compressThresholdBytes:0}")
+  private int compressThresholdBytes;
+
+  /**
+   * 异步发送消息时，允许同时等待broker确认的最大消息数量(发送窗口), 窗口已满时发送方将阻塞等待.
+   */
+  @Value("${aliyun.mq.producer.maxInFlight:256}")
+  private int producerMaxInFlight;
+
+  /**
+   * 异步发送消息时，发送窗口已满的最大等待时间(毫秒), 超时后发送失败.
+   */
+  @Value("${aliyun.mq.producer.inFlightWaitMillis:3000}")
+  private long producerInFlightWaitMillis;
 }
@@ -2,17 +2,22 @@ package com.tehang.common.utility.event.mq;
 
 import com.aliyun.openservices.ons.api.Message;
 import com.aliyun.openservices.ons.api.ONSFactory;
+import com.aliyun.openservices.ons.api.OnExceptionContext;
 import com.aliyun.openservices.ons.api.Producer;
 import com.aliyun.openservices.ons.api.PropertyKeyConst;
+import com.aliyun.openservices.ons.api.SendCallback;
 import com.aliyun.openservices.ons.api.SendResult;
+import com.aliyun.openservices.ons.api.order.OrderProducer;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
-import java.nio.charset.Charset;
 import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
 import static com.tehang.common.utility.StringUtils.isBlank;
 
@@ -28,14 +33,39 @@ public class MqProducer implements InitializingBean, DisposableBean {
 
   private Producer producer;
 
+  /** 分区顺序消息的生产者, 启用顺序投递时创建 */
+  private OrderProducer orderProducer;
+
+  /** 异步发送的窗口: 每条等待broker确认的消息占用一个许可 */
+  private Semaphore inFlightPermits;
+
   @Override
   public void afterPropertiesSet() {
     log.debug("MqProducer initializing...");
-    producer = ONSFactory.createProducer(getProducerProperties());
-    producer.start();
+    init(ONSFactory.createProducer(getProducerProperties()));
+    if (mqConfig.isOrderedDelivery()) {
+      initOrderProducer(ONSFactory.createOrderProducer(getProducerProperties()));
+    }
     log.debug("MqProducer initialized");
   }
 
+  /**
+   * 使用指定的底层Producer初始化并启动, 可传入本地替身以脱离真实broker测试.
+   */
+  void init(Producer producer) {
+    this.inFlightPermits = new Semaphore(Math.max(1, mqConfig.getProducerMaxInFlight()));
+    this.producer = producer;
+    this.producer.start();
+  }
+
+  /**
+   * 使用指定的底层OrderProducer初始化并启动.
+   */
+  void initOrderProducer(OrderProducer orderProducer) {
+    this.orderProducer = orderProducer;
+    this.orderProducer.start();
+  }
+
   private Properties getProducerProperties() {
     Properties properties = new Properties();
     properties.put(PropertyKeyConst.GROUP_ID, mqConfig.getGroupId());
@@ -61,16 +91,11 @@ public class MqProducer implements InitializingBean, DisposableBean {
 
     SendResult result;
     try {
-      Message msg = new Message(topic, tag, key, body.getBytes(Charset.forName("UTF-8")));
-
-      if (startDeliverTime != null) {
-        // 发送延时消息
-        msg.setStartDeliverTime(startDeliverTime);
-      }
+      Message msg = createMessage(topic, tag, key, body, startDeliverTime);
       result = producer.send(msg);
     }
     catch (Exception ex) {
-      log.warn("sendToQueue exception heppen. ", ex);
+      log.warn("sendToQueue exception happened. ", ex);
       throw new MessageProducerException(ex.getMessage(), ex);
     }
 
@@ -78,9 +103,108 @@ public class MqProducer implements InitializingBean, DisposableBean {
     return result;
   }
 
+  /**
+   * 发送分区顺序消息, shardingKey相同的消息发送到同一个队列, 并按发送顺序被消费. 需启用顺序投递(aliyun.mq.main.orderedDelivery).
+   */
+  @SuppressWarnings("all")
+  public SendResult sendOrdered(String topic, String tag, String key, String body, String shardingKey) {
+    log.debug("Enter sendOrdered, topic: {}, tag:{}, key:{}, shardingKey: {}", topic, tag, key, shardingKey);
+
+    if (isBlank(topic)) {
+      throw new MessageProducerException("sendOrdered failed, topic is blank, tag: " + tag);
+    }
+    if (orderProducer == null) {
+      throw new MessageProducerException("sendOrdered failed, ordered delivery is not enabled, tag: " + tag);
+    }
+
+    SendResult result;
+    try {
+      Message msg = createMessage(topic, tag, key, body, null);
+      result = orderProducer.send(msg, shardingKey);
+    }
+    catch (Exception ex) {
+      log.warn("sendOrdered exception happened. ", ex);
+      throw new MessageProducerException(ex.getMessage(), ex);
+    }
+
+    log.debug("Exit sendOrdered, result:{}", result);
+    return result;
+  }
+
+  /**
+   * 异步发送消息到队列, 并指定topic，不等待broker确认即返回，可以连续发送多条消息以提高吞吐量。
+   * 同时等待确认的消息数量受发送窗口(aliyun.mq.producer.maxInFlight)限制，窗口已满时将阻塞等待，
+   * 等待超时则抛出MessageProducerException。
+   * @return 发送结果, 发送失败时以MessageProducerException结束
+   */
+  @SuppressWarnings("all")
+  public CompletableFuture<SendResult> sendAsync(String topic, String tag, String key, String body, Long startDeliverTime) {
+    log.debug("Enter sendAsync, topic: {}, tag:{}, key:{}", topic, tag, key);
+
+    if (isBlank(topic)) {
+      throw new MessageProducerException("sendAsync failed, topic is blank, tag: " + tag);
+    }
+
+    // 占用发送窗口，窗口已满时阻塞等待(背压)
+    acquireInFlightPermit(tag, key);
+
+    CompletableFuture<SendResult> future = new CompletableFuture<>();
+    try {
+      Message msg = createMessage(topic, tag, key, body, startDeliverTime);
+      producer.sendAsync(msg, new SendCallback() {
+        @Override
+        public void onSuccess(SendResult sendResult) {
+          inFlightPermits.release();
+          log.debug("Exit sendAsync, result:{}", sendResult);
+          future.complete(sendResult);
+        }
+
+        @Override
+        public void onException(OnExceptionContext context) {
+          inFlightPermits.release();
+          log.warn("sendAsync exception happened, tag: {}, key: {}", tag, key, context.getException());
+          future.completeExceptionally(new MessageProducerException(context.getException().getMessage(), context.getException()));
+        }
+      });
+    }
+    catch (Exception ex) {
+      inFlightPermits.release();
+      log.warn("sendAsync exception happened. ", ex);
+      future.completeExceptionally(new MessageProducerException(ex.getMessage(), ex));
+    }
+    return future;
+  }
+
+  private void acquireInFlightPermit(String tag, String key) {
+    boolean acquired;
+    try {
+      acquired = inFlightPermits.tryAcquire(mqConfig.getProducerInFlightWaitMillis(), TimeUnit.MILLISECONDS);
+    }
+    catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new MessageProducerException("sendAsync interrupted, tag: " + tag + ", key: " + key, ex);
+    }
+    if (!acquired) {
+      throw new MessageProducerException("sendAsync failed, in-flight window is full, tag: " + tag + ", key: " + key);
+    }
+  }
+
+  private Message createMessage(String topic, String tag, String key, String body, Long startDeliverTime) {
+    Message msg = MessageBodyCodec.createMessage(topic, tag, key, body, mqConfig.getCompressThresholdBytes());
+
+    if (startDeliverTime != null) {
+      // 发送延时消息
+      msg.setStartDeliverTime(startDeliverTime);
+    }
+    return msg;
+  }
+
   @Override
   public void destroy() {
     producer.shutdown();
+    if (orderProducer != null) {
+      orderProducer.shutdown();
+    }
     log.debug("MqProducer shutdown");
   }
 }
@@ -0,0 +1,141 @@
+package com.tehang.common.utility.event.publish;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 事务消息的即时中继：在事务提交后，将本事务发布的事件记录id交给进程内的队列，由后台线程立即发送到mq。
+ * 队列中的记录同样通过认领(令牌 + 租约)发送，与定时任务的兜底扫描互不重复。
+ */
+@Component
+@Slf4j
+@SuppressWarnings("PMD.DoNotUseThreads")
+public class DomainEventImmediateRelay implements InitializingBean, DisposableBean {
+
+  private static final long POLL_TIMEOUT_MILLIS = 1000;
+
+  private final DomainEventRelayProperties relayProperties;
+
+  private final SendDomainEventRecordsToMqService sendDomainEventRecordsToMqService;
+
+  private final BlockingQueue<String> eventRecordIds;
+
+  private volatile boolean running;
+
+  private Thread relayThread;
+
+  public DomainEventImmediateRelay(DomainEventRelayProperties relayProperties,
+                                   SendDomainEventRecordsToMqService sendDomainEventRecordsToMqService) {
+    this.relayProperties = relayProperties;
+    this.sendDomainEventRecordsToMqService = sendDomainEventRecordsToMqService;
+    this.eventRecordIds = new ArrayBlockingQueue<>(Math.max(1, relayProperties.getImmediateQueueCapacity()));
+  }
+
+  @Override
+  public void afterPropertiesSet() {
+    if (!relayProperties.isImmediateEnabled()) {
+      return;
+    }
+    if (!relayProperties.isBatchEnabled()) {
+      // 逐条加锁发送的定时任务不判断认领的租约，会重复发送即时中继已认领的记录
+      throw new IllegalArgumentException("启用immediateEnabled时必须同时启用batchEnabled");
+    }
+    running = true;
+    relayThread = new Thread(this::relayLoop, "domain-event-immediate-relay");
+    relayThread.setDaemon(true);
+    relayThread.start();
+    log.debug("DomainEventImmediateRelay started");
+  }
+
+  /**
+   * 在当前事务提交后，将事件记录交给即时中继发送。未启用即时中继或不在事务中时不做处理，由定时任务发送.
+   */
+  public void relayAfterCommit(String eventRecordId) {
+    if (!relayProperties.isImmediateEnabled() || !TransactionSynchronizationManager.isSynchronizationActive()) {
+      return;
+    }
+
+    TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+      @Override
+      public void afterCommit() {
+        offer(eventRecordId);
+      }
+    });
+  }
+
+  /**
+   * 在当前事务提交后，将多个事件记录交给即时中继发送，只注册一次事务同步.
+   */
+  public void relayAfterCommit(List<String> ids) {
+    if (ids.isEmpty() || !relayProperties.isImmediateEnabled() || !TransactionSynchronizationManager.isSynchronizationActive()) {
+      return;
+    }
+
+    TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+      @Override
+      public void afterCommit() {
+        ids.forEach(DomainEventImmediateRelay.this::offer);
+      }
+    });
+  }
+
+  private void offer(String eventRecordId) {
+    if (!eventRecordIds.offer(eventRecordId)) {
+      // 队列已满时放弃即时发送，由定时任务兜底
+      log.debug("immediate relay queue is full, eventRecordId: {}", eventRecordId);
+    }
+  }
+
+  @SuppressWarnings("PMD.AvoidCatchingGenericException")
+  private void relayLoop() {
+    while (running) {
+      try {
+        drainOnce(POLL_TIMEOUT_MILLIS);
+      }
+      catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+      catch (Exception ex) {
+        log.warn("immediate relay error, message: {}", ex.getMessage(), ex);
+      }
+    }
+  }
+
+  /**
+   * 等待并取出队列中的一批事件记录id进行发送，最多取batchSize条.
+   * @return 本次发送的记录数量
+   */
+  int drainOnce(long timeoutMillis) throws InterruptedException {
+    String first = eventRecordIds.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+    if (first == null) {
+      return 0;
+    }
+
+    List<String> ids = new ArrayList<>();
+    ids.add(first);
+    eventRecordIds.drainTo(ids, Math.max(0, relayProperties.getBatchSize() - 1));
+
+    sendDomainEventRecordsToMqService.sendDomainEventRecordsByIds(ids);
+    return ids.size();
+  }
+
+  @Override
+  public void destroy() {
+    running = false;
+    if (relayThread != null) {
+      relayThread.interrupt();
+      log.debug("DomainEventImmediateRelay stopped");
+    }
+  }
+}
@@ -0,0 +1,13 @@
+package com.tehang.common.utility.event.publish;
+
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * 事务消息中继组件配置.
+ */
+@Configuration
+@EnableConfigurationProperties(DomainEventRelayProperties.class)
+public class DomainEventRelayConfiguration {
+
+}
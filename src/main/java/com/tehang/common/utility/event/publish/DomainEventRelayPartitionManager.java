@@ -0,0 +1,218 @@
+package com.tehang.common.utility.event.publish;
+
+import com.tehang.common.utility.event.mq.MqConfig;
+import com.tehang.common.utility.redis.CommonRedisOperator;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.scheduling.support.CronSequenceGenerator;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static org.apache.commons.lang3.BooleanUtils.isTrue;
+
+/**
+ * 分区中继的分区租约管理：各节点通过redis租约认领待发送事件记录的分区，每个节点认领 分区数量/活跃节点数量(向上取整) 个分区.
+ * 每次定时任务时，节点登记心跳、续期已持有的分区、释放超出份额的分区、并认领无主的分区，从而在节点加入或离开时重新平衡.
+ */
+@Component
+@Slf4j
+public class DomainEventRelayPartitionManager implements InitializingBean, DisposableBean {
+
+  private static final String NODES_KEY_PREFIX = "DOMAIN_EVENT_RELAY_NODES_";
+
+  private static final String PARTITION_KEY_PREFIX = "DOMAIN_EVENT_RELAY_PARTITION_";
+
+  private static final String ZONE_SHANGHAI = "Asia/Shanghai";
+
+  // 计算定时任务最长执行间隔时采样的执行次数
+  private static final int CRON_SAMPLE_COUNT = 100;
+
+  /**
+   * 登记节点心跳，并移除心跳已过期的节点，返回活跃节点数量.
+   * KEYS[1]: 节点集合(zset, score为心跳过期时间), ARGV[1]: 节点id, ARGV[2]: 当前时间(毫秒), ARGV[3]: 心跳过期时间(毫秒)
+   */
+  private static final RedisScript<Long> HEARTBEAT_SCRIPT = new DefaultRedisScript<>(
+      "redis.call('zremrangebyscore', KEYS[1], '-inf', ARGV[2]) "
+          + "redis.call('zadd', KEYS[1], ARGV[3], ARGV[1]) "
+          + "return redis.call('zcard', KEYS[1])",
+      Long.class);
+
+  /**
+   * 分区仍由自己持有时续期。成功返回1，否则返回0.
+   * KEYS[1]: 分区key, ARGV[1]: 节点id, ARGV[2]: 租约时长(毫秒)
+   */
+  private static final RedisScript<Long> RENEW_SCRIPT = new DefaultRedisScript<>(
+      "if redis.call('get', KEYS[1]) == ARGV[1] "
+          + "then return redis.call('pexpire', KEYS[1], ARGV[2]) "
+          + "else return 0 "
+          + "end",
+      Long.class);
+
+  /**
+   * 分区仍由自己持有时释放。成功返回1，否则返回0.
+   * KEYS[1]: 分区key, ARGV[1]: 节点id
+   */
+  private static final RedisScript<Long> RELEASE_SCRIPT = new DefaultRedisScript<>(
+      "if redis.call('get', KEYS[1]) == ARGV[1] "
+          + "then return redis.call('del', KEYS[1]) "
+          + "else return 0 "
+          + "end",
+      Long.class);
+
+  /**
+   * 节点离开.
+   * KEYS[1]: 节点集合, ARGV[1]: 节点id
+   */
+  private static final RedisScript<Long> LEAVE_SCRIPT = new DefaultRedisScript<>(
+      "return redis.call('zrem', KEYS[1], ARGV[1])",
+      Long.class);
+
+  private final CommonRedisOperator redisOperator;
+
+  private final MqConfig mqConfig;
+
+  private final DomainEventRelayProperties relayProperties;
+
+  // 当前节点的id
+  private final String nodeId = UUID.randomUUID().toString();
+
+  // 当前节点持有的分区
+  private final TreeSet<Integer> ownedPartitions = new TreeSet<>();
+
+  public DomainEventRelayPartitionManager(CommonRedisOperator redisOperator,
+                                          MqConfig mqConfig,
+                                          DomainEventRelayProperties relayProperties) {
+    this.redisOperator = redisOperator;
+    this.mqConfig = mqConfig;
+    this.relayProperties = relayProperties;
+  }
+
+  /**
+   * 启用分区中继时校验配置：分区租约需大于定时任务的最长执行间隔，否则租约会在两次定时任务之间过期，分区在节点间反复易主.
+   */
+  @Override
+  public void afterPropertiesSet() {
+    if (!relayProperties.isPartitionEnabled()) {
+      return;
+    }
+    assertPartitionPropertiesValid();
+
+    long cronIntervalMillis = getMaxCronIntervalMillis(relayProperties.getCron());
+    if (TimeUnit.SECONDS.toMillis(relayProperties.getPartitionLeaseSeconds()) <= cronIntervalMillis) {
+      throw new IllegalArgumentException(String.format("partitionLeaseSeconds(%s)必须大于定时任务cron(%s)的执行间隔(%s毫秒)",
+          relayProperties.getPartitionLeaseSeconds(), relayProperties.getCron(), cronIntervalMillis));
+    }
+  }
+
+  /**
+   * 登记心跳并重新平衡分区，返回当前节点持有的分区(升序).
+   */
+  public synchronized List<Integer> acquirePartitions() {
+    assertPartitionPropertiesValid();
+
+    int partitionCount = relayProperties.getPartitionCount();
+    long leaseMillis = TimeUnit.SECONDS.toMillis(relayProperties.getPartitionLeaseSeconds());
+
+    long now = System.currentTimeMillis();
+    Long nodeCount = redisOperator.execute(HEARTBEAT_SCRIPT, List.of(getNodesKey()),
+        nodeId, String.valueOf(now), String.valueOf(now + leaseMillis));
+    long activeNodeCount = nodeCount == null || nodeCount < 1 ? 1 : nodeCount;
+    int fairShare = (int) ((partitionCount + activeNodeCount - 1) / activeNodeCount);
+
+    // 续期已持有的分区，续期失败说明租约已过期并被其他节点认领
+    ownedPartitions.removeIf(partition -> partition >= partitionCount || !renew(partition, leaseMillis));
+
+    // 超出份额时释放多余的分区，以便新加入的节点认领
+    while (ownedPartitions.size() > fairShare) {
+      release(ownedPartitions.pollLast());
+    }
+
+    // 不足份额时认领无主的分区，各节点从不同的偏移开始尝试，以减少冲突
+    if (ownedPartitions.size() < fairShare) {
+      int offset = Math.floorMod(nodeId.hashCode(), partitionCount);
+      for (int i = 0; i < partitionCount && ownedPartitions.size() < fairShare; i++) {
+        int partition = (offset + i) % partitionCount;
+        if (!ownedPartitions.contains(partition) && tryAcquire(partition, leaseMillis)) {
+          ownedPartitions.add(partition);
+        }
+      }
+    }
+
+    log.debug("relay partitions acquired, nodeId: {}, nodes: {}, partitions: {}", nodeId, nodeCount, ownedPartitions);
+    return new ArrayList<>(ownedPartitions);
+  }
+
+  /**
+   * 节点关闭时释放持有的分区并离开，以便其他节点立即接管.
+   */
+  @Override
+  @SuppressWarnings("PMD.AvoidCatchingGenericException")
+  public synchronized void destroy() {
+    if (!relayProperties.isPartitionEnabled()) {
+      return;
+    }
+    try {
+      ownedPartitions.forEach(this::release);
+      ownedPartitions.clear();
+      redisOperator.execute(LEAVE_SCRIPT, List.of(getNodesKey()), nodeId);
+    }
+    catch (Exception ex) {
+      log.warn("release relay partitions error, message: {}", ex.getMessage(), ex);
+    }
+  }
+
+  private boolean tryAcquire(int partition, long leaseMillis) {
+    return isTrue(redisOperator.setIfAbsent(getPartitionKey(partition), nodeId, leaseMillis, TimeUnit.MILLISECONDS));
+  }
+
+  private boolean renew(int partition, long leaseMillis) {
+    Long result = redisOperator.execute(RENEW_SCRIPT, List.of(getPartitionKey(partition)), nodeId, String.valueOf(leaseMillis));
+    return result != null && result != 0;
+  }
+
+  private void release(int partition) {
+    redisOperator.execute(RELEASE_SCRIPT, List.of(getPartitionKey(partition)), nodeId);
+  }
+
+  private String getNodesKey() {
+    return NODES_KEY_PREFIX + mqConfig.getGroupId();
+  }
+
+  private String getPartitionKey(int partition) {
+    return PARTITION_KEY_PREFIX + mqConfig.getGroupId() + '_' + partition;
+  }
+
+  /**
+   * 获取cron表达式的最长执行间隔(毫秒)，按接下来的若干次执行时间计算.
+   */
+  static long getMaxCronIntervalMillis(String cron) {
+    var generator = new CronSequenceGenerator(cron, TimeZone.getTimeZone(ZONE_SHANGHAI));
+    Date previous = generator.next(new Date());
+    long maxIntervalMillis = 0;
+    for (int i = 0; i < CRON_SAMPLE_COUNT; i++) {
+      Date next = generator.next(previous);
+      maxIntervalMillis = Math.max(maxIntervalMillis, next.getTime() - previous.getTime());
+      previous = next;
+    }
+    return maxIntervalMillis;
+  }
+
+  private void assertPartitionPropertiesValid() {
+    if (relayProperties.getPartitionCount() <= 0) {
+      throw new IllegalArgumentException("partitionCount必须大于0");
+    }
+    if (relayProperties.getPartitionLeaseSeconds() <= 0) {
+      throw new IllegalArgumentException("partitionLeaseSeconds必须大于0");
+    }
+  }
+}
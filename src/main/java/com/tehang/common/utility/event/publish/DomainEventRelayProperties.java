@@ -0,0 +1,64 @@
+package com.tehang.common.utility.event.publish;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * 事务消息中继(将db中的事件记录发送到mq)的配置.
+ */
+@Data
+@ConfigurationProperties("tehang.event.relay")
+public class DomainEventRelayProperties {
+
+  /** 是否启用批量中继模式: 批量认领事件记录、异步流水线发送、批量更新发送结果. 默认关闭，使用逐条加锁发送的模式. */
+  private boolean batchEnabled;
+
+  /** 每批认领的事件记录数量. */
+  private int batchSize = 500;
+
+  /** 单次任务的最大认领批次数. */
+  private int maxBatchesPerRun = 20;
+
+  /** 认领记录的租约时长(秒)，节点宕机后，超过租约时长的记录可被其他节点重新认领. */
+  private int leaseSeconds = 60;
+
+  /**
+   * 是否启用即时中继: 事务提交后立即将本事务发布的事件记录交给进程内的中继队列发送，不再等待定时任务.
+   * 启用后定时任务仅作为兜底扫描(如节点宕机时遗留的记录)，建议同时调大cron的间隔。必须同时启用batchEnabled，否则启动时报错.
+   */
+  private boolean immediateEnabled;
+
+  /** 即时中继队列的容量，队列已满时不再入队，由定时任务兜底发送. */
+  private int immediateQueueCapacity = 10000;
+
+  /**
+   * 是否启用分区中继: 按事件key的hash将待发送记录分为partitionCount个分区，各节点通过redis租约认领一部分分区，只查询和发送自己的分区.
+   * 节点加入或离开时，各节点在下一次定时任务时重新平衡分区.
+   */
+  private boolean partitionEnabled;
+
+  /** 分区数量，建议为节点数量的数倍. 修改分区数量需同时重启所有节点. */
+  private int partitionCount = 16;
+
+  /** 分区租约时长(秒)，必须大于cron的最长执行间隔，否则启动时报错. 节点宕机后，其分区在租约到期后由其他节点接管. */
+  private int partitionLeaseSeconds = 20;
+
+  /**
+   * 是否启用延时事件的定时调度: 延时投递的记录不再由定时任务每次扫描, 而由进程内的分层时间轮按投递时间预先加载,
+   * 到期时再认领并发送到mq, 因此延时投递不再受mq最长7天的限制. 定时任务只兜底发送超过投递时间scheduleFallbackSeconds仍未发送的记录.
+   * 必须同时启用batchEnabled(否则启动时报错), 并需要start_deliver_time的索引(见docs/designs/domain_event_4.sql).
+   */
+  private boolean scheduleEnabled;
+
+  /** 时间轮预先加载的时间窗口(秒): 每次加载投递时间在此窗口内的延时记录. */
+  private int scheduleWindowSeconds = 60;
+
+  /** 时间轮加载延时记录的间隔(秒)，新发布的延时记录最迟在此间隔后进入时间轮. */
+  private int scheduleLoadIntervalSeconds = 5;
+
+  /** 延时记录超过投递时间多少秒仍未发送时(如节点宕机)，由定时任务兜底发送. 需大于scheduleLoadIntervalSeconds. */
+  private int scheduleFallbackSeconds = 30;
+
+  /** 定时扫描待发送事件记录的cron表达式, 默认每2秒执行一次. */
+  private String cron = "0/2 * * * * ?";
+}
@@ -0,0 +1,44 @@
+package com.tehang.common.utility.event.publish;
+
+import lombok.Getter;
+
+/**
+ * 批量中继事件记录的结果, 用来输出中继吞吐量.
+ */
+@Getter
+public class DomainEventRelayResult {
+
+  private int claimedCount;
+
+  private int successCount;
+
+  private int failedCount;
+
+  private int batchCount;
+
+  void addClaimedCount(int count) {
+    claimedCount += count;
+  }
+
+  void addSuccessCount(int count) {
+    successCount += count;
+  }
+
+  void addFailedCount(int count) {
+    failedCount += count;
+  }
+
+  void addBatchCount(int count) {
+    batchCount += count;
+  }
+
+  /**
+   * 计算每秒发送的事件数量.
+   */
+  public double getRatePerSecond(double elapsedSeconds) {
+    if (elapsedSeconds <= 0) {
+      return claimedCount;
+    }
+    return claimedCount / elapsedSeconds;
+  }
+}
@@ -0,0 +1,151 @@
+package com.tehang.common.utility.event.publish;
+
+import com.google.common.collect.Lists;
+import com.tehang.common.utility.event.publish.eventrecord.DomainEventRecord;
+import com.tehang.common.utility.event.publish.eventrecord.DomainEventRecordJdbcRepository;
+import com.tehang.common.utility.time.BjTime;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 延时事件的定时中继：定期将投递时间在时间窗口内的延时事件记录加载到进程内的分层时间轮，到期时再认领并发送到mq。
+ * 定时任务不再反复扫描尚未到期的延时记录，延时投递也不再受mq最长7天的限制。
+ * 多个节点会加载相同的记录，到期时通过认领(令牌 + 租约)保证只发送一次。
+ */
+@Component
+@Slf4j
+@SuppressWarnings("PMD.DoNotUseThreads")
+public class DomainEventScheduledRelay implements InitializingBean, DisposableBean {
+
+  // 时间轮的刻度：1秒
+  private static final long TICK_MILLIS = 1000;
+
+  // 时间轮每层的格数
+  private static final int WHEEL_SIZE = 60;
+
+  // 时间轮的层数：3层可调度约59小时，远大于加载的时间窗口
+  private static final int LEVEL_COUNT = 3;
+
+  private final DomainEventRelayProperties relayProperties;
+
+  private final DomainEventRecordJdbcRepository eventRecordJdbcRepository;
+
+  private final SendDomainEventRecordsToMqService sendDomainEventRecordsToMqService;
+
+  private final DomainEventTimingWheel timingWheel;
+
+  // 下一次加载延时记录的时间
+  private long nextLoadMillis;
+
+  private volatile boolean running;
+
+  private Thread relayThread;
+
+  public DomainEventScheduledRelay(DomainEventRelayProperties relayProperties,
+                                   DomainEventRecordJdbcRepository eventRecordJdbcRepository,
+                                   SendDomainEventRecordsToMqService sendDomainEventRecordsToMqService) {
+    this.relayProperties = relayProperties;
+    this.eventRecordJdbcRepository = eventRecordJdbcRepository;
+    this.sendDomainEventRecordsToMqService = sendDomainEventRecordsToMqService;
+    this.timingWheel = new DomainEventTimingWheel(TICK_MILLIS, WHEEL_SIZE, LEVEL_COUNT, System.currentTimeMillis());
+  }
+
+  @Override
+  public void afterPropertiesSet() {
+    if (!relayProperties.isScheduleEnabled()) {
+      return;
+    }
+    if (!relayProperties.isBatchEnabled()) {
+      // 逐条加锁发送的定时任务不判断认领的租约，会重复发送时间轮已认领的记录
+      throw new IllegalArgumentException("启用scheduleEnabled时必须同时启用batchEnabled");
+    }
+    running = true;
+    relayThread = new Thread(this::relayLoop, "domain-event-scheduled-relay");
+    relayThread.setDaemon(true);
+    relayThread.start();
+    log.debug("DomainEventScheduledRelay started");
+  }
+
+  @SuppressWarnings("PMD.AvoidCatchingGenericException")
+  private void relayLoop() {
+    while (running) {
+      try {
+        relayDue(System.currentTimeMillis());
+      }
+      catch (Exception ex) {
+        // 发送失败的记录仍为待发送状态，下一次加载或定时任务兜底时重新发送
+        log.warn("scheduled relay error, message: {}", ex.getMessage(), ex);
+      }
+
+      try {
+        Thread.sleep(TICK_MILLIS);
+      }
+      catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+    }
+  }
+
+  /**
+   * 按间隔加载时间窗口内的延时记录，并推进时间轮，发送已到期的记录.
+   * @return 本次到期并交给中继发送的记录数量
+   */
+  int relayDue(long nowMillis) {
+    List<String> dueIds = new ArrayList<>();
+    if (nowMillis >= nextLoadMillis) {
+      nextLoadMillis = nowMillis + relayProperties.getScheduleLoadIntervalSeconds() * 1000L;
+      dueIds.addAll(loadScheduled(nowMillis));
+    }
+    dueIds.addAll(timingWheel.advance(nowMillis));
+    if (dueIds.isEmpty()) {
+      return 0;
+    }
+
+    // 记录在其投递时间所在的刻度开始时到期，至多提前一个刻度发送，消息的投递时间仍为记录的投递时间
+    BjTime deliverBefore = BjTime.now().plusSeconds((int) (TICK_MILLIS / 1000));
+    for (List<String> ids : Lists.partition(dueIds, Math.max(1, relayProperties.getBatchSize()))) {
+      sendDomainEventRecordsToMqService.sendDomainEventRecordsByIds(ids, deliverBefore);
+    }
+    log.debug("scheduled relay completed, due: {}, scheduled: {}", dueIds.size(), timingWheel.size());
+    return dueIds.size();
+  }
+
+  /**
+   * 加载投递时间在时间窗口内的延时记录到时间轮，返回已到期的记录id.
+   * 加载范围自兜底时间起，以便本节点重新发送此前发送失败的记录；更早的记录由定时任务兜底发送.
+   */
+  private List<String> loadScheduled(long nowMillis) {
+    BjTime now = BjTime.now();
+    int limit = relayProperties.getBatchSize() * relayProperties.getMaxBatchesPerRun();
+    List<DomainEventRecord> eventRecords = eventRecordJdbcRepository.findScheduledWaitSend(
+        now.minusSeconds(relayProperties.getScheduleFallbackSeconds()), now.plusSeconds(relayProperties.getScheduleWindowSeconds()), limit);
+    if (eventRecords.size() >= limit) {
+      // 按投递时间正序加载，其余记录在已加载的记录发送后加载
+      log.warn("时间窗口内的延时事件记录超过{}条, 请调小scheduleWindowSeconds", limit);
+    }
+
+    List<String> dueIds = new ArrayList<>();
+    for (var eventRecord : eventRecords) {
+      long dueMillis = eventRecord.getStartDeliverTime().getInnerTime().getMillis();
+      if (!timingWheel.add(eventRecord.getId(), dueMillis) && dueMillis < nowMillis + TICK_MILLIS) {
+        dueIds.add(eventRecord.getId());
+      }
+    }
+    return dueIds;
+  }
+
+  @Override
+  public void destroy() {
+    running = false;
+    if (relayThread != null) {
+      relayThread.interrupt();
+      log.debug("DomainEventScheduledRelay stopped");
+    }
+  }
+}
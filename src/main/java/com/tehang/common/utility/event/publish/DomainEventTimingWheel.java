@@ -0,0 +1,147 @@
+package com.tehang.common.utility.event.publish;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 分层时间轮：按到期时间(毫秒)调度事件记录id. 第0层每格为一个刻度，第i层每格为第i-1层的一圈，
+ * 高层格子到期时将其中的记录降级到低层，第0层格子到期时记录即到期.
+ * 非线程安全，只在定时中继的线程中使用.
+ */
+class DomainEventTimingWheel {
+
+  private final long tickMillis;
+
+  private final int wheelSize;
+
+  // 各层每格的时长
+  private final long[] levelTickMillis;
+
+  // 各层的格子，每格中为记录id及其到期时间
+  private final List<List<Map<String, Long>>> levels = new ArrayList<>();
+
+  // 已调度的记录id，用于去重
+  private final Set<String> scheduledIds = new HashSet<>();
+
+  // 当前时间，为tickMillis的整数倍
+  private long currentTime;
+
+  DomainEventTimingWheel(long tickMillis, int wheelSize, int levelCount, long startMillis) {
+    if (tickMillis <= 0 || wheelSize <= 1 || levelCount <= 0) {
+      throw new IllegalArgumentException("tickMillis必须大于0, wheelSize必须大于1, levelCount必须大于0");
+    }
+    this.tickMillis = tickMillis;
+    this.wheelSize = wheelSize;
+    this.levelTickMillis = new long[levelCount];
+    long levelTick = tickMillis;
+    for (int level = 0; level < levelCount; level++) {
+      levelTickMillis[level] = levelTick;
+      List<Map<String, Long>> buckets = new ArrayList<>(wheelSize);
+      for (int i = 0; i < wheelSize; i++) {
+        buckets.add(new LinkedHashMap<>());
+      }
+      levels.add(buckets);
+      levelTick = Math.multiplyExact(levelTick, wheelSize);
+    }
+    this.currentTime = startMillis - Math.floorMod(startMillis, tickMillis);
+  }
+
+  /**
+   * 时间轮可调度的最大时长, 超出的记录不会被调度.
+   */
+  long getMaxDelayMillis() {
+    return levelTickMillis[levelTickMillis.length - 1] * (wheelSize - 1);
+  }
+
+  /**
+   * 调度一个记录id. 已在当前刻度内到期的记录不放入时间轮, 由调用者立即处理.
+   * @return 是否放入时间轮(或已在时间轮中), false表示已到期或超出可调度的时长
+   */
+  boolean add(String id, long dueMillis) {
+    if (scheduledIds.contains(id)) {
+      return true;
+    }
+    if (dueMillis < currentTime + tickMillis) {
+      return false;
+    }
+    if (!place(id, dueMillis)) {
+      return false;
+    }
+    scheduledIds.add(id);
+    return true;
+  }
+
+  /**
+   * 是否已在时间轮中调度.
+   */
+  boolean contains(String id) {
+    return scheduledIds.contains(id);
+  }
+
+  int size() {
+    return scheduledIds.size();
+  }
+
+  /**
+   * 推进时钟到指定时间，返回期间到期的记录id(按到期的刻度先后排列).
+   */
+  List<String> advance(long timeMillis) {
+    List<String> expiredIds = new ArrayList<>();
+    while (timeMillis >= currentTime + tickMillis) {
+      currentTime += tickMillis;
+
+      // 自高层向低层，将当前时间对应格子中的记录降级，降级到第0层当前格子的记录随即到期
+      for (int level = levelTickMillis.length - 1; level > 0; level--) {
+        if (currentTime % levelTickMillis[level] == 0) {
+          cascade(level, expiredIds);
+        }
+      }
+      Map<String, Long> bucket = bucketOf(0, currentTime);
+      expiredIds.addAll(bucket.keySet());
+      scheduledIds.removeAll(bucket.keySet());
+      bucket.clear();
+    }
+    return expiredIds;
+  }
+
+  private void cascade(int level, List<String> expiredIds) {
+    Map<String, Long> bucket = bucketOf(level, currentTime);
+    if (bucket.isEmpty()) {
+      return;
+    }
+    Map<String, Long> entries = new LinkedHashMap<>(bucket);
+    bucket.clear();
+    entries.forEach((id, dueMillis) -> {
+      if (dueMillis < currentTime + tickMillis) {
+        expiredIds.add(id);
+        scheduledIds.remove(id);
+      }
+      else {
+        place(id, dueMillis);
+      }
+    });
+  }
+
+  /**
+   * 将记录放入能容纳其到期时间的最低一层：到期时间早于该层当前格子起点加一圈的时长.
+   */
+  private boolean place(String id, long dueMillis) {
+    for (int level = 0; level < levelTickMillis.length; level++) {
+      long levelTick = levelTickMillis[level];
+      long levelCurrentTime = currentTime - Math.floorMod(currentTime, levelTick);
+      if (dueMillis < levelCurrentTime + levelTick * wheelSize) {
+        bucketOf(level, dueMillis).put(id, dueMillis);
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private Map<String, Long> bucketOf(int level, long timeMillis) {
+    return levels.get(level).get((int) Math.floorMod(timeMillis / levelTickMillis[level], (long) wheelSize));
+  }
+}
@@ -1,5 +1,6 @@
 package com.tehang.common.utility.event.publish;
 
+import com.aliyun.openservices.ons.api.SendResult;
 import com.google.common.collect.Lists;
 import com.tehang.common.infrastructure.exceptions.SystemErrorException;
 import com.tehang.common.utility.JsonUtils;
@@ -15,6 +16,11 @@ import org.joda.time.DateTimeZone;
 import org.springframework.stereotype.Service;
 
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 
 import static org.apache.commons.lang3.StringUtils.isBlank;
 
@@ -51,10 +57,43 @@ public class EventPublisher {
    *  2. 定时投递: 2016-02-01 11:30:00投递, 设置为: new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").parse("2016-02-01 11:30:00").getTime()
    */
   public void publish(DomainEvent event, long startDeliverTime) {
+    if (mqConfig.isOrderedDelivery()) {
+      // 顺序投递时topic为分区顺序消息类型，不能发送延时消息
+      String msg = "启用顺序投递时不支持延时事件";
+      log.error(msg);
+      throw new SystemErrorException(msg);
+    }
     doPublish(event, startDeliverTime);
   }
 
+  /**
+   * 异步发布领域事件，不等待broker确认即返回，适合连续发布大量事件时使用，发送失败时同样进行3次重试.
+   * 启用顺序投递时不支持：分区顺序消息只能同步发送，异步发送及其重试无法保证同一事件key的消息顺序.
+   * @return 发送结果，最终失败时以MessageProducerException结束
+   */
+  public CompletableFuture<SendResult> publishAsync(DomainEvent event) {
+    if (mqConfig.isOrderedDelivery()) {
+      String msg = "启用顺序投递时不支持异步发布事件";
+      log.error(msg);
+      throw new SystemErrorException(msg);
+    }
+    prepareEvent(event);
+
+    String tag = getTag(event);
+    String body = JsonUtils.toJson(event);
+    return sendEventMessageWithRetryAsync(event, tag, body, 0);
+  }
+
   private void doPublish(DomainEvent event, Long startDeliverTime) {
+    prepareEvent(event);
+
+    //发送事件到消息队列, 并在失败时进行重试
+    String tag = getTag(event);
+    String body = JsonUtils.toJson(event);
+    sendEventMessageWithRetry(event, tag, body, startDeliverTime);
+  }
+
+  private void prepareEvent(DomainEvent event) {
     // 检查事件参数的有效性
     assertEventValid(event);
 
@@ -62,11 +101,38 @@ public class EventPublisher {
     event.setPublisher(mqConfig.getGroupId());
     event.setPublishTime(nowOfBeijing());
     event.setTraceId(TraceInfoHelper.getCurrentTraceId());
+  }
 
-    //发送事件到消息队列, 并在失败时进行重试
-    String tag = getTag(event);
-    String body = JsonUtils.toJson(event);
-    sendEventMessageWithRetry(event, tag, body, startDeliverTime);
+  private CompletableFuture<SendResult> sendEventMessageWithRetryAsync(DomainEvent event, String tag, String body, int retryTimes) {
+    CompletableFuture<SendResult> sendFuture;
+    try {
+      sendFuture = mqProducer.sendAsync(getEventTopic(event), tag, DomainEventMessageKey.from(event), body, null);
+    }
+    catch (MessageProducerException ex) {
+      sendFuture = CompletableFuture.failedFuture(ex);
+    }
+
+    return sendFuture
+        .handle((result, ex) -> {
+          if (ex == null) {
+            log.debug("publish event successful, tag: {}, body: {}", tag, body);
+            return CompletableFuture.completedFuture(result);
+          }
+
+          Throwable cause = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+          if (retryTimes < RE_TRY_SEND_MESSAGE_DELAYS_SECONDS.size()) {
+            // 发布事件失败，延迟后重试，不阻塞当前线程
+            log.debug("publish event failed, tag: {}, body: {}, msg: {}", tag, body, cause.getMessage(), cause);
+            Executor delayedExecutor = CompletableFuture.delayedExecutor(RE_TRY_SEND_MESSAGE_DELAYS_SECONDS.get(retryTimes), TimeUnit.SECONDS);
+            return CompletableFuture.supplyAsync(() -> retryTimes + 1, delayedExecutor)
+                .thenCompose(nextRetryTimes -> sendEventMessageWithRetryAsync(event, tag, body, nextRetryTimes));
+          }
+
+          // 重试次数达到最大值，发布事件失败！
+          log.error("publish event finally failed, tag: {}, body: {}, msg: {}", tag, body, cause.getMessage(), cause);
+          return CompletableFuture.<SendResult>failedFuture(cause);
+        })
+        .thenCompose(Function.identity());
   }
 
   private void sendEventMessageWithRetry(DomainEvent event, String tag, String body, Long startDeliverTime) {
@@ -74,7 +140,7 @@ public class EventPublisher {
     while (true) {
       try {
         // 发送消息，发送成功后直接返回
-        mqProducer.sendToQueue(getEventTopic(event), tag, DomainEventMessageKey.from(event), body, startDeliverTime);
+        sendToMq(event, tag, body, startDeliverTime);
 
         log.debug("publish event successful, tag: {}, body: {}", tag, body);
         return;
@@ -97,6 +163,18 @@ public class EventPublisher {
     }
   }
 
+  /**
+   * 启用顺序投递时，以事件key作为shardingKey发送分区顺序消息(不会有延时事件)，否则发送普通消息.
+   */
+  private void sendToMq(DomainEvent event, String tag, String body, Long startDeliverTime) {
+    if (mqConfig.isOrderedDelivery()) {
+      mqProducer.sendOrdered(getEventTopic(event), tag, DomainEventMessageKey.from(event), body, event.getKey());
+    }
+    else {
+      mqProducer.sendToQueue(getEventTopic(event), tag, DomainEventMessageKey.from(event), body, startDeliverTime);
+    }
+  }
+
   private String getEventTopic(DomainEvent event) {
     if (isBlank(event.getTopic())) {
       // 事件topic为空时，取系统配置的默认topic。
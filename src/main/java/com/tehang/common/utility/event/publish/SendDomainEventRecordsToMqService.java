@@ -1,30 +1,44 @@
 package com.tehang.common.utility.event.publish;
 
+import com.tehang.common.utility.event.metrics.DomainEventBacklog;
+import com.tehang.common.utility.event.metrics.DomainEventMetrics;
 import com.tehang.common.utility.event.mq.MessageProducerException;
 import com.tehang.common.utility.event.mq.MqConfig;
 import com.tehang.common.utility.event.mq.MqProducer;
 import com.tehang.common.utility.event.publish.eventrecord.DomainEventRecord;
 import com.tehang.common.utility.event.publish.eventrecord.DomainEventRecordJdbcRepository;
 import com.tehang.common.utility.lock.DistributedLockHelper;
+import com.tehang.common.utility.redis.CommonRedisOperator;
 import com.tehang.common.utility.time.BjTime;
-import lombok.AllArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
 import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
 
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
+import static org.apache.commons.lang3.BooleanUtils.isTrue;
 import static org.apache.commons.lang3.StringUtils.isBlank;
 
 /**
  * 将db中的待发送的领域事件记录，发送到mq。此服务由定时任务调用，定时任务建议每秒调用一次.
  */
 @Service
-@AllArgsConstructor
 @Slf4j
 public class SendDomainEventRecordsToMqService {
 
+  private static final String BACKLOG_METRICS_KEY_PREFIX = "DOMAIN_EVENT_BACKLOG_METRICS_";
+
+  // 积压统计的租约时长，各节点的定时任务同时触发，租约期内只有一个节点执行统计查询；需小于统计任务的执行间隔
+  private static final long BACKLOG_METRICS_LEASE_SECONDS = 5;
+
   private final MqConfig mqConfig;
 
   private final MqProducer mqProducer;
@@ -33,27 +47,92 @@ public class SendDomainEventRecordsToMqService {
 
   private final DistributedLockHelper lockHelper;
 
+  private final DomainEventRelayProperties relayProperties;
+
+  private final DomainEventRelayPartitionManager partitionManager;
+
+  private final DomainEventMetrics eventMetrics;
+
+  private final CommonRedisOperator redisOperator;
+
+  public SendDomainEventRecordsToMqService(MqConfig mqConfig,
+                                           MqProducer mqProducer,
+                                           DomainEventRecordJdbcRepository eventRecordJdbcRepository,
+                                           DistributedLockHelper lockHelper,
+                                           DomainEventRelayProperties relayProperties,
+                                           DomainEventRelayPartitionManager partitionManager,
+                                           DomainEventMetrics eventMetrics,
+                                           CommonRedisOperator redisOperator) {
+    this.mqConfig = mqConfig;
+    this.mqProducer = mqProducer;
+    this.eventRecordJdbcRepository = eventRecordJdbcRepository;
+    this.lockHelper = lockHelper;
+    this.relayProperties = relayProperties;
+    this.partitionManager = partitionManager;
+    this.eventMetrics = eventMetrics;
+    this.redisOperator = redisOperator;
+  }
+
+  /**
+   * 统计待发送记录的积压情况，更新积压数量及最早一条记录等待时长的监控指标.
+   * 未配置监控系统时不统计；每次只由取得租约的一个节点统计，其他节点的积压指标置为0，以免各节点重复执行分组查询.
+   */
+  @SuppressWarnings("PMD.AvoidCatchingGenericException")
+  public void refreshBacklogMetrics() {
+    if (!eventMetrics.isEnabled()) {
+      return;
+    }
+    try {
+      if (!isTrue(redisOperator.setIfAbsent(BACKLOG_METRICS_KEY_PREFIX + mqConfig.getGroupId(), "1",
+          BACKLOG_METRICS_LEASE_SECONDS, TimeUnit.SECONDS))) {
+        eventMetrics.updateBacklog(List.of());
+        return;
+      }
+
+      List<DomainEventBacklog> backlogs = eventRecordJdbcRepository.findWaitSendBacklog(getDeliverBefore()).stream()
+          .map(backlog -> new DomainEventBacklog(backlog.getEventType(), getEventTopic(backlog.getTopic()),
+              backlog.getCount(), backlog.getOldestCreateTimeMillis()))
+          .collect(Collectors.toList());
+      eventMetrics.updateBacklog(backlogs);
+    }
+    catch (Exception ex) {
+      log.warn("refreshBacklogMetrics error, message: {}", ex.getMessage(), ex);
+    }
+  }
+
   /**
    * 查找db中的待发送的领域事件记录，发送到mq，需加锁，以防止并发调用.
    */
   @Async
   @SuppressWarnings("PMD.AvoidCatchingGenericException")
   public void sendDomainEventRecords() {
+    if (relayProperties.isBatchEnabled()) {
+      sendDomainEventRecordsInBatches();
+      return;
+    }
+
     try {
       BjTime start = BjTime.now();
 
-      // 查找待发送的事件记录，按时间正序排列
-      List<DomainEventRecord> eventRecords = eventRecordJdbcRepository.findAllByWaitSend();
+      // 查找待发送的事件记录，按时间正序排列；分区中继时只查找当前节点持有的分区
+      BjTime deliverBefore = getDeliverBefore();
+      List<DomainEventRecord> eventRecords = relayProperties.isPartitionEnabled()
+          ? eventRecordJdbcRepository.findAllByWaitSend(partitionManager.acquirePartitions(), relayProperties.getPartitionCount(), deliverBefore)
+          : eventRecordJdbcRepository.findAllByWaitSend(deliverBefore);
       if (eventRecords.size() > 100) {
         log.error("待发送的事务消息数量为: {}, 请开发人员检查消息系统是否正常。", eventRecords.size());
       }
 
-      // 依次处理每个事件记录
+      // 依次处理每个事件记录；顺序投递时同一事件key的记录发送失败后，该key的后续记录留待下次发送，以免乱序
+      Set<String> failedKeys = new HashSet<>();
       for (var eventRecord : eventRecords) {
+        if (mqConfig.isOrderedDelivery() && failedKeys.contains(eventRecord.getEventKey())) {
+          continue;
+        }
         lockHelper.withLock(eventRecord.getId(), () -> {
           // 为防止重复发送消息，使用分布式锁，并再次检查记录状态
-          if (eventRecordJdbcRepository.isWaitSend(eventRecord.getId())) {
-            sendEventToMq(eventRecord);
+          if (eventRecordJdbcRepository.isWaitSend(eventRecord.getId()) && !sendEventToMq(eventRecord)) {
+            failedKeys.add(eventRecord.getEventKey());
           }
         });
       }
@@ -65,37 +144,291 @@ public class SendDomainEventRecordsToMqService {
     }
   }
 
-  private void sendEventToMq(DomainEventRecord eventRecord) {
+  /**
+   * 批量中继模式：每批使用一条sql认领记录(令牌 + 租约)，异步流水线发送到mq，再按发送结果批量更新记录。
+   * 记录的认领由db保证互斥，不再需要逐条的分布式锁。
+   */
+  @SuppressWarnings("PMD.AvoidCatchingGenericException")
+  void sendDomainEventRecordsInBatches() {
+    try {
+      BjTime start = BjTime.now();
+      DomainEventRelayResult result = relayInBatches();
+
+      double elapsedSeconds = BjTime.elapsedSeconds(start).getSeconds();
+      if (result.getClaimedCount() > 0) {
+        log.info("sendDomainEventRecords batch completed, claimed: {}, success: {}, failed: {}, batches: {}, elapsed: {}s, rate: {}/s",
+            result.getClaimedCount(), result.getSuccessCount(), result.getFailedCount(), result.getBatchCount(),
+            String.format("%.1f", elapsedSeconds), String.format("%.1f", result.getRatePerSecond(elapsedSeconds)));
+      }
+    }
+    catch (Exception ex) {
+      log.warn("sendDomainEventRecords batch error, message: {}", ex.getMessage(), ex);
+    }
+  }
+
+  /**
+   * 发送指定id的事件记录，由即时中继在事务提交后调用。已被其他节点认领或已发送的记录将被忽略.
+   * 启用延时事件的定时调度时，尚未到投递时间的延时记录留给时间轮发送.
+   */
+  public DomainEventRelayResult sendDomainEventRecordsByIds(List<String> eventRecordIds) {
+    return sendDomainEventRecordsByIds(eventRecordIds, relayProperties.isScheduleEnabled() ? BjTime.now() : null);
+  }
+
+  /**
+   * 发送指定id的事件记录，投递时间晚于deliverBefore的延时记录不发送(deliverBefore为空时不限制)。已被其他节点认领或已发送的记录将被忽略.
+   */
+  public DomainEventRelayResult sendDomainEventRecordsByIds(List<String> eventRecordIds, BjTime deliverBefore) {
+    DomainEventRelayResult result = new DomainEventRelayResult();
+
+    String ownerToken = UUID.randomUUID().toString();
+    BjTime leaseExpireTime = BjTime.now().plusSeconds(relayProperties.getLeaseSeconds());
+    int claimedCount = eventRecordJdbcRepository.claimWaitSendByIds(eventRecordIds, ownerToken, leaseExpireTime, deliverBefore);
+    if (claimedCount > 0) {
+      List<DomainEventRecord> eventRecords = eventRecordJdbcRepository.findAllByOwnerToken(ownerToken);
+
+      // 顺序投递时，同一事件key存在更早的待发送记录(待重试或正被其他节点发送)，该key的记录暂缓发送，由定时任务按顺序发送
+      Set<String> deferredKeys = mqConfig.isOrderedDelivery()
+          ? eventRecordJdbcRepository.findEventKeysWithEarlierWaitSend(eventRecords, ownerToken)
+          : Set.of();
+      relayBatch(eventRecords, ownerToken, deferredKeys, result);
+    }
+    return result;
+  }
+
+  DomainEventRelayResult relayInBatches() {
+    assertRelayPropertiesValid();
+
+    DomainEventRelayResult result = new DomainEventRelayResult();
+
+    // 分区中继时只认领当前节点持有的分区中的记录
+    List<Integer> partitions = relayProperties.isPartitionEnabled() ? partitionManager.acquirePartitions() : null;
+    BjTime deliverBefore = getDeliverBefore();
+
+    for (int batch = 0; batch < relayProperties.getMaxBatchesPerRun(); batch++) {
+      // 认领一批记录, 令牌在每个批次内唯一
+      String ownerToken = UUID.randomUUID().toString();
+      BjTime leaseExpireTime = BjTime.now().plusSeconds(relayProperties.getLeaseSeconds());
+      int claimedCount = partitions == null
+          ? eventRecordJdbcRepository.claimWaitSend(ownerToken, leaseExpireTime, relayProperties.getBatchSize(), deliverBefore)
+          : eventRecordJdbcRepository.claimWaitSend(ownerToken, leaseExpireTime, relayProperties.getBatchSize(),
+              partitions, relayProperties.getPartitionCount(), deliverBefore);
+      if (claimedCount == 0) {
+        break;
+      }
+
+      List<DomainEventRecord> eventRecords = eventRecordJdbcRepository.findAllByOwnerToken(ownerToken);
+      relayBatch(eventRecords, ownerToken, Set.of(), result);
+
+      if (claimedCount < relayProperties.getBatchSize()) {
+        break;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * 发送一批已认领的记录并更新发送结果. 顺序投递时，deferredKeys中的事件key的记录暂缓发送.
+   */
+  private void relayBatch(List<DomainEventRecord> eventRecords, String ownerToken, Set<String> deferredKeys,
+                          DomainEventRelayResult result) {
+    List<String> successIds = new ArrayList<>();
+    List<String> failedIds = new ArrayList<>();
+    List<String> deferredIds = new ArrayList<>();
+    if (mqConfig.isOrderedDelivery()) {
+      sendBatchInOrder(eventRecords, deferredKeys, successIds, failedIds, deferredIds);
+    }
+    else {
+      sendBatchAsync(eventRecords, successIds, failedIds);
+    }
+
+    // 批量更新发送结果，暂缓发送的记录只释放认领，由下一次中继发送
+    eventRecordJdbcRepository.updateOnSendSuccess(successIds, ownerToken);
+    eventRecordJdbcRepository.updateOnSendFailed(failedIds, ownerToken);
+    eventRecordJdbcRepository.releaseClaim(deferredIds, ownerToken);
+
+    result.addClaimedCount(eventRecords.size());
+    result.addSuccessCount(successIds.size());
+    result.addFailedCount(failedIds.size());
+    result.addBatchCount(1);
+  }
+
+  /**
+   * 异步发送该批次的所有记录，不逐条等待broker确认，再按发送结果分组.
+   */
+  private void sendBatchAsync(List<DomainEventRecord> eventRecords, List<String> successIds, List<String> failedIds) {
+    List<CompletableFuture<Boolean>> futures = new ArrayList<>(eventRecords.size());
+    for (var eventRecord : eventRecords) {
+      futures.add(sendEventToMqAsync(eventRecord));
+    }
+
+    for (int i = 0; i < eventRecords.size(); i++) {
+      addSendResult(eventRecords.get(i), futures.get(i).join(), successIds, failedIds);
+    }
+  }
+
+  /**
+   * 顺序投递：按创建时间逐条同步发送，同一事件key的记录发送失败后，该key的后续记录暂缓发送，以免乱序.
+   */
+  private void sendBatchInOrder(List<DomainEventRecord> eventRecords, Set<String> deferredKeys, List<String> successIds,
+                                List<String> failedIds, List<String> deferredIds) {
+    Set<String> failedKeys = new HashSet<>(deferredKeys);
+    for (var eventRecord : eventRecords) {
+      if (failedKeys.contains(eventRecord.getEventKey())) {
+        deferredIds.add(eventRecord.getId());
+        continue;
+      }
+
+      boolean success = sendEventToMqInOrder(eventRecord);
+      if (!success) {
+        failedKeys.add(eventRecord.getEventKey());
+      }
+      addSendResult(eventRecord, success, successIds, failedIds);
+    }
+  }
+
+  private void addSendResult(DomainEventRecord eventRecord, boolean success, List<String> successIds, List<String> failedIds) {
+    if (success) {
+      successIds.add(eventRecord.getId());
+      recordPublishToSend(eventRecord);
+      return;
+    }
+
+    failedIds.add(eventRecord.getId());
+    eventMetrics.recordSendFailed(eventRecord.getEventType(), getEventTopic(eventRecord),
+        DomainEventRecordJdbcRepository.isLastSendTime(eventRecord));
+    if (DomainEventRecordJdbcRepository.isLastSendTime(eventRecord)) {
+      log.error("发送事件消息到mq失败, key: {}, eventType: {}", eventRecord.getEventKey(), eventRecord.getEventType());
+    }
+  }
+
+  /**
+   * 同步发送一条事件记录到mq(顺序投递)，结果为是否发送成功，不更新记录信息.
+   */
+  private boolean sendEventToMqInOrder(DomainEventRecord eventRecord) {
+    String tag = getTag(eventRecord.getEventType());
+    String topic = getEventTopic(eventRecord);
+    String key = DomainEventMessageKey.from(eventRecord.getEventType(), eventRecord.getEventKey());
+    long start = System.nanoTime();
+    try {
+      sendToMq(eventRecord, topic, tag, key);
+      eventMetrics.recordMqSend(eventRecord.getEventType(), topic, true, System.nanoTime() - start);
+      log.debug("publish event successful, tag: {}, key: {}", tag, key);
+      return true;
+    }
+    catch (MessageProducerException ex) {
+      eventMetrics.recordMqSend(eventRecord.getEventType(), topic, false, System.nanoTime() - start);
+      log.warn("publish event failed, tag: {}, key: {}, msg: {}", tag, key, ex.getMessage(), ex);
+      return false;
+    }
+  }
+
+  /**
+   * 异步发送一条事件记录到mq，结果为是否发送成功，不更新记录信息.
+   */
+  private CompletableFuture<Boolean> sendEventToMqAsync(DomainEventRecord eventRecord) {
+    String tag = getTag(eventRecord.getEventType());
+    String topic = getEventTopic(eventRecord);
+    String key = DomainEventMessageKey.from(eventRecord.getEventType(), eventRecord.getEventKey());
+    long start = System.nanoTime();
+    try {
+      return mqProducer.sendAsync(topic, tag, key, eventRecord.getBody(), getDeliverTime(eventRecord))
+          .handle((sendResult, ex) -> {
+            eventMetrics.recordMqSend(eventRecord.getEventType(), topic, ex == null, System.nanoTime() - start);
+            if (ex != null) {
+              log.warn("publish event failed, tag: {}, key: {}, msg: {}", tag, key, ex.getMessage(), ex);
+              return false;
+            }
+            log.debug("publish event successful, tag: {}, key: {}", tag, key);
+            return true;
+          });
+    }
+    catch (MessageProducerException ex) {
+      // 发送窗口等待超时等情况下，直接视为发送失败
+      eventMetrics.recordMqSend(eventRecord.getEventType(), topic, false, System.nanoTime() - start);
+      log.warn("publish event failed, tag: {}, key: {}, msg: {}", tag, key, ex.getMessage(), ex);
+      return CompletableFuture.completedFuture(false);
+    }
+  }
+
+  /**
+   * 发送一条事件记录到mq，并更新记录信息，结果为是否发送成功.
+   */
+  private boolean sendEventToMq(DomainEventRecord eventRecord) {
     // 计算tag, topic, key, body
     String tag = getTag(eventRecord.getEventType());
     String topic = getEventTopic(eventRecord);
     String key = DomainEventMessageKey.from(eventRecord.getEventType(), eventRecord.getEventKey());
     String body = eventRecord.getBody();
-    Long deliverTime = getDeliverTime(eventRecord);
 
+    long start = System.nanoTime();
     try {
       // 发送消息
-      mqProducer.sendToQueue(topic, tag, key, body, deliverTime);
+      sendToMq(eventRecord, topic, tag, key);
+      eventMetrics.recordMqSend(eventRecord.getEventType(), topic, true, System.nanoTime() - start);
 
       // 发送成功后更新记录信息
       eventRecordJdbcRepository.updateOnSendSuccess(eventRecord);
+      recordPublishToSend(eventRecord);
 
       log.debug("publish event successful, tag: {}, key: {}, body: {}", tag, key, body);
+      return true;
     }
     catch (MessageProducerException ex) {
+      eventMetrics.recordMqSend(eventRecord.getEventType(), topic, false, System.nanoTime() - start);
+
       // 发布失败后更新记录信息
       eventRecordJdbcRepository.updateOnSendFailed(eventRecord, ex.getMessage());
+      eventMetrics.recordSendFailed(eventRecord.getEventType(), topic, DomainEventRecordJdbcRepository.isLastSendTime(eventRecord));
 
       log.warn("publish event failed, tag: {}, key: {}, body: {}, msg: {}", tag, key, body, ex.getMessage(), ex);
+      return false;
+    }
+  }
+
+  /**
+   * 同步发送消息：顺序投递时以事件key作为shardingKey发送分区顺序消息.
+   * 分区顺序消息的topic不能发送延时消息，顺序投递时(如启用前遗留的)延时记录视为发送失败.
+   */
+  private void sendToMq(DomainEventRecord eventRecord, String topic, String tag, String key) {
+    Long deliverTime = getDeliverTime(eventRecord);
+    if (!mqConfig.isOrderedDelivery()) {
+      mqProducer.sendToQueue(topic, tag, key, eventRecord.getBody(), deliverTime);
+    }
+    else if (deliverTime == null) {
+      mqProducer.sendOrdered(topic, tag, key, eventRecord.getBody(), eventRecord.getEventKey());
+    }
+    else {
+      throw new MessageProducerException("顺序投递不支持延时事件");
+    }
+  }
+
+  private void recordPublishToSend(DomainEventRecord eventRecord) {
+    if (eventRecord.getCreateTime() != null) {
+      eventMetrics.recordPublishToSend(eventRecord.getEventType(), getEventTopic(eventRecord),
+          eventRecord.getCreateTime().getInnerTime().getMillis());
     }
   }
 
   private String getEventTopic(DomainEventRecord eventRecord) {
-    if (isBlank(eventRecord.getTopic())) {
+    return getEventTopic(eventRecord.getTopic());
+  }
+
+  private String getEventTopic(String topic) {
+    if (isBlank(topic)) {
       // 事件topic为空时，取系统配置的默认topic。
       return mqConfig.getTopic();
     }
-    return eventRecord.getTopic();
+    return topic;
+  }
+
+  /**
+   * 定时任务查询记录时投递时间的上限：启用延时事件的定时调度时，延时记录由时间轮发送，定时任务只兜底发送超过投递时间一定秒数仍未发送的记录.
+   */
+  private BjTime getDeliverBefore() {
+    if (!relayProperties.isScheduleEnabled()) {
+      return null;
+    }
+    return BjTime.now().minusSeconds(relayProperties.getScheduleFallbackSeconds());
   }
 
   private static Long getDeliverTime(DomainEventRecord eventRecord) {
@@ -108,4 +441,16 @@ public class SendDomainEventRecordsToMqService {
   private String getTag(String eventType) {
     return StringUtils.trimToEmpty(mqConfig.getEventTagPrefix()) + eventType;
   }
+
+  private void assertRelayPropertiesValid() {
+    if (relayProperties.getBatchSize() <= 0) {
+      throw new IllegalArgumentException("batchSize必须大于0");
+    }
+    if (relayProperties.getMaxBatchesPerRun() <= 0) {
+      throw new IllegalArgumentException("maxBatchesPerRun必须大于0");
+    }
+    if (relayProperties.getLeaseSeconds() <= 0) {
+      throw new IllegalArgumentException("leaseSeconds必须大于0");
+    }
+  }
 }
@@ -19,12 +19,18 @@ public class SendEventMessageTask {
 
   private final SendDomainEventRecordsToMqService sendDomainEventRecordsToMqService;
 
-  /** 查找db中的待发送的领域事件记录，发送到mq。每2秒执行一次 */
-  @Scheduled(cron = "0/2 * * * * ?", zone = ZONE_SHANGHAI)
+  /** 查找db中的待发送的领域事件记录，发送到mq。默认每2秒执行一次，启用即时中继后仅作为兜底扫描 */
+  @Scheduled(cron = "${tehang.event.relay.cron:0/2 * * * * ?}", zone = ZONE_SHANGHAI)
   public void sendDomainEventRecordsToMq() {
     // 发送事件消息, 异步执行
     sendDomainEventRecordsToMqService.sendDomainEventRecords();
 
     log.debug("Exit sendDomainEventRecordsToMq");
   }
+
+  /** 统计待发送记录的积压情况，更新监控指标。默认每15秒执行一次 */
+  @Scheduled(cron = "${tehang.event.metrics.backlog-cron:0/15 * * * * ?}", zone = ZONE_SHANGHAI)
+  public void refreshBacklogMetrics() {
+    sendDomainEventRecordsToMqService.refreshBacklogMetrics();
+  }
 }
@@ -10,11 +10,21 @@ import lombok.AllArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.apache.commons.collections4.CollectionUtils.isEmpty;
 import static org.apache.commons.lang3.StringUtils.isBlank;
 
 /**
  * 事务性的事件发布者。
  * 实现逻辑：只是将事件保存到db，由定时任务来发布事件消息到mq.
+ * 启用即时中继(tehang.event.relay.immediate-enabled=true)时，事务提交后立即发送，定时任务仅作为兜底。
  */
 @Service
 @AllArgsConstructor
@@ -26,7 +36,7 @@ public class TransactionalEventPublisher {
   private final MqConfig mqConfig;
   private final DomainEventRecordJdbcRepository eventRecordJdbcRepository;
   private final EventPublisher eventPublisher;
-
+  private final DomainEventImmediateRelay immediateRelay;
 
   /**
    * 发布领域事件, 这里是将事件保存到db，由定时任务来发送到mq。
@@ -37,6 +47,7 @@ public class TransactionalEventPublisher {
 
   /**
    * 发布领域事件, 并指定延时投递的时间(绝对时间，最大延迟时间为7天)。这里是将事件保存到db，由定时任务来发送到mq。
+   * 启用延时事件的定时调度(tehang.event.relay.schedule-enabled=true)时，由时间轮在投递时间到达时发送，延迟时间不受限制。
    * @param event 待发布的事件
    * @param startDeliverTime 设置消息的定时投递时间（绝对时间),最大延迟时间为7天.
    */
@@ -58,7 +69,7 @@ public class TransactionalEventPublisher {
    * 发布领域事件，并使用稳定业务key保证同一事件类型下只写入一次事件记录.
    * @param event 待发布的事件
    * @param idempotentKey 稳定业务key
-   * @param startDeliverTime 设置消息的定时投递时间（绝对时间),最大延迟时间为7天.
+   * @param startDeliverTime 设置消息的定时投递时间（绝对时间),最大延迟时间为7天, 启用延时事件的定时调度时不受限制.
    * @return true表示首次发布成功，false表示重复发布已被忽略
    */
   public boolean publishOnce(DomainEvent event, String idempotentKey, BjTime startDeliverTime) {
@@ -67,6 +78,69 @@ public class TransactionalEventPublisher {
     return doPublishOnce(event, startDeliverTime);
   }
 
+  /**
+   * 批量发布领域事件，使用多行insert语句将事件记录分块保存到db，由定时任务来发送到mq。
+   * 适用于一次业务操作发布大量事件的场景，减少与数据库的交互次数。
+   */
+  public void publishAll(List<DomainEvent> events) {
+    if (isEmpty(events)) {
+      return;
+    }
+    events.forEach(this::assertEventValid);
+
+    try {
+      List<DomainEventRecord> eventRecords = createEventRecords(events);
+      eventRecordJdbcRepository.addAll(eventRecords);
+      immediateRelay.relayAfterCommit(eventRecords.stream().map(DomainEventRecord::getId).collect(Collectors.toList()));
+    }
+    catch (Exception ex) {
+      var msg = "publish events failed, errorMsg: " + ex.getMessage();
+      log.error(msg, ex);
+      throw new SystemErrorException(msg, ex);
+    }
+  }
+
+  /**
+   * 批量发布领域事件，并使用稳定业务key保证同一事件类型下只写入一次事件记录，已存在的事件记录被跳过(on duplicate key update).
+   * @param eventsByIdempotentKey 待发布的事件，key为稳定业务key
+   * @return 首次发布成功的业务key，其余为重复发布已被忽略
+   */
+  public Set<String> publishAllOnce(Map<String, DomainEvent> eventsByIdempotentKey) {
+    if (eventsByIdempotentKey == null || eventsByIdempotentKey.isEmpty()) {
+      return Collections.emptySet();
+    }
+    eventsByIdempotentKey.forEach((idempotentKey, event) -> {
+      assertIdempotentKeyValid(idempotentKey);
+      event.setKey(idempotentKey);
+      assertEventValid(event);
+    });
+
+    try {
+      List<String> idempotentKeys = new ArrayList<>(eventsByIdempotentKey.keySet());
+      List<DomainEventRecord> eventRecords = createEventRecords(idempotentKeys.stream().map(eventsByIdempotentKey::get).collect(Collectors.toList()));
+      Set<String> addedIds = eventRecordJdbcRepository.addAllOnce(eventRecords);
+
+      Set<String> publishedKeys = new LinkedHashSet<>();
+      List<String> publishedIds = new ArrayList<>();
+      for (int i = 0; i < eventRecords.size(); i++) {
+        if (addedIds.contains(eventRecords.get(i).getId())) {
+          publishedKeys.add(idempotentKeys.get(i));
+          publishedIds.add(eventRecords.get(i).getId());
+        }
+      }
+      immediateRelay.relayAfterCommit(publishedIds);
+      if (publishedKeys.size() < idempotentKeys.size()) {
+        log.warn("publish events ignored because duplicated, count: {}", idempotentKeys.size() - publishedKeys.size());
+      }
+      return publishedKeys;
+    }
+    catch (Exception ex) {
+      var msg = "publish events failed, errorMsg: " + ex.getMessage();
+      log.error(msg, ex);
+      throw new SystemErrorException(msg, ex);
+    }
+  }
+
   /**
    * 不参与当前事物而直接发布事件消息，不需要保存到事件记录中异步发送。
    * 此方法同eventPublisher.publish(), 提供此方法是为了效率考虑。
@@ -91,12 +165,16 @@ public class TransactionalEventPublisher {
   private boolean doPublishOnce(DomainEvent event, BjTime startDeliverTime) {
     // 检查事件参数的有效性
     assertEventValid(event);
+    assertDeliverTimeSupported(startDeliverTime);
 
     // 创建事件记录，并保存到db
     try {
-      var eventRecord = DomainEventRecord.create(event, startDeliverTime, mqConfig.getGroupId());
+      var eventRecord = DomainEventRecord.create(event, startDeliverTime, mqConfig.getGroupId(), mqConfig.getCompressThresholdBytes());
       boolean published = eventRecordJdbcRepository.addOnce(eventRecord);
-      if (!published) {
+      if (published) {
+        immediateRelay.relayAfterCommit(eventRecord.getId());
+      }
+      else {
         log.warn("publish event ignored because duplicated, key: {}, eventType: {}", event.getKey(), event.getEventType());
       }
       return published;
@@ -111,11 +189,13 @@ public class TransactionalEventPublisher {
   private void doPublish(DomainEvent event, BjTime startDeliverTime) {
     // 检查事件参数的有效性
     assertEventValid(event);
+    assertDeliverTimeSupported(startDeliverTime);
 
     // 创建事件记录，并保存到db
     try {
-      var eventRecord = DomainEventRecord.create(event, startDeliverTime, mqConfig.getGroupId());
+      var eventRecord = DomainEventRecord.create(event, startDeliverTime, mqConfig.getGroupId(), mqConfig.getCompressThresholdBytes());
       eventRecordJdbcRepository.add(eventRecord);
+      immediateRelay.relayAfterCommit(eventRecord.getId());
     }
     catch (Exception ex) {
       var msg = "publish event failed, errorMsg: " + ex.getMessage();
@@ -124,6 +204,12 @@ public class TransactionalEventPublisher {
     }
   }
 
+  private List<DomainEventRecord> createEventRecords(List<DomainEvent> events) {
+    return events.stream()
+        .map(event -> DomainEventRecord.create(event, null, mqConfig.getGroupId(), mqConfig.getCompressThresholdBytes()))
+        .collect(Collectors.toList());
+  }
+
   /** 检查事件参数的有效性, 包括事件类型，事件参数类型. */
   private void assertEventValid(DomainEvent event) {
     if (isBlank(event.getKey())) {
@@ -138,6 +224,15 @@ public class TransactionalEventPublisher {
     }
   }
 
+  /** 顺序投递时topic为分区顺序消息类型，不能发送延时消息. */
+  private void assertDeliverTimeSupported(BjTime startDeliverTime) {
+    if (startDeliverTime != null && mqConfig.isOrderedDelivery()) {
+      String msg = "启用顺序投递时不支持延时事件";
+      log.error(msg);
+      throw new SystemErrorException(msg);
+    }
+  }
+
   private void assertIdempotentKeyValid(String idempotentKey) {
     if (isBlank(idempotentKey)) {
       String msg = "idempotentKey不能为空";
@@ -3,6 +3,7 @@ package com.tehang.common.utility.event.publish.eventrecord;
 import com.tehang.common.utility.JsonUtils;
 import com.tehang.common.utility.baseclass.AggregateRoot;
 import com.tehang.common.utility.event.DomainEvent;
+import com.tehang.common.utility.event.mq.MessageBodyCodec;
 import com.tehang.common.utility.event.publish.TraceInfoHelper;
 import com.tehang.common.utility.time.BjTime;
 import lombok.Getter;
@@ -47,7 +48,7 @@ public class DomainEventRecord extends AggregateRoot<String> {
   @Column(length = 200)
   private String publisher;
 
-  /** 设置消息的延时投递时间（绝对时间),最大延迟时间为7天. null表示立即投递。*/
+  /** 设置消息的延时投递时间（绝对时间),最大延迟时间为7天(启用延时事件的定时调度时不受限制). null表示立即投递。*/
   @Column(length = 23)
   private BjTime startDeliverTime;
 
@@ -55,7 +56,7 @@ public class DomainEventRecord extends AggregateRoot<String> {
   @Column(length = 200)
   private String traceId;
 
-  /** 事件发送的消息body。*/
+  /** 事件发送的消息body，超过压缩阈值时为压缩后的body(见MessageBodyCodec)。*/
   @Column(columnDefinition = "TEXT")
   private String body;
 
@@ -71,10 +72,23 @@ public class DomainEventRecord extends AggregateRoot<String> {
   /** 实际发送的次数，初始为0 */
   private int count;
 
+  /** 批量中继时认领该记录的批次令牌，为空表示未被认领 */
+  @Column(length = 50)
+  private String ownerToken;
+
+  /** 批量中继时认领的租约到期时间，到期后可被其他节点重新认领 */
+  @Column(length = 23)
+  private BjTime leaseExpireTime;
+
   // ------------- 方法 ------------
 
   /** 创建事件记录的工厂方法 */
   public static DomainEventRecord create(DomainEvent event, BjTime startDeliverTime, String mqGroupId) {
+    return create(event, startDeliverTime, mqGroupId, 0);
+  }
+
+  /** 创建事件记录的工厂方法，body超过压缩阈值(字节数)时压缩存储 */
+  public static DomainEventRecord create(DomainEvent event, BjTime startDeliverTime, String mqGroupId, int compressThreshold) {
     var record = new DomainEventRecord();
     record.id = UUID.randomUUID().toString();
     record.eventKey = event.getKey();
@@ -83,7 +97,7 @@ public class DomainEventRecord extends AggregateRoot<String> {
     record.topic = event.getTopic();
     record.startDeliverTime = startDeliverTime;
     record.traceId = TraceInfoHelper.getCurrentTraceId();
-    record.body = JsonUtils.toJson(event);
+    record.body = MessageBodyCodec.encodeForStorage(JsonUtils.toJson(event), compressThreshold);
     record.status = DomainEventSendStatus.WaitSend;
 
     record.resetCreateAndUpdateTimeToNow();
@@ -1,5 +1,8 @@
 package com.tehang.common.utility.event.publish.eventrecord;
 
+import com.google.common.collect.Lists;
+import com.tehang.common.utility.db.MultiRowInsertWriter;
+import com.tehang.common.utility.event.metrics.DomainEventBacklog;
 import com.tehang.common.utility.time.BjTime;
 import lombok.AllArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -8,9 +11,13 @@ import org.springframework.jdbc.core.BeanPropertyRowMapper;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 @Repository
 @AllArgsConstructor
@@ -25,6 +32,17 @@ public class DomainEventRecordJdbcRepository {
       + "values (:id, :event_key, :event_type, :topic, :publisher, :start_deliver_time, :trace_id, "
       + ":body, :status, :publish_time, :count, :create_time, :update_time) ";
 
+  // 批量写入事件记录的多行insert语句
+  private static final MultiRowInsertWriter INSERT_WRITER = new MultiRowInsertWriter("domain_event_record", List.of(
+      "id", "event_key", "event_type", "topic", "publisher", "start_deliver_time", "trace_id",
+      "body", "status", "publish_time", "count", "create_time", "update_time"));
+
+  // 分区中继时，按事件key的hash值筛选指定分区的记录，同一事件key的记录总在同一分区，由同一节点依次发送
+  private static final String PARTITION_CONDITION = "crc32(event_key) % :partition_count in (:partitions)";
+
+  // 启用延时事件的定时调度时，只查询不需延时或投递时间不晚于deliver_before的记录，其余延时记录由时间轮到期时发送
+  private static final String DELIVER_CONDITION = "(start_deliver_time is null or start_deliver_time <= :deliver_before)";
+
   private NamedParameterJdbcTemplate jdbcTemplate;
 
   /**
@@ -48,6 +66,39 @@ public class DomainEventRecordJdbcRepository {
     }
   }
 
+  /**
+   * 批量添加事件记录，按块使用多行insert语句写入.
+   */
+  public void addAll(List<DomainEventRecord> records) {
+    if (records.isEmpty()) {
+      return;
+    }
+    INSERT_WRITER.insert(jdbcTemplate, records.stream().map(this::getInsertParams).collect(Collectors.toList()));
+  }
+
+  /**
+   * 批量添加事件记录，跳过已存在相同事件类型和事件key的记录(on duplicate key update)，数据截断等其他错误仍然抛出异常.
+   * @return 实际写入的事件记录id
+   */
+  public Set<String> addAllOnce(List<DomainEventRecord> records) {
+    if (records.isEmpty()) {
+      return Collections.emptySet();
+    }
+    INSERT_WRITER.insertSkipDuplicate(jdbcTemplate, records.stream().map(this::getInsertParams).collect(Collectors.toList()), "id");
+
+    // 跳过的记录不能由影响行数判断，按本次生成的id查询实际写入的记录
+    List<String> ids = records.stream().map(DomainEventRecord::getId).collect(Collectors.toList());
+    Set<String> addedIds = new HashSet<>();
+    for (List<String> partition : Lists.partition(ids, MultiRowInsertWriter.DEFAULT_CHUNK_SIZE)) {
+      addedIds.addAll(jdbcTemplate.queryForList("select id from domain_event_record where id in (:ids)",
+          Map.of("ids", partition), String.class));
+    }
+    if (addedIds.size() < records.size()) {
+      log.warn("{}条事件记录已存在, 已忽略", records.size() - addedIds.size());
+    }
+    return addedIds;
+  }
+
   private Map<String, Object> getInsertParams(DomainEventRecord record) {
     Map<String, Object> params = new HashMap<>();
     params.put("id", record.getId());
@@ -70,10 +121,321 @@ public class DomainEventRecordJdbcRepository {
    * 查询所有待发送的事件记录，按创建时间正序排列，时间早的排在前面。
    */
   public List<DomainEventRecord> findAllByWaitSend() {
-    String sql = String.format("select id, event_key, event_type, topic, publisher, start_deliver_time, trace_id, body, status, publish_time, count, create_time, update_time "
-        + "from domain_event_record where status = '%s' order by create_time ", DomainEventSendStatus.WaitSend);
+    return findAllByWaitSend((BjTime) null);
+  }
+
+  /**
+   * 查询所有待发送的事件记录，按创建时间正序排列，时间早的排在前面。
+   * @param deliverBefore 不为空时，排除投递时间晚于此时间的延时记录
+   */
+  public List<DomainEventRecord> findAllByWaitSend(BjTime deliverBefore) {
+    Map<String, Object> params = new HashMap<>();
+    params.put("status", DomainEventSendStatus.WaitSend.toString());
+
+    String sql = "select id, event_key, event_type, topic, publisher, start_deliver_time, trace_id, body, status, publish_time, count, create_time, update_time "
+        + "from domain_event_record where status = :status " + deliverCondition(deliverBefore, params) + "order by create_time ";
+
+    return jdbcTemplate.query(sql, params, new BeanPropertyRowMapper<>(DomainEventRecord.class));
+  }
+
+  /**
+   * 查询指定分区中所有待发送的事件记录，按创建时间正序排列。分区由事件key的crc32值对分区数量取模得到。
+   * @param deliverBefore 不为空时，排除投递时间晚于此时间的延时记录
+   */
+  public List<DomainEventRecord> findAllByWaitSend(List<Integer> partitions, int partitionCount, BjTime deliverBefore) {
+    if (partitions.isEmpty()) {
+      return List.of();
+    }
+    Map<String, Object> params = new HashMap<>();
+    params.put("status", DomainEventSendStatus.WaitSend.toString());
+    params.put("partitions", partitions);
+    params.put("partition_count", partitionCount);
+
+    String sql = "select id, event_key, event_type, topic, publisher, start_deliver_time, trace_id, body, status, publish_time, count, create_time, update_time "
+        + "from domain_event_record where status = :status and " + PARTITION_CONDITION + " "
+        + deliverCondition(deliverBefore, params) + "order by create_time ";
+
+    return jdbcTemplate.query(sql, params, new BeanPropertyRowMapper<>(DomainEventRecord.class));
+  }
+
+  /**
+   * 查询投递时间在(from, until]内的待发送延时记录，按投递时间正序排列，最多limit条，只返回id和投递时间。
+   * 用于时间轮预先加载即将到期的记录，需要(status, start_deliver_time)索引。
+   */
+  public List<DomainEventRecord> findScheduledWaitSend(BjTime from, BjTime until, int limit) {
+    String sql = "select id, start_deliver_time "
+        + "from domain_event_record "
+        + "where status = :status "
+        + "  and start_deliver_time > :from "
+        + "  and start_deliver_time <= :until "
+        + "order by start_deliver_time "
+        + "limit :limit ";
+
+    Map<String, Object> params = new HashMap<>();
+    params.put("status", DomainEventSendStatus.WaitSend.toString());
+    params.put("from", from.toString());
+    params.put("until", until.toString());
+    params.put("limit", limit);
+
+    return jdbcTemplate.query(sql, params, new BeanPropertyRowMapper<>(DomainEventRecord.class));
+  }
+
+  /**
+   * 按事件类型和topic统计待发送的事件记录：记录数量及最早一条记录的创建时间，用于输出积压监控指标。
+   * @param deliverBefore 不为空时，排除投递时间晚于此时间的延时记录，尚未到期的延时记录不计为积压
+   */
+  public List<DomainEventBacklog> findWaitSendBacklog(BjTime deliverBefore) {
+    Map<String, Object> params = new HashMap<>();
+    params.put("status", DomainEventSendStatus.WaitSend.toString());
+
+    String sql = "select event_type, topic, count(*) as record_count, min(create_time) as oldest_create_time "
+        + "from domain_event_record where status = :status " + deliverCondition(deliverBefore, params) + "group by event_type, topic ";
+
+    return jdbcTemplate.query(sql, params, (rs, rowNum) -> new DomainEventBacklog(
+        rs.getString("event_type"),
+        rs.getString("topic"),
+        rs.getLong("record_count"),
+        BjTime.parse(rs.getString("oldest_create_time")).getInnerTime().getMillis()));
+  }
+
+  /**
+   * 使用一条sql认领一批待发送的事件记录：未被认领或租约已过期的记录，按创建时间正序，最多认领batchSize条。
+   * @param deliverBefore 不为空时，不认领投递时间晚于此时间的延时记录
+   * @return 实际认领的记录数量
+   */
+  public int claimWaitSend(String ownerToken, BjTime leaseExpireTime, int batchSize, BjTime deliverBefore) {
+    BjTime now = BjTime.now();
+    Map<String, Object> params = new HashMap<>();
+    params.put("owner_token", ownerToken);
+    params.put("lease_expire_time", leaseExpireTime.toString());
+    params.put("update_time", now.toString());
+    params.put("now", now.toString());
+    params.put("status", DomainEventSendStatus.WaitSend.toString());
+    params.put("batch_size", batchSize);
+
+    String sql = "update domain_event_record "
+        + "set owner_token = :owner_token, "
+        + "    lease_expire_time = :lease_expire_time, "
+        + "    update_time = :update_time "
+        + "where status = :status "
+        + "  and (lease_expire_time is null or lease_expire_time < :now) "
+        + "  " + deliverCondition(deliverBefore, params)
+        + "order by create_time "
+        + "limit :batch_size ";
+
+    return jdbcTemplate.update(sql, params);
+  }
+
+  /**
+   * 使用一条sql认领指定分区中的一批待发送的事件记录，规则同claimWaitSend，用于分区中继。
+   * @param deliverBefore 不为空时，不认领投递时间晚于此时间的延时记录
+   * @return 实际认领的记录数量
+   */
+  public int claimWaitSend(String ownerToken, BjTime leaseExpireTime, int batchSize, List<Integer> partitions, int partitionCount,
+                           BjTime deliverBefore) {
+    if (partitions.isEmpty()) {
+      return 0;
+    }
+    BjTime now = BjTime.now();
+    Map<String, Object> params = new HashMap<>();
+    params.put("owner_token", ownerToken);
+    params.put("lease_expire_time", leaseExpireTime.toString());
+    params.put("update_time", now.toString());
+    params.put("now", now.toString());
+    params.put("status", DomainEventSendStatus.WaitSend.toString());
+    params.put("batch_size", batchSize);
+    params.put("partitions", partitions);
+    params.put("partition_count", partitionCount);
+
+    String sql = "update domain_event_record "
+        + "set owner_token = :owner_token, "
+        + "    lease_expire_time = :lease_expire_time, "
+        + "    update_time = :update_time "
+        + "where status = :status "
+        + "  and (lease_expire_time is null or lease_expire_time < :now) "
+        + "  and " + PARTITION_CONDITION + " "
+        + "  " + deliverCondition(deliverBefore, params)
+        + "order by create_time "
+        + "limit :batch_size ";
+
+    return jdbcTemplate.update(sql, params);
+  }
+
+  /**
+   * 使用一条sql认领指定id的待发送事件记录：仅认领未被认领或租约已过期的记录。
+   * @param deliverBefore 不为空时，不认领投递时间晚于此时间的延时记录
+   * @return 实际认领的记录数量
+   */
+  public int claimWaitSendByIds(List<String> ids, String ownerToken, BjTime leaseExpireTime, BjTime deliverBefore) {
+    if (ids.isEmpty()) {
+      return 0;
+    }
+    BjTime now = BjTime.now();
+    Map<String, Object> params = new HashMap<>();
+    params.put("ids", ids);
+    params.put("owner_token", ownerToken);
+    params.put("lease_expire_time", leaseExpireTime.toString());
+    params.put("update_time", now.toString());
+    params.put("now", now.toString());
+    params.put("status", DomainEventSendStatus.WaitSend.toString());
+
+    String sql = "update domain_event_record "
+        + "set owner_token = :owner_token, "
+        + "    lease_expire_time = :lease_expire_time, "
+        + "    update_time = :update_time "
+        + "where id in (:ids) "
+        + "  and status = :status "
+        + "  and (lease_expire_time is null or lease_expire_time < :now) "
+        + "  " + deliverCondition(deliverBefore, params);
+
+    return jdbcTemplate.update(sql, params);
+  }
+
+  /**
+   * 查询指定批次令牌认领的所有待发送事件记录，按创建时间正序排列。
+   */
+  public List<DomainEventRecord> findAllByOwnerToken(String ownerToken) {
+    String sql = "select id, event_key, event_type, topic, publisher, start_deliver_time, trace_id, body, status, publish_time, count, "
+        + "owner_token, lease_expire_time, create_time, update_time "
+        + "from domain_event_record where owner_token = :owner_token and status = :status order by create_time ";
+
+    Map<String, Object> params = new HashMap<>();
+    params.put("owner_token", ownerToken);
+    params.put("status", DomainEventSendStatus.WaitSend.toString());
+
+    return jdbcTemplate.query(sql, params, new BeanPropertyRowMapper<>(DomainEventRecord.class));
+  }
+
+  /**
+   * 顺序投递时，查询该批次中存在更早的待发送记录(未被该批次认领)的事件key，这些key的记录需暂缓发送，以免乱序。
+   * 用于即时中继按id认领的批次：同一事件key的前序记录可能发送失败待重试，或正被其他节点发送。
+   */
+  public Set<String> findEventKeysWithEarlierWaitSend(List<DomainEventRecord> records, String ownerToken) {
+    if (records.isEmpty()) {
+      return Collections.emptySet();
+    }
+    // 该批次中每个事件key最早一条记录的创建时间
+    Map<String, String> earliestCreateTimes = new HashMap<>();
+    for (var record : records) {
+      earliestCreateTimes.merge(record.getEventKey(), record.getCreateTime().toString(),
+          (oldValue, newValue) -> oldValue.compareTo(newValue) <= 0 ? oldValue : newValue);
+    }
+
+    String sql = "select event_key, min(create_time) as earliest_create_time "
+        + "from domain_event_record "
+        + "where event_key in (:event_keys) "
+        + "  and status = :status "
+        + "  and (owner_token is null or owner_token <> :owner_token) "
+        + "group by event_key ";
+
+    Set<String> eventKeys = new HashSet<>();
+    for (List<String> partition : Lists.partition(List.copyOf(earliestCreateTimes.keySet()), MultiRowInsertWriter.DEFAULT_CHUNK_SIZE)) {
+      Map<String, Object> params = new HashMap<>();
+      params.put("event_keys", partition);
+      params.put("status", DomainEventSendStatus.WaitSend.toString());
+      params.put("owner_token", ownerToken);
+
+      jdbcTemplate.query(sql, params, rs -> {
+        String eventKey = rs.getString("event_key");
+        if (rs.getString("earliest_create_time").compareTo(earliestCreateTimes.get(eventKey)) < 0) {
+          eventKeys.add(eventKey);
+        }
+      });
+    }
+    return eventKeys;
+  }
+
+  /**
+   * 批量发送成功后，使用一条sql更新该批次的记录信息，并释放认领。
+   */
+  public int updateOnSendSuccess(List<String> ids, String ownerToken) {
+    if (ids.isEmpty()) {
+      return 0;
+    }
+    String sql = "update domain_event_record "
+        + "set status = :status, "
+        + "    count = count + 1, "
+        + "    publish_time = :publish_time, "
+        + "    owner_token = null, "
+        + "    lease_expire_time = null, "
+        + "    update_time = :update_time "
+        + "where id in (:ids) and owner_token = :owner_token ";
 
-    return jdbcTemplate.query(sql, new BeanPropertyRowMapper<>(DomainEventRecord.class));
+    BjTime now = BjTime.now();
+    Map<String, Object> params = new HashMap<>();
+    params.put("ids", ids);
+    params.put("owner_token", ownerToken);
+    params.put("status", DomainEventSendStatus.SendSuccess.toString());
+    params.put("publish_time", now.toString());
+    params.put("update_time", now.toString());
+
+    return jdbcTemplate.update(sql, params);
+  }
+
+  /**
+   * 释放认领但不更新发送次数，记录保持待发送状态，用于顺序投递时同一事件key的前序记录发送失败后，暂不发送后续记录。
+   */
+  public int releaseClaim(List<String> ids, String ownerToken) {
+    if (ids.isEmpty()) {
+      return 0;
+    }
+    String sql = "update domain_event_record "
+        + "set owner_token = null, "
+        + "    lease_expire_time = null, "
+        + "    update_time = :update_time "
+        + "where id in (:ids) and owner_token = :owner_token ";
+
+    Map<String, Object> params = new HashMap<>();
+    params.put("ids", ids);
+    params.put("owner_token", ownerToken);
+    params.put("update_time", BjTime.now().toString());
+
+    return jdbcTemplate.update(sql, params);
+  }
+
+  /**
+   * 批量发送失败后，使用一条sql更新该批次的记录信息，并释放认领。超过最大发送次数的记录更新为失败状态。
+   */
+  public int updateOnSendFailed(List<String> ids, String ownerToken) {
+    if (ids.isEmpty()) {
+      return 0;
+    }
+    // 注意：status需在count之前赋值，以使用自增前的count值
+    String sql = "update domain_event_record "
+        + "set status = case when count + 1 >= :max_send_times then :failed_status else :wait_send_status end, "
+        + "    count = count + 1, "
+        + "    owner_token = null, "
+        + "    lease_expire_time = null, "
+        + "    update_time = :update_time "
+        + "where id in (:ids) and owner_token = :owner_token ";
+
+    Map<String, Object> params = new HashMap<>();
+    params.put("ids", ids);
+    params.put("owner_token", ownerToken);
+    params.put("max_send_times", MAX_SEND_TIMES);
+    params.put("failed_status", DomainEventSendStatus.SendFailed.toString());
+    params.put("wait_send_status", DomainEventSendStatus.WaitSend.toString());
+    params.put("update_time", BjTime.now().toString());
+
+    return jdbcTemplate.update(sql, params);
+  }
+
+  /**
+   * 投递时间的查询条件：deliverBefore为空时不限制，否则添加条件及参数.
+   */
+  private static String deliverCondition(BjTime deliverBefore, Map<String, Object> params) {
+    if (deliverBefore == null) {
+      return "";
+    }
+    params.put("deliver_before", deliverBefore.toString());
+    return "and " + DELIVER_CONDITION + " ";
+  }
+
+  /**
+   * 是否已达到最大发送次数？用于在批量发送失败时判断该记录是否最终失败.
+   */
+  public static boolean isLastSendTime(DomainEventRecord record) {
+    return record.getCount() + 1 >= MAX_SEND_TIMES;
   }
 
   /**
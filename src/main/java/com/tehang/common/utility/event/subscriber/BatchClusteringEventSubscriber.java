@@ -0,0 +1,52 @@
+package com.tehang.common.utility.event.subscriber;
+
+import com.tehang.common.utility.event.DomainEvent;
+
+import java.util.List;
+
+/**
+ * 批量消费的集群事件订阅者：一次消费一批消息，适用于批量写库等场景. 批量消费不保证消息的顺序.
+ * 每个批量订阅者使用独立的groupId创建消费者，以保证同一groupId下各消费者的订阅关系一致.
+ * 同时实现DatabaseIdempotentClusteringEventSubscriber时使用数据库消费记录保证幂等，否则使用redis保证幂等.
+ */
+public interface BatchClusteringEventSubscriber extends ClusteringEventSubscriber {
+
+  /**
+   * 批量处理事件，同一批次的事件类型相同，已消费过的事件已被过滤.
+   */
+  void handleEvents(List<DomainEvent> events);
+
+  /**
+   * 处理单个事件.
+   */
+  @Override
+  default void handleEvent(DomainEvent event) {
+    handleEvents(List.of(event));
+  }
+
+  /**
+   * 批量订阅者使用的groupId，不能与其他订阅者相同，需在mq控制台预先创建.
+   */
+  String groupId();
+
+  /**
+   * 每批最多消费的消息数量, 取值范围1~32.
+   */
+  default int batchSize() {
+    return 32;
+  }
+
+  /**
+   * 凑满一批消息的最大等待时间(秒)，超时后即使消息数量不足batchSize也开始消费; 0表示不等待.
+   */
+  default int batchMaxAwaitSeconds() {
+    return 0;
+  }
+
+  /**
+   * 消费线程数量.
+   */
+  default int consumeThreadNums() {
+    return 10;
+  }
+}
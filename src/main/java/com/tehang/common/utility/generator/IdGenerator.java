@@ -39,6 +39,13 @@ public final class IdGenerator {
     return snowFlake.nextId();
   }
 
+  /**
+   * 批量产生count个新的id，用于批量插入等场景，count不能超过SnowFlake.MAX_BATCH_SIZE.
+   */
+  public static long[] nextIds(int count) {
+    return snowFlake.nextIds(count);
+  }
+
   /**
    * 产生一个新的uuid的字符串形式.
    */
@@ -52,4 +59,11 @@ public final class IdGenerator {
   public long newId() {
     return snowFlake.nextId();
   }
+
+  /**
+   * 通过雪花算法批量获取count个新的id，推荐调用此实例方法，以方便单元测试.
+   */
+  public long[] newIds(int count) {
+    return snowFlake.nextIds(count);
+  }
 }
@@ -2,10 +2,15 @@ package com.tehang.common.utility.generator;
 
 import com.tehang.common.infrastructure.exceptions.SystemErrorException;
 
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
 /**
  * 雪花算法.
  * 用于生成long型ID ID为64位Long。 从高位算起，第一部分为 毫米时间戳，
  * 占 64 - 22 = 42 位。其次数据中心5位， 机器标识5位，最后同一毫秒内的序列号12位。
+ * 无锁实现：最后一次分配的时间戳和序列号打包在一个long中，通过一次CAS分配一个或一批id.
+ * 同一毫秒的序列号用完，或时钟小幅回拨时，借用之后的毫秒继续分配，最多领先当前时钟MAX_BORROW_MILLIS毫秒.
  */
 public class SnowFlake {
 
@@ -41,20 +46,35 @@ public class SnowFlake {
 
   private static final long TIMESTMP_LEFT = DATACENTER_LEFT + DATACENTER_BIT;
 
-  private static final int ONE = 1;
+  /**
+   * 最多可以借用的未来毫秒数：超过后等待时钟追上；时钟回拨超过此值时拒绝生成id.
+   */
+  private static final long MAX_BORROW_MILLIS = 10;
 
-  private long datacenterId;  //数据中心
+  /**
+   * 一次批量分配的最大数量.
+   */
+  public static final int MAX_BATCH_SIZE = (int) MAX_SEQUENCE + 1;
+
+  private final long datacenterId;  //数据中心
 
-  private long machineId;     //机器标识
+  private final long machineId;     //机器标识
 
-  private long sequence; //序列号
+  private final LongSupplier clock;  //时钟，返回当前的毫秒数
 
-  private long lastStmp = -1L; //上一次时间戳
+  /**
+   * 最后一次分配的id的时间戳(相对于START_STMP)和序列号: 时间戳 << SEQUENCE_BIT | 序列号.
+   */
+  private final AtomicLong lastState = new AtomicLong();
 
   /**
    * constructor.
    */
   public SnowFlake(long datacenterId, long machineId) {
+    this(datacenterId, machineId, System::currentTimeMillis);
+  }
+
+  SnowFlake(long datacenterId, long machineId, LongSupplier clock) {
     if (datacenterId > MAX_DATACENTER_NUM || datacenterId < 0) {
       throw new IllegalArgumentException("datacenterId can't be greater than MAX_DATACENTER_NUM or less than 0");
     }
@@ -63,48 +83,67 @@ public class SnowFlake {
     }
     this.datacenterId = datacenterId;
     this.machineId = machineId;
+    this.clock = clock;
   }
 
   /**
    * 产生下一个ID.
    */
   public long nextId() {
-    synchronized (this) {
-      long currStmp = getNewstmp();
-      if (currStmp < lastStmp) {
-        throw new SystemErrorException("Clock moved backwards.  Refusing to generate id");
-      }
+    return toId(reserve(1));
+  }
 
-      if (currStmp == lastStmp) {
-        //相同毫秒内，序列号自增
-        sequence = (sequence + ONE) & MAX_SEQUENCE;
-        //同一毫秒的序列数已经达到最大
-        if (sequence == ONE) {
-          currStmp = getNextMill();
-        }
-      }
-      else {
-        //不同毫秒内，序列号置为0
-        sequence = 0L;
-      }
+  /**
+   * 批量产生count个ID，用于批量插入等场景. 返回的ID是递增的.
+   *
+   * @param count ID的数量，取值范围为1 ~ MAX_BATCH_SIZE
+   */
+  public long[] nextIds(int count) {
+    if (count < 1 || count > MAX_BATCH_SIZE) {
+      throw new IllegalArgumentException("count must be between 1 and " + MAX_BATCH_SIZE);
+    }
 
-      lastStmp = currStmp;
-      return (currStmp - START_STMP) << TIMESTMP_LEFT //时间戳部分
-        | datacenterId << DATACENTER_LEFT       //数据中心部分
-        | machineId << MACHINE_LEFT             //机器标识部分
-        | sequence;                             //序列号部分
+    long firstState = reserve(count);
+    long[] ids = new long[count];
+    for (int i = 0; i < count; i++) {
+      ids[i] = toId(firstState + i);
     }
+    return ids;
   }
 
-  private long getNextMill() {
-    long mill = getNewstmp();
-    while (mill <= lastStmp) {
-      mill = getNewstmp();
+  /**
+   * 分配count个连续的状态值(时间戳 << SEQUENCE_BIT | 序列号)，返回第一个.
+   * 序列号用完时进位到下一毫秒，即借用未来的毫秒.
+   */
+  private long reserve(int count) {
+    while (true) {
+      long last = lastState.get();
+      long lastStmp = last >>> SEQUENCE_BIT;
+      long currStmp = clock.getAsLong() - START_STMP;
+
+      //进入新的毫秒时，序列号从0开始；否则(同一毫秒内或时钟回拨)在上一次的基础上继续分配
+      long first = currStmp > lastStmp ? currStmp << SEQUENCE_BIT : last + 1;
+      long end = first + count - 1;
+
+      if ((end >>> SEQUENCE_BIT) - currStmp > MAX_BORROW_MILLIS) {
+        if (lastStmp - currStmp > MAX_BORROW_MILLIS) {
+          throw new SystemErrorException("Clock moved backwards.  Refusing to generate id");
+        }
+        //借用的毫秒数已达上限，等待时钟追上
+        Thread.onSpinWait();
+        continue;
+      }
+
+      if (lastState.compareAndSet(last, end)) {
+        return first;
+      }
     }
-    return mill;
   }
 
-  private long getNewstmp() {
-    return System.currentTimeMillis();
+  private long toId(long state) {
+    return (state >>> SEQUENCE_BIT) << TIMESTMP_LEFT //时间戳部分
+        | datacenterId << DATACENTER_LEFT       //数据中心部分
+        | machineId << MACHINE_LEFT             //机器标识部分
+        | state & MAX_SEQUENCE;                 //序列号部分
   }
 }
@@ -2,13 +2,12 @@ package com.tehang.common.utility.lock;
 
 import com.tehang.common.utility.redis.CommonRedisOperator;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.data.redis.core.script.RedisScript;
 
 import java.util.List;
 
 /**
- * 分布式锁的辅助类：非阻塞，不可重入.
+ * 分布式锁的辅助类：关闭时释放锁. 是否可重入由获取锁时的LockMode决定.
  */
 @Slf4j
 public class DistributedLock implements AutoCloseable {
@@ -16,11 +15,20 @@ public class DistributedLock implements AutoCloseable {
   private final String lockKey;
   private final String lockValue;
   private final CommonRedisOperator redisOperator;
+  private final RedisScript<Long> releaseScript;
+  private final List<String> releaseKeys;
 
   public DistributedLock(String lockKey, String lockValue, CommonRedisOperator redisOperator) {
+    this(lockKey, lockValue, redisOperator, DistributedLockScripts.RELEASE, LockReleaseNotifier.getReleaseKeys(lockKey));
+  }
+
+  DistributedLock(String lockKey, String lockValue, CommonRedisOperator redisOperator, RedisScript<Long> releaseScript,
+                  List<String> releaseKeys) {
     this.lockKey = lockKey;
     this.lockValue = lockValue;
     this.redisOperator = redisOperator;
+    this.releaseScript = releaseScript;
+    this.releaseKeys = releaseKeys;
   }
 
   @Override
@@ -33,13 +41,8 @@ public class DistributedLock implements AutoCloseable {
    */
   private void releaseLock() {
     // 使用lua脚本释放锁，以保证原子性
-    String script = "if redis.call('get', KEYS[1]) == ARGV[1] "
-        + "then return redis.call('del', KEYS[1]) "
-        + "else return 0 "
-        + "end";
-
-    RedisScript<Long> redisScript = new DefaultRedisScript<>(script, Long.class);
-    Long result = redisOperator.execute(redisScript, List.of(this.lockKey), this.lockValue);
+    Long result = redisOperator.execute(
+        releaseScript, releaseKeys, this.lockValue, LockReleaseNotifier.getChannel(this.lockKey));
 
     boolean releaseSuccess = result != null && result != 0;
     if (releaseSuccess) {
@@ -1,35 +1,61 @@
 package com.tehang.common.utility.lock;
 
 import com.tehang.common.utility.redis.CommonRedisOperator;
-import lombok.AllArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.data.redis.core.script.RedisScript;
 import org.springframework.stereotype.Component;
 
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Collectors;
 
 import static org.apache.commons.lang3.BooleanUtils.isTrue;
 import static org.apache.commons.lang3.StringUtils.isBlank;
 
 /**
- * 分布式锁的辅助类：不可重入.
+ * 分布式锁的辅助类：默认不可重入，可通过LockMode获取可重入锁及读写锁.
  */
 @Component
 @Slf4j
-@AllArgsConstructor
-public class DistributedLockFactory {
+public class DistributedLockFactory implements DisposableBean {
 
   private static final String LOCK_PREFIX = "LOCK_PREFIX";      //锁前缀
 
+  private static final String RW_LOCK_PREFIX = "RW_LOCK_PREFIX";      //可重入锁及读写锁的前缀，此类锁使用hash结构，与普通锁的key区分开
+
+  private static final String RW_LOCK_OWNERS_PREFIX = "RW_LOCK_OWNERS:";      //hash结构的锁的持有者有序集合的前缀，score为持有者的到期时间
+
   public static final long LOCK_EXPIRED_MILLI_SECONDS = 30000;  //锁的过期时间
 
   private static final long LOCK_TIME_OUT_MILLI_SECONDS = 30000; //获取锁的超时时间，对于阻塞型锁有用
 
-  private static final long LOCK_RETRY_INTERVAL_MILLI_SECONDS = 2000; //获取锁的重试间隔
+  private static final long LOCK_RETRY_INTERVAL_MILLI_SECONDS = 2000; //获取锁的最大重试间隔
+
+  private static final long LOCK_INITIAL_RETRY_INTERVAL_MILLI_SECONDS = 100; //获取锁的初始重试间隔，之后每次翻倍
+
+  public static final long WATCHDOG_LEASE_MILLI_SECONDS = 10000; //看门狗锁的租期，持有期间每隔租期的1/3续期一次
 
   private final CommonRedisOperator redisOperator;
 
+  private final LockWatchdog watchdog;
+
+  private final LockReleaseNotifier releaseNotifier;
+
+  // 当前实例的id，与线程id一起作为可重入锁及读写锁的持有者id
+  private final String instanceId = UUID.randomUUID().toString();
+
+  public DistributedLockFactory(CommonRedisOperator redisOperator) {
+    this.redisOperator = redisOperator;
+    this.watchdog = new LockWatchdog(redisOperator);
+    this.releaseNotifier = new LockReleaseNotifier(redisOperator);
+  }
+
   /**
    * 获取锁, 非阻塞的，当获取不到锁时，将直接抛出LockNotAcquiredException异常.
    *
@@ -88,32 +114,264 @@ public class DistributedLockFactory {
     assertLockIdValid(lockId);
     assertAcquireWaitTimeValid(acquireWaitMilliSecond);
 
-    long acquireLockStartTime = System.nanoTime();
     String lockKey = getRedisKey(lockId);
     String lockValue = UUID.randomUUID().toString();  // 生成一个随机uuid作为锁的值，将来根据此值来释放锁
 
-    if (getLock(lockKey, lockValue, lockExpiredMilliSecond)) {
-      log.debug("Exit acquireLock: {}", lockId);
-      return new DistributedLock(lockKey, lockValue, redisOperator);
+    awaitLock(lockKey, blocked, acquireWaitMilliSecond, () -> getLock(lockKey, lockValue, lockExpiredMilliSecond));
+
+    log.debug("Exit acquireLock: {}", lockId);
+    return new DistributedLock(lockKey, lockValue, redisOperator);
+  }
+
+  /**
+   * 按指定的锁模式获取分布式锁，使用默认的获取锁的等待时间.
+   *
+   * @param mode 锁模式
+   * @param lockId 锁id, 不能为空
+   * @param blocked 获取不到锁时是否阻塞等待
+   * @param lockExpiredMilliSecond 锁的过期时间，单位为毫秒
+   */
+  public DistributedLock acquireLock(LockMode mode, String lockId, boolean blocked, long lockExpiredMilliSecond) {
+    return acquireLock(mode, lockId, blocked, lockExpiredMilliSecond, LOCK_TIME_OUT_MILLI_SECONDS);
+  }
+
+  /**
+   * 按指定的锁模式获取分布式锁.
+   * REENTRANT、READ、WRITE模式的锁由当前线程持有，同一线程可以重复获取，释放相同次数后锁才被释放.
+   *
+   * @param mode 锁模式
+   * @param lockId 锁id, 不能为空
+   * @param blocked 获取不到锁时是否阻塞等待
+   * @param lockExpiredMilliSecond 锁的过期时间，单位为毫秒
+   * @param acquireWaitMilliSecond 获取锁的等待时间，单位为毫秒，不能为负数
+   */
+  public DistributedLock acquireLock(
+      LockMode mode,
+      String lockId,
+      boolean blocked,
+      long lockExpiredMilliSecond,
+      long acquireWaitMilliSecond) {
+    switch (mode) {
+      case READ:
+        return acquireHashLock(lockId, DistributedLockScripts.READ_ACQUIRE, blocked, lockExpiredMilliSecond, acquireWaitMilliSecond);
+      case REENTRANT:
+      case WRITE:
+        return acquireHashLock(lockId, DistributedLockScripts.WRITE_ACQUIRE, blocked, lockExpiredMilliSecond, acquireWaitMilliSecond);
+      default:
+        return acquireLock(lockId, blocked, lockExpiredMilliSecond, acquireWaitMilliSecond);
+    }
+  }
+
+  /**
+   * 获取可重入的分布式锁.
+   *
+   * @param lockId 锁id, 不能为空
+   * @param blocked 获取不到锁时是否阻塞等待
+   * @param lockExpiredMilliSecond 锁的过期时间，单位为毫秒
+   * @param acquireWaitMilliSecond 获取锁的等待时间，单位为毫秒，不能为负数
+   */
+  public DistributedLock acquireReentrantLock(
+      String lockId,
+      boolean blocked,
+      long lockExpiredMilliSecond,
+      long acquireWaitMilliSecond) {
+    return acquireLock(LockMode.REENTRANT, lockId, blocked, lockExpiredMilliSecond, acquireWaitMilliSecond);
+  }
+
+  /**
+   * 获取分布式读写锁，通过返回对象的readLock()/writeLock()获取读锁或写锁.
+   *
+   * @param lockId 锁id, 不能为空
+   */
+  public ReadWriteDistributedLock getReadWriteLock(String lockId) {
+    assertLockIdValid(lockId);
+    return new ReadWriteDistributedLock(lockId, this);
+  }
+
+  /**
+   * 获取hash结构的锁(可重入锁、读锁、写锁)，持有者为当前线程.
+   */
+  private DistributedLock acquireHashLock(
+      String lockId,
+      RedisScript<Long> acquireScript,
+      boolean blocked,
+      long lockExpiredMilliSecond,
+      long acquireWaitMilliSecond) {
+    log.debug("Enter acquireHashLock: {}", lockId);
+
+    assertLockIdValid(lockId);
+    assertAcquireWaitTimeValid(acquireWaitMilliSecond);
+
+    String lockKey = RW_LOCK_PREFIX + lockId;
+    String ownersKey = getOwnersKey(lockKey);
+    String ownerId = instanceId + ':' + Thread.currentThread().getId();
+
+    awaitLock(lockKey, blocked, acquireWaitMilliSecond, () -> {
+      Long result = redisOperator.execute(acquireScript, List.of(lockKey, ownersKey), ownerId, String.valueOf(lockExpiredMilliSecond));
+      return result != null && result != 0;
+    });
+
+    log.debug("Exit acquireHashLock: {}", lockId);
+    return new DistributedLock(lockKey, ownerId, redisOperator, DistributedLockScripts.HASH_RELEASE,
+        List.of(lockKey, LockReleaseNotifier.getWaiterKey(lockKey), ownersKey));
+  }
+
+  /**
+   * 获取看门狗锁, 非阻塞的，当获取不到锁时，将直接抛出LockNotAcquiredException异常.
+   *
+   * @param lockId 锁id, 不能为空
+   */
+  public WatchdogDistributedLock acquireWatchdogLockUnBlocked(String lockId) {
+    return acquireWatchdogLock(lockId, false, WATCHDOG_LEASE_MILLI_SECONDS, LOCK_TIME_OUT_MILLI_SECONDS);
+  }
+
+  /**
+   * 获取看门狗锁：锁以较短的租期持有，持有期间由后台线程自动续期，直到锁被释放.
+   * 适用于执行时间不确定的任务：持有者崩溃后，锁在租期到达后即被释放，而不必等待一个很长的过期时间.
+   *
+   * @param lockId 锁id, 不能为空
+   * @param blocked 获取不到锁时是否阻塞等待
+   * @param leaseMilliSecond 锁的租期，单位为毫秒
+   * @param acquireWaitMilliSecond 获取锁的等待时间，单位为毫秒，不能为负数
+   */
+  public WatchdogDistributedLock acquireWatchdogLock(
+      String lockId,
+      boolean blocked,
+      long leaseMilliSecond,
+      long acquireWaitMilliSecond) {
+    log.debug("Enter acquireWatchdogLock: {}", lockId);
+
+    assertLockIdValid(lockId);
+    assertAcquireWaitTimeValid(acquireWaitMilliSecond);
+    if (leaseMilliSecond <= 0) {
+      throw new IllegalArgumentException("leaseMilliSecond must be positive");
+    }
+
+    String lockKey = getRedisKey(lockId);
+    String lockValue = UUID.randomUUID().toString();
+
+    awaitLock(lockKey, blocked, acquireWaitMilliSecond, () -> getWatchdogLock(lockKey, lockValue, leaseMilliSecond));
+
+    log.debug("Exit acquireWatchdogLock: {}", lockId);
+    return new WatchdogDistributedLock(lockKey, lockValue, redisOperator, watchdog.watch(lockKey, lockValue, leaseMilliSecond));
+  }
+
+  /**
+   * 幂等认领，非阻塞的：在一次redis请求内检查是否已完成，未完成且无人处理时设置处理中标记，认领成功期间由看门狗续期.
+   * 返回的IdempotentClaim需关闭，处理成功时先调用complete.
+   *
+   * @param claimKey 认领的redis key(完整的key, 不加锁前缀), 不能为空
+   * @param completedValue 已完成标记的值
+   * @param leaseMilliSecond 处理中标记的租期，单位为毫秒
+   */
+  public IdempotentClaim claimIdempotent(String claimKey, String completedValue, long leaseMilliSecond) {
+    assertLockIdValid(claimKey);
+    if (leaseMilliSecond <= 0) {
+      throw new IllegalArgumentException("leaseMilliSecond must be positive");
+    }
+
+    String claimValue = UUID.randomUUID().toString();
+    Long result = redisOperator.execute(DistributedLockScripts.CLAIM, List.of(claimKey),
+        claimValue, String.valueOf(leaseMilliSecond), completedValue);
+    return createClaim(claimKey, claimValue, completedValue, leaseMilliSecond, result);
+  }
+
+  /**
+   * 批量幂等认领：以pipeline在一次往返中逐个key执行认领脚本，每个key的认领语义同claimIdempotent，key可位于redis集群的不同slot.
+   * 返回的认领与claimKeys的顺序一致，均需关闭.
+   *
+   * @param claimKeys 认领的redis key(完整的key, 不加锁前缀), 不能为空
+   * @param completedValue 已完成标记的值
+   * @param leaseMilliSecond 处理中标记的租期，单位为毫秒
+   */
+  public List<IdempotentClaim> claimIdempotent(List<String> claimKeys, String completedValue, long leaseMilliSecond) {
+    claimKeys.forEach(DistributedLockFactory::assertLockIdValid);
+    if (leaseMilliSecond <= 0) {
+      throw new IllegalArgumentException("leaseMilliSecond must be positive");
+    }
+
+    List<String> claimValues = claimKeys.stream().map(claimKey -> UUID.randomUUID().toString()).collect(Collectors.toList());
+    List<List<String>> keysList = claimKeys.stream().map(List::of).collect(Collectors.toList());
+    List<List<String>> argsList = claimValues.stream()
+        .map(claimValue -> List.of(claimValue, String.valueOf(leaseMilliSecond), completedValue))
+        .collect(Collectors.toList());
+    List<Long> results = redisOperator.executePipelined(DistributedLockScripts.CLAIM, keysList, argsList);
+
+    List<IdempotentClaim> claims = new ArrayList<>(claimKeys.size());
+    for (int i = 0; i < claimKeys.size(); i++) {
+      claims.add(createClaim(claimKeys.get(i), claimValues.get(i), completedValue, leaseMilliSecond, results.get(i)));
+    }
+    return claims;
+  }
+
+  /**
+   * 批量完成认领：以pipeline在一次往返中逐个key执行完成脚本，每个认领的语义同IdempotentClaim.complete.
+   *
+   * @param claims 认领成功的认领
+   * @param completedTtl 已完成标记保留的时长
+   */
+  public void completeIdempotent(List<IdempotentClaim> claims, Duration completedTtl) {
+    if (claims.isEmpty()) {
+      return;
+    }
+    claims.forEach(IdempotentClaim::prepareComplete);
+
+    List<List<String>> keysList = claims.stream().map(claim -> List.of(claim.getClaimKey())).collect(Collectors.toList());
+    List<List<String>> argsList = claims.stream().map(claim -> claim.getCompleteArgs(completedTtl)).collect(Collectors.toList());
+    List<Long> results = redisOperator.executePipelined(DistributedLockScripts.COMPLETE, keysList, argsList);
+    for (int i = 0; i < claims.size(); i++) {
+      claims.get(i).onCompleted(results.get(i));
+    }
+  }
+
+  /**
+   * 按认领脚本的结果创建认领：1为认领成功(启动续期)，0为已完成，其他为处理中.
+   */
+  private IdempotentClaim createClaim(String claimKey, String claimValue, String completedValue, long leaseMilliSecond, Long result) {
+    if (result != null && result == 1) {
+      return new IdempotentClaim(claimKey, claimValue, completedValue, IdempotentClaim.Status.CLAIMED, redisOperator,
+          watchdog.watch(claimKey, claimValue, leaseMilliSecond));
+    }
+    var status = result != null && result == 0 ? IdempotentClaim.Status.COMPLETED : IdempotentClaim.Status.IN_PROGRESS;
+    return new IdempotentClaim(claimKey, claimValue, completedValue, status, redisOperator, null);
+  }
+
+  /**
+   * 尝试获取锁，获取失败时按blocked参数重试或抛出异常.
+   * 阻塞模式下，等待锁释放的通知后立即重试；未收到通知时按带随机抖动的指数退避时间重试.
+   */
+  private void awaitLock(String lockKey, boolean blocked, long acquireWaitMilliSecond, BooleanSupplier lockGetter) {
+    long acquireLockStartTime = System.nanoTime();
+    if (lockGetter.getAsBoolean()) {
+      return;
     }
 
     //获取锁失败处理
     if (blocked) {
-      //阻塞模式时，尝试重新获取锁
-      while (true) {
-        long remainingWaitMilliSecond = acquireWaitMilliSecond - elapsedMillis(acquireLockStartTime);
-        if (remainingWaitMilliSecond <= 0) {
-          break;
-        }
-        if (getLock(lockKey, lockValue, lockExpiredMilliSecond)) {
-          log.debug("Exit acquireLock: {}", lockId);
-          return new DistributedLock(lockKey, lockValue, redisOperator);
+      //阻塞模式时，等待锁释放的通知并重新获取锁
+      try (var waiter = releaseNotifier.register(lockKey)) {
+        long retryIntervalMilliSecond = LOCK_INITIAL_RETRY_INTERVAL_MILLI_SECONDS;
+        while (true) {
+          long remainingWaitMilliSecond = acquireWaitMilliSecond - elapsedMillis(acquireLockStartTime);
+          if (remainingWaitMilliSecond <= 0) {
+            break;
+          }
+          // 登记等待后立即重试一次，避免错过登记之前发出的释放通知
+          if (lockGetter.getAsBoolean()) {
+            return;
+          }
+          remainingWaitMilliSecond = acquireWaitMilliSecond - elapsedMillis(acquireLockStartTime);
+          if (remainingWaitMilliSecond <= 0) {
+            break;
+          }
+          waiter.await(Math.min(withJitter(retryIntervalMilliSecond), remainingWaitMilliSecond));
+          retryIntervalMilliSecond = Math.min(retryIntervalMilliSecond * 2, LOCK_RETRY_INTERVAL_MILLI_SECONDS);
         }
-        remainingWaitMilliSecond = acquireWaitMilliSecond - elapsedMillis(acquireLockStartTime);
-        if (remainingWaitMilliSecond <= 0) {
-          break;
-        }
-        sleep(Math.min(LOCK_RETRY_INTERVAL_MILLI_SECONDS, remainingWaitMilliSecond));
+      }
+      catch (InterruptedException ex) {
+        log.warn("等待锁时线程被中断", ex);
+        // Restore interrupted state...
+        Thread.currentThread().interrupt();
       }
 
       //获取锁超时抛出异常
@@ -138,15 +396,28 @@ public class DistributedLockFactory {
     return isTrue(success);
   }
 
-  private void sleep(long sleepMilliSecond) {
-    try {
-      Thread.sleep(sleepMilliSecond);
-    }
-    catch (InterruptedException ex) {
-      log.warn("sleep调用时发生异常", ex);
-      // Restore interrupted state...
-      Thread.currentThread().interrupt();
-    }
+  /**
+   * 获取看门狗锁，使用lua脚本在一次请求内完成设置值和租期.
+   */
+  private boolean getWatchdogLock(String lockKey, String lockValue, long leaseMilliSecond) {
+    Long result = redisOperator.execute(DistributedLockScripts.ACQUIRE, List.of(lockKey), lockValue, String.valueOf(leaseMilliSecond));
+    return result != null && result != 0;
+  }
+
+  /**
+   * 应用关闭时停止看门狗和锁释放的订阅.
+   */
+  @Override
+  public void destroy() {
+    watchdog.shutdown();
+    releaseNotifier.shutdown();
+  }
+
+  /**
+   * 在重试间隔上增加至多50%的随机抖动，避免多个等待者同时重试.
+   */
+  private static long withJitter(long retryIntervalMilliSecond) {
+    return retryIntervalMilliSecond + ThreadLocalRandom.current().nextLong(retryIntervalMilliSecond / 2 + 1);
   }
 
   private static void assertLockIdValid(String lockId) {
@@ -168,4 +439,11 @@ public class DistributedLockFactory {
   private static String getRedisKey(String lockId) {
     return LOCK_PREFIX + lockId;
   }
+
+  /**
+   * hash结构的锁的持有者有序集合的key，以lockKey作为hash tag，与锁的key位于redis集群的同一个slot.
+   */
+  private static String getOwnersKey(String lockKey) {
+    return RW_LOCK_OWNERS_PREFIX + '{' + lockKey + '}';
+  }
 }
@@ -16,6 +16,10 @@ import java.util.function.Supplier;
  * lockHelper.withLock("lockId", () -> {
  *   // do something in locked
  * }
+ * 3. 使用读写锁或可重入锁：
+ * lockHelper.withLock(LockMode.READ, "lockId", true, 30, () -> {
+ *   // do something in read locked
+ * }
  */
 @Component
 @AllArgsConstructor
@@ -71,6 +75,15 @@ public class DistributedLockHelper {
     }
   }
 
+  /**
+   * 按指定的锁模式，在分布式锁中执行方法，并指定blocked, expiredSeconds参数
+   */
+  public void withLock(LockMode mode, String lockId, boolean blocked, long expiredSeconds, Runnable runnable) {
+    try (var ignored = lockFactory.acquireLock(mode, lockId, blocked, TimeUnit.SECONDS.toMillis(expiredSeconds))) {
+      runnable.run();
+    }
+  }
+
   /**
    * 在分布式锁中执行方法
    */
@@ -119,4 +132,13 @@ public class DistributedLockHelper {
       return supplier.get();
     }
   }
+
+  /**
+   * 按指定的锁模式，在分布式锁中执行方法，并指定blocked, expiredSeconds参数
+   */
+  public <T> T withLock(LockMode mode, String lockId, boolean blocked, long expiredSeconds, Supplier<T> supplier) {
+    try (var ignored = lockFactory.acquireLock(mode, lockId, blocked, TimeUnit.SECONDS.toMillis(expiredSeconds))) {
+      return supplier.get();
+    }
+  }
 }
@@ -0,0 +1,141 @@
+package com.tehang.common.utility.lock;
+
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+
+/**
+ * 分布式锁使用的lua脚本.
+ * 脚本为全局共享的单例，sha1只计算一次，执行时先通过EVALSHA调用，redis中不存在该脚本时才回退为EVAL发送脚本全文.
+ */
+final class DistributedLockScripts {
+
+  // 持有次数加1，在持有者有序集合(KEYS[2])中记录该持有者的到期时间，并在key的剩余过期时间小于指定值时重设过期时间
+  private static final String HOLD_AND_EXTEND = "redis.call('hincrby', KEYS[1], ARGV[1], 1) "
+      + "redis.call('zadd', KEYS[2], now + tonumber(ARGV[2]), ARGV[1]) "
+      + "if redis.call('pttl', KEYS[1]) < tonumber(ARGV[2]) then redis.call('pexpire', KEYS[1], ARGV[2]) end "
+      + "if redis.call('pttl', KEYS[2]) < tonumber(ARGV[2]) then redis.call('pexpire', KEYS[2], ARGV[2]) end "
+      + "return 1";
+
+  // 存在等待标记时向锁释放的频道发布消息
+  private static final String PUBLISH_IF_WAITING = "if redis.call('exists', KEYS[2]) == 1 then redis.call('publish', ARGV[2], '1') end ";
+
+  /**
+   * 获取锁：key不存在时设置锁的值和过期时间；key已被自己持有时重设过期时间。成功返回1，否则返回0.
+   * KEYS[1]: lockKey, ARGV[1]: lockValue, ARGV[2]: 过期时间(毫秒)
+   */
+  static final RedisScript<Long> ACQUIRE = new DefaultRedisScript<>(
+      "if redis.call('set', KEYS[1], ARGV[1], 'NX', 'PX', ARGV[2]) then return 1 "
+          + "elseif redis.call('get', KEYS[1]) == ARGV[1] then return redis.call('pexpire', KEYS[1], ARGV[2]) "
+          + "else return 0 "
+          + "end",
+      Long.class);
+
+  /**
+   * 续期锁：锁仍被自己持有时重设过期时间。成功返回1，否则返回0.
+   * KEYS[1]: lockKey, ARGV[1]: lockValue, ARGV[2]: 过期时间(毫秒)
+   */
+  static final RedisScript<Long> RENEW = new DefaultRedisScript<>(
+      "if redis.call('get', KEYS[1]) == ARGV[1] "
+          + "then return redis.call('pexpire', KEYS[1], ARGV[2]) "
+          + "else return 0 "
+          + "end",
+      Long.class);
+
+  /**
+   * 释放锁：锁仍被自己持有时删除key；有等待者时向锁释放的频道发布消息，以唤醒等待的线程。成功返回1，否则返回0.
+   * KEYS[1]: lockKey, KEYS[2]: 等待标记的key, ARGV[1]: lockValue, ARGV[2]: 锁释放的频道
+   */
+  static final RedisScript<Long> RELEASE = new DefaultRedisScript<>(
+      "if redis.call('get', KEYS[1]) == ARGV[1] "
+          + "then redis.call('del', KEYS[1]) " + PUBLISH_IF_WAITING + "return 1 "
+          + "else return 0 "
+          + "end",
+      Long.class);
+
+  /**
+   * 获取读锁(hash结构)：未加锁、已加读锁、或写锁由自己持有时，持有次数加1。成功返回1，否则返回0.
+   * hash中的mode字段记录锁的模式(read/write)，其他字段为持有者及其持有次数；每个持有者的到期时间记录在持有者有序集合中，
+   * 获取及释放时先移除已到期的持有者，崩溃的持有者不会因其他持有者持续获取锁而一直占用锁.
+   * KEYS[1]: lockKey, KEYS[2]: 持有者有序集合的key, ARGV[1]: 持有者id, ARGV[2]: 过期时间(毫秒)
+   */
+  static final RedisScript<Long> READ_ACQUIRE = new DefaultRedisScript<>(
+      purgeExpiredOwners("KEYS[2]")
+          + "local mode = redis.call('hget', KEYS[1], 'mode') "
+          + "if mode == false then redis.call('hset', KEYS[1], 'mode', 'read') "
+          + "elseif mode == 'write' and redis.call('hexists', KEYS[1], ARGV[1]) == 0 then return 0 "
+          + "end "
+          + HOLD_AND_EXTEND,
+      Long.class);
+
+  /**
+   * 获取写锁(hash结构)，也用作可重入的排他锁：未加锁、或写锁由自己持有时，持有次数加1。成功返回1，否则返回0.
+   * KEYS[1]: lockKey, KEYS[2]: 持有者有序集合的key, ARGV[1]: 持有者id, ARGV[2]: 过期时间(毫秒)
+   */
+  static final RedisScript<Long> WRITE_ACQUIRE = new DefaultRedisScript<>(
+      purgeExpiredOwners("KEYS[2]")
+          + "local mode = redis.call('hget', KEYS[1], 'mode') "
+          + "if mode == false then redis.call('hset', KEYS[1], 'mode', 'write') "
+          + "elseif mode ~= 'write' or redis.call('hexists', KEYS[1], ARGV[1]) == 0 then return 0 "
+          + "end "
+          + HOLD_AND_EXTEND,
+      Long.class);
+
+  /**
+   * 释放hash结构的锁：先移除已到期的持有者，再将持有次数减1，减到0时移除持有者；没有持有者时删除key，有等待者时向锁释放的频道发布消息.
+   * 锁由自己持有时返回1，否则(含自己已到期)返回0.
+   * KEYS[1]: lockKey, KEYS[2]: 等待标记的key, KEYS[3]: 持有者有序集合的key, ARGV[1]: 持有者id, ARGV[2]: 锁释放的频道
+   */
+  static final RedisScript<Long> HASH_RELEASE = new DefaultRedisScript<>(
+      purgeExpiredOwners("KEYS[3]")
+          + "if redis.call('hexists', KEYS[1], ARGV[1]) == 0 then return 0 end "
+          + "if redis.call('hincrby', KEYS[1], ARGV[1], -1) <= 0 then "
+          + "redis.call('hdel', KEYS[1], ARGV[1]) redis.call('zrem', KEYS[3], ARGV[1]) "
+          + "if redis.call('hlen', KEYS[1]) <= 1 then redis.call('del', KEYS[1], KEYS[3]) " + PUBLISH_IF_WAITING + "end "
+          + "end "
+          + "return 1",
+      Long.class);
+
+  /**
+   * 幂等认领：在一次请求内完成是否已完成的检查及处理中标记的设置.
+   * key不存在时设置处理中标记及租期，返回1；key为已完成标记时返回0；已被其他处理者认领时返回2.
+   * KEYS[1]: 认领的key, ARGV[1]: 处理中标记, ARGV[2]: 租期(毫秒), ARGV[3]: 已完成标记
+   */
+  static final RedisScript<Long> CLAIM = new DefaultRedisScript<>(
+      "local value = redis.call('get', KEYS[1]) "
+          + "if value == false then redis.call('set', KEYS[1], ARGV[1], 'PX', ARGV[2]) return 1 "
+          + "elseif value == ARGV[3] then return 0 "
+          + "else return 2 "
+          + "end",
+      Long.class);
+
+  /**
+   * 完成认领：key仍为自己的处理中标记或已过期时，设置为已完成标记及其过期时间。成功返回1，已被其他处理者认领时返回0.
+   * KEYS[1]: 认领的key, ARGV[1]: 处理中标记, ARGV[2]: 已完成标记, ARGV[3]: 已完成标记的过期时间(毫秒)
+   */
+  static final RedisScript<Long> COMPLETE = new DefaultRedisScript<>(
+      "local value = redis.call('get', KEYS[1]) "
+          + "if value == false or value == ARGV[1] then redis.call('set', KEYS[1], ARGV[2], 'PX', ARGV[3]) return 1 "
+          + "else return 0 "
+          + "end",
+      Long.class);
+
+  /**
+   * 移除到期时间已过的持有者，移除后没有持有者(只剩mode字段)时删除锁. 同时定义当前时间(毫秒)的局部变量now.
+   * 使用redis的时间，需按效果复制脚本(redis 3.2+).
+   */
+  private static String purgeExpiredOwners(String ownersKey) {
+    return "redis.replicate_commands() "
+        + "local time = redis.call('time') "
+        + "local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000) "
+        + "local expired = redis.call('zrangebyscore', " + ownersKey + ", '-inf', now) "
+        + "if #expired > 0 then "
+        + "for i = 1, #expired do redis.call('hdel', KEYS[1], expired[i]) end "
+        + "redis.call('zremrangebyscore', " + ownersKey + ", '-inf', now) "
+        + "if redis.call('hlen', KEYS[1]) <= 1 then redis.call('del', KEYS[1], " + ownersKey + ") end "
+        + "end ";
+  }
+
+  private DistributedLockScripts() {
+    // do nothing
+  }
+}
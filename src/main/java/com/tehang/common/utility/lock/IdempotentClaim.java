@@ -0,0 +1,110 @@
+package com.tehang.common.utility.lock;
+
+import com.tehang.common.utility.redis.CommonRedisOperator;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * 幂等认领：一个key对应的任务只需成功处理一次. 认领时在一次redis请求内完成是否已完成的检查及处理中标记的设置，
+ * 处理中标记同时起到分布式锁的作用，认领成功期间由看门狗续期；处理成功后标记为已完成，处理失败时关闭即释放认领，以便重新处理.
+ */
+@Slf4j
+public class IdempotentClaim implements AutoCloseable {
+
+  /**
+   * 认领的状态.
+   */
+  public enum Status {
+    /** 认领成功，由当前处理者处理 */
+    CLAIMED,
+    /** 已处理完成，不需要再处理 */
+    COMPLETED,
+    /** 正在由其他处理者处理 */
+    IN_PROGRESS
+  }
+
+  private final String claimKey;
+  private final String claimValue;
+  private final String completedValue;
+  private final Status status;
+  private final CommonRedisOperator redisOperator;
+  private final LockWatchdog.Renewal renewal;
+
+  private boolean completed;
+
+  IdempotentClaim(String claimKey, String claimValue, String completedValue, Status status,
+                  CommonRedisOperator redisOperator, LockWatchdog.Renewal renewal) {
+    this.claimKey = claimKey;
+    this.claimValue = claimValue;
+    this.completedValue = completedValue;
+    this.status = status;
+    this.redisOperator = redisOperator;
+    this.renewal = renewal;
+  }
+
+  public Status getStatus() {
+    return status;
+  }
+
+  /**
+   * 是否认领成功.
+   */
+  public boolean isClaimed() {
+    return status == Status.CLAIMED;
+  }
+
+  /**
+   * 处理成功后标记为已完成，已完成标记保留指定的时长.
+   */
+  public void complete(Duration completedTtl) {
+    prepareComplete();
+    Long result = redisOperator.execute(DistributedLockScripts.COMPLETE, List.of(claimKey), getCompleteArgs(completedTtl).toArray());
+    onCompleted(result);
+  }
+
+  String getClaimKey() {
+    return claimKey;
+  }
+
+  /**
+   * 完成前检查认领并停止续期.
+   */
+  void prepareComplete() {
+    if (!isClaimed()) {
+      throw new IllegalStateException("claim is not owned, claimKey: " + claimKey);
+    }
+    renewal.cancel();
+  }
+
+  /**
+   * 完成脚本的ARGV: 处理中标记, 已完成标记, 已完成标记的过期时间(毫秒).
+   */
+  List<String> getCompleteArgs(Duration completedTtl) {
+    return List.of(claimValue, completedValue, String.valueOf(completedTtl.toMillis()));
+  }
+
+  /**
+   * 记录完成脚本的执行结果.
+   */
+  void onCompleted(Long result) {
+    completed = true;
+    if (result == null || result == 0) {
+      // 认领已过期并被其他处理者认领
+      log.warn("complete claim failed, claim is lost, claimKey: {}", claimKey);
+    }
+  }
+
+  /**
+   * 未完成时释放认领.
+   */
+  @Override
+  public void close() {
+    if (!isClaimed() || completed) {
+      return;
+    }
+    renewal.cancel();
+    redisOperator.execute(DistributedLockScripts.RELEASE, LockReleaseNotifier.getReleaseKeys(claimKey), claimValue, LockReleaseNotifier.getChannel(claimKey));
+  }
+}
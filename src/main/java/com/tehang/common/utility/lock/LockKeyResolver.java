@@ -0,0 +1,193 @@
+package com.tehang.common.utility.lock;
+
+import com.tehang.common.utility.EncryptUtils;
+import lombok.SneakyThrows;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.StringTokenizer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 解析@Locked方法的lockKey: lockKey = 包名 + 类名 + 方法名 + keyPieces.
+ * 每个方法的keyPieces只编译一次，属性表达式(#param.field1.field2)编译为按参数下标取值及逐级读取属性的访问链，
+ * 属性的读取方法按对象的实际类型解析一次后缓存.
+ */
+final class LockKeyResolver {
+
+  private static final int MAX_LOCK_KEY_LENGTH = 256;
+
+  private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+
+  private final ConcurrentMap<Method, CompiledLockKey> compiledLockKeys = new ConcurrentHashMap<>();
+
+  /**
+   * 获取lockKey.
+   *
+   * @param method 加锁的方法
+   * @param keyPieces lockKey的附加部分
+   * @param parameterNames 方法的参数名
+   * @param args 方法的参数值
+   */
+  String resolve(Method method, String[] keyPieces, String[] parameterNames, Object[] args) {
+    CompiledLockKey compiledLockKey = compiledLockKeys.get(method);
+    if (compiledLockKey == null) {
+      compiledLockKey = compiledLockKeys.computeIfAbsent(method, key -> compile(key, keyPieces, parameterNames));
+    }
+    return compiledLockKey.resolve(args);
+  }
+
+  private static CompiledLockKey compile(Method method, String[] keyPieces, String[] parameterNames) {
+    String prefix = method.getDeclaringClass().getCanonicalName() + method.getName();
+
+    List<KeyPiece> pieces = new ArrayList<>();
+    if (keyPieces != null) {
+      for (var keyPiece : keyPieces) {
+        pieces.add(keyPiece.contains("#") ? compileExpression(keyPiece, parameterNames) : new LiteralKeyPiece(keyPiece));
+      }
+    }
+    return new CompiledLockKey(prefix, pieces.toArray(new KeyPiece[0]));
+  }
+
+  private static KeyPiece compileExpression(String keyPiece, String[] parameterNames) {
+    String expression = keyPiece.replace("#", "");
+    StringTokenizer tokenizer = new StringTokenizer(expression, ".");
+    if (!tokenizer.hasMoreTokens()) {
+      // 表达式为空时取到的值为null
+      return new LiteralKeyPiece("null");
+    }
+
+    // 第一个属性值从方法参数中获取
+    int paramIndex = Arrays.asList(parameterNames).indexOf(tokenizer.nextToken());
+
+    // 后续的属性表达式逐级读取
+    List<PropertyAccessor> accessors = new ArrayList<>();
+    while (tokenizer.hasMoreTokens()) {
+      accessors.add(new PropertyAccessor(tokenizer.nextToken()));
+    }
+    return new ExpressionKeyPiece(paramIndex, accessors.toArray(new PropertyAccessor[0]));
+  }
+
+  /**
+   * 一个方法编译后的lockKey.
+   */
+  private static final class CompiledLockKey {
+    private final String prefix;
+    private final KeyPiece[] pieces;
+
+    CompiledLockKey(String prefix, KeyPiece[] pieces) {
+      this.prefix = prefix;
+      this.pieces = pieces;
+    }
+
+    String resolve(Object[] args) {
+      if (pieces.length == 0) {
+        return shorten(prefix);
+      }
+
+      var sb = new StringBuilder(prefix);
+      for (var piece : pieces) {
+        sb.append(piece.getValue(args));
+      }
+      return shorten(sb.toString());
+    }
+
+    private static String shorten(String lockKey) {
+      // 当获取的key太长时，为提高性能，进行md5处理
+      return lockKey.length() > MAX_LOCK_KEY_LENGTH ? EncryptUtils.md5(lockKey) : lockKey;
+    }
+  }
+
+  private interface KeyPiece {
+    String getValue(Object[] args);
+  }
+
+  private static final class LiteralKeyPiece implements KeyPiece {
+    private final String value;
+
+    LiteralKeyPiece(String value) {
+      this.value = value;
+    }
+
+    @Override
+    public String getValue(Object[] args) {
+      return value;
+    }
+  }
+
+  private static final class ExpressionKeyPiece implements KeyPiece {
+    private final int paramIndex;
+    private final PropertyAccessor[] accessors;
+
+    ExpressionKeyPiece(int paramIndex, PropertyAccessor[] accessors) {
+      this.paramIndex = paramIndex;
+      this.accessors = accessors;
+    }
+
+    @Override
+    public String getValue(Object[] args) {
+      Object object = paramIndex >= 0 && paramIndex < args.length ? args[paramIndex] : null;
+      for (var accessor : accessors) {
+        if (object == null) {
+          // 如果取到了null值，就不再继续往后解析，以免出现NPE
+          break;
+        }
+        object = accessor.get(object);
+      }
+      return String.valueOf(object);
+    }
+  }
+
+  /**
+   * 读取一个属性值：只读取对象实际类型中声明的字段，找不到时返回null. 与原有的解析规则保持一致，以免同一方法的lockKey发生变化.
+   */
+  private static final class PropertyAccessor {
+    private final String propName;
+
+    // 按对象的实际类型缓存的读取方法
+    private final ConcurrentMap<Class<?>, Optional<MethodHandle>> getters = new ConcurrentHashMap<>();
+
+    PropertyAccessor(String propName) {
+      this.propName = propName;
+    }
+
+    @SneakyThrows
+    Object get(Object obj) {
+      Class<?> type = obj.getClass();
+      Optional<MethodHandle> getter = getters.get(type);
+      if (getter == null) {
+        getter = getters.computeIfAbsent(type, this::findGetter);
+      }
+      if (getter.isEmpty()) {
+        return null;
+      }
+      return (Object) getter.get().invokeExact(obj);
+    }
+
+    @SneakyThrows
+    private Optional<MethodHandle> findGetter(Class<?> type) {
+      for (Field field : type.getDeclaredFields()) {
+        if (field.getName().equals(propName)) {
+          //在反射时能访问私有变量
+          field.setAccessible(true);
+          MethodHandle getter = MethodHandles.lookup().unreflectGetter(field);
+          if (Modifier.isStatic(field.getModifiers())) {
+            // 静态字段的读取方法没有参数，忽略传入的对象
+            getter = MethodHandles.dropArguments(getter, 0, Object.class);
+          }
+          return Optional.of(getter.asType(GETTER_TYPE));
+        }
+      }
+      return Optional.empty();
+    }
+  }
+}
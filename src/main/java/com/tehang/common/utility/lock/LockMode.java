@@ -0,0 +1,27 @@
+package com.tehang.common.utility.lock;
+
+/**
+ * 分布式锁的模式.
+ */
+public enum LockMode {
+
+  /**
+   * 排他锁，不可重入: 同一线程再次获取同一把锁时将失败.
+   */
+  EXCLUSIVE,
+
+  /**
+   * 可重入的排他锁: 同一线程可以多次获取，释放相同次数后锁才被释放. 与同一lockId的WRITE锁相同.
+   */
+  REENTRANT,
+
+  /**
+   * 读锁，可重入: 多个持有者可以同时持有读锁，与写锁互斥.
+   */
+  READ,
+
+  /**
+   * 写锁，可重入: 与其他持有者的读锁和写锁互斥. 写锁的持有者可以再获取读锁，读锁的持有者不能升级为写锁.
+   */
+  WRITE
+}
@@ -0,0 +1,233 @@
+package com.tehang.common.utility.lock;
+
+import com.tehang.common.utility.redis.CommonRedisOperator;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 锁释放的通知：有线程等待锁时，释放锁的一方向该锁的频道发布消息，等待的线程收到消息后立即重新尝试获取锁.
+ * 等待者在redis中设置该锁的等待标记(带过期时间)，释放脚本只在存在等待标记时发布消息，没有等待者的锁释放时不产生发布流量.
+ * 每个节点只在本进程有线程等待某个锁时订阅该锁的频道；订阅不可用时，等待者仅按退避时间重试，并在一段时间后重新尝试订阅.
+ */
+@Slf4j
+@SuppressWarnings("PMD.AvoidCatchingGenericException")
+final class LockReleaseNotifier {
+
+  private static final String CHANNEL_PREFIX = "LOCK_RELEASED:";
+
+  private static final String WAITER_KEY_PREFIX = "LOCK_WAITERS:";
+
+  // 等待标记的最短过期时间，等待者每次等待前续期
+  private static final long WAITER_MARK_EXPIRED_MILLI_SECONDS = 5000;
+
+  // 订阅失败后重新尝试订阅的间隔
+  private static final long SUBSCRIBE_RETRY_INTERVAL_MILLI_SECONDS = 30_000;
+
+  private final CommonRedisOperator redisOperator;
+
+  private final MessageListener messageListener = this::onMessage;
+
+  // 本进程中等待各个锁的线程, key为lockKey
+  private final ConcurrentMap<String, Set<Semaphore>> waiters = new ConcurrentHashMap<>();
+
+  private RedisMessageListenerContainer listenerContainer;
+
+  // 下一次可以尝试启动订阅的时间
+  private long nextSubscribeMillis;
+
+  LockReleaseNotifier(CommonRedisOperator redisOperator) {
+    this.redisOperator = redisOperator;
+  }
+
+  /**
+   * 获取锁释放时发布消息的频道.
+   */
+  static String getChannel(String lockKey) {
+    return CHANNEL_PREFIX + lockKey;
+  }
+
+  /**
+   * 获取锁的等待标记的key. 以lockKey作为hash tag，与锁的key位于redis集群的同一个slot，可在同一个脚本中访问.
+   */
+  static String getWaiterKey(String lockKey) {
+    return WAITER_KEY_PREFIX + '{' + lockKey + '}';
+  }
+
+  /**
+   * 获取释放脚本的KEYS: 锁的key及其等待标记的key.
+   */
+  static List<String> getReleaseKeys(String lockKey) {
+    return List.of(lockKey, getWaiterKey(lockKey));
+  }
+
+  /**
+   * 登记一个等待指定锁的线程，等待结束后需关闭返回的Waiter.
+   * 本进程中第一个等待该锁的线程登记时订阅该锁的频道.
+   */
+  Waiter register(String lockKey) {
+    var waiter = new Waiter(lockKey);
+    synchronized (this) {
+      Set<Semaphore> semaphores = waiters.computeIfAbsent(lockKey, key -> ConcurrentHashMap.newKeySet());
+      if (semaphores.isEmpty()) {
+        subscribe(lockKey);
+      }
+      semaphores.add(waiter.semaphore);
+    }
+    waiter.markWaiting(WAITER_MARK_EXPIRED_MILLI_SECONDS);
+    return waiter;
+  }
+
+  /**
+   * 停止订阅.
+   */
+  synchronized void shutdown() {
+    if (listenerContainer != null) {
+      try {
+        listenerContainer.destroy();
+      }
+      catch (Exception ex) {
+        log.warn("stop lock release subscription error, message: {}", ex.getMessage(), ex);
+      }
+      listenerContainer = null;
+    }
+  }
+
+  private synchronized void unregister(String lockKey, Semaphore semaphore) {
+    Set<Semaphore> semaphores = waiters.get(lockKey);
+    if (semaphores == null) {
+      return;
+    }
+    semaphores.remove(semaphore);
+    if (semaphores.isEmpty()) {
+      waiters.remove(lockKey);
+      unsubscribe(lockKey);
+    }
+  }
+
+  private void subscribe(String lockKey) {
+    if (ensureContainerStarted()) {
+      try {
+        listenerContainer.addMessageListener(messageListener, new ChannelTopic(getChannel(lockKey)));
+      }
+      catch (Exception ex) {
+        log.warn("subscribe lock release error, lockKey: {}, message: {}", lockKey, ex.getMessage(), ex);
+      }
+    }
+  }
+
+  private void unsubscribe(String lockKey) {
+    if (listenerContainer != null) {
+      try {
+        listenerContainer.removeMessageListener(messageListener, new ChannelTopic(getChannel(lockKey)));
+      }
+      catch (Exception ex) {
+        log.warn("unsubscribe lock release error, lockKey: {}, message: {}", lockKey, ex.getMessage(), ex);
+      }
+    }
+  }
+
+  /**
+   * 启动订阅的容器，启动失败时等待一段时间后再重试.
+   * @return 订阅是否可用
+   */
+  private boolean ensureContainerStarted() {
+    if (listenerContainer != null) {
+      return true;
+    }
+    if (System.currentTimeMillis() < nextSubscribeMillis) {
+      return false;
+    }
+    nextSubscribeMillis = System.currentTimeMillis() + SUBSCRIBE_RETRY_INTERVAL_MILLI_SECONDS;
+
+    RedisConnectionFactory connectionFactory = redisOperator.getConnectionFactory();
+    if (connectionFactory == null) {
+      log.debug("no redis connection factory, lock release notification disabled");
+      return false;
+    }
+
+    try {
+      var container = new RedisMessageListenerContainer();
+      container.setConnectionFactory(connectionFactory);
+      container.afterPropertiesSet();
+      container.start();
+      listenerContainer = container;
+      log.debug("lock release subscription started");
+      return true;
+    }
+    catch (Exception ex) {
+      log.warn("start lock release subscription error, waiters will fall back to backoff, message: {}", ex.getMessage(), ex);
+      return false;
+    }
+  }
+
+  private synchronized boolean isSubscribed() {
+    return listenerContainer != null;
+  }
+
+  /**
+   * 收到锁释放的消息时，唤醒本进程中等待该锁的线程.
+   */
+  void onMessage(Message message, byte[] pattern) {
+    String channel = new String(message.getChannel(), StandardCharsets.UTF_8);
+    Set<Semaphore> semaphores = waiters.get(channel.substring(CHANNEL_PREFIX.length()));
+    if (semaphores != null) {
+      semaphores.forEach(Semaphore::release);
+    }
+  }
+
+  /**
+   * 一个等待锁释放的线程.
+   */
+  final class Waiter implements AutoCloseable {
+
+    private final String lockKey;
+    private final Semaphore semaphore = new Semaphore(0);
+
+    private Waiter(String lockKey) {
+      this.lockKey = lockKey;
+    }
+
+    /**
+     * 等待锁释放的通知，最多等待指定的时间.
+     */
+    void await(long timeoutMilliSecond) throws InterruptedException {
+      markWaiting(timeoutMilliSecond + WAITER_MARK_EXPIRED_MILLI_SECONDS);
+      if (semaphore.tryAcquire(timeoutMilliSecond, TimeUnit.MILLISECONDS)) {
+        // 等待期间可能收到了多次通知，只需要重试一次
+        semaphore.drainPermits();
+      }
+    }
+
+    /**
+     * 设置或续期该锁的等待标记，使释放锁时发布通知. 订阅不可用时不设置，释放锁时也不再发布.
+     */
+    private void markWaiting(long expiredMilliSecond) {
+      if (!isSubscribed()) {
+        return;
+      }
+      try {
+        redisOperator.set(getWaiterKey(lockKey), "1", expiredMilliSecond, TimeUnit.MILLISECONDS);
+      }
+      catch (Exception ex) {
+        log.debug("mark lock waiter error, lockKey: {}, message: {}", lockKey, ex.getMessage());
+      }
+    }
+
+    @Override
+    public void close() {
+      unregister(lockKey, semaphore);
+    }
+  }
+}
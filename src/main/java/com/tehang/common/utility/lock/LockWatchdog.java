@@ -0,0 +1,126 @@
+package com.tehang.common.utility.lock;
+
+import com.tehang.common.utility.redis.CommonRedisOperator;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 分布式锁的看门狗：持有锁期间在后台定时为锁续期，续期间隔为租期的1/3.
+ * 所有锁共用一个后台线程，首次使用时创建.
+ */
+@Slf4j
+@SuppressWarnings("PMD.DoNotUseThreads")
+final class LockWatchdog {
+
+  private final CommonRedisOperator redisOperator;
+
+  private ScheduledExecutorService scheduler;
+
+  LockWatchdog(CommonRedisOperator redisOperator) {
+    this.redisOperator = redisOperator;
+  }
+
+  /**
+   * 开始为指定的锁续期，直到返回的Renewal被取消，或发现锁已不再被自己持有.
+   */
+  Renewal watch(String lockKey, String lockValue, long leaseMilliSecond) {
+    long renewIntervalMilliSecond = Math.max(1, leaseMilliSecond / 3);
+
+    var renewal = new Renewal(lockKey, lockValue, leaseMilliSecond);
+    renewal.future = getScheduler().scheduleAtFixedRate(
+        renewal, renewIntervalMilliSecond, renewIntervalMilliSecond, TimeUnit.MILLISECONDS);
+    return renewal;
+  }
+
+  /**
+   * 停止后台线程，未释放的锁将在租期到达后自动过期.
+   */
+  synchronized void shutdown() {
+    if (scheduler != null) {
+      scheduler.shutdownNow();
+      scheduler = null;
+      log.debug("LockWatchdog stopped");
+    }
+  }
+
+  private synchronized ScheduledExecutorService getScheduler() {
+    if (scheduler == null) {
+      var executor = new ScheduledThreadPoolExecutor(1, runnable -> {
+        Thread thread = new Thread(runnable, "distributed-lock-watchdog");
+        thread.setDaemon(true);
+        return thread;
+      });
+      // 锁释放后取消的续期任务立即从队列中移除
+      executor.setRemoveOnCancelPolicy(true);
+      scheduler = executor;
+      log.debug("LockWatchdog started");
+    }
+    return scheduler;
+  }
+
+  /**
+   * 一个锁的续期任务.
+   */
+  final class Renewal implements Runnable {
+
+    private final String lockKey;
+    private final String lockValue;
+    private final long leaseMilliSecond;
+
+    private volatile ScheduledFuture<?> future;
+
+    private volatile boolean lost;
+
+    private Renewal(String lockKey, String lockValue, long leaseMilliSecond) {
+      this.lockKey = lockKey;
+      this.lockValue = lockValue;
+      this.leaseMilliSecond = leaseMilliSecond;
+    }
+
+    @Override
+    @SuppressWarnings("PMD.AvoidCatchingGenericException")
+    public void run() {
+      if (lost) {
+        cancel();
+        return;
+      }
+
+      try {
+        Long result = redisOperator.execute(
+            DistributedLockScripts.RENEW, List.of(lockKey), lockValue, String.valueOf(leaseMilliSecond));
+        if (result == null || result == 0) {
+          // 锁已过期或被其他持有者获取，不再续期
+          lost = true;
+          log.warn("renew lock failed, lock is lost, lockKey: {}, lockValue: {}", lockKey, lockValue);
+          cancel();
+        }
+      }
+      catch (Exception ex) {
+        // redis暂时不可用时，租期内仍可在下次续期时重试
+        log.warn("renew lock error, lockKey: {}, message: {}", lockKey, ex.getMessage(), ex);
+      }
+    }
+
+    /**
+     * 锁是否已丢失(续期时发现锁已不再被自己持有).
+     */
+    boolean isLost() {
+      return lost;
+    }
+
+    /**
+     * 停止续期.
+     */
+    void cancel() {
+      ScheduledFuture<?> scheduled = future;
+      if (scheduled != null) {
+        scheduled.cancel(false);
+      }
+    }
+  }
+}
@@ -13,6 +13,7 @@ import java.lang.annotation.Target;
  * Locked(keyPieces = {"Prefix", "#param1", "#param2.field1"}): 锁定时考虑参数值, lockKey = 包名 + 类名 + 方法名 + keyPieces;
  * Locked(blocked = true): 获取锁失败时阻塞线程，直到超时, blocked默认值为false。
  * Locked(expiredSeconds = 60): 锁的过期时间设置为60秒。
+ * Locked(mode = LockMode.READ): 使用读锁，多个线程可以同时执行，与mode = LockMode.WRITE的方法互斥; mode默认值为EXCLUSIVE。
  */
 @Target( { ElementType.METHOD })
 @Retention(RetentionPolicy.RUNTIME)
@@ -39,4 +40,9 @@ public @interface Locked {
    */
   long expiredSeconds() default 30;
 
+  /**
+   * 锁模式，默认为不可重入的排他锁. 嵌套调用使用相同lockKey的方法时，需使用REENTRANT/READ/WRITE等可重入的模式
+   */
+  LockMode mode() default LockMode.EXCLUSIVE;
+
 }
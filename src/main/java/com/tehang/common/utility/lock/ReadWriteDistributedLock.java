@@ -0,0 +1,61 @@
+package com.tehang.common.utility.lock;
+
+/**
+ * 分布式读写锁：多个持有者可以同时持有读锁，写锁与其他持有者的读锁和写锁互斥，读锁和写锁均可重入.
+ * 持有者为当前进程中的当前线程. 读锁持续被获取时，写锁可能一直等待，适用于写操作较少的场景.
+ *
+ * 使用方法：
+ * try (var ignored = lockFactory.getReadWriteLock("lockId").readLock(true)) {
+ *   // do something in locked
+ * }
+ */
+public class ReadWriteDistributedLock {
+
+  private final String lockId;
+  private final DistributedLockFactory lockFactory;
+
+  ReadWriteDistributedLock(String lockId, DistributedLockFactory lockFactory) {
+    this.lockId = lockId;
+    this.lockFactory = lockFactory;
+  }
+
+  /**
+   * 获取读锁，使用默认的过期时间和获取锁的等待时间.
+   *
+   * @param blocked 获取不到锁时是否阻塞等待
+   */
+  public DistributedLock readLock(boolean blocked) {
+    return lockFactory.acquireLock(LockMode.READ, lockId, blocked, DistributedLockFactory.LOCK_EXPIRED_MILLI_SECONDS);
+  }
+
+  /**
+   * 获取读锁.
+   *
+   * @param blocked 获取不到锁时是否阻塞等待
+   * @param lockExpiredMilliSecond 锁的过期时间，单位为毫秒
+   * @param acquireWaitMilliSecond 获取锁的等待时间，单位为毫秒，不能为负数
+   */
+  public DistributedLock readLock(boolean blocked, long lockExpiredMilliSecond, long acquireWaitMilliSecond) {
+    return lockFactory.acquireLock(LockMode.READ, lockId, blocked, lockExpiredMilliSecond, acquireWaitMilliSecond);
+  }
+
+  /**
+   * 获取写锁，使用默认的过期时间和获取锁的等待时间.
+   *
+   * @param blocked 获取不到锁时是否阻塞等待
+   */
+  public DistributedLock writeLock(boolean blocked) {
+    return lockFactory.acquireLock(LockMode.WRITE, lockId, blocked, DistributedLockFactory.LOCK_EXPIRED_MILLI_SECONDS);
+  }
+
+  /**
+   * 获取写锁.
+   *
+   * @param blocked 获取不到锁时是否阻塞等待
+   * @param lockExpiredMilliSecond 锁的过期时间，单位为毫秒
+   * @param acquireWaitMilliSecond 获取锁的等待时间，单位为毫秒，不能为负数
+   */
+  public DistributedLock writeLock(boolean blocked, long lockExpiredMilliSecond, long acquireWaitMilliSecond) {
+    return lockFactory.acquireLock(LockMode.WRITE, lockId, blocked, lockExpiredMilliSecond, acquireWaitMilliSecond);
+  }
+}
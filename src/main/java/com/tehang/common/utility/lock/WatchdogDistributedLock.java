@@ -0,0 +1,30 @@
+package com.tehang.common.utility.lock;
+
+import com.tehang.common.utility.redis.CommonRedisOperator;
+
+/**
+ * 带看门狗的分布式锁：以较短的租期持有锁，持有期间由后台线程定时续期；持有者进程崩溃后，锁在租期到达后即自动释放.
+ */
+public class WatchdogDistributedLock extends DistributedLock {
+
+  private final LockWatchdog.Renewal renewal;
+
+  WatchdogDistributedLock(String lockKey, String lockValue, CommonRedisOperator redisOperator, LockWatchdog.Renewal renewal) {
+    super(lockKey, lockValue, redisOperator);
+    this.renewal = renewal;
+  }
+
+  /**
+   * 锁是否已丢失：续期时发现锁已过期或已被其他持有者获取. 长时间运行的任务可以据此提前终止.
+   */
+  public boolean isLost() {
+    return renewal.isLost();
+  }
+
+  @Override
+  public void close() {
+    // 先停止续期，再释放锁
+    renewal.cancel();
+    super.close();
+  }
+}
@@ -2,13 +2,18 @@ package com.tehang.common.utility.redis;
 
 import com.tehang.common.utility.time.BjTime;
 import lombok.AllArgsConstructor;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.script.RedisScript;
 import org.springframework.lang.Nullable;
 import org.springframework.stereotype.Component;
 
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
 
 /**
  * 操作redis的类.
@@ -88,4 +93,35 @@ public class CommonRedisOperator {
   public <T> T execute(RedisScript<T> script, List<String> keys, Object... args) {
     return stringRedisTemplate.execute(script, keys, args);
   }
+
+  /**
+   * 以pipeline在一次往返中多次执行同一个脚本，第i次执行的KEYS及ARGV分别为keysList和argsList的第i个元素，返回的结果与执行顺序一致.
+   * 每次执行是独立的EVAL，只要单次执行的key位于同一个slot，在redis集群中同样可用.
+   */
+  @SuppressWarnings("unchecked")
+  public <T> List<T> executePipelined(RedisScript<T> script, List<List<String>> keysList, List<List<String>> argsList) {
+    if (keysList.isEmpty()) {
+      return List.of();
+    }
+    byte[] scriptBytes = script.getScriptAsString().getBytes(StandardCharsets.UTF_8);
+    ReturnType returnType = ReturnType.fromJavaType(script.getResultType());
+    List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+      for (int i = 0; i < keysList.size(); i++) {
+        List<String> keys = keysList.get(i);
+        byte[][] keysAndArgs = Stream.concat(keys.stream(), argsList.get(i).stream())
+            .map(value -> value.getBytes(StandardCharsets.UTF_8))
+            .toArray(byte[][]::new);
+        connection.scriptingCommands().eval(scriptBytes, returnType, keys.size(), keysAndArgs);
+      }
+      return null;
+    });
+    return (List<T>) results;
+  }
+
+  /**
+   * 获取redis连接工厂，用于订阅消息等需要独占连接的操作.
+   */
+  public RedisConnectionFactory getConnectionFactory() {
+    return stringRedisTemplate.getConnectionFactory();
+  }
 }
@@ -0,0 +1,99 @@
+package com.tehang.common.infrastructure.generator
+
+import com.tehang.common.TestSpecification
+import com.tehang.common.infrastructure.exceptions.SystemErrorException
+import com.tehang.common.utility.generator.SnowFlake
+
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.atomic.AtomicLong
+
+class SnowFlakeSpec extends TestSpecification {
+
+  static final long NOW = 1700000000000L
+
+  def "多线程并发生成的id唯一"() {
+    given:
+    def snowFlake = new SnowFlake(1, 1)
+    def ids = ConcurrentHashMap.newKeySet()
+    def startGate = new CountDownLatch(1)
+
+    when:
+    def threads = (1..8).collect {
+      Thread.start {
+        startGate.await()
+        20000.times { ids << snowFlake.nextId() }
+      }
+    }
+    startGate.countDown()
+    threads*.join()
+
+    then:
+    ids.size() == 8 * 20000
+  }
+
+  def "同一毫秒的序列号用完后借用下一毫秒，id保持递增"() {
+    given:
+    def snowFlake = new SnowFlake(1, 1, { NOW })
+
+    when:
+    def ids = (1..5000).collect { snowFlake.nextId() }
+
+    then:
+    ids == ids.toSorted()
+    ids.toSet().size() == 5000
+    timestampOf(ids[4095]) == timestampOf(ids[0])
+    timestampOf(ids[4096]) == timestampOf(ids[0]) + 1
+  }
+
+  def "批量生成连续递增的id"() {
+    given:
+    def snowFlake = new SnowFlake(1, 1, { NOW })
+    def first = snowFlake.nextId()
+
+    when:
+    def ids = snowFlake.nextIds(4096) as List
+
+    then:
+    ids.size() == 4096
+    ids == ids.toSorted()
+    ids[0] > first
+    snowFlake.nextId() > ids.last()
+  }
+
+  def "批量数量超出范围时抛出异常"() {
+    when:
+    new SnowFlake(1, 1).nextIds(count)
+
+    then:
+    thrown(IllegalArgumentException)
+
+    where:
+    count << [0, SnowFlake.MAX_BATCH_SIZE + 1]
+  }
+
+  def "时钟小幅回拨时继续生成递增的id，大幅回拨时拒绝生成"() {
+    given:
+    def time = new AtomicLong(NOW)
+    def snowFlake = new SnowFlake(1, 1, { time.get() })
+    def first = snowFlake.nextId()
+
+    when:
+    time.set(NOW - 5)
+    def second = snowFlake.nextId()
+
+    then:
+    second > first
+
+    when:
+    time.set(NOW - 1000)
+    snowFlake.nextId()
+
+    then:
+    thrown(SystemErrorException)
+  }
+
+  private static long timestampOf(long id) {
+    return id >>> 22
+  }
+}
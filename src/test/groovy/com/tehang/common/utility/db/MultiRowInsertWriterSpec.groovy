@@ -0,0 +1,46 @@
+package com.tehang.common.utility.db
+
+import com.tehang.common.TestSpecification
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate
+
+class MultiRowInsertWriterSpec extends TestSpecification {
+
+  NamedParameterJdbcTemplate jdbcTemplate = Mock(NamedParameterJdbcTemplate)
+
+  def "构建多行insert语句, 每行的参数名为列名加行号"() {
+    given:
+    def writer = new MultiRowInsertWriter('command_record', ['id', 'seq_no'])
+
+    expect:
+    writer.buildSql(2) == 'insert into command_record (id, seq_no) values (:id_0, :seq_no_0), (:id_1, :seq_no_1)'
+    writer.buildSql(1) == 'insert into command_record (id, seq_no) values (:id_0, :seq_no_0)'
+  }
+
+  def "按块写入多行数据, 返回写入的总行数"() {
+    given:
+    def writer = new MultiRowInsertWriter('command_record', ['id', 'seq_no'], 2)
+    def rows = (1..5).collect { [id: "id-${it}".toString(), seq_no: it] }
+
+    when:
+    int count = writer.insert(jdbcTemplate, rows)
+
+    then:
+    2 * jdbcTemplate.update({ String sql -> sql.endsWith('(:id_1, :seq_no_1)') }, _ as Map) >> 2
+    1 * jdbcTemplate.update({ String sql -> sql.endsWith('(:id_0, :seq_no_0)') }, { Map params ->
+      params == [id_0: 'id-5', seq_no_0: 5]
+    }) >> 1
+    count == 5
+  }
+
+  def "insertSkipDuplicate冲突时将指定列赋值为自身, 不使用insert ignore"() {
+    given:
+    def writer = new MultiRowInsertWriter('domain_event_record', ['id', 'body'])
+
+    when:
+    writer.insertSkipDuplicate(jdbcTemplate, [[id: 'a', body: '1'], [id: 'b', body: '2']], 'id')
+
+    then:
+    1 * jdbcTemplate.update('insert into domain_event_record (id, body) values (:id_0, :body_0), (:id_1, :body_1) '
+        + 'on duplicate key update id = id', [id_0: 'a', body_0: '1', id_1: 'b', body_1: '2']) >> 2
+  }
+}
@@ -0,0 +1,251 @@
+package com.tehang.common.utility.event.cache
+
+import com.tehang.common.TestSpecification
+
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+class RefreshableMapCacheSpec extends TestSpecification {
+
+  def "首次读取时加载数据, 刷新前不重复加载, 返回的列表不可修改"() {
+    given:
+    def cache = new TestMapCache(['a', 'b'])
+
+    when:
+    def a = cache.getDataItem('a')
+    def all = cache.getAllDataItems()
+    cache.getDataItem('b')
+
+    then:
+    a == 'a'
+    all.toSet() == ['a', 'b'] as Set
+    cache.loadCount.get() == 1
+
+    when:
+    all.add('c')
+
+    then:
+    thrown(UnsupportedOperationException)
+  }
+
+  def "延迟加载模式下刷新后, 下次读取时重新加载"() {
+    given:
+    def cache = new TestMapCache(['a'])
+    cache.getDataItem('a')
+
+    when:
+    cache.items = ['a', 'b']
+    cache.refresh(null)
+
+    then:
+    cache.loadCount.get() == 1
+    cache.getDataItem('b') == 'b'
+    cache.loadCount.get() == 2
+  }
+
+  def "重新加载期间读取返回旧数据, 且多次刷新只触发一次加载"() {
+    given:
+    def cache = new TestMapCache(['a'])
+    cache.fetchType = CacheDataFetchType.EAGER
+    cache.getDataItem('a')
+    cache.items = ['b']
+    cache.loadStarted = new CountDownLatch(1)
+    cache.loadGate = new CountDownLatch(1)
+    def executor = Executors.newFixedThreadPool(4)
+
+    when: '一个线程正在重新加载'
+    def reloading = executor.submit({ cache.refresh(null) } as Runnable)
+    cache.loadStarted.await(5, TimeUnit.SECONDS)
+
+    and: '加载期间的刷新风暴与读取'
+    (1..10).each { cache.refresh(null) }
+    def staleItem = cache.getDataItem('a')
+    cache.loadGate.countDown()
+    reloading.get(5, TimeUnit.SECONDS)
+
+    then:
+    staleItem == 'a'
+    cache.getDataItem('b') == 'b'
+    cache.getDataItem('a') == null
+    // 初次加载1次 + 被阻塞的加载1次 + 加载期间的刷新合并为1次
+    cache.loadCount.get() == 3
+
+    cleanup:
+    executor.shutdownNow()
+  }
+
+  def "增量刷新只重新加载变更的数据项"() {
+    given:
+    def cache = new TestMapCache(['a:1', 'b:1', 'c:1'])
+    cache.deltaSupported = true
+    cache.getAllDataItems()
+    cache.items = ['a:2', 'c:1', 'd:1']
+
+    when:
+    def event = CacheChangedEvent.upsert('TestCacheChanged', ['a', 'd', 'x'])
+    event.deletedKeys = ['b']
+    cache.refresh(event)
+
+    then:
+    cache.loadCount.get() == 1
+    cache.loadedKeys == [['a', 'd', 'x']]
+    cache.getDataItem('a') == 'a:2'
+    cache.getDataItem('b') == null
+    cache.getDataItem('d') == 'd:1'
+    cache.getAllDataItems().toSet() == ['a:2', 'c:1', 'd:1'] as Set
+    cache.getEventClass() == CacheChangedEvent
+  }
+
+  def "变更数量超过上限、版本号不连续或事件不携带变更key时全量刷新"() {
+    given:
+    def cache = new TestMapCache(['a:1', 'b:1'])
+    cache.deltaSupported = true
+    cache.maxDeltaSize = 1
+    cache.getAllDataItems()
+    def versioned = CacheChangedEvent.upsert('TestCacheChanged', ['a'])
+    versioned.version = 5
+    cache.refresh(versioned)
+
+    when:
+    cache.refresh(event)
+    cache.getAllDataItems()
+
+    then:
+    cache.loadCount.get() == 2
+
+    where:
+    event << [
+        CacheChangedEvent.upsert('TestCacheChanged', ['a', 'b']),
+        CacheChangedEvent.upsert('TestCacheChanged', ['a']).tap { version = 7 },
+        new CacheChangedEvent('TestCacheChanged'),
+    ]
+  }
+
+  def "重复或过期版本的增量变更被忽略"() {
+    given:
+    def cache = new TestMapCache(['a:1'])
+    cache.deltaSupported = true
+    cache.getAllDataItems()
+    cache.refresh(CacheChangedEvent.upsert('TestCacheChanged', ['a']).tap { version = 5 })
+
+    when:
+    cache.refresh(CacheChangedEvent.upsert('TestCacheChanged', ['a']).tap { version = 5 })
+
+    then:
+    cache.loadedKeys.size() == 1
+    cache.loadCount.get() == 1
+  }
+
+  def "全量加载记录版本号, 之后的增量变更仍检测版本号是否连续"() {
+    given:
+    def cache = new TestMapCache(['a:1', 'b:1'])
+    cache.deltaSupported = true
+    cache.dataVersion = 3L
+    cache.getAllDataItems()
+
+    when: '版本号与全量加载时的版本连续'
+    cache.refresh(CacheChangedEvent.upsert('TestCacheChanged', ['a']).tap { version = 4 })
+
+    then:
+    cache.loadCount.get() == 1
+    cache.loadedKeys == [['a']]
+
+    when: '版本号不连续时全量刷新, 并记录事件的版本号'
+    cache.dataVersion = null
+    cache.refresh(CacheChangedEvent.upsert('TestCacheChanged', ['a']).tap { version = 7 })
+    cache.getAllDataItems()
+    cache.refresh(CacheChangedEvent.upsert('TestCacheChanged', ['b']).tap { version = 8 })
+
+    then:
+    cache.loadCount.get() == 2
+    cache.loadedKeys == [['a'], ['b']]
+  }
+
+  def "未重写按key查询时, 增量刷新从全量数据中筛选变更的数据项"() {
+    given:
+    def cache = new TestMapCache(['a:1', 'b:1'])
+    cache.deltaSupported = true
+    cache.defaultKeyLoader = true
+    cache.getAllDataItems()
+    cache.items = ['a:2', 'b:2']
+
+    when:
+    cache.refresh(CacheChangedEvent.upsert('TestCacheChanged', ['a']))
+
+    then:
+    cache.getDataItem('a') == 'a:2'
+    cache.getDataItem('b') == 'b:1'
+  }
+
+  static class TestMapCache extends RefreshableMapCache<String> {
+    List<String> items
+    CacheDataFetchType fetchType = CacheDataFetchType.LAZY
+    boolean deltaSupported
+    boolean defaultKeyLoader
+    Long dataVersion
+    int maxDeltaSize = 200
+    List<Collection<String>> loadedKeys = []
+    AtomicInteger loadCount = new AtomicInteger()
+    CountDownLatch loadStarted
+    CountDownLatch loadGate
+
+    TestMapCache(List<String> items) {
+      this.items = items
+    }
+
+    @Override
+    protected String getCacheKey(String data) {
+      return data.split(':')[0]
+    }
+
+    @Override
+    protected List<String> getDataItemsActually() {
+      loadCount.incrementAndGet()
+      def started = loadStarted
+      def gate = loadGate
+      if (started != null) {
+        loadStarted = null
+        loadGate = null
+        started.countDown()
+        gate.await(5, TimeUnit.SECONDS)
+      }
+      return new ArrayList<>(items)
+    }
+
+    @Override
+    protected boolean isDeltaRefreshSupported() {
+      return deltaSupported
+    }
+
+    @Override
+    protected List<String> getDataItemsByKeys(Collection<String> keys) {
+      if (defaultKeyLoader) {
+        return super.getDataItemsByKeys(keys)
+      }
+      loadedKeys << new ArrayList<>(keys)
+      return items.findAll { keys.contains(getCacheKey(it)) }
+    }
+
+    @Override
+    protected Long getDataVersionActually() {
+      return dataVersion
+    }
+
+    @Override
+    protected int maxDeltaSize() {
+      return maxDeltaSize
+    }
+
+    @Override
+    CacheDataFetchType fetchType() {
+      return fetchType
+    }
+
+    @Override
+    String subscribedEventType() {
+      return 'TestCacheChanged'
+    }
+  }
+}
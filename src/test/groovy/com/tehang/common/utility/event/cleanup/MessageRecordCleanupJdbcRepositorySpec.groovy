@@ -10,30 +10,50 @@ class MessageRecordCleanupJdbcRepositorySpec extends TestSpecification {
   MessageRecordCleanupJdbcRepository repository = new MessageRecordCleanupJdbcRepository(jdbcTemplate)
   BjTime cutoffTime = BjTime.parse('2026-04-13 03:30:00.000')
 
-  def "事件记录只清理过期终态数据"() {
+  def "按键集查询游标之后的一批过期记录"() {
+    given:
+    def cursor = MessageRecordCleanupCursor.of('2026-01-01 00:00:00.000', 'id-9')
+
     when:
-    int count = repository.deleteEventRecordsBefore(cutoffTime, 1000)
+    def keys = repository.findExpiredKeysAfter('domain_event_record', 'SendSuccess', cutoffTime, cursor, 1000)
 
     then:
-    1 * jdbcTemplate.update({ String sql ->
-      sql.contains("status in ('SendSuccess', 'SendFailed')") &&
+    1 * jdbcTemplate.query({ String sql ->
+      sql.contains('from domain_event_record') &&
+          sql.contains('status = :status') &&
           sql.contains('create_time < :cutoff_time') &&
+          sql.contains('(create_time > :cursor_time or id > :cursor_id)') &&
+          sql.contains('order by create_time, id') &&
           sql.contains('limit :batch_size')
     }, { Map params ->
-      params.cutoff_time == cutoffTime.toString() && params.batch_size == 1000
-    }) >> 10
-    count == 10
+      params.status == 'SendSuccess' && params.cutoff_time == cutoffTime.toString() && params.batch_size == 1000 &&
+          params.cursor_time == '2026-01-01 00:00:00.000' && params.cursor_id == 'id-9'
+    }, _) >> [MessageRecordCleanupCursor.of('2026-01-01 00:00:01.000', 'id-1')]
+    keys*.id == ['id-1']
   }
 
-  def "消费记录只清理过期成功数据"() {
+  def "命令历史按键集查询时不判断状态"() {
     when:
-    int count = repository.deleteConsumeRecordsBefore(cutoffTime, 500)
+    repository.findExpiredKeysAfter('command_record_his', null, cutoffTime, MessageRecordCleanupCursor.START, 500)
+
+    then:
+    1 * jdbcTemplate.query({ String sql ->
+      sql.contains('from command_record_his') && !sql.contains('status')
+    }, { Map params -> params.batch_size == 500 && params.cursor_time == '' }, _) >> []
+  }
+
+  def "按id删除时重新判断状态及截止时间"() {
+    when:
+    int count = repository.deleteByIds('domain_event_consume_record', 'Success', cutoffTime, ['id-1', 'id-2'])
 
     then:
     1 * jdbcTemplate.update({ String sql ->
-      sql.contains("status = 'Success'") && sql.contains('create_time < :cutoff_time')
-    }, { Map params -> params.batch_size == 500 }) >> 8
-    count == 8
+      sql.contains('delete from domain_event_consume_record') &&
+          sql.contains('status = :status') &&
+          sql.contains('create_time < :cutoff_time') &&
+          sql.contains('id in (:ids)')
+    }, { Map params -> params.status == 'Success' && params.ids == ['id-1', 'id-2'] }) >> 2
+    count == 2
   }
 
   def "过期命令查询不判断执行状态"() {
@@ -12,10 +12,19 @@ class MessageRecordCleanupPropertiesSpec extends TestSpecification {
     !properties.enabled
     properties.retentionMonths == 3
     properties.batchSize == 1000
+    properties.minBatchSize == 100
+    properties.maxBatchSize == 5000
+    properties.targetBatchMillis == 200
+    properties.maxRowsPerSecond == 5000
     properties.maxBatchesPerRun == 50
+    properties.maxRunSeconds == 1500
     properties.cron == '0 30 3 * * ?'
     properties.eventRecordEnabled
     !properties.consumeRecordEnabled
     !properties.commandRecordEnabled
+    !properties.partitionEnabled
+    properties.partitionInterval == MessageRecordPartitionInterval.DAY
+    properties.partitionsAhead == 7
+    properties.partitionLockWaitSeconds == 5
   }
 }
@@ -1,30 +1,43 @@
 package com.tehang.common.utility.event.cleanup
 
 import com.tehang.common.TestSpecification
+import com.tehang.common.utility.redis.CommonRedisOperator
 import com.tehang.common.utility.time.BjTime
+import org.springframework.dao.CannotAcquireLockException
 import org.springframework.transaction.PlatformTransactionManager
 import org.springframework.transaction.TransactionDefinition
 import org.springframework.transaction.TransactionStatus
 
+import java.time.LocalDate
+import java.time.format.DateTimeFormatter
+import java.util.concurrent.CyclicBarrier
+import java.util.concurrent.TimeUnit
+
 class MessageRecordCleanupServiceSpec extends TestSpecification {
 
   MessageRecordCleanupProperties properties = new MessageRecordCleanupProperties()
   MessageRecordCleanupJdbcRepository repository = Mock(MessageRecordCleanupJdbcRepository)
+  MessageRecordPartitionJdbcRepository partitionRepository = Mock(MessageRecordPartitionJdbcRepository)
   TransactionStatus transactionStatus = Stub(TransactionStatus)
   PlatformTransactionManager transactionManager = Stub(PlatformTransactionManager) {
     getTransaction(_ as TransactionDefinition) >> transactionStatus
   }
-  MessageRecordCleanupService service = new MessageRecordCleanupService(properties, repository, transactionManager)
+  CommonRedisOperator cursorStore = Mock(CommonRedisOperator)
+  MessageRecordCleanupService service = new MessageRecordCleanupService(properties, repository, partitionRepository, transactionManager, cursorStore)
 
   def setup() {
     properties.batchSize = 2
+    properties.minBatchSize = 1
+    properties.maxBatchSize = 2
+    properties.targetBatchMillis = 10000
+    properties.maxRowsPerSecond = 0
     properties.maxBatchesPerRun = 3
     properties.eventRecordEnabled = false
     properties.consumeRecordEnabled = false
     properties.commandRecordEnabled = false
   }
 
-  def "事件记录按批次清理并在不满一批时停止"() {
+  def "事件记录按每种终态的键集分批清理, 每批从上一批的游标之后开始, 不满一批时停止并清除游标"() {
     given:
     properties.eventRecordEnabled = true
 
@@ -33,14 +46,24 @@ class MessageRecordCleanupServiceSpec extends TestSpecification {
 
     then:
     1 * repository.countExpiredWaitSendRecords(_ as BjTime) >> 0L
-    2 * repository.deleteEventRecordsBefore(_ as BjTime, 2) >>> [2, 1]
+    1 * repository.findExpiredKeysAfter('domain_event_record', 'SendSuccess', _ as BjTime, { it.createTime == '' && it.id == '' }, 2) >>
+        [key(1), key(2)]
+    1 * repository.findExpiredKeysAfter('domain_event_record', 'SendSuccess', _ as BjTime, { it.id == 'id-2' }, 2) >> [key(3)]
+    1 * repository.deleteByIds('domain_event_record', 'SendSuccess', _ as BjTime, ['id-1', 'id-2']) >> 2
+    1 * repository.deleteByIds('domain_event_record', 'SendSuccess', _ as BjTime, ['id-3']) >> 1
+    1 * repository.findExpiredKeysAfter('domain_event_record', 'SendFailed', _ as BjTime, _, 2) >> []
+    1 * cursorStore.delete('MessageRecordCleanup:cursor:domain_event_record:SendSuccess')
+    1 * cursorStore.delete('MessageRecordCleanup:cursor:domain_event_record:SendFailed')
+    0 * cursorStore.set(*_)
     result.eventRecordCount == 3
     result.eventRecordBatchCount == 2
     result.consumeRecordCount == 0
     result.commandRecordCount == 0
+    result.tableStats*.target == ['domain_event_record:SendSuccess', 'domain_event_record:SendFailed']
+    result.tableStats*.lagSeconds == [0L, 0L]
   }
 
-  def "清理达到最大批次后停止"() {
+  def "清理达到最大批次后停止, 保存游标并统计延迟"() {
     given:
     properties.consumeRecordEnabled = true
 
@@ -49,9 +72,60 @@ class MessageRecordCleanupServiceSpec extends TestSpecification {
 
     then:
     1 * repository.countExpiredProcessingRecords(_ as BjTime) >> 0L
-    3 * repository.deleteConsumeRecordsBefore(_ as BjTime, 2) >> 2
+    3 * repository.findExpiredKeysAfter('domain_event_consume_record', 'Success', _ as BjTime, _, 2) >>>
+        [[key(1), key(2)], [key(3), key(4)], [key(5), key(6)]]
+    3 * repository.deleteByIds('domain_event_consume_record', 'Success', _ as BjTime, _) >> 2
+    1 * cursorStore.set('MessageRecordCleanup:cursor:domain_event_consume_record:Success', '2020-01-01 00:00:06.000|id-6', 7, TimeUnit.DAYS)
+    0 * cursorStore.delete(_)
     result.consumeRecordCount == 6
     result.consumeRecordBatchCount == 3
+    result.tableStats.size() == 1
+    result.tableStats[0].lagSeconds > 0
+  }
+
+  def "从上次保存的游标处继续清理"() {
+    given:
+    properties.consumeRecordEnabled = true
+    cursorStore.get('MessageRecordCleanup:cursor:domain_event_consume_record:Success') >> '2020-01-01 00:00:09.000|id-9'
+
+    when:
+    MessageRecordCleanupResult result = service.cleanup()
+
+    then:
+    1 * repository.countExpiredProcessingRecords(_ as BjTime) >> 0L
+    1 * repository.findExpiredKeysAfter('domain_event_consume_record', 'Success', _ as BjTime, {
+      it.createTime == '2020-01-01 00:00:09.000' && it.id == 'id-9'
+    }, 2) >> []
+    0 * repository.deleteByIds(*_)
+    1 * cursorStore.delete('MessageRecordCleanup:cursor:domain_event_consume_record:Success')
+    result.consumeRecordCount == 0
+    result.consumeRecordBatchCount == 0
+  }
+
+  def "各表的清理并发执行"() {
+    given:
+    properties.consumeRecordEnabled = true
+    properties.commandRecordEnabled = true
+    // 消费记录与命令历史只有并发清理时才能同时到达栅栏
+    def barrier = new CyclicBarrier(2)
+
+    when:
+    MessageRecordCleanupResult result = service.cleanup()
+
+    then:
+    1 * repository.findExpiredKeysAfter('domain_event_consume_record', 'Success', _ as BjTime, _, 2) >> {
+      barrier.await(5, TimeUnit.SECONDS)
+      [key(1)]
+    }
+    1 * repository.findExpiredKeysAfter('command_record_his', null, _ as BjTime, _, 2) >> {
+      barrier.await(5, TimeUnit.SECONDS)
+      [key(2)]
+    }
+    repository.deleteByIds(*_) >> 1
+    repository.findExpiredCommandEventKeysBefore(*_) >> []
+    result.consumeRecordCount == 1
+    result.commandHistoryCount == 1
+    result.tableStats*.target.sort() == ['command_record', 'command_record_his', 'domain_event_consume_record:Success']
   }
 
   def "命令无论成功失败都按eventKey整组清理"() {
@@ -62,13 +136,14 @@ class MessageRecordCleanupServiceSpec extends TestSpecification {
     MessageRecordCleanupResult result = service.cleanup()
 
     then:
-    2 * repository.deleteCommandHistoryBefore(_ as BjTime, 2) >>> [2, 0]
+    2 * repository.findExpiredKeysAfter('command_record_his', null, _ as BjTime, _, 2) >>> [[key(1), key(2)], []]
+    1 * repository.deleteByIds('command_record_his', null, _ as BjTime, ['id-1', 'id-2']) >> 2
     1 * repository.findExpiredCommandEventKeysBefore(_ as BjTime, 2) >> ['event-1', 'event-2']
     1 * repository.deleteCommandHistoryByEventKeys(['event-1', 'event-2']) >> 1
     1 * repository.deleteCommandRecordsByEventKeys(['event-1', 'event-2']) >> 4
     1 * repository.findExpiredCommandEventKeysBefore(_ as BjTime, 2) >> []
     result.commandHistoryCount == 3
-    result.commandHistoryBatchCount == 3
+    result.commandHistoryBatchCount == 2
     result.commandRecordCount == 4
     result.commandRecordBatchCount == 1
   }
@@ -79,6 +154,8 @@ class MessageRecordCleanupServiceSpec extends TestSpecification {
 
     then:
     0 * repository._
+    0 * partitionRepository._
+    0 * cursorStore._
     result.eventRecordCount == 0
     result.consumeRecordCount == 0
     result.commandRecordCount == 0
@@ -100,4 +177,116 @@ class MessageRecordCleanupServiceSpec extends TestSpecification {
     thrown(IllegalArgumentException)
     0 * repository._
   }
+
+  def "分区清理: 预先创建分区, 删除命令组都已过期的过期分区, 不再按批删除"() {
+    given:
+    properties.partitionEnabled = true
+    properties.partitionsAhead = 2
+    properties.commandRecordEnabled = true
+    def today = LocalDate.parse(BjTime.now().toString('yyyy-MM-dd'))
+    def expired = partition('p20200101', "'2020-01-02 00:00:00.000'")
+    def current = partition(today.toString().replace('-', ''), "'${today.plusDays(1)} 00:00:00.000'")
+    def future = partition('pfuture', 'MAXVALUE')
+
+    when:
+    MessageRecordCleanupResult result = service.cleanup()
+
+    then:
+    partitionRepository.findPartitions('command_record') >> [expired, current, future]
+    partitionRepository.findPartitions('command_record_his') >> [expired, current]
+    1 * partitionRepository.reorganizeMaxValuePartition('command_record', 'pfuture', [
+        ('p' + today.plusDays(1).format(BASIC_DATE)): "${today.plusDays(2)} 00:00:00.000".toString(),
+        ('p' + today.plusDays(2).format(BASIC_DATE)): "${today.plusDays(3)} 00:00:00.000".toString()], 5)
+    1 * partitionRepository.addPartitions('command_record_his', { Map partitions -> partitions.size() == 2 }, 5)
+    1 * partitionRepository.countInRange('command_record', { String condition -> condition.contains('retained.create_time >= :cutoff_time') },
+        null, '2020-01-02 00:00:00.000', _ as BjTime) >> 0L
+    0 * partitionRepository.countInRange('command_record_his', *_)
+    1 * partitionRepository.dropPartitions('command_record', ['p20200101'], 5)
+    1 * partitionRepository.dropPartitions('command_record_his', ['p20200101'], 5)
+    0 * repository.findExpiredKeysAfter(*_)
+    0 * repository.findExpiredCommandEventKeysBefore(*_)
+    result.partitionCreatedCount == 4
+    result.partitionDroppedCount == 2
+  }
+
+  def "分区清理: 过期分区中存在未过期命令组的命令时保留该分区并按组删除"() {
+    given:
+    properties.partitionEnabled = true
+    properties.commandRecordEnabled = true
+    def first = partition('p20200101', "'2020-01-02 00:00:00.000'")
+    def second = partition('p20200102', "'2020-01-03 00:00:00.000'")
+
+    when:
+    MessageRecordCleanupResult result = service.cleanup()
+
+    then:
+    partitionRepository.findPartitions('command_record') >> [first, second]
+    partitionRepository.findPartitions('command_record_his') >> []
+    1 * partitionRepository.addPartitions('command_record', { Map partitions -> partitions.size() == 8 }, 5)
+    1 * partitionRepository.countInRange('command_record', _ as String, null, '2020-01-02 00:00:00.000', _ as BjTime) >> 3L
+    1 * partitionRepository.countInRange('command_record', _ as String, '2020-01-02 00:00:00.000', '2020-01-03 00:00:00.000', _ as BjTime) >> 0L
+    1 * partitionRepository.dropPartitions('command_record', ['p20200102'], 5)
+    1 * repository.findExpiredKeysAfter('command_record_his', null, _ as BjTime, _, 2) >> []
+    1 * repository.findExpiredCommandEventKeysBefore(_ as BjTime, 2) >> []
+    result.partitionDroppedCount == 1
+  }
+
+  def "分区清理: 事件记录和消费记录表不创建或删除分区, 始终按批删除"() {
+    given:
+    properties.partitionEnabled = true
+    properties.eventRecordEnabled = true
+    properties.consumeRecordEnabled = true
+
+    when:
+    service.cleanup()
+
+    then:
+    0 * partitionRepository.findPartitions('domain_event_record')
+    0 * partitionRepository.findPartitions('domain_event_consume_record')
+    partitionRepository.findPartitions(_ as String) >> []
+    0 * partitionRepository.addPartitions(*_)
+    0 * partitionRepository.reorganizeMaxValuePartition(*_)
+    0 * partitionRepository.dropPartitions(*_)
+    1 * repository.countExpiredWaitSendRecords(_ as BjTime) >> 0L
+    1 * repository.countExpiredProcessingRecords(_ as BjTime) >> 0L
+    2 * repository.findExpiredKeysAfter('domain_event_record', _ as String, _ as BjTime, _, 2) >> []
+    1 * repository.findExpiredKeysAfter('domain_event_consume_record', 'Success', _ as BjTime, _, 2) >> []
+  }
+
+  def "分区清理: 等待元数据锁超时时跳过本次分区操作, 过期记录按批删除"() {
+    given:
+    properties.partitionEnabled = true
+    properties.partitionInterval = MessageRecordPartitionInterval.MONTH
+    properties.partitionsAhead = 1
+    properties.commandRecordEnabled = true
+    def month = LocalDate.parse(BjTime.now().toString('yyyy-MM-dd')).withDayOfMonth(1)
+    def current = partition('p' + month.format(DateTimeFormatter.ofPattern('yyyyMM')), "'${month.plusMonths(1)} 00:00:00.000'")
+
+    when:
+    MessageRecordCleanupResult result = service.cleanup()
+
+    then:
+    partitionRepository.findPartitions('command_record') >> [partition('p202001', "'2020-02-01 00:00:00.000'"), current]
+    partitionRepository.findPartitions('command_record_his') >> []
+    1 * partitionRepository.addPartitions('command_record', _ as Map, 5) >> { throw new CannotAcquireLockException('Lock wait timeout exceeded') }
+    1 * partitionRepository.countInRange('command_record', *_) >> 0L
+    1 * partitionRepository.dropPartitions('command_record', ['p202001'], 5) >> { throw new CannotAcquireLockException('Lock wait timeout exceeded') }
+    1 * repository.findExpiredKeysAfter('command_record_his', null, _ as BjTime, _, 2) >> []
+    1 * repository.findExpiredCommandEventKeysBefore(_ as BjTime, 2) >> []
+    result.partitionCreatedCount == 0
+    result.partitionDroppedCount == 0
+  }
+
+  private static final DateTimeFormatter BASIC_DATE = DateTimeFormatter.ofPattern('yyyyMMdd')
+
+  private static MessageRecordCleanupCursor key(int index) {
+    return MessageRecordCleanupCursor.of("2020-01-01 00:00:0${index}.000".toString(), "id-${index}".toString())
+  }
+
+  private static MessageRecordPartition partition(String name, String description) {
+    def partition = new MessageRecordPartition()
+    partition.partitionName = name.startsWith('p') ? name : "p${name}".toString()
+    partition.partitionDescription = description.toString()
+    return partition
+  }
 }
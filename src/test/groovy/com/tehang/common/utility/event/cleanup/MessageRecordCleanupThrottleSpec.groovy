@@ -0,0 +1,60 @@
+package com.tehang.common.utility.event.cleanup
+
+import com.tehang.common.TestSpecification
+
+class MessageRecordCleanupThrottleSpec extends TestSpecification {
+
+  MessageRecordCleanupProperties properties = new MessageRecordCleanupProperties(
+      batchSize: 1000, minBatchSize: 100, maxBatchSize: 5000, targetBatchMillis: 200, maxRowsPerSecond: 0)
+
+  def "按语句耗时调整批次大小, 每次最多调整2倍, 不超出上下限"() {
+    given:
+    def throttle = new MessageRecordCleanupThrottle(properties)
+
+    when:
+    throttle.afterBatch(1000, elapsedMillis)
+
+    then:
+    throttle.batchSize == expectedBatchSize
+
+    where:
+    elapsedMillis | expectedBatchSize
+    100           | 2000
+    10            | 2000
+    200           | 1000
+    400           | 500
+    4000          | 500
+  }
+
+  def "批次大小不超出上下限"() {
+    given:
+    properties.batchSize = 4000
+    def throttle = new MessageRecordCleanupThrottle(properties)
+
+    when:
+    throttle.afterBatch(4000, 10)
+    int grown = throttle.batchSize
+    7.times { throttle.afterBatch(100, 10000) }
+
+    then:
+    grown == 5000
+    throttle.batchSize == 100
+  }
+
+  def "按每秒最大删除数计算休眠时间, 语句耗时超过目标时至少休眠同样的时长"() {
+    given:
+    properties.maxRowsPerSecond = maxRowsPerSecond
+    def throttle = new MessageRecordCleanupThrottle(properties)
+
+    expect:
+    throttle.afterBatch(1000, elapsedMillis) == sleepMillis
+
+    where:
+    maxRowsPerSecond | elapsedMillis | sleepMillis
+    0                | 100           | 0
+    5000             | 100           | 100
+    5000             | 250           | 250
+    500              | 100           | 1900
+    500              | 3000          | 3000
+  }
+}
@@ -0,0 +1,152 @@
+package com.tehang.common.utility.event.command
+
+import com.tehang.common.TestSpecification
+import com.tehang.common.infrastructure.exceptions.SystemErrorException
+import com.tehang.common.utility.event.command.commandrecord.CommandRecord
+import com.tehang.common.utility.event.command.commandrecord.CommandRecordJdbcRepository
+import org.springframework.context.ApplicationContext
+
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.CyclicBarrier
+import java.util.concurrent.TimeUnit
+
+class CommandEventSubscriberSpec extends TestSpecification {
+
+  ApplicationContext applicationContext = Mock(ApplicationContext)
+  CommandRecordJdbcRepository commandRecordJdbcRepository = Mock(CommandRecordJdbcRepository)
+  CommandEventTypeHolder eventTypeHolder = new CommandEventTypeHolder(eventType: 'TestCommand', parallelism: 4)
+  CommandParallelExecutor parallelExecutor = new CommandParallelExecutor(eventTypeHolder)
+  CommandLocator commandLocator = new CommandLocator(applicationContext)
+  CommandEventSubscriber subscriber = new CommandEventSubscriber(commandLocator, eventTypeHolder, commandRecordJdbcRepository, parallelExecutor)
+
+  // 已执行的命令类型
+  List<String> executed = new CopyOnWriteArrayList<>()
+
+  def cleanup() {
+    parallelExecutor.destroy()
+  }
+
+  def "按依赖关系执行聚合命令: 无依赖关系的分支并发执行, 依赖多个命令时可获取全部返回值"() {
+    given:
+    // B和C都依赖A, 只有并发执行时才能同时到达栅栏
+    def barrier = new CyclicBarrier(2)
+    List<Object> dependencyReturnValues = null
+    registerCommands(
+        new StepCommand('A', { 'a' }),
+        new StepCommand('B', { barrier.await(5, TimeUnit.SECONDS); 'b' }),
+        new StepCommand('C', { barrier.await(5, TimeUnit.SECONDS); 'c' }),
+        new StepCommand('D', { dependencyReturnValues = CommandExecuteContext.dependencyReturnValues; 'd' }))
+    def event = graphEvent()
+    commandRecordJdbcRepository.findGraphRecordsByEventKey(event.key) >> [
+        record(1, 'A', ''), record(2, 'B', '1'), record(3, 'C', '1'), record(4, 'D', '2,3')]
+
+    when:
+    subscriber.handleEvent(event)
+
+    then:
+    executed.first() == 'A'
+    executed.last() == 'D'
+    executed.size() == 4
+    dependencyReturnValues == ['b', 'c']
+    4 * commandRecordJdbcRepository.updateCommandToSuccess(_, _)
+    0 * commandRecordJdbcRepository.addCommandHisOnFailed(_, _)
+  }
+
+  def "某个分支失败时其他分支继续执行, 重试时只执行未成功的命令"() {
+    given:
+    registerCommands(
+        new StepCommand('A', { 'a' }),
+        new StepCommand('B', { throw new IllegalStateException('supplier unavailable') }),
+        new StepCommand('C', { 'c' }),
+        new StepCommand('D', { 'd' }))
+    def event = graphEvent()
+    def recordA = record(1, 'A', '')
+    recordA.success = true
+    recordA.commandReturnValue = '"a"'
+    commandRecordJdbcRepository.findGraphRecordsByEventKey(event.key) >> [
+        recordA, record(2, 'B', '1'), record(3, 'C', '1'), record(4, 'D', '2')]
+
+    when:
+    subscriber.handleEvent(event)
+
+    then:
+    def ex = thrown(IllegalStateException)
+    ex.message == 'supplier unavailable'
+    executed.sort() == ['B', 'C']
+    1 * commandRecordJdbcRepository.updateCommandToSuccess('cmd-3', '"c"')
+    1 * commandRecordJdbcRepository.addCommandHisOnFailed('cmd-2', 'supplier unavailable')
+  }
+
+  def "依赖的命令不在当前命令之前时抛出异常"() {
+    given:
+    registerCommands(new StepCommand('A', { 'a' }), new StepCommand('B', { 'b' }))
+    def event = graphEvent()
+    commandRecordJdbcRepository.findGraphRecordsByEventKey(event.key) >> [record(1, 'A', '2'), record(2, 'B', '')]
+
+    when:
+    subscriber.handleEvent(event)
+
+    then:
+    def ex = thrown(SystemErrorException)
+    ex.message.contains('依赖的命令需排在当前命令之前')
+    executed.isEmpty()
+  }
+
+  def "顺序执行的聚合命令通过上下文获取前一个命令的返回值"() {
+    given:
+    List<Object> preReturnValues = []
+    registerCommands(
+        new StepCommand('A', { preReturnValues << CommandExecuteContext.preCommandReturnValue; 'a' }),
+        new StepCommand('B', { preReturnValues << CommandExecuteContext.preCommandReturnValue; 'b' }))
+    def event = new CommandEvent('TestCommand', CommandManager.AGGREGATE_COMMAND_TYPE, null)
+    commandRecordJdbcRepository.findRecordsByEventKey(event.key) >> [record(1, 'A', null), record(2, 'B', null)]
+
+    when:
+    subscriber.handleEvent(event)
+
+    then:
+    executed == ['A', 'B']
+    preReturnValues == [null, 'a']
+  }
+
+  private void registerCommands(StepCommand... commands) {
+    commands.each { it.executed = executed }
+    applicationContext.getBeansOfType(Command) >> commands.collectEntries { [(it.commandType): it] }
+  }
+
+  private static CommandEvent graphEvent() {
+    return new CommandEvent('TestCommand', CommandManager.AGGREGATE_GRAPH_COMMAND_TYPE, null)
+  }
+
+  private static CommandRecord record(int seqNo, String commandType, String dependsOn) {
+    def record = new CommandRecord()
+    record.id = "cmd-${seqNo}".toString()
+    record.commandType = commandType
+    record.commandArgs = '"args"'
+    record.seqNo = seqNo
+    record.dependsOn = dependsOn
+    return record
+  }
+
+  static class StepCommand implements Command<String, String> {
+    private final String commandType
+    private final Closure<String> action
+    List<String> executed
+
+    StepCommand(String commandType, Closure<String> action) {
+      this.commandType = commandType
+      this.action = action
+    }
+
+    @Override
+    String getCommandType() {
+      return commandType
+    }
+
+    @Override
+    String run(String args) {
+      executed << commandType
+      return action.call()
+    }
+  }
+}
@@ -0,0 +1,116 @@
+package com.tehang.common.utility.event.command
+
+import com.tehang.common.TestSpecification
+import com.tehang.common.infrastructure.exceptions.SystemErrorException
+import org.springframework.context.ApplicationContext
+
+class CommandLocatorSpec extends TestSpecification {
+
+  ApplicationContext applicationContext = Mock(ApplicationContext)
+  CommandLocator commandLocator = new CommandLocator(applicationContext)
+
+  def "启动时构建命令注册表, 之后按命令类型(不区分大小写)查找不再访问容器"() {
+    given:
+    def issueTicketCommand = new IssueTicketCommand()
+    def cancelOrderCommand = new CancelOrderCommand()
+
+    when:
+    commandLocator.afterSingletonsInstantiated()
+    def registration = commandLocator.findRegistrationEnsured('issueticket')
+
+    then:
+    1 * applicationContext.getBeansOfType(Command) >> [issueTicketCommand: issueTicketCommand, cancelOrderCommand: cancelOrderCommand]
+    registration.command.is(issueTicketCommand)
+    registration.commandTypeInfo.argsClass == TicketArgs
+    registration.commandTypeInfo.returnClass == String
+    commandLocator.findCommandEnsured('CANCELORDER').is(cancelOrderCommand)
+
+    when:
+    commandLocator.findCommandEnsured('IssueTicket')
+
+    then:
+    0 * applicationContext._
+  }
+
+  def "注册项使用预先创建的ObjectReader解析参数和返回值"() {
+    given:
+    applicationContext.getBeansOfType(Command) >> [issueTicketCommand: new IssueTicketCommand()]
+    commandLocator.afterSingletonsInstantiated()
+    def registration = commandLocator.findRegistrationEnsured('IssueTicket')
+
+    when:
+    TicketArgs args = registration.readArgs('{"orderId":"order-1","count":2}') as TicketArgs
+
+    then:
+    args.orderId == 'order-1'
+    args.count == 2
+    registration.readReturnValue('"ticket-1"') == 'ticket-1'
+    registration.readArgs(null) == null
+  }
+
+  def "命令类型重复时启动失败"() {
+    given:
+    applicationContext.getBeansOfType(Command) >> [first: new IssueTicketCommand(), second: new AnotherIssueTicketCommand()]
+
+    when:
+    commandLocator.afterSingletonsInstantiated()
+
+    then:
+    def ex = thrown(SystemErrorException)
+    ex.message.contains('找到多个命令对象')
+  }
+
+  def "未找到命令对象时抛出异常"() {
+    given:
+    applicationContext.getBeansOfType(Command) >> [issueTicketCommand: new IssueTicketCommand()]
+    commandLocator.afterSingletonsInstantiated()
+
+    when:
+    commandLocator.findCommandEnsured('Unknown')
+
+    then:
+    def ex = thrown(SystemErrorException)
+    ex.message == '未找到命令对象, commandType: Unknown'
+  }
+
+  static class TicketArgs {
+    String orderId
+    int count
+  }
+
+  static class IssueTicketCommand implements Command<TicketArgs, String> {
+    @Override
+    String getCommandType() {
+      return 'IssueTicket'
+    }
+
+    @Override
+    String run(TicketArgs args) {
+      return 'ticket-1'
+    }
+  }
+
+  static class AnotherIssueTicketCommand implements Command<TicketArgs, String> {
+    @Override
+    String getCommandType() {
+      return 'issueTicket'
+    }
+
+    @Override
+    String run(TicketArgs args) {
+      return 'ticket-2'
+    }
+  }
+
+  static class CancelOrderCommand implements Command<String, Void> {
+    @Override
+    String getCommandType() {
+      return 'CancelOrder'
+    }
+
+    @Override
+    Void run(String orderId) {
+      return null
+    }
+  }
+}
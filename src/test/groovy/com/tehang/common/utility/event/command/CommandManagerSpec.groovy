@@ -0,0 +1,59 @@
+package com.tehang.common.utility.event.command
+
+import com.tehang.common.TestSpecification
+import com.tehang.common.infrastructure.exceptions.SystemErrorException
+import com.tehang.common.utility.event.command.commandrecord.CommandRecord
+import com.tehang.common.utility.event.command.commandrecord.CommandRecordJdbcRepository
+import com.tehang.common.utility.event.publish.TransactionalEventPublisher
+
+class CommandManagerSpec extends TestSpecification {
+
+  TransactionalEventPublisher eventPublisher = Mock(TransactionalEventPublisher)
+  CommandRecordJdbcRepository commandRecordJdbcRepository = Mock(CommandRecordJdbcRepository)
+  CommandManager commandManager = new CommandManager(eventPublisher, new CommandEventTypeHolder(eventType: 'TestCommand'), commandRecordJdbcRepository)
+
+  def "按依赖关系添加多个命令时记录依赖的命令的顺序号"() {
+    given:
+    def createBill = CommandInfo.of('CreateBill', 'order-1')
+    def notifySupplierA = CommandInfo.of('NotifySupplier', 'A').dependsOn(createBill)
+    def notifySupplierB = CommandInfo.of('NotifySupplier', 'B').dependsOn(createBill)
+    def complete = CommandInfo.of('Complete', 'order-1').dependsOn(notifySupplierA, notifySupplierB)
+    List<CommandRecord> savedRecords = null
+
+    when:
+    commandManager.queueCommandGraph(createBill, notifySupplierA, notifySupplierB, complete)
+
+    then:
+    1 * commandRecordJdbcRepository.saveRecords(_) >> { args -> savedRecords = args[0] }
+    1 * eventPublisher.publish({ CommandEvent event -> event.commandType == CommandManager.AGGREGATE_GRAPH_COMMAND_TYPE })
+    savedRecords*.seqNo == [1, 2, 3, 4]
+    savedRecords*.dependsOn == ['', '1', '1', '2,3']
+  }
+
+  def "依赖的命令不在当前命令之前时抛出异常"() {
+    given:
+    def createBill = CommandInfo.of('CreateBill', 'order-1')
+    def notifySupplier = CommandInfo.of('NotifySupplier', 'A').dependsOn(createBill)
+
+    when:
+    commandManager.queueCommandGraph(notifySupplier, createBill)
+
+    then:
+    def ex = thrown(SystemErrorException)
+    ex.message == '依赖的命令需排在当前命令之前, commandType: NotifySupplier'
+    0 * commandRecordJdbcRepository.saveRecords(_)
+    0 * eventPublisher.publish(_)
+  }
+
+  def "顺序执行的多个命令不记录依赖的命令"() {
+    given:
+    List<CommandRecord> savedRecords = null
+
+    when:
+    commandManager.queueCommands(CommandInfo.of('CreateBill', 'order-1'), CommandInfo.of('Complete', 'order-1'))
+
+    then:
+    1 * commandRecordJdbcRepository.saveRecords(_) >> { args -> savedRecords = args[0] }
+    savedRecords*.dependsOn == [null, null]
+  }
+}
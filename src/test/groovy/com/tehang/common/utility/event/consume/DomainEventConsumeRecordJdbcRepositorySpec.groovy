@@ -10,60 +10,74 @@ class DomainEventConsumeRecordJdbcRepositorySpec extends TestSpecification {
   NamedParameterJdbcTemplate jdbcTemplate = Mock(NamedParameterJdbcTemplate)
   DomainEventConsumeRecordJdbcRepository repository = new DomainEventConsumeRecordJdbcRepository(jdbcTemplate)
 
-  def "insertProcessing插入成功时返回true"() {
+  def "insertSuccessIfAbsent直接插入消费成功记录, 插入成功时返回true"() {
     given:
     def event = new DefaultEvent('FlightBookingCompleted')
     event.key = 'order-1'
 
     when:
-    boolean result = repository.insertProcessing(event, 'tmc-services.flight-booking-completed')
+    boolean result = repository.insertSuccessIfAbsent(event, 'tmc-services.flight-booking-completed')
 
     then:
-    1 * jdbcTemplate.update(_ as String, { Map params ->
-      params.event_key == 'order-1' &&
-          params.event_type == 'FlightBookingCompleted' &&
-          params.subscriber_id == 'tmc-services.flight-booking-completed' &&
-          params.status == DomainEventConsumeStatus.Processing.toString() &&
-          params.consume_time == null &&
-          params.error_message == null
+    1 * jdbcTemplate.update({ String sql -> sql.startsWith('insert into domain_event_consume_record') }, { Map params ->
+      params.event_key_0 == 'order-1' &&
+          params.event_type_0 == 'FlightBookingCompleted' &&
+          params.subscriber_id_0 == 'tmc-services.flight-booking-completed' &&
+          params.status_0 == DomainEventConsumeStatus.Success.toString() &&
+          params.consume_time_0 != null &&
+          params.error_message_0 == null
     }) >> 1
     result
   }
 
-  def "insertProcessing遇到唯一键冲突时返回false"() {
+  def "insertSuccessIfAbsent遇到已存在的记录时不抛出异常并返回false"() {
     given:
     def event = new DefaultEvent('FlightBookingCompleted')
     event.key = 'order-1'
 
     when:
-    boolean result = repository.insertProcessing(event, 'tmc-services.flight-booking-completed')
+    boolean result = repository.insertSuccessIfAbsent(event, 'tmc-services.flight-booking-completed')
 
     then:
-    1 * jdbcTemplate.update(_ as String, _ as Map) >> { throw new DuplicateKeyException('duplicated') }
+    1 * jdbcTemplate.update(_ as String, _ as Map) >> { throw new DuplicateKeyException('duplicate') }
     !result
   }
 
-  def "updateSuccess更新成功状态和消费时间"() {
+  def "批量insertSuccessIfAbsent用一条多行insert语句插入整批记录, 已存在的记录保持不变, 按id查询实际插入的数量"() {
     given:
-    def event = new DefaultEvent('FlightBookingCompleted')
-    event.key = 'order-1'
+    def event1 = new DefaultEvent('FlightBookingCompleted')
+    event1.key = 'order-1'
+    def event2 = new DefaultEvent('FlightBookingCompleted')
+    event2.key = 'order-2'
+    Map insertParams = null
 
     when:
-    repository.updateSuccess(event, 'tmc-services.flight-booking-completed')
+    int result = repository.insertSuccessIfAbsent([event1, event2], 'tmc-services.flight-booking-completed')
 
     then:
     1 * jdbcTemplate.update({ String sql ->
-      sql.contains('update domain_event_consume_record') &&
-          sql.contains('where event_key = :event_key') &&
-          sql.contains('and event_type = :event_type') &&
-          sql.contains('and subscriber_id = :subscriber_id')
+      !sql.contains('ignore') && sql.contains('(:id_0, :event_key_0') && sql.contains('(:id_1, :event_key_1') &&
+          sql.endsWith('on duplicate key update id = id')
     }, { Map params ->
-      params.event_key == 'order-1' &&
-          params.event_type == 'FlightBookingCompleted' &&
-          params.subscriber_id == 'tmc-services.flight-booking-completed' &&
-          params.status == DomainEventConsumeStatus.Success.toString() &&
-          params.consume_time != null &&
-          params.update_time != null
-    }) >> 1
+      params.event_key_0 == 'order-1' && params.event_key_1 == 'order-2' && params.id_0 != params.id_1
+    }) >> { String sql, Map params ->
+      insertParams = params
+      return 2
+    }
+
+    then:
+    1 * jdbcTemplate.queryForObject({ String sql -> sql.startsWith('select count(*) from domain_event_consume_record') }, { Map params ->
+      params.ids == [insertParams.id_0, insertParams.id_1]
+    }, Integer) >> 1
+    result == 1
+  }
+
+  def "批量insertSuccessIfAbsent没有事件时不访问数据库"() {
+    when:
+    int result = repository.insertSuccessIfAbsent([], 'tmc-services.flight-booking-completed')
+
+    then:
+    0 * jdbcTemplate._
+    result == 0
   }
 }
@@ -1,8 +1,10 @@
 package com.tehang.common.utility.event.consume
 
 import com.tehang.common.TestSpecification
+import com.tehang.common.infrastructure.exceptions.RepeatableException
 import com.tehang.common.utility.event.DefaultEvent
 import com.tehang.common.utility.event.DomainEvent
+import com.tehang.common.utility.event.subscriber.BatchClusteringEventSubscriber
 import com.tehang.common.utility.event.subscriber.DatabaseIdempotentClusteringEventSubscriber
 import org.springframework.transaction.annotation.Transactional
 
@@ -22,9 +24,8 @@ class DomainEventConsumeServiceSpec extends TestSpecification {
 
     then:
     1 * subscriber.subscriberId() >> 'tmc-services.flight-booking-completed'
-    1 * consumeRecordJdbcRepository.insertProcessing(event, 'tmc-services.flight-booking-completed') >> true
+    1 * consumeRecordJdbcRepository.insertSuccessIfAbsent(event, 'tmc-services.flight-booking-completed') >> true
     1 * subscriber.handleEvent(event)
-    1 * consumeRecordJdbcRepository.updateSuccess(event, 'tmc-services.flight-booking-completed')
     result
   }
 
@@ -39,9 +40,8 @@ class DomainEventConsumeServiceSpec extends TestSpecification {
 
     then:
     1 * subscriber.subscriberId() >> 'tmc-services.flight-booking-completed'
-    1 * consumeRecordJdbcRepository.insertProcessing(event, 'tmc-services.flight-booking-completed') >> false
+    1 * consumeRecordJdbcRepository.insertSuccessIfAbsent(event, 'tmc-services.flight-booking-completed') >> false
     0 * subscriber.handleEvent(_)
-    0 * consumeRecordJdbcRepository.updateSuccess(_, _)
     !result
   }
 
@@ -56,12 +56,54 @@ class DomainEventConsumeServiceSpec extends TestSpecification {
 
     then:
     1 * subscriber.subscriberId() >> 'tmc-services.flight-booking-completed'
-    1 * consumeRecordJdbcRepository.insertProcessing(event, 'tmc-services.flight-booking-completed') >> true
+    1 * consumeRecordJdbcRepository.insertSuccessIfAbsent(event, 'tmc-services.flight-booking-completed') >> true
     1 * subscriber.handleEvent(event) >> { throw new RuntimeException('consume failed') }
-    0 * consumeRecordJdbcRepository.updateSuccess(_, _)
     thrown(RuntimeException)
   }
 
+  def "consumeBatch一次查询过滤已消费及重复的事件, 批量插入记录并处理"() {
+    given:
+    def event1 = new DefaultEvent('FlightBookingCompleted')
+    event1.key = 'order-1'
+    def event2 = new DefaultEvent('FlightBookingCompleted')
+    event2.key = 'order-2'
+    def event3 = new DefaultEvent('FlightBookingCompleted')
+    event3.key = 'order-3'
+    BatchClusteringEventSubscriber subscriber = Mock(BatchClusteringEventSubscriber)
+    subscriber.subscriberId() >> 'tmc-services.flight-booking-completed'
+    subscriber.subscribedEventType() >> 'FlightBookingCompleted'
+
+    when:
+    int handledCount = consumeService.consumeBatch(subscriber, [event1, event2, event3, event3])
+
+    then:
+    1 * consumeRecordJdbcRepository.findConsumedEventKeys('FlightBookingCompleted', ['order-1', 'order-2', 'order-3'],
+        'tmc-services.flight-booking-completed') >> (['order-2'] as Set)
+    1 * consumeRecordJdbcRepository.insertSuccessIfAbsent([event1, event3], 'tmc-services.flight-booking-completed') >> 2
+    1 * subscriber.handleEvents([event1, event3])
+    handledCount == 2
+  }
+
+  def "consumeBatch查询后有事件被并发消费时整批稍后重新消费"() {
+    given:
+    def event1 = new DefaultEvent('FlightBookingCompleted')
+    event1.key = 'order-1'
+    def event2 = new DefaultEvent('FlightBookingCompleted')
+    event2.key = 'order-2'
+    BatchClusteringEventSubscriber subscriber = Mock(BatchClusteringEventSubscriber)
+    subscriber.subscriberId() >> 'tmc-services.flight-booking-completed'
+    subscriber.subscribedEventType() >> 'FlightBookingCompleted'
+
+    when:
+    consumeService.consumeBatch(subscriber, [event1, event2])
+
+    then:
+    1 * consumeRecordJdbcRepository.findConsumedEventKeys(_, _, _) >> ([] as Set)
+    1 * consumeRecordJdbcRepository.insertSuccessIfAbsent([event1, event2], 'tmc-services.flight-booking-completed') >> 1
+    0 * subscriber.handleEvents(_)
+    thrown(RepeatableException)
+  }
+
   def "consume方法声明事务"() {
     expect:
     DomainEventConsumeService.getDeclaredMethod('consume', DatabaseIdempotentClusteringEventSubscriber, DomainEvent)
@@ -0,0 +1,33 @@
+package com.tehang.common.utility.event.metrics
+
+import com.tehang.common.TestSpecification
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry
+
+class DomainEventMetricsSpec extends TestSpecification {
+
+  SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry()
+  DomainEventMetrics eventMetrics = new DomainEventMetrics(meterRegistry)
+
+  def "同一组标签的指标只注册一次，重复记录累加到同一个指标"() {
+    when:
+    3.times {
+      eventMetrics.recordMqSend('FlightBookingCompleted', 'topic-test', true, 1000)
+      eventMetrics.recordConsumeSkipped('FlightBookingCompleted', 'topic-test', 'redis')
+    }
+    eventMetrics.recordMqSend('FlightBookingCompleted', 'topic-test', false, 1000)
+
+    then:
+    meterRegistry.meters.size() == 3
+    meterRegistry.find('domain.event.mq.send').tags('result', 'success').timer().count() == 3
+    meterRegistry.find('domain.event.mq.send').tags('result', 'failure').timer().count() == 1
+    meterRegistry.find('domain.event.consume.skipped').counter().count() == 3
+  }
+
+  def "只有配置了监控系统时才启用"() {
+    expect:
+    eventMetrics.isEnabled()
+    !new DomainEventMetrics(new CompositeMeterRegistry()).isEnabled()
+    new DomainEventMetrics(new CompositeMeterRegistry().add(meterRegistry)).isEnabled()
+  }
+}
@@ -0,0 +1,143 @@
+package com.tehang.common.utility.event.mq
+
+import com.tehang.common.TestSpecification
+import com.tehang.common.utility.event.DefaultEvent
+import com.tehang.common.utility.event.consume.DomainEventConsumeService
+import com.tehang.common.utility.event.metrics.DomainEventMetrics
+import com.tehang.common.utility.event.subscriber.BatchClusteringEventSubscriber
+import com.tehang.common.utility.event.subscriber.DatabaseIdempotentClusteringEventSubscriber
+import com.tehang.common.utility.lock.DistributedLockFactory
+import com.tehang.common.utility.lock.IdempotentClaim
+import com.tehang.common.utility.lock.LockNotAcquiredException
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry
+
+import java.time.Duration
+
+class BatchClusteringMqConsumerSpec extends TestSpecification {
+
+  DistributedLockFactory lockFactory = Mock(DistributedLockFactory)
+  DomainEventConsumeService domainEventConsumeService = Mock(DomainEventConsumeService)
+  MqConfig mqConfig = Mock(MqConfig)
+  SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry()
+  BatchClusteringMqConsumer consumer = new BatchClusteringMqConsumer()
+
+  def setup() {
+    setField(consumer, 'lockFactory', lockFactory)
+    setField(consumer, 'domainEventConsumeService', domainEventConsumeService)
+    setField(consumer, 'mqConfig', mqConfig)
+    setField(consumer, 'eventMetrics', new DomainEventMetrics(meterRegistry))
+    mqConfig.getTopic() >> 'topic-test'
+  }
+
+  def "批量订阅者在一次请求中逐条认领事件, 只处理认领成功的事件并在一次请求中标记为已消费"() {
+    given:
+    def event1 = createEvent('order-1')
+    def event2 = createEvent('order-2')
+    def event3 = createEvent('order-3')
+    def claim1 = mockClaim(IdempotentClaim.Status.CLAIMED)
+    def claim2 = mockClaim(IdempotentClaim.Status.COMPLETED)
+    def claim3 = mockClaim(IdempotentClaim.Status.CLAIMED)
+    BatchClusteringEventSubscriber subscriber = Mock(BatchClusteringEventSubscriber)
+    subscriber.subscribedEventType() >> 'FlightBookingCompleted'
+
+    when:
+    consumer.consumeEvents(subscriber, [event1, event2, event3, event1])
+
+    then:
+    1 * lockFactory.claimIdempotent(['MQ_Consumer_Idempotent_FlightBookingCompleted_order-1',
+                                     'MQ_Consumer_Idempotent_FlightBookingCompleted_order-2',
+                                     'MQ_Consumer_Idempotent_FlightBookingCompleted_order-3'], 'OK', _) >> [claim1, claim2, claim3]
+
+    then:
+    1 * subscriber.handleEvents([event1, event3])
+
+    then:
+    1 * lockFactory.completeIdempotent([claim1, claim3], Duration.ofHours(24))
+    0 * domainEventConsumeService._
+    meterRegistry.find('domain.event.consume.skipped').tags('idempotency', 'redis').counter().count() == 2
+  }
+
+  def "批量订阅者的事件全部已消费时不调用订阅者"() {
+    given:
+    def event = createEvent('order-1')
+    BatchClusteringEventSubscriber subscriber = Mock(BatchClusteringEventSubscriber)
+    subscriber.subscribedEventType() >> 'FlightBookingCompleted'
+
+    when:
+    consumer.consumeEvents(subscriber, [event])
+
+    then:
+    1 * lockFactory.claimIdempotent(*_) >> [mockClaim(IdempotentClaim.Status.COMPLETED)]
+    0 * subscriber.handleEvents(_)
+    0 * lockFactory.completeIdempotent(*_)
+  }
+
+  def "批量订阅者处理异常时不标记已消费并释放认领, 整批稍后重新消费"() {
+    given:
+    def event = createEvent('order-1')
+    def claim = mockClaim(IdempotentClaim.Status.CLAIMED)
+    BatchClusteringEventSubscriber subscriber = Mock(BatchClusteringEventSubscriber)
+    subscriber.subscribedEventType() >> 'FlightBookingCompleted'
+
+    when:
+    consumer.consumeEvents(subscriber, [event])
+
+    then:
+    1 * lockFactory.claimIdempotent(*_) >> [claim]
+    1 * subscriber.handleEvents([event]) >> { throw new RuntimeException('consume failed') }
+    0 * lockFactory.completeIdempotent(*_)
+    1 * claim.close()
+    thrown(RuntimeException)
+  }
+
+  def "批量订阅者的事件正由其他消费者处理时, 先处理其余事件, 再整批稍后重新消费"() {
+    given:
+    def event1 = createEvent('order-1')
+    def event2 = createEvent('order-2')
+    def claim1 = mockClaim(IdempotentClaim.Status.CLAIMED)
+    BatchClusteringEventSubscriber subscriber = Mock(BatchClusteringEventSubscriber)
+    subscriber.subscribedEventType() >> 'FlightBookingCompleted'
+
+    when:
+    consumer.consumeEvents(subscriber, [event1, event2])
+
+    then:
+    1 * lockFactory.claimIdempotent(['MQ_Consumer_Idempotent_FlightBookingCompleted_order-1',
+                                     'MQ_Consumer_Idempotent_FlightBookingCompleted_order-2'], *_) >> [claim1, mockClaim(IdempotentClaim.Status.IN_PROGRESS)]
+    1 * subscriber.handleEvents([event1])
+    1 * lockFactory.completeIdempotent([claim1], _)
+    thrown(LockNotAcquiredException)
+  }
+
+  def "数据库幂等的批量订阅者通过消费记录批量防重"() {
+    given:
+    def event1 = createEvent('order-1')
+    def event2 = createEvent('order-2')
+    def subscriber = Mock(DatabaseIdempotentBatchSubscriber)
+    subscriber.subscribedEventType() >> 'FlightBookingCompleted'
+
+    when:
+    consumer.consumeEvents(subscriber, [event1, event2])
+
+    then:
+    1 * domainEventConsumeService.consumeBatch(subscriber, [event1, event2]) >> 1
+    0 * lockFactory._
+    meterRegistry.find('domain.event.consume.skipped').tags('idempotency', 'database').counter().count() == 1
+  }
+
+  private IdempotentClaim mockClaim(IdempotentClaim.Status status) {
+    IdempotentClaim claim = Mock(IdempotentClaim)
+    claim.getStatus() >> status
+    claim.isClaimed() >> (status == IdempotentClaim.Status.CLAIMED)
+    return claim
+  }
+
+  private static DefaultEvent createEvent(String key) {
+    def event = new DefaultEvent('FlightBookingCompleted')
+    event.key = key
+    return event
+  }
+
+  interface DatabaseIdempotentBatchSubscriber extends BatchClusteringEventSubscriber, DatabaseIdempotentClusteringEventSubscriber {
+  }
+}
@@ -4,73 +4,110 @@ import com.tehang.common.TestSpecification
 import com.tehang.common.infrastructure.exceptions.SystemErrorException
 import com.tehang.common.utility.event.DefaultEvent
 import com.tehang.common.utility.event.consume.DomainEventConsumeService
+import com.tehang.common.utility.event.metrics.DomainEventMetrics
 import com.tehang.common.utility.event.subscriber.ClusteringEventSubscriber
 import com.tehang.common.utility.event.subscriber.DatabaseIdempotentClusteringEventSubscriber
-import com.tehang.common.utility.lock.DistributedLock
 import com.tehang.common.utility.lock.DistributedLockFactory
-import org.springframework.data.redis.core.BoundValueOperations
-import org.springframework.data.redis.core.StringRedisTemplate
+import com.tehang.common.utility.lock.IdempotentClaim
+import com.tehang.common.utility.lock.LockNotAcquiredException
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry
 
 import java.time.Duration
-import java.util.concurrent.TimeUnit
 
 class ClusteringMqConsumerSpec extends TestSpecification {
 
-  StringRedisTemplate redisTemplate = Mock(StringRedisTemplate)
   DistributedLockFactory lockFactory = Mock(DistributedLockFactory)
   DomainEventConsumeService domainEventConsumeService = Mock(DomainEventConsumeService)
+  MqConfig mqConfig = Mock(MqConfig)
+  SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry()
   ClusteringMqConsumer consumer = new ClusteringMqConsumer()
 
   def setup() {
-    setField(consumer, 'redisTemplate', redisTemplate)
     setField(consumer, 'lockFactory', lockFactory)
     setField(consumer, 'domainEventConsumeService', domainEventConsumeService)
+    setField(consumer, 'mqConfig', mqConfig)
+    setField(consumer, 'eventMetrics', new DomainEventMetrics(meterRegistry))
+    mqConfig.getTopic() >> 'topic-test'
   }
 
-  def "普通订阅者使用eventType和eventKey粒度的分布式锁与Redis防重"() {
+  def "普通订阅者通过一次幂等认领完成防重和加锁, 处理成功后标记为已完成"() {
     given:
     def event = new DefaultEvent('FlightBookingCompleted')
     event.key = 'order-1'
     ClusteringEventSubscriber subscriber = Mock(ClusteringEventSubscriber)
-    DistributedLock lock = Mock(DistributedLock)
-    BoundValueOperations<String, String> redisOps = Mock(BoundValueOperations)
+    IdempotentClaim claim = Mock(IdempotentClaim)
 
     when:
     consumer.consumeEvent(subscriber, event, 'FlightBookingCompleted')
 
     then:
-    1 * lockFactory.acquireLockUnBlocked('MQ_Consumer_Lock_FlightBookingCompleted_order-1',
-        Duration.ofMinutes(15)) >> lock
-    2 * subscriber.getInstanceId() >> 'test-subscriber'
-    1 * redisTemplate.boundValueOps('MQ_Consumer_Idempotent_FlightBookingCompleted_order-1') >> redisOps
-    1 * redisOps.get() >> null
+    1 * lockFactory.claimIdempotent('MQ_Consumer_Idempotent_FlightBookingCompleted_order-1', 'OK', 10000) >> claim
+    _ * claim.getStatus() >> IdempotentClaim.Status.CLAIMED
     1 * subscriber.handleEvent(event)
-    1 * redisOps.set('OK', 24, TimeUnit.HOURS)
-    1 * lock.close()
+    1 * claim.complete(Duration.ofHours(24))
+    1 * claim.close()
+    0 * lockFactory.acquireWatchdogLockUnBlocked(_)
     0 * domainEventConsumeService._
   }
 
-  def "普通订阅者Redis已消费时跳过业务处理"() {
+  def "普通订阅者已消费时跳过业务处理, 之后的重复投递不再访问redis"() {
     given:
     def event = new DefaultEvent('FlightBookingCompleted')
     event.key = 'order-1'
     ClusteringEventSubscriber subscriber = Mock(ClusteringEventSubscriber)
-    DistributedLock lock = Mock(DistributedLock)
-    BoundValueOperations<String, String> redisOps = Mock(BoundValueOperations)
+    IdempotentClaim claim = Mock(IdempotentClaim)
 
     when:
     consumer.consumeEvent(subscriber, event, 'FlightBookingCompleted')
+    consumer.consumeEvent(subscriber, event, 'FlightBookingCompleted')
 
     then:
-    1 * lockFactory.acquireLockUnBlocked('MQ_Consumer_Lock_FlightBookingCompleted_order-1',
-        Duration.ofMinutes(15)) >> lock
-    2 * subscriber.getInstanceId() >> 'test-subscriber'
-    1 * redisTemplate.boundValueOps('MQ_Consumer_Idempotent_FlightBookingCompleted_order-1') >> redisOps
-    1 * redisOps.get() >> 'OK'
+    1 * lockFactory.claimIdempotent('MQ_Consumer_Idempotent_FlightBookingCompleted_order-1', 'OK', 10000) >> claim
+    _ * claim.getStatus() >> IdempotentClaim.Status.COMPLETED
     0 * subscriber.handleEvent(_)
-    0 * redisOps.set(_, _, _)
-    1 * lock.close()
+    0 * claim.complete(_)
+    1 * claim.close()
     0 * domainEventConsumeService._
+    meterRegistry.find('domain.event.consume.skipped')
+        .tags('eventType', 'FlightBookingCompleted', 'topic', 'topic-test', 'idempotency', 'redis').counter().count() == 1
+    meterRegistry.find('domain.event.consume.skipped').tags('idempotency', 'local').counter().count() == 1
+  }
+
+  def "普通订阅者的事件正在由其他消费者处理时稍后重新消费"() {
+    given:
+    def event = new DefaultEvent('FlightBookingCompleted')
+    event.key = 'order-1'
+    ClusteringEventSubscriber subscriber = Mock(ClusteringEventSubscriber)
+    IdempotentClaim claim = Mock(IdempotentClaim)
+
+    when:
+    consumer.consumeEvent(subscriber, event, 'FlightBookingCompleted')
+
+    then:
+    1 * lockFactory.claimIdempotent(*_) >> claim
+    _ * claim.getStatus() >> IdempotentClaim.Status.IN_PROGRESS
+    0 * subscriber.handleEvent(_)
+    1 * claim.close()
+    thrown(LockNotAcquiredException)
+  }
+
+  def "普通订阅者处理失败时释放认领且不标记为已完成"() {
+    given:
+    def event = new DefaultEvent('FlightBookingCompleted')
+    event.key = 'order-1'
+    ClusteringEventSubscriber subscriber = Mock(ClusteringEventSubscriber)
+    IdempotentClaim claim = Mock(IdempotentClaim)
+
+    when:
+    consumer.consumeEvent(subscriber, event, 'FlightBookingCompleted')
+
+    then:
+    1 * lockFactory.claimIdempotent(*_) >> claim
+    _ * claim.getStatus() >> IdempotentClaim.Status.CLAIMED
+    1 * subscriber.handleEvent(event) >> { throw new IllegalStateException('handle failed') }
+    0 * claim.complete(_)
+    1 * claim.close()
+    thrown(IllegalStateException)
   }
 
   def "数据库幂等订阅者进入DomainEventConsumeService且不使用Redis和分布式锁"() {
@@ -86,8 +123,22 @@ class ClusteringMqConsumerSpec extends TestSpecification {
     2 * subscriber.subscriberId() >> 'tmc-services.flight-booking-completed'
     1 * domainEventConsumeService.consume(subscriber, event) >> true
     0 * lockFactory._
-    0 * redisTemplate._
     0 * subscriber.handleEvent(_)
+    meterRegistry.find('domain.event.consume.skipped').counter() == null
+  }
+
+  def "数据库幂等订阅者重复消费时记录幂等跳过次数"() {
+    given:
+    def event = new DefaultEvent('FlightBookingCompleted')
+    event.key = 'order-1'
+    DatabaseIdempotentClusteringEventSubscriber subscriber = Mock(DatabaseIdempotentClusteringEventSubscriber)
+
+    when:
+    consumer.consumeEvent(subscriber, event, 'FlightBookingCompleted')
+
+    then:
+    1 * domainEventConsumeService.consume(subscriber, event) >> false
+    meterRegistry.find('domain.event.consume.skipped').tags('idempotency', 'database').counter().count() == 1
   }
 
   def "数据库幂等订阅者缺少消费服务时抛出明确异常"() {
@@ -103,7 +154,6 @@ class ClusteringMqConsumerSpec extends TestSpecification {
     then:
     thrown(SystemErrorException)
     0 * lockFactory._
-    0 * redisTemplate._
     0 * subscriber.handleEvent(_)
   }
 
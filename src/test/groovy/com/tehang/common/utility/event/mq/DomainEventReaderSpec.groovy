@@ -0,0 +1,57 @@
+package com.tehang.common.utility.event.mq
+
+import com.tehang.common.TestSpecification
+import com.tehang.common.utility.JsonUtils
+import com.tehang.common.utility.event.DomainEvent
+
+import java.nio.charset.StandardCharsets
+
+class DomainEventReaderSpec extends TestSpecification {
+
+  DomainEventReader eventReader = new DomainEventReader()
+
+  def "直接从消息body的字节反序列化事件"() {
+    given:
+    def event = createEvent(2 * 1024)
+    byte[] body = JsonUtils.toJson(event).getBytes(StandardCharsets.UTF_8)
+    eventReader.register(SnapshotEvent)
+
+    when:
+    SnapshotEvent result = eventReader.read(body, SnapshotEvent) as SnapshotEvent
+
+    then:
+    result.key == 'order-1'
+    result.eventType == 'OrderSnapshotChanged'
+    result.items == event.items
+  }
+
+  def "从字节反序列化的结果与从字符串反序列化一致, 包括未注册的事件类型和非ASCII字符"() {
+    given:
+    def event = createEvent(size)
+    event.key = '订单-1'
+    byte[] body = JsonUtils.toJson(event).getBytes(StandardCharsets.UTF_8)
+
+    when:
+    SnapshotEvent result = eventReader.read(body, SnapshotEvent) as SnapshotEvent
+    SnapshotEvent expected = JsonUtils.toClass(new String(body, StandardCharsets.UTF_8), SnapshotEvent)
+
+    then:
+    result.key == '订单-1'
+    result.key == expected.key
+    result.eventType == expected.eventType
+    result.items == expected.items
+
+    where:
+    size << [2 * 1024, 50 * 1024]
+  }
+
+  private static Map createEvent(int size) {
+    return [eventType: 'OrderSnapshotChanged',
+            key      : 'order-1',
+            items    : (1..size.intdiv(32)).collect { "passenger-${it}-snapshot-item" as String }]
+  }
+
+  static class SnapshotEvent extends DomainEvent {
+    List<String> items
+  }
+}
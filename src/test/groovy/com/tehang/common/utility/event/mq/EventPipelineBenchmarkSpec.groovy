@@ -0,0 +1,193 @@
+package com.tehang.common.utility.event.mq
+
+import brave.Tracing
+import com.aliyun.openservices.ons.api.PropertyKeyConst
+import com.aliyun.openservices.ons.api.PropertyValueConst
+import com.google.common.collect.Lists
+import com.tehang.common.TestSpecification
+import com.tehang.common.utility.event.DefaultEvent
+import com.tehang.common.utility.event.DomainEvent
+import com.tehang.common.utility.event.metrics.DomainEventMetrics
+import com.tehang.common.utility.event.publish.DomainEventRelayProperties
+import com.tehang.common.utility.event.publish.DomainEventRelayResult
+import com.tehang.common.utility.event.publish.SendDomainEventRecordsToMqService
+import com.tehang.common.utility.event.publish.eventrecord.DomainEventRecord
+import com.tehang.common.utility.event.publish.eventrecord.DomainEventRecordJdbcRepository
+import com.tehang.common.utility.event.subscriber.ClusteringEventSubscriber
+import com.tehang.common.utility.lock.DistributedLockFactory
+import com.tehang.common.utility.lock.IdempotentClaim
+import com.tehang.common.utility.time.BjTime
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry
+import org.slf4j.Logger
+import org.slf4j.LoggerFactory
+import org.springframework.context.ApplicationContext
+import spock.lang.Requires
+
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+/**
+ * 事件管道的端到端吞吐量基准: 发件箱中的事件记录 -> 即时中继(SendDomainEventRecordsToMqService) -> MqProducer
+ * -> 进程内mq -> ClusteringMqConsumer -> 订阅者. 发件箱表和redis幂等认领以替身代替.
+ * 默认的测试任务中不运行, 设置环境变量EVENT_PIPELINE_BENCHMARK后运行, 吞吐量及从写入发件箱到订阅者处理的p50/p99延迟输出到日志.
+ */
+@Requires({ env['EVENT_PIPELINE_BENCHMARK'] })
+class EventPipelineBenchmarkSpec extends TestSpecification {
+
+  private static final Logger log = LoggerFactory.getLogger(EventPipelineBenchmarkSpec)
+
+  InMemoryMqBroker broker = new InMemoryMqBroker()
+  MqConfig mqConfig = new MqConfig()
+  MqProducer mqProducer = new MqProducer()
+  ClusteringMqConsumer consumer = new ClusteringMqConsumer()
+  Tracing tracing = Tracing.newBuilder().build()
+
+  // 发件箱: 已提交待发送的事件记录, key为记录id
+  Map<String, DomainEventRecord> outbox = new ConcurrentHashMap<>()
+
+  // 中继认领的记录, key为认领令牌
+  Map<String, List<DomainEventRecord>> claims = new ConcurrentHashMap<>()
+
+  def setup() {
+    mqConfig.topic = 'topic-bench'
+    mqConfig.groupId = 'GID-bench'
+    mqConfig.eventTagPrefix = 'bench-'
+    mqConfig.producerMaxInFlight = 256
+    mqConfig.producerInFlightWaitMillis = 3000
+    setField(mqProducer, 'mqConfig', mqConfig)
+    mqProducer.init(broker.createProducer())
+  }
+
+  def cleanup() {
+    consumer.destroy()
+    mqProducer.destroy()
+    broker.close()
+    tracing.close()
+  }
+
+  def "发件箱中的事件经过即时中继和进程内mq全部被订阅者处理, 并记录吞吐量和延迟"() {
+    given:
+    int eventCount = 5000
+    def createNanos = new ConcurrentHashMap<String, Long>()
+    def latencies = Collections.synchronizedList(new ArrayList<Long>())
+    def handled = new CountDownLatch(eventCount)
+    def subscriber = new BenchmarkSubscriber({ DomainEvent event ->
+      latencies.add(System.nanoTime() - createNanos.get(event.key))
+      handled.countDown()
+    })
+    startConsumer(subscriber)
+    def relayService = createRelayService()
+    def relayExecutor = Executors.newFixedThreadPool(4)
+
+    when:
+    long start = System.nanoTime()
+    List<String> recordIds = (1..eventCount).collect {
+      def event = new DefaultEvent('OrderCreated')
+      event.key = "order-${it}"
+      createNanos.put(event.key, System.nanoTime())
+      def record = DomainEventRecord.create(event, null, mqConfig.groupId)
+      outbox.put(record.id, record)
+      record.id
+    }
+    // 模拟各个事务提交后的即时中继, 每次中继一个事务写入的记录
+    List<CompletableFuture<DomainEventRelayResult>> relays = Lists.partition(recordIds, 100).collect { ids ->
+      CompletableFuture.supplyAsync({ relayService.sendDomainEventRecordsByIds(ids) }, relayExecutor)
+    }
+    int successCount = relays.sum { it.get(30, TimeUnit.SECONDS).successCount } as int
+    boolean completed = handled.await(60, TimeUnit.SECONDS)
+    long elapsedNanos = System.nanoTime() - start
+    relayExecutor.shutdown()
+
+    def sorted = latencies.toSorted()
+    log.info('event pipeline: {} events, {} events/s, outbox-to-handle p50 {}ms, p99 {}ms', eventCount,
+        String.format('%.0f', eventCount * 1e9 / elapsedNanos),
+        String.format('%.2f', percentileMillis(sorted, 0.5)), String.format('%.2f', percentileMillis(sorted, 0.99)))
+
+    then:
+    successCount == eventCount
+    completed
+    broker.publishedCount == eventCount
+    broker.deadLetters.isEmpty()
+  }
+
+  private SendDomainEventRecordsToMqService createRelayService() {
+    DomainEventRecordJdbcRepository eventRecordJdbcRepository = Stub(DomainEventRecordJdbcRepository) {
+      claimWaitSendByIds(*_) >> { List<String> ids, String ownerToken, BjTime leaseExpireTime, BjTime deliverBefore ->
+        def records = ids.collect { outbox.remove(it) }.findAll { it != null }
+        claims.put(ownerToken, records)
+        return records.size()
+      }
+      findAllByOwnerToken(_ as String) >> { String ownerToken -> claims.get(ownerToken) }
+      updateOnSendSuccess(_ as List, _ as String) >> { List<String> ids, String ownerToken ->
+        claims.remove(ownerToken)
+        return ids.size()
+      }
+    }
+    return new SendDomainEventRecordsToMqService(mqConfig, mqProducer, eventRecordJdbcRepository, null,
+        new DomainEventRelayProperties(), null, new DomainEventMetrics(new SimpleMeterRegistry()), null)
+  }
+
+  private void startConsumer(ClusteringEventSubscriber subscriber) {
+    IdempotentClaim claim = Stub(IdempotentClaim) {
+      getStatus() >> IdempotentClaim.Status.CLAIMED
+      isClaimed() >> true
+    }
+    DistributedLockFactory lockFactory = Stub(DistributedLockFactory) {
+      claimIdempotent(_ as String, _, _) >> claim
+    }
+    ApplicationContext applicationContext = Stub(ApplicationContext) {
+      getBeansOfType(ClusteringEventSubscriber) >> [benchmarkSubscriber: subscriber]
+    }
+    setField(consumer, 'mqConfig', mqConfig)
+    setField(consumer, 'applicationContext', applicationContext)
+    setField(consumer, 'lockFactory', lockFactory)
+    setField(consumer, 'tracer', tracing.tracer())
+    setField(consumer, 'eventMetrics', new DomainEventMetrics(new SimpleMeterRegistry()))
+
+    def properties = new Properties()
+    properties.put(PropertyKeyConst.GROUP_ID, mqConfig.groupId)
+    properties.put(PropertyKeyConst.MessageModel, PropertyValueConst.CLUSTERING)
+    properties.put(PropertyKeyConst.ConsumeThreadNums, 10)
+    consumer.start(broker.createConsumer(properties))
+  }
+
+  private static double percentileMillis(List<Long> sortedNanos, double percentile) {
+    if (sortedNanos.isEmpty()) {
+      return 0
+    }
+    int index = Math.min(sortedNanos.size() - 1, (int) Math.ceil(percentile * sortedNanos.size()) - 1)
+    return sortedNanos[Math.max(0, index)] / 1e6
+  }
+
+  private static void setField(Object target, String name, Object value) {
+    def field = target.class.getDeclaredField(name)
+    field.accessible = true
+    field.set(target, value)
+  }
+
+  static class BenchmarkSubscriber implements ClusteringEventSubscriber {
+    private final Closure handler
+
+    BenchmarkSubscriber(Closure handler) {
+      this.handler = handler
+    }
+
+    @Override
+    String subscribedEventType() {
+      return 'OrderCreated'
+    }
+
+    @Override
+    Class<? extends DomainEvent> getEventClass() {
+      return DefaultEvent
+    }
+
+    @Override
+    void handleEvent(DomainEvent event) {
+      handler.call(event)
+    }
+  }
+}
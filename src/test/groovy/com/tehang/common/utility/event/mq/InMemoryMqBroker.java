@@ -0,0 +1,288 @@
+package com.tehang.common.utility.event.mq;
+
+import com.aliyun.openservices.ons.api.Action;
+import com.aliyun.openservices.ons.api.ConsumeContext;
+import com.aliyun.openservices.ons.api.Consumer;
+import com.aliyun.openservices.ons.api.Message;
+import com.aliyun.openservices.ons.api.MessageListener;
+import com.aliyun.openservices.ons.api.MessageSelector;
+import com.aliyun.openservices.ons.api.Producer;
+import com.aliyun.openservices.ons.api.PropertyKeyConst;
+import com.aliyun.openservices.ons.api.PropertyValueConst;
+import com.aliyun.openservices.ons.api.SendResult;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * 进程内的mq替身：实现ONS的Consumer接口并以LocalProducer作为生产者, 不连接broker, 用来在测试中端到端地运行事件的发布和消费.
+ * 支持按tag订阅、延时投递(startDeliverTime)、集群和广播两种消费模式, 以及ReconsumeLater后的重新投递.
+ * 集群模式下同一groupId的多个消费者实例中只有一个收到消息, 广播模式下每个实例都收到消息.
+ */
+public class InMemoryMqBroker implements AutoCloseable {
+
+  private final long reconsumeDelayMillis;
+
+  private final int maxReconsumeTimes;
+
+  private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(2);
+
+  private final List<InMemoryConsumer> consumers = new CopyOnWriteArrayList<>();
+
+  private final List<LocalProducer> producers = new CopyOnWriteArrayList<>();
+
+  // 集群模式下每个groupId轮流投递到各消费者实例的计数
+  private final Map<String, AtomicInteger> groupCursors = new ConcurrentHashMap<>();
+
+  // 超过最大重试次数的消息
+  private final List<Message> deadLetters = Collections.synchronizedList(new ArrayList<>());
+
+  private final AtomicInteger publishedCount = new AtomicInteger();
+
+  private final AtomicInteger reconsumeCount = new AtomicInteger();
+
+  public InMemoryMqBroker() {
+    this(100, 16);
+  }
+
+  public InMemoryMqBroker(long reconsumeDelayMillis, int maxReconsumeTimes) {
+    this.reconsumeDelayMillis = reconsumeDelayMillis;
+    this.maxReconsumeTimes = maxReconsumeTimes;
+  }
+
+  /**
+   * 创建生产者: 即时确认的LocalProducer, 发送的消息投递到本broker.
+   */
+  public Producer createProducer() {
+    LocalProducer producer = new LocalProducer(0, this::publish);
+    producers.add(producer);
+    return producer;
+  }
+
+  /**
+   * 创建消费者, properties中的GROUP_ID、MessageModel及ConsumeThreadNums生效.
+   */
+  public Consumer createConsumer(Properties properties) {
+    String groupId = properties.getProperty(PropertyKeyConst.GROUP_ID, "GID_DEFAULT");
+    boolean broadcasting = PropertyValueConst.BROADCASTING.equals(properties.getProperty(PropertyKeyConst.MessageModel));
+    Object threadNums = properties.get(PropertyKeyConst.ConsumeThreadNums);
+    int consumeThreadNums = threadNums == null ? 20 : Integer.parseInt(threadNums.toString());
+    return new InMemoryConsumer(groupId, broadcasting, consumeThreadNums);
+  }
+
+  public int getPublishedCount() {
+    return publishedCount.get();
+  }
+
+  public int getReconsumeCount() {
+    return reconsumeCount.get();
+  }
+
+  public List<Message> getDeadLetters() {
+    return new ArrayList<>(deadLetters);
+  }
+
+  @Override
+  public void close() {
+    consumers.forEach(InMemoryConsumer::shutdown);
+    producers.forEach(LocalProducer::shutdown);
+    scheduler.shutdownNow();
+  }
+
+  private SendResult publish(Message message) {
+    message.setMsgID(UUID.randomUUID().toString());
+    message.setBornTimestamp(System.currentTimeMillis());
+    publishedCount.incrementAndGet();
+
+    long delayMillis = message.getStartDeliverTime() - System.currentTimeMillis();
+    if (delayMillis > 0) {
+      scheduler.schedule(() -> dispatch(message), delayMillis, TimeUnit.MILLISECONDS);
+    }
+    else {
+      dispatch(message);
+    }
+
+    SendResult result = new SendResult();
+    result.setTopic(message.getTopic());
+    result.setMessageId(message.getMsgID());
+    return result;
+  }
+
+  /**
+   * 按groupId投递到订阅了该消息的消费者: 集群模式投递到其中一个实例, 广播模式投递到每个实例.
+   */
+  private void dispatch(Message message) {
+    Map<String, List<InMemoryConsumer>> groups = consumers.stream()
+        .filter(consumer -> consumer.isSubscribed(message))
+        .collect(Collectors.groupingBy(consumer -> consumer.groupId));
+
+    groups.forEach((groupId, instances) -> {
+      if (instances.get(0).broadcasting) {
+        instances.forEach(instance -> instance.deliver(copyOf(message), 0));
+      }
+      else {
+        nextInstance(groupId, instances).deliver(copyOf(message), 0);
+      }
+    });
+  }
+
+  private void redeliver(InMemoryConsumer consumer, Message message, int reconsumeTimes) {
+    if (reconsumeTimes > maxReconsumeTimes) {
+      deadLetters.add(message);
+      return;
+    }
+    reconsumeCount.incrementAndGet();
+    scheduler.schedule(() -> {
+      if (consumer.broadcasting) {
+        // 广播模式的消费失败只在本实例重试
+        consumer.deliver(message, reconsumeTimes);
+        return;
+      }
+      List<InMemoryConsumer> instances = consumers.stream()
+          .filter(instance -> instance.groupId.equals(consumer.groupId) && instance.isSubscribed(message))
+          .collect(Collectors.toList());
+      if (!instances.isEmpty()) {
+        nextInstance(consumer.groupId, instances).deliver(message, reconsumeTimes);
+      }
+    }, reconsumeDelayMillis, TimeUnit.MILLISECONDS);
+  }
+
+  private InMemoryConsumer nextInstance(String groupId, List<InMemoryConsumer> instances) {
+    int cursor = groupCursors.computeIfAbsent(groupId, key -> new AtomicInteger()).getAndIncrement();
+    return instances.get(Math.floorMod(cursor, instances.size()));
+  }
+
+  private static Message copyOf(Message message) {
+    Message copy = new Message(message.getTopic(), message.getTag(), message.getKey(), message.getBody());
+    copy.setMsgID(message.getMsgID());
+    copy.setBornTimestamp(message.getBornTimestamp());
+    copy.setUserProperties(message.getUserProperties());
+    return copy;
+  }
+
+  private final class InMemoryConsumer implements Consumer {
+
+    private final String groupId;
+
+    private final boolean broadcasting;
+
+    private final ExecutorService consumeExecutor;
+
+    // topic -> 订阅的tag(为空表示订阅全部)及监听器
+    private final Map<String, Subscription> subscriptions = new ConcurrentHashMap<>();
+
+    private volatile boolean started;
+
+    InMemoryConsumer(String groupId, boolean broadcasting, int consumeThreadNums) {
+      this.groupId = groupId;
+      this.broadcasting = broadcasting;
+      this.consumeExecutor = Executors.newFixedThreadPool(consumeThreadNums);
+    }
+
+    @Override
+    public void subscribe(String topic, String subExpression, MessageListener listener) {
+      subscriptions.put(topic, new Subscription(parseTags(subExpression), listener));
+    }
+
+    @Override
+    public void subscribe(String topic, MessageSelector selector, MessageListener listener) {
+      subscribe(topic, selector.getSubExpression(), listener);
+    }
+
+    @Override
+    public void unsubscribe(String topic) {
+      subscriptions.remove(topic);
+    }
+
+    @Override
+    public boolean isStarted() {
+      return started;
+    }
+
+    @Override
+    public boolean isClosed() {
+      return !started;
+    }
+
+    @Override
+    public void start() {
+      started = true;
+      consumers.add(this);
+    }
+
+    @Override
+    public void updateCredential(Properties credentialProperties) {
+      // do nothing
+    }
+
+    @Override
+    public void shutdown() {
+      started = false;
+      consumers.remove(this);
+      consumeExecutor.shutdownNow();
+    }
+
+    boolean isSubscribed(Message message) {
+      Subscription subscription = subscriptions.get(message.getTopic());
+      return started && subscription != null && subscription.accept(message.getTag());
+    }
+
+    void deliver(Message message, int reconsumeTimes) {
+      Subscription subscription = subscriptions.get(message.getTopic());
+      if (!started || subscription == null) {
+        return;
+      }
+      consumeExecutor.execute(() -> {
+        message.setReconsumeTimes(reconsumeTimes);
+        Action action;
+        try {
+          action = subscription.listener.consume(message, new ConsumeContext());
+        }
+        catch (RuntimeException ex) {
+          action = Action.ReconsumeLater;
+        }
+        if (action != Action.CommitMessage) {
+          redeliver(this, message, reconsumeTimes + 1);
+        }
+      });
+    }
+  }
+
+  private static final class Subscription {
+    private final Set<String> tags;
+    private final MessageListener listener;
+
+    Subscription(Set<String> tags, MessageListener listener) {
+      this.tags = tags;
+      this.listener = listener;
+    }
+
+    boolean accept(String tag) {
+      return tags.isEmpty() || tags.contains(tag);
+    }
+  }
+
+  private static Set<String> parseTags(String subExpression) {
+    if (subExpression == null || "*".equals(subExpression.trim())) {
+      return Collections.emptySet();
+    }
+    return Arrays.stream(subExpression.split("\\|\\|"))
+        .map(String::trim)
+        .filter(tag -> !tag.isEmpty())
+        .collect(Collectors.toSet());
+  }
+}
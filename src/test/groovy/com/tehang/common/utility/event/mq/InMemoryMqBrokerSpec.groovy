@@ -0,0 +1,145 @@
+package com.tehang.common.utility.event.mq
+
+import com.aliyun.openservices.ons.api.Action
+import com.aliyun.openservices.ons.api.Message
+import com.aliyun.openservices.ons.api.PropertyKeyConst
+import com.aliyun.openservices.ons.api.PropertyValueConst
+import com.tehang.common.TestSpecification
+
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+class InMemoryMqBrokerSpec extends TestSpecification {
+
+  InMemoryMqBroker broker = new InMemoryMqBroker(10, 3)
+  def producer = broker.createProducer()
+
+  def setup() {
+    producer.start()
+  }
+
+  def cleanup() {
+    broker.close()
+  }
+
+  def "消费者只收到订阅的tag的消息"() {
+    given:
+    def received = new ConcurrentLinkedQueue<String>()
+    def latch = new CountDownLatch(2)
+    def consumer = broker.createConsumer(properties('GID_A', PropertyValueConst.CLUSTERING))
+    consumer.subscribe('topic-test', 'TagA||TagB', { Message message, context ->
+      received.add(message.tag)
+      latch.countDown()
+      return Action.CommitMessage
+    })
+    consumer.start()
+
+    when:
+    ['TagA', 'TagB', 'TagC'].each { producer.send(new Message('topic-test', it, "key-${it}", '{}'.bytes)) }
+
+    then:
+    latch.await(5, TimeUnit.SECONDS)
+    received.toSet() == ['TagA', 'TagB'] as Set
+  }
+
+  def "集群模式同一groupId只有一个实例收到消息, 广播模式每个实例都收到消息"() {
+    given:
+    def clusteringCount = new AtomicInteger()
+    def broadcastingCount = new AtomicInteger()
+    def latch = new CountDownLatch(3)
+    2.times {
+      def consumer = broker.createConsumer(properties('GID_CLUSTER', PropertyValueConst.CLUSTERING))
+      consumer.subscribe('topic-test', '*', { message, context ->
+        clusteringCount.incrementAndGet()
+        latch.countDown()
+        return Action.CommitMessage
+      })
+      consumer.start()
+    }
+    2.times {
+      def consumer = broker.createConsumer(properties('GID_BROADCAST', PropertyValueConst.BROADCASTING))
+      consumer.subscribe('topic-test', '*', { message, context ->
+        broadcastingCount.incrementAndGet()
+        latch.countDown()
+        return Action.CommitMessage
+      })
+      consumer.start()
+    }
+
+    when:
+    producer.send(new Message('topic-test', 'TagA', 'key-1', '{}'.bytes))
+
+    then:
+    latch.await(5, TimeUnit.SECONDS)
+    Thread.sleep(50)
+    clusteringCount.get() == 1
+    broadcastingCount.get() == 2
+  }
+
+  def "延时消息到达投递时间后才投递"() {
+    given:
+    def latch = new CountDownLatch(1)
+    long deliveredAt = 0
+    def consumer = broker.createConsumer(properties('GID_A', PropertyValueConst.CLUSTERING))
+    consumer.subscribe('topic-test', '*', { message, context ->
+      deliveredAt = System.currentTimeMillis()
+      latch.countDown()
+      return Action.CommitMessage
+    })
+    consumer.start()
+    def message = new Message('topic-test', 'TagA', 'key-1', '{}'.bytes)
+    long startDeliverTime = System.currentTimeMillis() + 300
+    message.startDeliverTime = startDeliverTime
+
+    when:
+    producer.send(message)
+
+    then:
+    latch.await(5, TimeUnit.SECONDS)
+    deliveredAt >= startDeliverTime
+  }
+
+  def "ReconsumeLater后重新投递, 超过最大重试次数后进入死信"() {
+    given:
+    def attempts = new AtomicInteger()
+    def succeeded = new CountDownLatch(1)
+    def consumer = broker.createConsumer(properties('GID_A', PropertyValueConst.CLUSTERING))
+    consumer.subscribe('topic-test', '*', { Message message, context ->
+      if (message.key == 'key-ok' && attempts.incrementAndGet() >= 2) {
+        succeeded.countDown()
+        return Action.CommitMessage
+      }
+      return Action.ReconsumeLater
+    })
+    consumer.start()
+
+    when:
+    producer.send(new Message('topic-test', 'TagA', 'key-ok', '{}'.bytes))
+    producer.send(new Message('topic-test', 'TagA', 'key-failed', '{}'.bytes))
+
+    then:
+    succeeded.await(5, TimeUnit.SECONDS)
+    attempts.get() == 2
+    waitUntil { broker.deadLetters.size() == 1 }
+    broker.deadLetters[0].key == 'key-failed'
+    broker.deadLetters[0].reconsumeTimes == 3
+  }
+
+  private static Properties properties(String groupId, String messageModel) {
+    def properties = new Properties()
+    properties.put(PropertyKeyConst.GROUP_ID, groupId)
+    properties.put(PropertyKeyConst.MessageModel, messageModel)
+    properties.put(PropertyKeyConst.ConsumeThreadNums, 4)
+    return properties
+  }
+
+  private static boolean waitUntil(Closure<Boolean> condition) {
+    long deadline = System.currentTimeMillis() + 5000
+    while (!condition.call() && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10)
+    }
+    return condition.call()
+  }
+}
@@ -0,0 +1,145 @@
+package com.tehang.common.utility.event.mq;
+
+import com.aliyun.openservices.ons.api.Message;
+import com.aliyun.openservices.ons.api.OnExceptionContext;
+import com.aliyun.openservices.ons.api.Producer;
+import com.aliyun.openservices.ons.api.SendCallback;
+import com.aliyun.openservices.ons.api.SendResult;
+import com.aliyun.openservices.ons.api.exception.ONSClientException;
+
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * 本地的Producer替身：不连接broker, 在指定的确认延迟后回调发送结果, 用来在测试中度量发送吞吐量.
+ * 发送成功的消息交给指定的去向(如InMemoryMqBroker), 未指定时直接丢弃.
+ */
+public class LocalProducer implements Producer {
+
+  private final long ackLatencyMillis;
+
+  // 发送成功的消息的去向, 返回发送结果
+  private final Function<Message, SendResult> sink;
+
+  private final ScheduledExecutorService ackExecutor = Executors.newScheduledThreadPool(4);
+
+  private final AtomicInteger inFlightCount = new AtomicInteger();
+
+  private final AtomicInteger maxInFlightCount = new AtomicInteger();
+
+  private final AtomicInteger sentCount = new AtomicInteger();
+
+  private volatile boolean failAll;
+
+  private volatile boolean started;
+
+  public LocalProducer(long ackLatencyMillis) {
+    this(ackLatencyMillis, LocalProducer::createSendResult);
+  }
+
+  public LocalProducer(long ackLatencyMillis, Function<Message, SendResult> sink) {
+    this.ackLatencyMillis = ackLatencyMillis;
+    this.sink = sink;
+  }
+
+  @Override
+  public SendResult send(Message message) {
+    if (failAll) {
+      throw new ONSClientException("local producer send failed");
+    }
+    sleepQuietly(ackLatencyMillis);
+    sentCount.incrementAndGet();
+    return sink.apply(message);
+  }
+
+  @Override
+  public void sendOneway(Message message) {
+    sentCount.incrementAndGet();
+    sink.apply(message);
+  }
+
+  @Override
+  public void sendAsync(Message message, SendCallback sendCallback) {
+    int current = inFlightCount.incrementAndGet();
+    maxInFlightCount.accumulateAndGet(current, Math::max);
+
+    ackExecutor.schedule(() -> {
+      inFlightCount.decrementAndGet();
+      if (failAll) {
+        OnExceptionContext context = new OnExceptionContext();
+        context.setTopic(message.getTopic());
+        context.setException(new ONSClientException("local producer send failed"));
+        sendCallback.onException(context);
+      }
+      else {
+        sentCount.incrementAndGet();
+        sendCallback.onSuccess(sink.apply(message));
+      }
+    }, ackLatencyMillis, TimeUnit.MILLISECONDS);
+  }
+
+  @Override
+  public void setCallbackExecutor(ExecutorService callbackExecutor) {
+    // 回调直接在确认线程中执行
+  }
+
+  @Override
+  public boolean isStarted() {
+    return started;
+  }
+
+  @Override
+  public boolean isClosed() {
+    return !started;
+  }
+
+  @Override
+  public void start() {
+    started = true;
+  }
+
+  @Override
+  public void updateCredential(Properties credentialProperties) {
+    // do nothing
+  }
+
+  @Override
+  public void shutdown() {
+    started = false;
+    ackExecutor.shutdownNow();
+  }
+
+  public int getMaxInFlightCount() {
+    return maxInFlightCount.get();
+  }
+
+  public int getSentCount() {
+    return sentCount.get();
+  }
+
+  public void setFailAll(boolean failAll) {
+    this.failAll = failAll;
+  }
+
+  private static SendResult createSendResult(Message message) {
+    SendResult result = new SendResult();
+    result.setTopic(message.getTopic());
+    result.setMessageId(UUID.randomUUID().toString());
+    return result;
+  }
+
+  private static void sleepQuietly(long millis) {
+    try {
+      Thread.sleep(millis);
+    }
+    catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
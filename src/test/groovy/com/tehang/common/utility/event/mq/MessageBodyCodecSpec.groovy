@@ -0,0 +1,72 @@
+package com.tehang.common.utility.event.mq
+
+import com.aliyun.openservices.ons.api.Message
+import com.tehang.common.TestSpecification
+
+import java.nio.charset.StandardCharsets
+
+class MessageBodyCodecSpec extends TestSpecification {
+
+  static final String LARGE_BODY = '{"eventType":"FlightBookingCompleted","items":[' + (1..200).collect { "{\"id\":${it},\"name\":\"passenger\"}" }.join(',') + ']}'
+
+  def "body未超过压缩阈值时原样发送, 不设置编码属性"() {
+    when:
+    Message message = MessageBodyCodec.createMessage('topic-test', 'tag', 'key-1', '{"id":1}', 1024)
+
+    then:
+    new String(message.body, StandardCharsets.UTF_8) == '{"id":1}'
+    message.getUserProperties(MessageBodyCodec.CODEC_PROPERTY) == null
+    MessageBodyCodec.decode(message) == '{"id":1}'
+  }
+
+  def "body超过压缩阈值时以gzip压缩发送, 消费时透明解码"() {
+    when:
+    Message message = MessageBodyCodec.createMessage('topic-test', 'tag', 'key-1', LARGE_BODY, 1024)
+
+    then:
+    message.getUserProperties(MessageBodyCodec.CODEC_PROPERTY) == MessageBodyCodec.GZIP
+    message.body.length < LARGE_BODY.length() / 4
+    MessageBodyCodec.decode(message) == LARGE_BODY
+  }
+
+  def "压缩阈值为0时不压缩"() {
+    expect:
+    MessageBodyCodec.encodeForStorage(LARGE_BODY, 0) == LARGE_BODY
+    MessageBodyCodec.createMessage('topic-test', 'tag', 'key-1', LARGE_BODY, 0).getUserProperties(MessageBodyCodec.CODEC_PROPERTY) == null
+  }
+
+  def "事件记录中存储的压缩body发送时直接还原为压缩字节"() {
+    given:
+    String stored = MessageBodyCodec.encodeForStorage(LARGE_BODY, 1024)
+
+    when:
+    Message message = MessageBodyCodec.createMessage('topic-test', 'tag', 'key-1', stored, 0)
+
+    then:
+    stored.startsWith('gzip:')
+    stored.length() < LARGE_BODY.length()
+    message.getUserProperties(MessageBodyCodec.CODEC_PROPERTY) == MessageBodyCodec.GZIP
+    MessageBodyCodec.decode(message) == LARGE_BODY
+  }
+
+  def "日志输出的body超过1024字节时截断"() {
+    given:
+    byte[] body = LARGE_BODY.getBytes(StandardCharsets.UTF_8)
+
+    expect:
+    MessageBodyCodec.preview('{"id":1}'.getBytes(StandardCharsets.UTF_8)).toString() == '{"id":1}'
+    MessageBodyCodec.preview(body).toString() == LARGE_BODY.substring(0, 1024) + "...(${body.length} bytes)"
+  }
+
+  def "未知的编码方式解码时抛出异常"() {
+    given:
+    Message message = new Message('topic-test', 'tag', 'key-1', new byte[0])
+    message.putUserProperties(MessageBodyCodec.CODEC_PROPERTY, 'zstd')
+
+    when:
+    MessageBodyCodec.decode(message)
+
+    then:
+    thrown(MessageConsumerException)
+  }
+}
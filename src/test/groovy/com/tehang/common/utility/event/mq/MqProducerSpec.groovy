@@ -0,0 +1,137 @@
+package com.tehang.common.utility.event.mq
+
+import com.aliyun.openservices.ons.api.Message
+import com.aliyun.openservices.ons.api.SendResult
+import com.aliyun.openservices.ons.api.order.OrderProducer
+import com.tehang.common.TestSpecification
+
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.TimeUnit
+
+class MqProducerSpec extends TestSpecification {
+
+  MqConfig mqConfig = new MqConfig()
+  MqProducer mqProducer = new MqProducer()
+  LocalProducer localProducer = new LocalProducer(5)
+
+  def setup() {
+    mqConfig.producerMaxInFlight = 16
+    mqConfig.producerInFlightWaitMillis = 3000
+    setField(mqProducer, 'mqConfig', mqConfig)
+    mqProducer.init(localProducer)
+  }
+
+  def cleanup() {
+    mqProducer.destroy()
+  }
+
+  def "sendAsync收到broker确认后返回发送结果"() {
+    when:
+    def result = mqProducer.sendAsync('topic-test', 'dev1-FlightBookingCompleted', 'key-1', '{}', null).get(5, TimeUnit.SECONDS)
+
+    then:
+    result.topic == 'topic-test'
+    result.messageId != null
+    localProducer.sentCount == 1
+  }
+
+  def "sendAsync同时等待确认的消息数量不超过发送窗口, 并流水线发送"() {
+    given:
+    int messageCount = 400
+
+    when:
+    List<CompletableFuture> futures = (1..messageCount).collect {
+      mqProducer.sendAsync('topic-test', 'dev1-FlightBookingCompleted', "key-${it}", '{}', null)
+    }
+    CompletableFuture.allOf(futures as CompletableFuture[]).get(30, TimeUnit.SECONDS)
+
+    then:
+    localProducer.sentCount == messageCount
+    localProducer.maxInFlightCount <= 16
+    // 同时有多条消息等待确认, 即为流水线发送
+    localProducer.maxInFlightCount > 1
+  }
+
+  def "sendAsync发送失败时以MessageProducerException结束并释放发送窗口"() {
+    given:
+    localProducer.failAll = true
+
+    when:
+    (1..32).each {
+      def future = mqProducer.sendAsync('topic-test', 'dev1-FlightBookingCompleted', "key-${it}", '{}', null)
+      try {
+        future.get(5, TimeUnit.SECONDS)
+      }
+      catch (ExecutionException ex) {
+        assert ex.cause instanceof MessageProducerException
+      }
+    }
+
+    then:
+    noExceptionThrown()
+    localProducer.sentCount == 0
+  }
+
+  def "sendAsync发送窗口已满且等待超时时抛出异常"() {
+    given:
+    mqConfig.producerMaxInFlight = 1
+    mqConfig.producerInFlightWaitMillis = 0
+    localProducer.shutdown()
+    mqProducer.init(new LocalProducer(1000))
+    mqProducer.sendAsync('topic-test', 'dev1-FlightBookingCompleted', 'key-1', '{}', null)
+
+    when:
+    mqProducer.sendAsync('topic-test', 'dev1-FlightBookingCompleted', 'key-2', '{}', null)
+
+    then:
+    thrown(MessageProducerException)
+  }
+
+  def "sendOrdered以shardingKey发送分区顺序消息"() {
+    given:
+    OrderProducer orderProducer = Mock(OrderProducer)
+    mqProducer.initOrderProducer(orderProducer)
+    def sendResult = new SendResult()
+
+    when:
+    def result = mqProducer.sendOrdered('topic-test', 'dev1-FlightBookingCompleted', 'FlightBookingCompleted_order-1', '{}', 'order-1')
+
+    then:
+    1 * orderProducer.send({ Message msg -> msg.topic == 'topic-test' && msg.key == 'FlightBookingCompleted_order-1' }, 'order-1') >> sendResult
+    result == sendResult
+    localProducer.sentCount == 0
+  }
+
+  def "body超过压缩阈值时压缩发送"() {
+    given:
+    mqConfig.compressThresholdBytes = 64
+    OrderProducer orderProducer = Mock(OrderProducer)
+    mqProducer.initOrderProducer(orderProducer)
+    String body = '{"items":"' + ('x' * 1000) + '"}'
+
+    when:
+    mqProducer.sendOrdered('topic-test', 'dev1-FlightBookingCompleted', 'key-1', body, 'order-1')
+
+    then:
+    1 * orderProducer.send({ Message msg ->
+      msg.getUserProperties(MessageBodyCodec.CODEC_PROPERTY) == MessageBodyCodec.GZIP &&
+          msg.body.length < body.length() &&
+          MessageBodyCodec.decode(msg) == body
+    }, 'order-1') >> new SendResult()
+  }
+
+  def "未启用顺序投递时sendOrdered抛出异常"() {
+    when:
+    mqProducer.sendOrdered('topic-test', 'dev1-FlightBookingCompleted', 'key-1', '{}', 'order-1')
+
+    then:
+    thrown(MessageProducerException)
+  }
+
+  private static void setField(Object target, String name, Object value) {
+    def field = target.class.getDeclaredField(name)
+    field.accessible = true
+    field.set(target, value)
+  }
+}
@@ -0,0 +1,97 @@
+package com.tehang.common.utility.event.publish
+
+import com.tehang.common.TestSpecification
+import org.springframework.transaction.support.TransactionSynchronizationManager
+
+class DomainEventImmediateRelaySpec extends TestSpecification {
+
+  DomainEventRelayProperties relayProperties = new DomainEventRelayProperties()
+  SendDomainEventRecordsToMqService sendService = Mock(SendDomainEventRecordsToMqService)
+  DomainEventImmediateRelay relay
+
+  def setup() {
+    relayProperties.immediateEnabled = true
+    relayProperties.batchSize = 2
+    relay = new DomainEventImmediateRelay(relayProperties, sendService)
+  }
+
+  def cleanup() {
+    if (TransactionSynchronizationManager.isSynchronizationActive()) {
+      TransactionSynchronizationManager.clearSynchronization()
+    }
+  }
+
+  def "事务提交后事件记录id入队, 并按batchSize分批发送"() {
+    given:
+    TransactionSynchronizationManager.initSynchronization()
+
+    when:
+    relay.relayAfterCommit('id-1')
+    relay.relayAfterCommit('id-2')
+    relay.relayAfterCommit('id-3')
+
+    then: '事务提交前不入队'
+    relay.drainOnce(0) == 0
+
+    when:
+    TransactionSynchronizationManager.getSynchronizations()*.afterCommit()
+    int first = relay.drainOnce(0)
+    int second = relay.drainOnce(0)
+
+    then:
+    first == 2
+    second == 1
+    1 * sendService.sendDomainEventRecordsByIds(['id-1', 'id-2'])
+    1 * sendService.sendDomainEventRecordsByIds(['id-3'])
+  }
+
+  def "未启用即时中继或不在事务中时不做处理"() {
+    given:
+    relayProperties.immediateEnabled = enabled
+    if (inTransaction) {
+      TransactionSynchronizationManager.initSynchronization()
+    }
+
+    when:
+    relay.relayAfterCommit('id-1')
+
+    then:
+    !TransactionSynchronizationManager.isSynchronizationActive() || TransactionSynchronizationManager.getSynchronizations().isEmpty()
+    relay.drainOnce(0) == 0
+    0 * sendService._
+
+    where:
+    enabled | inTransaction
+    false   | true
+    true    | false
+  }
+
+  def "队列已满时丢弃, 由定时任务兜底"() {
+    given:
+    relayProperties.immediateQueueCapacity = 1
+    relay = new DomainEventImmediateRelay(relayProperties, sendService)
+    TransactionSynchronizationManager.initSynchronization()
+
+    when:
+    relay.relayAfterCommit('id-1')
+    relay.relayAfterCommit('id-2')
+    TransactionSynchronizationManager.getSynchronizations()*.afterCommit()
+    relay.drainOnce(0)
+
+    then:
+    1 * sendService.sendDomainEventRecordsByIds(['id-1'])
+    relay.drainOnce(0) == 0
+  }
+
+  def "未启用批量模式时启用即时中继, 启动时报错"() {
+    given:
+    relayProperties.batchEnabled = false
+
+    when:
+    relay.afterPropertiesSet()
+
+    then:
+    thrown(IllegalArgumentException)
+    relay.@relayThread == null
+  }
+}
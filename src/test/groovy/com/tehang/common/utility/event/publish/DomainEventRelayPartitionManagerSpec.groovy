@@ -0,0 +1,102 @@
+package com.tehang.common.utility.event.publish
+
+import com.tehang.common.TestSpecification
+import com.tehang.common.utility.event.mq.MqConfig
+import com.tehang.common.utility.redis.CommonRedisOperator
+
+import java.util.concurrent.TimeUnit
+
+class DomainEventRelayPartitionManagerSpec extends TestSpecification {
+
+  CommonRedisOperator redisOperator = Mock(CommonRedisOperator)
+  MqConfig mqConfig = Mock(MqConfig)
+  DomainEventRelayProperties relayProperties = new DomainEventRelayProperties()
+  DomainEventRelayPartitionManager partitionManager = new DomainEventRelayPartitionManager(redisOperator, mqConfig, relayProperties)
+
+  def setup() {
+    mqConfig.getGroupId() >> 'GID-test'
+    relayProperties.partitionEnabled = true
+    relayProperties.partitionCount = 4
+  }
+
+  def "分区租约不大于定时任务的执行间隔时启动报错"() {
+    given:
+    relayProperties.cron = cron
+    relayProperties.partitionLeaseSeconds = leaseSeconds
+
+    when:
+    partitionManager.afterPropertiesSet()
+
+    then:
+    thrown(IllegalArgumentException)
+
+    where:
+    cron             | leaseSeconds
+    '0/20 * * * * ?' | 20
+    '0 * * * * ?'    | 30
+    '0 0,5 * * * ?'  | 600
+  }
+
+  def "分区租约大于定时任务的执行间隔，或未启用分区中继时正常启动"() {
+    given:
+    relayProperties.partitionEnabled = partitionEnabled
+    relayProperties.cron = cron
+    relayProperties.partitionLeaseSeconds = 20
+
+    when:
+    partitionManager.afterPropertiesSet()
+
+    then:
+    noExceptionThrown()
+
+    where:
+    cron             | partitionEnabled
+    '0/2 * * * * ?'  | true
+    '0/10 * * * * ?' | true
+    '0 * * * * ?'    | false
+  }
+
+  def "单个节点认领全部分区"() {
+    when:
+    def partitions = partitionManager.acquirePartitions()
+
+    then:
+    1 * redisOperator.execute({ it.scriptAsString.contains('zadd') }, ['DOMAIN_EVENT_RELAY_NODES_GID-test'], *_) >> 1L
+    4 * redisOperator.setIfAbsent({ it.startsWith('DOMAIN_EVENT_RELAY_PARTITION_GID-test_') }, _ as String, 20000, TimeUnit.MILLISECONDS) >> true
+    partitions == [0, 1, 2, 3]
+  }
+
+  def "节点加入后释放超出份额的分区，已被其他节点持有的分区不再认领"() {
+    given:
+    redisOperator.execute({ it.scriptAsString.contains('zadd') }, *_) >>> [1L, 2L]
+    redisOperator.setIfAbsent(*_) >> true
+    partitionManager.acquirePartitions()
+
+    when:
+    def partitions = partitionManager.acquirePartitions()
+
+    then:
+    4 * redisOperator.execute({ it.scriptAsString.contains('pexpire') }, *_) >> 1L
+    2 * redisOperator.execute({ it.scriptAsString.contains('del') }, *_) >> 1L
+    partitions == [0, 1]
+  }
+
+  def "续期失败的分区不再持有，并认领其他无主的分区"() {
+    given:
+    relayProperties.partitionCount = 2
+    redisOperator.execute({ it.scriptAsString.contains('zadd') }, *_) >> 2L
+    redisOperator.setIfAbsent(*_) >> true
+    def owned = partitionManager.acquirePartitions()
+    int other = 1 - owned[0]
+
+    when:
+    def partitions = partitionManager.acquirePartitions()
+
+    then:
+    1 * redisOperator.execute({ it.scriptAsString.contains('pexpire') }, *_) >> 0L
+    1 * redisOperator.setIfAbsent('DOMAIN_EVENT_RELAY_PARTITION_GID-test_' + owned[0], *_) >> false
+    1 * redisOperator.setIfAbsent('DOMAIN_EVENT_RELAY_PARTITION_GID-test_' + other, *_) >> true
+    owned.size() == 1
+    partitions == [other]
+  }
+}
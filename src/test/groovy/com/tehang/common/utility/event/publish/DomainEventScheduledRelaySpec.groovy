@@ -0,0 +1,98 @@
+package com.tehang.common.utility.event.publish
+
+import com.tehang.common.TestSpecification
+import com.tehang.common.utility.event.DefaultEvent
+import com.tehang.common.utility.event.publish.eventrecord.DomainEventRecord
+import com.tehang.common.utility.event.publish.eventrecord.DomainEventRecordJdbcRepository
+import com.tehang.common.utility.time.BjTime
+
+class DomainEventScheduledRelaySpec extends TestSpecification {
+
+  DomainEventRelayProperties relayProperties = new DomainEventRelayProperties()
+  DomainEventRecordJdbcRepository eventRecordJdbcRepository = Mock(DomainEventRecordJdbcRepository)
+  SendDomainEventRecordsToMqService sendService = Mock(SendDomainEventRecordsToMqService)
+  DomainEventScheduledRelay relay
+
+  def setup() {
+    relayProperties.scheduleEnabled = true
+    relayProperties.scheduleWindowSeconds = 60
+    relayProperties.scheduleLoadIntervalSeconds = 5
+    relayProperties.scheduleFallbackSeconds = 30
+    relay = new DomainEventScheduledRelay(relayProperties, eventRecordJdbcRepository, sendService)
+  }
+
+  def "加载时间窗口内的延时记录, 已到期的立即发送, 未到期的在投递时间到达时发送"() {
+    given:
+    long now = System.currentTimeMillis()
+    def overdueRecord = DomainEventRecord.create(new DefaultEvent('OrderTimeout'), BjTime.now().minusSeconds(5), 'GID-test')
+    def scheduledRecord = DomainEventRecord.create(new DefaultEvent('OrderTimeout'), BjTime.now().plusSeconds(3), 'GID-test')
+
+    when:
+    int firstCount = relay.relayDue(now)
+
+    then:
+    1 * eventRecordJdbcRepository.findScheduledWaitSend(_ as BjTime, _ as BjTime, 10000) >> { BjTime from, BjTime until, int limit ->
+      assert from.isBefore(BjTime.now().minusSeconds(29))
+      assert until.isAfter(BjTime.now().plusSeconds(59))
+      return [overdueRecord, scheduledRecord]
+    }
+    1 * sendService.sendDomainEventRecordsByIds([overdueRecord.id], _ as BjTime)
+    firstCount == 1
+
+    when: '投递时间之前不发送, 加载间隔内不重新加载'
+    int secondCount = relay.relayDue(now + 1000)
+
+    then:
+    0 * eventRecordJdbcRepository._
+    0 * sendService._
+    secondCount == 0
+
+    when:
+    int thirdCount = relay.relayDue(scheduledRecord.startDeliverTime.innerTime.millis)
+
+    then:
+    0 * eventRecordJdbcRepository._
+    1 * sendService.sendDomainEventRecordsByIds([scheduledRecord.id], _ as BjTime)
+    thirdCount == 1
+  }
+
+  def "重新加载时已在时间轮中的记录不重复调度"() {
+    given:
+    long now = System.currentTimeMillis()
+    def scheduledRecord = DomainEventRecord.create(new DefaultEvent('OrderTimeout'), BjTime.now().plusSeconds(20), 'GID-test')
+
+    when:
+    relay.relayDue(now)
+    relay.relayDue(now + 5000)
+    int count = relay.relayDue(scheduledRecord.startDeliverTime.innerTime.millis)
+
+    then:
+    3 * eventRecordJdbcRepository.findScheduledWaitSend(*_) >> [scheduledRecord]
+    1 * sendService.sendDomainEventRecordsByIds([scheduledRecord.id], _)
+    count == 1
+  }
+
+  def "未启用延时事件的定时调度时不启动中继线程"() {
+    given:
+    relayProperties.scheduleEnabled = false
+
+    when:
+    relay.afterPropertiesSet()
+
+    then:
+    relay.@relayThread == null
+  }
+
+  def "未启用批量模式时启用延时事件的定时调度, 启动时报错"() {
+    given:
+    relayProperties.scheduleEnabled = true
+    relayProperties.batchEnabled = false
+
+    when:
+    relay.afterPropertiesSet()
+
+    then:
+    thrown(IllegalArgumentException)
+    relay.@relayThread == null
+  }
+}
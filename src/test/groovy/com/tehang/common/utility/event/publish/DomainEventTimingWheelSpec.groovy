@@ -0,0 +1,57 @@
+package com.tehang.common.utility.event.publish
+
+import com.tehang.common.TestSpecification
+
+class DomainEventTimingWheelSpec extends TestSpecification {
+
+  // 刻度1秒, 每层10格, 3层: 第0层一圈10秒, 第1层一圈100秒, 第2层一圈1000秒
+  DomainEventTimingWheel timingWheel = new DomainEventTimingWheel(1000, 10, 3, 0)
+
+  def "记录在其投递时间所在的刻度到期, 高层的记录逐层降级后按时到期"() {
+    given:
+    timingWheel.add('id-3s', 3500)
+    timingWheel.add('id-45s', 45000)
+    timingWheel.add('id-450s', 450000)
+
+    expect:
+    timingWheel.size() == 3
+    timingWheel.advance(2999).isEmpty()
+    timingWheel.advance(3000) == ['id-3s']
+    timingWheel.advance(44999).isEmpty()
+    timingWheel.advance(45000) == ['id-45s']
+    timingWheel.advance(449999).isEmpty()
+    timingWheel.advance(450000) == ['id-450s']
+    timingWheel.size() == 0
+  }
+
+  def "一次推进多个刻度时返回期间到期的所有记录"() {
+    given:
+    timingWheel.add('id-2', 2000)
+    timingWheel.add('id-15', 15000)
+    timingWheel.add('id-120', 120000)
+
+    expect:
+    timingWheel.advance(200000) == ['id-2', 'id-15', 'id-120']
+  }
+
+  def "已到期的记录不放入时间轮, 重复调度的记录只保留一份"() {
+    given:
+    timingWheel.advance(5000)
+
+    expect:
+    !timingWheel.add('id-due', 5999)
+    timingWheel.add('id-1', 8000)
+    timingWheel.add('id-1', 8000)
+    timingWheel.contains('id-1')
+    timingWheel.size() == 1
+    timingWheel.advance(8000) == ['id-1']
+    !timingWheel.contains('id-1')
+  }
+
+  def "超出可调度时长的记录不放入时间轮"() {
+    expect:
+    timingWheel.maxDelayMillis == 900000
+    !timingWheel.add('id-far', 1000000)
+    timingWheel.size() == 0
+  }
+}
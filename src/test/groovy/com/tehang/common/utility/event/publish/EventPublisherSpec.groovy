@@ -1,10 +1,16 @@
 package com.tehang.common.utility.event.publish
 
+import com.aliyun.openservices.ons.api.SendResult
 import com.tehang.common.TestSpecification
+import com.tehang.common.infrastructure.exceptions.SystemErrorException
 import com.tehang.common.utility.event.DefaultEvent
+import com.tehang.common.utility.event.mq.MessageProducerException
 import com.tehang.common.utility.event.mq.MqConfig
 import com.tehang.common.utility.event.mq.MqProducer
 
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.TimeUnit
+
 class EventPublisherSpec extends TestSpecification {
 
   MqProducer mqProducer = Mock(MqProducer)
@@ -30,4 +36,54 @@ class EventPublisherSpec extends TestSpecification {
         'FlightBookingCompleted_order-1', _ as String, null)
     event.key == 'order-1'
   }
+
+  def "publishAsync异步发送, 失败后延迟重试直到成功"() {
+    given:
+    def event = new DefaultEvent('FlightBookingCompleted')
+    event.key = 'order-1'
+    def sendResult = new SendResult()
+
+    when:
+    def result = eventPublisher.publishAsync(event).get(5, TimeUnit.SECONDS)
+
+    then:
+    2 * mqProducer.sendAsync('topic-test', 'dev1-FlightBookingCompleted', 'FlightBookingCompleted_order-1', _ as String, null) >>>
+        [CompletableFuture.failedFuture(new MessageProducerException('send failed')), CompletableFuture.completedFuture(sendResult)]
+    0 * mqProducer.sendToQueue(*_)
+    result.is(sendResult)
+    event.publisher == 'GID-test'
+  }
+
+  def "启用顺序投递时publish以事件key作为shardingKey发送分区顺序消息"() {
+    given:
+    mqConfig.isOrderedDelivery() >> true
+    def event = new DefaultEvent('FlightBookingCompleted')
+    event.key = 'order-1'
+
+    when:
+    eventPublisher.publish(event)
+
+    then:
+    1 * mqProducer.sendOrdered('topic-test', 'dev1-FlightBookingCompleted', 'FlightBookingCompleted_order-1', _ as String, 'order-1')
+    0 * mqProducer.sendToQueue(*_)
+  }
+
+  def "启用顺序投递时拒绝发布延时事件及异步发布"() {
+    given:
+    mqConfig.isOrderedDelivery() >> true
+    def event = new DefaultEvent('FlightBookingCompleted')
+    event.key = 'order-1'
+
+    when:
+    publish.call(eventPublisher, event)
+
+    then:
+    thrown(SystemErrorException)
+    0 * mqProducer._
+
+    where:
+    desc   | publish
+    '延时事件' | { EventPublisher publisher, DefaultEvent event -> publisher.publish(event, System.currentTimeMillis() + 3000) }
+    '异步发布' | { EventPublisher publisher, DefaultEvent event -> publisher.publishAsync(event) }
+  }
 }
@@ -2,11 +2,21 @@ package com.tehang.common.utility.event.publish
 
 import com.tehang.common.TestSpecification
 import com.tehang.common.utility.event.DefaultEvent
+import com.tehang.common.utility.event.metrics.DomainEventBacklog
+import com.tehang.common.utility.event.metrics.DomainEventMetrics
+import com.tehang.common.utility.event.mq.MessageProducerException
 import com.tehang.common.utility.event.mq.MqConfig
 import com.tehang.common.utility.event.mq.MqProducer
 import com.tehang.common.utility.event.publish.eventrecord.DomainEventRecord
 import com.tehang.common.utility.event.publish.eventrecord.DomainEventRecordJdbcRepository
 import com.tehang.common.utility.lock.DistributedLockHelper
+import com.tehang.common.utility.redis.CommonRedisOperator
+import com.tehang.common.utility.time.BjTime
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry
+
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.TimeUnit
 
 class SendDomainEventRecordsToMqServiceSpec extends TestSpecification {
 
@@ -14,11 +24,17 @@ class SendDomainEventRecordsToMqServiceSpec extends TestSpecification {
   MqProducer mqProducer = Mock(MqProducer)
   DomainEventRecordJdbcRepository eventRecordJdbcRepository = Mock(DomainEventRecordJdbcRepository)
   DistributedLockHelper lockHelper = Mock(DistributedLockHelper)
+  DomainEventRelayProperties relayProperties = new DomainEventRelayProperties()
+  DomainEventRelayPartitionManager partitionManager = Mock(DomainEventRelayPartitionManager)
+  SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry()
+  CommonRedisOperator redisOperator = Mock(CommonRedisOperator)
   SendDomainEventRecordsToMqService service = new SendDomainEventRecordsToMqService(
-      mqConfig, mqProducer, eventRecordJdbcRepository, lockHelper)
+      mqConfig, mqProducer, eventRecordJdbcRepository, lockHelper, relayProperties, partitionManager,
+      new DomainEventMetrics(meterRegistry), redisOperator)
 
   def setup() {
     mqConfig.getTopic() >> 'topic-test'
+    mqConfig.getGroupId() >> 'GID-test'
     mqConfig.getEventTagPrefix() >> 'dev1-'
   }
 
@@ -32,11 +48,280 @@ class SendDomainEventRecordsToMqServiceSpec extends TestSpecification {
     service.sendDomainEventRecords()
 
     then:
-    1 * eventRecordJdbcRepository.findAllByWaitSend() >> [record]
+    1 * eventRecordJdbcRepository.findAllByWaitSend(null) >> [record]
     1 * lockHelper.withLock(record.id, _ as Runnable) >> { String lockId, Runnable runnable -> runnable.run() }
     1 * eventRecordJdbcRepository.isWaitSend(record.id) >> true
     1 * mqProducer.sendToQueue('topic-test', 'dev1-FlightBookingCompleted',
         'FlightBookingCompleted_order-1', record.body, null)
     1 * eventRecordJdbcRepository.updateOnSendSuccess(record)
+    meterRegistry.find('domain.event.mq.send').tags('eventType', 'FlightBookingCompleted', 'topic', 'topic-test', 'result', 'success')
+        .timer().count() == 1
+    meterRegistry.find('domain.event.relay.publish.latency').tags('eventType', 'FlightBookingCompleted', 'topic', 'topic-test')
+        .timer().count() == 1
+  }
+
+  def "sendDomainEventRecords发送失败时记录发送耗时和重试次数"() {
+    given:
+    def record = DomainEventRecord.create(new DefaultEvent('FlightBookingCompleted'), null, 'GID-test')
+
+    when:
+    service.sendDomainEventRecords()
+
+    then:
+    1 * eventRecordJdbcRepository.findAllByWaitSend(null) >> [record]
+    1 * lockHelper.withLock(record.id, _ as Runnable) >> { String lockId, Runnable runnable -> runnable.run() }
+    1 * eventRecordJdbcRepository.isWaitSend(record.id) >> true
+    1 * mqProducer.sendToQueue(*_) >> { throw new MessageProducerException('send failed') }
+    1 * eventRecordJdbcRepository.updateOnSendFailed(record, 'send failed')
+    meterRegistry.find('domain.event.mq.send').tags('result', 'failure').timer().count() == 1
+    meterRegistry.find('domain.event.relay.send.failed').tags('eventType', 'FlightBookingCompleted', 'outcome', 'retry')
+        .counter().count() == 1
+    meterRegistry.find('domain.event.relay.publish.latency').timer() == null
+  }
+
+  def "refreshBacklogMetrics按eventType和topic更新积压数量和最早记录的等待时长, topic为空时取默认topic"() {
+    given:
+    long oldestCreateTime = System.currentTimeMillis() - 60000
+
+    when:
+    service.refreshBacklogMetrics()
+
+    then:
+    1 * redisOperator.setIfAbsent('DOMAIN_EVENT_BACKLOG_METRICS_GID-test', _, 5, TimeUnit.SECONDS) >> true
+    1 * eventRecordJdbcRepository.findWaitSendBacklog(null) >> [new DomainEventBacklog('FlightBookingCompleted', null, 3, oldestCreateTime)]
+    meterRegistry.find('domain.event.relay.backlog').tags('eventType', 'FlightBookingCompleted', 'topic', 'topic-test')
+        .gauge().value() == 3
+    meterRegistry.find('domain.event.relay.backlog.oldest.age').tags('eventType', 'FlightBookingCompleted', 'topic', 'topic-test')
+        .gauge().value() >= 60
+  }
+
+  def "refreshBacklogMetrics未取得租约时不查询积压, 并将本节点的积压指标置为0"() {
+    given:
+    redisOperator.setIfAbsent(*_) >>> [true, false]
+    eventRecordJdbcRepository.findWaitSendBacklog(null) >> [new DomainEventBacklog('FlightBookingCompleted', null, 3, System.currentTimeMillis())]
+    service.refreshBacklogMetrics()
+
+    when:
+    service.refreshBacklogMetrics()
+
+    then:
+    0 * eventRecordJdbcRepository.findWaitSendBacklog(_)
+    meterRegistry.find('domain.event.relay.backlog').tags('eventType', 'FlightBookingCompleted').gauge().value() == 0
+  }
+
+  def "未配置监控系统时不统计积压"() {
+    given:
+    def globalService = new SendDomainEventRecordsToMqService(
+        mqConfig, mqProducer, eventRecordJdbcRepository, lockHelper, relayProperties, partitionManager,
+        new DomainEventMetrics(new CompositeMeterRegistry()), redisOperator)
+
+    when:
+    globalService.refreshBacklogMetrics()
+
+    then:
+    0 * redisOperator._
+    0 * eventRecordJdbcRepository._
+  }
+
+  def "批量模式下一次认领一批记录, 异步发送后按结果批量更新且不使用分布式锁"() {
+    given:
+    relayProperties.batchEnabled = true
+    relayProperties.batchSize = 3
+    def successEvent = new DefaultEvent('FlightBookingCompleted')
+    successEvent.key = 'order-1'
+    def failedEvent = new DefaultEvent('FlightBookingCompleted')
+    failedEvent.key = 'order-2'
+    def successRecord = DomainEventRecord.create(successEvent, null, 'GID-test')
+    def failedRecord = DomainEventRecord.create(failedEvent, null, 'GID-test')
+    String claimedToken = null
+
+    when:
+    def result = service.relayInBatches()
+
+    then:
+    1 * eventRecordJdbcRepository.claimWaitSend(_ as String, _, 3, null) >> { String ownerToken, lease, int batchSize, deliverBefore ->
+      claimedToken = ownerToken
+      return 2
+    }
+    1 * eventRecordJdbcRepository.findAllByOwnerToken({ it == claimedToken }) >> [successRecord, failedRecord]
+    1 * mqProducer.sendAsync('topic-test', 'dev1-FlightBookingCompleted', 'FlightBookingCompleted_order-1', successRecord.body, null) >>
+        CompletableFuture.completedFuture(null)
+    1 * mqProducer.sendAsync('topic-test', 'dev1-FlightBookingCompleted', 'FlightBookingCompleted_order-2', failedRecord.body, null) >>
+        CompletableFuture.failedFuture(new MessageProducerException('send failed'))
+    0 * mqProducer.sendToQueue(*_)
+    1 * eventRecordJdbcRepository.updateOnSendSuccess([successRecord.id], { it == claimedToken }) >> 1
+    1 * eventRecordJdbcRepository.updateOnSendFailed([failedRecord.id], { it == claimedToken }) >> 1
+    0 * lockHelper._
+    0 * eventRecordJdbcRepository.isWaitSend(_)
+    result.claimedCount == 2
+    result.successCount == 1
+    result.failedCount == 1
+    result.batchCount == 1
+    meterRegistry.find('domain.event.mq.send').tags('result', 'success').timer().count() == 1
+    meterRegistry.find('domain.event.mq.send').tags('result', 'failure').timer().count() == 1
+    meterRegistry.find('domain.event.relay.publish.latency').timer().count() == 1
+    meterRegistry.find('domain.event.relay.send.failed').tags('outcome', 'retry').counter().count() == 1
+  }
+
+  def "顺序投递时以eventKey为shardingKey逐条发送, 同一key发送失败后该key的后续记录暂缓发送"() {
+    given:
+    mqConfig.isOrderedDelivery() >> true
+    relayProperties.batchEnabled = true
+    relayProperties.batchSize = 10
+    def firstRecord = DomainEventRecord.create(new DefaultEvent('FlightBookingCompleted').tap { key = 'order-1' }, null, 'GID-test')
+    def secondRecord = DomainEventRecord.create(new DefaultEvent('FlightBookingCancelled').tap { key = 'order-1' }, null, 'GID-test')
+    def otherRecord = DomainEventRecord.create(new DefaultEvent('FlightBookingCompleted').tap { key = 'order-2' }, null, 'GID-test')
+
+    when:
+    def result = service.relayInBatches()
+
+    then:
+    1 * eventRecordJdbcRepository.claimWaitSend(_ as String, _, 10, null) >> 3
+    1 * eventRecordJdbcRepository.findAllByOwnerToken(_ as String) >> [firstRecord, secondRecord, otherRecord]
+    1 * mqProducer.sendOrdered('topic-test', 'dev1-FlightBookingCompleted', 'FlightBookingCompleted_order-1', firstRecord.body, 'order-1') >> {
+      throw new MessageProducerException('send failed')
+    }
+    0 * mqProducer.sendOrdered('topic-test', 'dev1-FlightBookingCancelled', *_)
+    1 * mqProducer.sendOrdered('topic-test', 'dev1-FlightBookingCompleted', 'FlightBookingCompleted_order-2', otherRecord.body, 'order-2')
+    0 * mqProducer.sendAsync(*_)
+    1 * eventRecordJdbcRepository.updateOnSendSuccess([otherRecord.id], _ as String) >> 1
+    1 * eventRecordJdbcRepository.updateOnSendFailed([firstRecord.id], _ as String) >> 1
+    1 * eventRecordJdbcRepository.releaseClaim([secondRecord.id], _ as String) >> 1
+    result.successCount == 1
+    result.failedCount == 1
+  }
+
+  def "顺序投递时即时中继按id认领的记录, 同一key存在更早的待发送记录时暂缓发送"() {
+    given:
+    mqConfig.isOrderedDelivery() >> true
+    def blockedRecord = DomainEventRecord.create(new DefaultEvent('FlightBookingCancelled').tap { key = 'order-1' }, null, 'GID-test')
+    def otherRecord = DomainEventRecord.create(new DefaultEvent('FlightBookingCompleted').tap { key = 'order-2' }, null, 'GID-test')
+
+    when:
+    def result = service.sendDomainEventRecordsByIds([blockedRecord.id, otherRecord.id])
+
+    then:
+    1 * eventRecordJdbcRepository.claimWaitSendByIds(_, _ as String, _, null) >> 2
+    1 * eventRecordJdbcRepository.findAllByOwnerToken(_ as String) >> [blockedRecord, otherRecord]
+    1 * eventRecordJdbcRepository.findEventKeysWithEarlierWaitSend([blockedRecord, otherRecord], _ as String) >> (['order-1'] as Set)
+    0 * mqProducer.sendOrdered(_, 'dev1-FlightBookingCancelled', *_)
+    1 * mqProducer.sendOrdered('topic-test', 'dev1-FlightBookingCompleted', 'FlightBookingCompleted_order-2', otherRecord.body, 'order-2')
+    1 * eventRecordJdbcRepository.updateOnSendSuccess([otherRecord.id], _ as String) >> 1
+    1 * eventRecordJdbcRepository.releaseClaim([blockedRecord.id], _ as String) >> 1
+    result.successCount == 1
+  }
+
+  def "顺序投递时延时记录视为发送失败, 不以普通消息发送"() {
+    given:
+    mqConfig.isOrderedDelivery() >> true
+    relayProperties.batchEnabled = true
+    relayProperties.batchSize = 10
+    def delayedRecord = DomainEventRecord.create(new DefaultEvent('FlightBookingCompleted').tap { key = 'order-1' },
+        BjTime.now().plusMinutes(10), 'GID-test')
+
+    when:
+    def result = service.relayInBatches()
+
+    then:
+    1 * eventRecordJdbcRepository.claimWaitSend(_ as String, _, 10, null) >> 1
+    1 * eventRecordJdbcRepository.findAllByOwnerToken(_ as String) >> [delayedRecord]
+    0 * mqProducer.sendToQueue(*_)
+    0 * mqProducer.sendOrdered(*_)
+    1 * eventRecordJdbcRepository.updateOnSendFailed([delayedRecord.id], _ as String) >> 1
+    result.failedCount == 1
+  }
+
+  def "批量模式下认领满一批时继续认领下一批, 直到无记录可认领"() {
+    given:
+    relayProperties.batchEnabled = true
+    relayProperties.batchSize = 1
+    def record = DomainEventRecord.create(new DefaultEvent('FlightBookingCompleted'), null, 'GID-test')
+
+    when:
+    def result = service.relayInBatches()
+
+    then:
+    2 * eventRecordJdbcRepository.claimWaitSend(_ as String, _, 1, null) >>> [1, 0]
+    1 * eventRecordJdbcRepository.findAllByOwnerToken(_ as String) >> [record]
+    1 * mqProducer.sendAsync(*_) >> CompletableFuture.completedFuture(null)
+    1 * eventRecordJdbcRepository.updateOnSendSuccess([record.id], _ as String) >> 1
+    result.claimedCount == 1
+    result.batchCount == 1
+  }
+
+  def "即时中继按id认领记录后发送, 未认领到记录时不发送"() {
+    given:
+    def record = DomainEventRecord.create(new DefaultEvent('FlightBookingCompleted'), null, 'GID-test')
+    String claimedToken = null
+
+    when:
+    def result = service.sendDomainEventRecordsByIds([record.id])
+
+    then:
+    1 * eventRecordJdbcRepository.claimWaitSendByIds([record.id], _ as String, _, null) >> { List<String> ids, String ownerToken, lease, deliverBefore ->
+      claimedToken = ownerToken
+      return 1
+    }
+    1 * eventRecordJdbcRepository.findAllByOwnerToken({ it == claimedToken }) >> [record]
+    1 * mqProducer.sendAsync(*_) >> CompletableFuture.completedFuture(null)
+    1 * eventRecordJdbcRepository.updateOnSendSuccess([record.id], { it == claimedToken }) >> 1
+    result.successCount == 1
+
+    when:
+    result = service.sendDomainEventRecordsByIds([record.id])
+
+    then:
+    1 * eventRecordJdbcRepository.claimWaitSendByIds([record.id], _ as String, _, null) >> 0
+    0 * eventRecordJdbcRepository.findAllByOwnerToken(_)
+    0 * mqProducer._
+    result.claimedCount == 0
+  }
+
+  def "启用延时事件的定时调度时, 定时任务只认领不需延时或超过投递时间兜底秒数的记录, 即时中继不认领未到期的延时记录"() {
+    given:
+    relayProperties.batchEnabled = true
+    relayProperties.scheduleEnabled = true
+    relayProperties.scheduleFallbackSeconds = 30
+    BjTime claimDeliverBefore = null
+    BjTime immediateDeliverBefore = null
+
+    when:
+    service.relayInBatches()
+    service.sendDomainEventRecordsByIds(['id-1'])
+
+    then:
+    1 * eventRecordJdbcRepository.claimWaitSend(_ as String, _, 500, _ as BjTime) >> { String ownerToken, lease, int batchSize, BjTime deliverBefore ->
+      claimDeliverBefore = deliverBefore
+      return 0
+    }
+    1 * eventRecordJdbcRepository.claimWaitSendByIds(['id-1'], _ as String, _, _ as BjTime) >> { List<String> ids, String ownerToken, lease, BjTime deliverBefore ->
+      immediateDeliverBefore = deliverBefore
+      return 0
+    }
+    claimDeliverBefore.isBefore(BjTime.now().minusSeconds(29))
+    claimDeliverBefore.isAfter(BjTime.now().minusSeconds(31))
+    immediateDeliverBefore.isAfter(BjTime.now().minusSeconds(1))
+  }
+
+  def "分区中继时只查询和认领当前节点持有的分区"() {
+    given:
+    relayProperties.partitionEnabled = true
+    relayProperties.partitionCount = 8
+    relayProperties.batchEnabled = batchEnabled
+
+    when:
+    service.sendDomainEventRecords()
+
+    then:
+    1 * partitionManager.acquirePartitions() >> [1, 5]
+    findCount * eventRecordJdbcRepository.findAllByWaitSend([1, 5], 8, null) >> []
+    claimCount * eventRecordJdbcRepository.claimWaitSend(_ as String, _, 500, [1, 5], 8, null) >> 0
+    0 * eventRecordJdbcRepository.findAllByWaitSend(_)
+    0 * eventRecordJdbcRepository.claimWaitSend(_, _, _, _)
+
+    where:
+    batchEnabled | findCount | claimCount
+    false        | 1         | 0
+    true         | 0         | 1
   }
 }
@@ -7,13 +7,15 @@ import com.tehang.common.utility.event.mq.MqConfig
 import com.tehang.common.utility.event.publish.eventrecord.DomainEventRecord
 import com.tehang.common.utility.event.publish.eventrecord.DomainEventRecordJdbcRepository
 import com.tehang.common.utility.event.publish.eventrecord.DomainEventSendStatus
+import com.tehang.common.utility.time.BjTime
 
 class TransactionalEventPublisherSpec extends TestSpecification {
 
   MqConfig mqConfig = Mock(MqConfig)
   DomainEventRecordJdbcRepository eventRecordJdbcRepository = Mock(DomainEventRecordJdbcRepository)
   EventPublisher eventPublisher = Mock(EventPublisher)
-  TransactionalEventPublisher publisher = new TransactionalEventPublisher(mqConfig, eventRecordJdbcRepository, eventPublisher)
+  DomainEventImmediateRelay immediateRelay = Mock(DomainEventImmediateRelay)
+  TransactionalEventPublisher publisher = new TransactionalEventPublisher(mqConfig, eventRecordJdbcRepository, eventPublisher, immediateRelay)
 
   def setup() {
     mqConfig.getGroupId() >> 'GID-test'
@@ -90,4 +92,81 @@ class TransactionalEventPublisherSpec extends TestSpecification {
     1 * eventRecordJdbcRepository.add(_ as DomainEventRecord)
     0 * eventRecordJdbcRepository.addOnce(_)
   }
+
+  def "启用顺序投递时发布延时事件抛出异常且不写事件记录"() {
+    given:
+    mqConfig.isOrderedDelivery() >> true
+    def event = new DefaultEvent('FlightBookingCompleted')
+
+    when:
+    publisher.publish(event, BjTime.now().plusMinutes(10))
+
+    then:
+    thrown(SystemErrorException)
+    0 * eventRecordJdbcRepository._
+    0 * immediateRelay._
+  }
+
+  def "publish写入事件记录后交给即时中继, 重复的publishOnce不交给即时中继"() {
+    given:
+    def event = new DefaultEvent('FlightBookingCompleted')
+    String recordId
+
+    when:
+    publisher.publish(event)
+
+    then:
+    1 * eventRecordJdbcRepository.add(_ as DomainEventRecord) >> { DomainEventRecord record -> recordId = record.id }
+    1 * immediateRelay.relayAfterCommit({ it == recordId })
+
+    when:
+    publisher.publishOnce(new DefaultEvent('FlightBookingCompleted'), 'TMC-FlightBookingCompleted:1001')
+
+    then:
+    1 * eventRecordJdbcRepository.addOnce(_ as DomainEventRecord) >> false
+    0 * immediateRelay.relayAfterCommit(_)
+  }
+
+  def "publishAll批量写入事件记录并一次交给即时中继"() {
+    given:
+    def events = [new DefaultEvent('FlightBookingCompleted'), new DefaultEvent('FlightBookingCancelled')]
+    List<DomainEventRecord> savedRecords = null
+
+    when:
+    publisher.publishAll(events)
+
+    then:
+    1 * eventRecordJdbcRepository.addAll(_) >> { args -> savedRecords = args[0] }
+    1 * immediateRelay.relayAfterCommit({ List<String> ids -> ids == savedRecords*.id })
+    savedRecords*.eventType == ['FlightBookingCompleted', 'FlightBookingCancelled']
+    0 * eventRecordJdbcRepository.add(_)
+  }
+
+  def "publishAllOnce返回首次发布成功的业务key, 只将新写入的记录交给即时中继"() {
+    given:
+    def events = ['TMC:1001': new DefaultEvent('FlightBookingCompleted'), 'TMC:1002': new DefaultEvent('FlightBookingCompleted')]
+    List<DomainEventRecord> savedRecords = null
+
+    when:
+    Set<String> publishedKeys = publisher.publishAllOnce(events)
+
+    then:
+    1 * eventRecordJdbcRepository.addAllOnce(_) >> { args ->
+      savedRecords = args[0]
+      return [savedRecords[1].id] as Set
+    }
+    1 * immediateRelay.relayAfterCommit({ List<String> ids -> ids == [savedRecords[1].id] })
+    savedRecords*.eventKey == ['TMC:1001', 'TMC:1002']
+    publishedKeys == ['TMC:1002'] as Set
+  }
+
+  def "publishAllOnce传入空幂等key时抛出异常且不写事件记录"() {
+    when:
+    publisher.publishAllOnce(['': new DefaultEvent('FlightBookingCompleted')])
+
+    then:
+    def ex = thrown(SystemErrorException)
+    ex.message == 'idempotentKey不能为空'
+    0 * eventRecordJdbcRepository.addAllOnce(_)
+  }
 }
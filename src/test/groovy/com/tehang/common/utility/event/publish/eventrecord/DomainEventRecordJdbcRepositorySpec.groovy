@@ -2,6 +2,8 @@ package com.tehang.common.utility.event.publish.eventrecord
 
 import com.tehang.common.TestSpecification
 import com.tehang.common.utility.event.DefaultEvent
+import com.tehang.common.utility.time.BjTime
+import org.springframework.dao.DataIntegrityViolationException
 import org.springframework.dao.DuplicateKeyException
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate
 
@@ -49,4 +51,135 @@ class DomainEventRecordJdbcRepositorySpec extends TestSpecification {
     1 * jdbcTemplate.update(_ as String, _ as Map) >> { throw new DuplicateKeyException('duplicated') }
     thrown(DuplicateKeyException)
   }
+
+  def "addAll使用一条多行insert语句写入多条事件记录"() {
+    given:
+    def records = (1..3).collect { DomainEventRecord.create(new DefaultEvent('FlightBookingCompleted'), null, 'GID-test') }
+
+    when:
+    repository.addAll(records)
+
+    then:
+    1 * jdbcTemplate.update({ String sql ->
+      sql.startsWith('insert into domain_event_record') && sql.contains(':event_key_2')
+    }, { Map params -> params.id_0 == records[0].id && params.id_2 == records[2].id }) >> 3
+  }
+
+  def "addAllOnce跳过唯一键冲突的记录而不使用insert ignore, 并按id查询实际写入的记录"() {
+    given:
+    def records = (1..3).collect { DomainEventRecord.create(new DefaultEvent('FlightBookingCompleted'), null, 'GID-test') }
+
+    when:
+    Set<String> addedIds = repository.addAllOnce(records)
+
+    then:
+    1 * jdbcTemplate.update({ String sql ->
+      sql.startsWith('insert into domain_event_record') && sql.endsWith(' on duplicate key update id = id')
+    }, { Map params -> params.id_0 == records[0].id && params.id_2 == records[2].id }) >> 3
+    1 * jdbcTemplate.queryForList({ String sql -> sql.contains('where id in (:ids)') }, { Map params ->
+      params.ids == records*.id
+    }, String) >> [records[0].id, records[2].id]
+    addedIds == [records[0].id, records[2].id] as Set
+  }
+
+  def "addAllOnce遇到数据截断等错误时抛出异常"() {
+    given:
+    def records = [DomainEventRecord.create(new DefaultEvent('FlightBookingCompleted'), null, 'GID-test')]
+
+    when:
+    repository.addAllOnce(records)
+
+    then:
+    1 * jdbcTemplate.update(_ as String, _ as Map) >> { throw new DataIntegrityViolationException('Data too long for column body') }
+    0 * jdbcTemplate.queryForList(*_)
+    thrown(DataIntegrityViolationException)
+  }
+
+  def "claimWaitSend使用一条sql认领待发送且未被认领或租约过期的记录"() {
+    given:
+    def leaseExpireTime = BjTime.parse('2026-04-13 03:31:00.000')
+
+    when:
+    int count = repository.claimWaitSend('token-1', leaseExpireTime, 500, null)
+
+    then:
+    1 * jdbcTemplate.update({ String sql ->
+      sql.contains('set owner_token = :owner_token') &&
+          sql.contains('(lease_expire_time is null or lease_expire_time < :now)') &&
+          sql.contains('order by create_time') &&
+          sql.contains('limit :batch_size')
+    }, { Map params ->
+      params.owner_token == 'token-1' &&
+          params.lease_expire_time == leaseExpireTime.toString() &&
+          params.status == DomainEventSendStatus.WaitSend.toString() &&
+          params.batch_size == 500
+    }) >> 3
+    count == 3
+  }
+
+  def "claimWaitSend指定deliverBefore时不认领投递时间晚于该时间的延时记录"() {
+    given:
+    def leaseExpireTime = BjTime.parse('2026-04-13 03:31:00.000')
+    def deliverBefore = BjTime.parse('2026-04-13 03:30:00.000')
+
+    when:
+    repository.claimWaitSend('token-1', leaseExpireTime, 500, deliverBefore)
+    repository.claimWaitSend('token-1', leaseExpireTime, 500, null)
+
+    then:
+    1 * jdbcTemplate.update({ String sql ->
+      sql.contains('and (start_deliver_time is null or start_deliver_time <= :deliver_before)') && sql.indexOf('order by') > sql.indexOf('deliver_before')
+    }, { Map params ->
+      params.deliver_before == deliverBefore.toString()
+    }) >> 0
+    1 * jdbcTemplate.update({ String sql -> !sql.contains('start_deliver_time') }, { Map params -> !params.containsKey('deliver_before') }) >> 0
+  }
+
+  def "findScheduledWaitSend按投递时间范围查询待发送的延时记录"() {
+    given:
+    def from = BjTime.parse('2026-04-13 03:29:30.000')
+    def until = BjTime.parse('2026-04-13 03:31:00.000')
+
+    when:
+    repository.findScheduledWaitSend(from, until, 1000)
+
+    then:
+    1 * jdbcTemplate.query({ String sql ->
+      sql.contains('start_deliver_time > :from') &&
+          sql.contains('start_deliver_time <= :until') &&
+          sql.contains('order by start_deliver_time')
+    }, { Map params ->
+      params.status == DomainEventSendStatus.WaitSend.toString() &&
+          params.from == from.toString() &&
+          params.until == until.toString() &&
+          params.limit == 1000
+    }, _) >> []
+  }
+
+  def "批量更新发送结果时只更新本批次令牌认领的记录"() {
+    when:
+    repository.updateOnSendSuccess(['id-1', 'id-2'], 'token-1')
+    repository.updateOnSendFailed(['id-3'], 'token-1')
+
+    then:
+    1 * jdbcTemplate.update({ String sql ->
+      sql.contains('where id in (:ids) and owner_token = :owner_token') && sql.contains('owner_token = null')
+    }, { Map params ->
+      params.ids == ['id-1', 'id-2'] && params.status == DomainEventSendStatus.SendSuccess.toString()
+    }) >> 2
+    1 * jdbcTemplate.update({ String sql ->
+      sql.contains('case when count + 1 >= :max_send_times') && sql.contains('where id in (:ids) and owner_token = :owner_token')
+    }, { Map params ->
+      params.ids == ['id-3'] && params.owner_token == 'token-1' && params.max_send_times == 5
+    }) >> 1
+  }
+
+  def "批量更新发送结果时id列表为空则不执行sql"() {
+    when:
+    repository.updateOnSendSuccess([], 'token-1')
+    repository.updateOnSendFailed([], 'token-1')
+
+    then:
+    0 * jdbcTemplate._
+  }
 }
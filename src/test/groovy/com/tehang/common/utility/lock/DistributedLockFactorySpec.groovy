@@ -3,6 +3,7 @@ package com.tehang.common.utility.lock
 import com.tehang.common.TestSpecification
 import com.tehang.common.utility.redis.CommonRedisOperator
 
+import java.time.Duration
 import java.util.concurrent.TimeUnit
 
 class DistributedLockFactorySpec extends TestSpecification {
@@ -10,6 +11,10 @@ class DistributedLockFactorySpec extends TestSpecification {
   CommonRedisOperator redisOperator = Mock(CommonRedisOperator)
   DistributedLockFactory lockFactory = new DistributedLockFactory(redisOperator)
 
+  def cleanup() {
+    lockFactory.destroy()
+  }
+
   def "首次获取成功时使用指定的锁过期时间"() {
     when:
     def lock = lockFactory.acquireLock('test-lock', true, 1500, 100)
@@ -59,4 +64,173 @@ class DistributedLockFactorySpec extends TestSpecification {
     thrown(IllegalArgumentException)
     0 * redisOperator._
   }
+
+  def "看门狗锁通过脚本获取，持有期间定时续期，释放后停止续期"() {
+    when:
+    def lock = lockFactory.acquireWatchdogLock('test-lock', false, 300, 0)
+    Thread.sleep(350)
+    lock.close()
+    Thread.sleep(250)
+
+    then:
+    1 * redisOperator.execute(DistributedLockScripts.ACQUIRE, ['LOCK_PREFIXtest-lock'], _ as String, '300') >> 1L
+    (2..4) * redisOperator.execute(DistributedLockScripts.RENEW, ['LOCK_PREFIXtest-lock'], _ as String, '300') >> 1L
+    1 * redisOperator.execute(DistributedLockScripts.RELEASE, ['LOCK_PREFIXtest-lock', 'LOCK_WAITERS:{LOCK_PREFIXtest-lock}'], _ as String, 'LOCK_RELEASED:LOCK_PREFIXtest-lock') >> 1L
+    !lock.lost
+  }
+
+  def "看门狗锁续期失败时停止续期并标记锁已丢失"() {
+    when:
+    def lock = lockFactory.acquireWatchdogLock('test-lock', false, 150, 0)
+    Thread.sleep(300)
+
+    then:
+    1 * redisOperator.execute(DistributedLockScripts.ACQUIRE, ['LOCK_PREFIXtest-lock'], _ as String, '150') >> 1L
+    1 * redisOperator.execute(DistributedLockScripts.RENEW, ['LOCK_PREFIXtest-lock'], _ as String, '150') >> 0L
+    lock.lost
+  }
+
+  def "看门狗锁非阻塞获取失败时不启动续期"() {
+    when:
+    lockFactory.acquireWatchdogLockUnBlocked('test-lock')
+
+    then:
+    1 * redisOperator.execute(DistributedLockScripts.ACQUIRE, ['LOCK_PREFIXtest-lock'], _ as String, '10000') >> 0L
+    0 * redisOperator.execute(DistributedLockScripts.RENEW, *_)
+    thrown(LockNotAcquiredException)
+  }
+
+  def "可重入锁与写锁使用同一个hash结构的key，持有者为当前线程"() {
+    given:
+    def ownerIds = []
+
+    when:
+    def outer = lockFactory.acquireReentrantLock('test-lock', false, 1500, 0)
+    def inner = lockFactory.getReadWriteLock('test-lock').writeLock(false, 1500, 0)
+    inner.close()
+    outer.close()
+
+    then:
+    2 * redisOperator.execute(DistributedLockScripts.WRITE_ACQUIRE, ['RW_LOCK_PREFIXtest-lock', 'RW_LOCK_OWNERS:{RW_LOCK_PREFIXtest-lock}'], _ as String, '1500') >> { args ->
+      ownerIds << args[2][0]
+      1L
+    }
+    2 * redisOperator.execute(DistributedLockScripts.HASH_RELEASE,
+        ['RW_LOCK_PREFIXtest-lock', 'LOCK_WAITERS:{RW_LOCK_PREFIXtest-lock}', 'RW_LOCK_OWNERS:{RW_LOCK_PREFIXtest-lock}'], _ as String,
+        'LOCK_RELEASED:RW_LOCK_PREFIXtest-lock') >> { args ->
+      ownerIds << args[2][0]
+      1L
+    }
+    ownerIds.unique().size() == 1
+    ownerIds[0].endsWith(':' + Thread.currentThread().getId())
+  }
+
+  def "不同线程获取可重入锁时使用不同的持有者"() {
+    given:
+    def ownerIds = Collections.synchronizedList([])
+    redisOperator.execute(DistributedLockScripts.WRITE_ACQUIRE, *_) >> { args ->
+      ownerIds << args[2][0]
+      1L
+    }
+
+    when:
+    lockFactory.acquireReentrantLock('test-lock', false, 1500, 0)
+    Thread.start { lockFactory.acquireReentrantLock('test-lock', false, 1500, 0) }.join()
+
+    then:
+    ownerIds.unique().size() == 2
+  }
+
+  def "读锁获取失败时按阻塞模式抛出异常"() {
+    when:
+    lockFactory.acquireLock(LockMode.READ, 'test-lock', false, 1500)
+
+    then:
+    1 * redisOperator.execute(DistributedLockScripts.READ_ACQUIRE, ['RW_LOCK_PREFIXtest-lock', 'RW_LOCK_OWNERS:{RW_LOCK_PREFIXtest-lock}'], _ as String, '1500') >> 0L
+    thrown(LockNotAcquiredException)
+  }
+
+  def "hash结构的锁按持有者记录到期时间, 获取及释放时先移除已到期的持有者"() {
+    expect:
+    [DistributedLockScripts.READ_ACQUIRE, DistributedLockScripts.WRITE_ACQUIRE].every { script ->
+      script.scriptAsString.startsWith('redis.replicate_commands()') &&
+          script.scriptAsString.contains("redis.call('zrangebyscore', KEYS[2], '-inf', now)") &&
+          script.scriptAsString.contains("redis.call('zadd', KEYS[2], now + tonumber(ARGV[2]), ARGV[1])")
+    }
+    DistributedLockScripts.HASH_RELEASE.scriptAsString.contains("redis.call('zrangebyscore', KEYS[3], '-inf', now)")
+    DistributedLockScripts.HASH_RELEASE.scriptAsString.contains("redis.call('zrem', KEYS[3], ARGV[1])")
+  }
+
+  def "排他模式使用原有的不可重入锁"() {
+    when:
+    def lock = lockFactory.acquireLock(LockMode.EXCLUSIVE, 'test-lock', false, 1500)
+
+    then:
+    1 * redisOperator.setIfAbsent('LOCK_PREFIXtest-lock', _ as String, 1500, TimeUnit.MILLISECONDS) >> true
+    0 * redisOperator.execute(*_)
+    lock != null
+  }
+
+  def "幂等认领成功时一次请求设置处理中标记, 完成后设置已完成标记且不再释放"() {
+    when:
+    def claim = lockFactory.claimIdempotent('MQ_Consumer_Idempotent_test', 'OK', 10000)
+    claim.complete(Duration.ofHours(24))
+    claim.close()
+
+    then:
+    1 * redisOperator.execute(DistributedLockScripts.CLAIM, ['MQ_Consumer_Idempotent_test'], _ as String, '10000', 'OK') >> 1L
+    1 * redisOperator.execute(DistributedLockScripts.COMPLETE, ['MQ_Consumer_Idempotent_test'], _ as String, 'OK', '86400000') >> 1L
+    0 * redisOperator.execute(DistributedLockScripts.RELEASE, *_)
+    claim.status == IdempotentClaim.Status.CLAIMED
+  }
+
+  def "幂等认领后处理失败时关闭即释放认领"() {
+    when:
+    def claim = lockFactory.claimIdempotent('MQ_Consumer_Idempotent_test', 'OK', 10000)
+    claim.close()
+
+    then:
+    1 * redisOperator.execute(DistributedLockScripts.CLAIM, *_) >> 1L
+    1 * redisOperator.execute(DistributedLockScripts.RELEASE, ['MQ_Consumer_Idempotent_test', 'LOCK_WAITERS:{MQ_Consumer_Idempotent_test}'], _ as String,
+        'LOCK_RELEASED:MQ_Consumer_Idempotent_test') >> 1L
+  }
+
+  def "幂等认领返回已完成或处理中时不启动续期, 关闭时不访问redis"() {
+    when:
+    def claim = lockFactory.claimIdempotent('MQ_Consumer_Idempotent_test', 'OK', 10000)
+    claim.close()
+
+    then:
+    1 * redisOperator.execute(DistributedLockScripts.CLAIM, *_) >> result
+    0 * redisOperator.execute(DistributedLockScripts.RENEW, *_)
+    0 * redisOperator.execute(DistributedLockScripts.RELEASE, *_)
+    claim.status == status
+
+    where:
+    result | status
+    0L     | IdempotentClaim.Status.COMPLETED
+    2L     | IdempotentClaim.Status.IN_PROGRESS
+  }
+
+  def "批量幂等认领以pipeline在一次往返中逐个key认领, 完成时同样在一次往返中逐个key标记已完成"() {
+    when:
+    def claims = lockFactory.claimIdempotent(['MQ_Consumer_Idempotent_1', 'MQ_Consumer_Idempotent_2', 'MQ_Consumer_Idempotent_3'], 'OK', 10000)
+    lockFactory.completeIdempotent([claims[0]], Duration.ofHours(24))
+    claims.each { it.close() }
+
+    then:
+    1 * redisOperator.executePipelined(DistributedLockScripts.CLAIM,
+        [['MQ_Consumer_Idempotent_1'], ['MQ_Consumer_Idempotent_2'], ['MQ_Consumer_Idempotent_3']], _ as List) >> { script, keysList, List<List<String>> argsList ->
+      assert argsList.every { it[1] == '10000' && it[2] == 'OK' }
+      return [1L, 0L, 2L]
+    }
+    claims*.status == [IdempotentClaim.Status.CLAIMED, IdempotentClaim.Status.COMPLETED, IdempotentClaim.Status.IN_PROGRESS]
+
+    then:
+    1 * redisOperator.executePipelined(DistributedLockScripts.COMPLETE, [['MQ_Consumer_Idempotent_1']], _ as List) >> { script, keysList, List<List<String>> argsList ->
+      assert argsList[0][1..2] == ['OK', '86400000']
+      return [1L]
+    }
+    0 * redisOperator.execute(*_)
+  }
 }
@@ -37,4 +37,19 @@ class DistributedLockHelperSpec extends TestSpecification {
     1 * lock.close()
     result == 'result'
   }
+
+  def "按锁模式获取锁并在锁内执行方法"() {
+    given:
+    DistributedLock lock = Mock(DistributedLock)
+    Supplier<String> supplier = Mock(Supplier)
+
+    when:
+    def result = lockHelper.withLock(LockMode.READ, 'test-lock', true, 15, supplier)
+
+    then:
+    1 * lockFactory.acquireLock(LockMode.READ, 'test-lock', true, 15000) >> lock
+    1 * supplier.get() >> 'result'
+    1 * lock.close()
+    result == 'result'
+  }
 }
@@ -0,0 +1,136 @@
+package com.tehang.common.utility.lock
+
+import com.tehang.common.TestSpecification
+import com.tehang.common.utility.EncryptUtils
+
+import java.lang.reflect.Field
+import java.lang.reflect.Method
+
+class LockKeyResolverSpec extends TestSpecification {
+
+  LockKeyResolver resolver = new LockKeyResolver()
+
+  def "按包名类名方法名及keyPieces拼接lockKey"() {
+    given:
+    def method = LockedService.getMethod('bookFlight', Order, String)
+    String[] keyPieces = ['Booking', '#order.orderNo', '#order.passenger.name', '#channel', '#order.missing.name']
+    String[] parameterNames = ['order', 'channel']
+
+    when:
+    def lockKey = resolver.resolve(method, keyPieces, parameterNames, [new Order(orderNo: 'O1', passenger: new Passenger(name: 'Tom')), 'WEB'] as Object[])
+
+    then:
+    lockKey == LockedService.canonicalName + 'bookFlight' + 'BookingO1TomWEBnull'
+  }
+
+  def "与原有解析规则生成的lockKey一致: #scenario"() {
+    given:
+    def method = LockedService.getMethod('bookFlight', Order, String)
+    String[] keyPieces = ['#order.' + propName]
+    String[] parameterNames = ['order', 'channel']
+    Object[] args = [order, 'WEB']
+
+    expect:
+    resolver.resolve(method, keyPieces, parameterNames, args) == legacyLockKey(method, keyPieces, parameterNames, args)
+    resolver.resolve(method, keyPieces, parameterNames, args) == LockedService.canonicalName + 'bookFlight' + expectedPiece
+
+    where:
+    scenario   | order                          | propName      || expectedPiece
+    '只有字段'   | new Order(orderNo: 'O1')       | 'orderNo'     || 'O1'
+    '只有getter' | new Order(orderNo: 'O1')       | 'displayName' || 'null'
+    '父类字段'   | new ChildOrder(orderNo: 'O2')  | 'orderNo'     || 'null'
+    '子类字段'   | new ChildOrder(childNo: 'C1')  | 'childNo'     || 'C1'
+    '参数为null' | null                           | 'orderNo'     || 'null'
+  }
+
+  def "编译结果按方法缓存，并按实际类型读取字段"() {
+    given:
+    def method = LockedService.getMethod('bookFlight', Order, String)
+    String[] keyPieces = ['#order.orderNo']
+    String[] parameterNames = ['order', 'channel']
+
+    expect:
+    resolver.resolve(method, keyPieces, parameterNames, [new Order(orderNo: 'O1'), 'WEB'] as Object[]) ==
+        LockedService.canonicalName + 'bookFlightO1'
+    resolver.resolve(method, keyPieces, parameterNames, [new ChildOrder(orderNo: 'O2'), 'WEB'] as Object[]) ==
+        LockedService.canonicalName + 'bookFlightnull'
+    resolver.resolve(method, keyPieces, parameterNames, [new Order(orderNo: 'O3'), 'WEB'] as Object[]) ==
+        LockedService.canonicalName + 'bookFlightO3'
+  }
+
+  def "lockKey过长时进行md5处理"() {
+    given:
+    def method = LockedService.getMethod('bookFlight', Order, String)
+    String[] keyPieces = ['#channel']
+    String[] parameterNames = ['order', 'channel']
+    def channel = 'C' * 300
+
+    expect:
+    resolver.resolve(method, keyPieces, parameterNames, [null, channel] as Object[]) ==
+        EncryptUtils.md5(LockedService.canonicalName + 'bookFlight' + channel)
+  }
+
+  /**
+   * 原有的lockKey解析规则(WithDistributedLockAspect.getLockKey)，用于校验新旧lockKey一致.
+   */
+  private static String legacyLockKey(Method method, String[] keyPieces, String[] parameterNames, Object[] args) {
+    def paramValues = [:]
+    parameterNames.eachWithIndex { name, i -> paramValues[name] = args[i] }
+
+    def sb = new StringBuilder(method.declaringClass.canonicalName + method.name)
+    keyPieces.each { keyPiece ->
+      if (!keyPiece.contains('#')) {
+        sb.append(keyPiece)
+        return
+      }
+      def tokenizer = new StringTokenizer(keyPiece.replace('#', ''), '.')
+      Object object = null
+      while (tokenizer.hasMoreTokens()) {
+        def token = tokenizer.nextToken()
+        if (object == null) {
+          object = paramValues[token]
+        }
+        else {
+          Field field = object.getClass().declaredFields.find { it.name == token }
+          if (field == null) {
+            object = null
+          }
+          else {
+            field.accessible = true
+            object = field.get(object)
+          }
+        }
+        if (object == null) {
+          break
+        }
+      }
+      sb.append(String.valueOf(object))
+    }
+
+    def lockKey = sb.toString()
+    return lockKey.length() > 256 ? EncryptUtils.md5(lockKey) : lockKey
+  }
+
+  static class LockedService {
+    void bookFlight(Order order, String channel) {
+      // do nothing
+    }
+  }
+
+  static class Order {
+    private String orderNo
+    private Passenger passenger
+
+    String getDisplayName() {
+      return 'Order-' + orderNo
+    }
+  }
+
+  static class ChildOrder extends Order {
+    private String childNo
+  }
+
+  static class Passenger {
+    private String name
+  }
+}
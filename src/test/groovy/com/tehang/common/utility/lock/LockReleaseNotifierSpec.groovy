@@ -0,0 +1,92 @@
+package com.tehang.common.utility.lock
+
+import com.tehang.common.TestSpecification
+import com.tehang.common.utility.redis.CommonRedisOperator
+import org.springframework.data.redis.connection.Message
+
+import java.nio.charset.StandardCharsets
+import java.util.concurrent.TimeUnit
+
+class LockReleaseNotifierSpec extends TestSpecification {
+
+  CommonRedisOperator redisOperator = Mock(CommonRedisOperator)
+  LockReleaseNotifier notifier = new LockReleaseNotifier(redisOperator)
+
+  def "收到锁释放的消息时立即唤醒等待该锁的线程"() {
+    given:
+    def waiter = notifier.register('LOCK_PREFIXtest-lock')
+    long startTime = System.nanoTime()
+
+    when:
+    Thread.start {
+      Thread.sleep(50)
+      notifier.onMessage(releaseMessage('LOCK_PREFIXtest-lock'), null)
+    }
+    waiter.await(5000)
+
+    then:
+    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime) < 2000
+
+    cleanup:
+    waiter.close()
+  }
+
+  def "其他锁的释放消息不唤醒等待者"() {
+    given:
+    def waiter = notifier.register('LOCK_PREFIXtest-lock')
+    notifier.onMessage(releaseMessage('LOCK_PREFIXother-lock'), null)
+    long startTime = System.nanoTime()
+
+    when:
+    waiter.await(100)
+
+    then:
+    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime) >= 80
+
+    cleanup:
+    waiter.close()
+  }
+
+  def "等待结束后不再接收通知"() {
+    given:
+    def waiter = notifier.register('LOCK_PREFIXtest-lock')
+    waiter.close()
+
+    when:
+    notifier.onMessage(releaseMessage('LOCK_PREFIXtest-lock'), null)
+
+    then:
+    notifier.waiters.isEmpty()
+  }
+
+  def "订阅不可用时不设置等待标记, 并在重试间隔后重新尝试订阅"() {
+    when:
+    notifier.register('LOCK_PREFIXtest-lock').close()
+    notifier.register('LOCK_PREFIXtest-lock').close()
+
+    then:
+    1 * redisOperator.getConnectionFactory() >> null
+    0 * redisOperator.set(*_)
+
+    when:
+    notifier.@nextSubscribeMillis = 0L
+    notifier.register('LOCK_PREFIXtest-lock').close()
+
+    then:
+    1 * redisOperator.getConnectionFactory() >> null
+  }
+
+  def "释放锁的脚本只在存在等待标记时发布消息"() {
+    expect:
+    LockReleaseNotifier.getReleaseKeys('LOCK_PREFIXtest-lock') == ['LOCK_PREFIXtest-lock', 'LOCK_WAITERS:{LOCK_PREFIXtest-lock}']
+    DistributedLockScripts.RELEASE.scriptAsString.contains("if redis.call('exists', KEYS[2]) == 1 then redis.call('publish'")
+    DistributedLockScripts.HASH_RELEASE.scriptAsString.contains("if redis.call('exists', KEYS[2]) == 1 then redis.call('publish'")
+  }
+
+  private Message releaseMessage(String lockKey) {
+    byte[] channel = LockReleaseNotifier.getChannel(lockKey).getBytes(StandardCharsets.UTF_8)
+    return Stub(Message) {
+      getChannel() >> channel
+    }
+  }
+}